@@ -0,0 +1,108 @@
+package com.shadowbring.aggregator.benchmark;
+
+import com.shadowbring.aggregator.StockAggregatorApplication;
+import com.shadowbring.aggregator.aggregation.PriceLevelsAggregator;
+import com.shadowbring.aggregator.domain.incoming.MessageSequence;
+import com.shadowbring.aggregator.domain.incoming.Order;
+import com.shadowbring.aggregator.domain.outgoing.ProductsBulk;
+import com.shadowbring.aggregator.udp.UdpCompliantMessageSequenceBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full snapshot emission by {@link PriceLevelsAggregator#aggregateByPriceLevels} at several book sizes: collection of
+ * the price levels on the shards' event loops, merge and split in bulks, sequential and in parallel. Encoding is
+ * measured separately by {@link ProductsBulkEncodeBenchmark}. Aggregator and its shards are built by the application
+ * context, configured by the parameters of the benchmark
+ *
+ * @author Dmytro Bezruk
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AggregationBenchmark {
+
+  @Param({"10", "100", "1000", "50000"})
+  private int products;
+
+  /**
+   * Number of the price levels on every side of every book
+   */
+  @Param({"5", "50"})
+  private int levels;
+
+  @Param({"1"})
+  private int ordersPerLevel;
+
+  @Param({"1", "4"})
+  private int shards;
+
+  /**
+   * Number of the emitted best price levels per side, all of them if 0
+   */
+  @Param({"0", "10"})
+  private int depth;
+
+  /**
+   * Minimal number of the products whose snapshot is built in parallel, never in parallel if 0
+   */
+  @Param({"0", "10000"})
+  private int parallelismThreshold;
+
+  private ConfigurableApplicationContext context;
+
+  private PriceLevelsAggregator aggregator;
+
+  @Setup
+  public void setUp() {
+    context = new SpringApplicationBuilder(StockAggregatorApplication.class).run(
+        "--emission.period=3600000",
+        "--metrics.port=0",
+        "--price-levels.bulk-size=5",
+        "--price-levels.depth=" + depth,
+        "--emission.mode=full",
+        "--aggregation.shards=" + shards,
+        "--aggregation.parallelism=0",
+        "--aggregation.parallelism-threshold=" + parallelismThreshold);
+    aggregator = context.getBean(PriceLevelsAggregator.class);
+
+    MessageSequence messageSequence = new MessageSequence();
+    messageSequence.setInSequenceNumber(1);
+    messageSequence.setMessages(new ArrayList<Order>(
+        BenchmarkData.generateAddOrders(products, levels, ordersPerLevel)));
+    context.getBean(UdpCompliantMessageSequenceBuffer.class).addMessageSequence(messageSequence);
+    aggregator.updateOrders();
+  }
+
+  @TearDown
+  public void tearDown() {
+    context.close();
+  }
+
+  @Benchmark
+  public List<ProductsBulk> aggregateByPriceLevels() throws Exception {
+    CompletableFuture<List<ProductsBulk>> bulks = new CompletableFuture<>();
+    aggregator.aggregateByPriceLevels((result, published) -> bulks.complete(result));
+    return bulks.get(5, TimeUnit.SECONDS);
+  }
+}
@@ -0,0 +1,141 @@
+package com.shadowbring.aggregator.benchmark;
+
+import com.shadowbring.aggregator.domain.incoming.AddOrder;
+import com.shadowbring.aggregator.domain.incoming.ChangeOrder;
+import com.shadowbring.aggregator.domain.incoming.DeleteOrder;
+import com.shadowbring.aggregator.domain.incoming.MessageSequence;
+import com.shadowbring.aggregator.domain.incoming.Order;
+import com.shadowbring.aggregator.domain.incoming.Side;
+import com.shadowbring.aggregator.domain.outgoing.BulkType;
+import com.shadowbring.aggregator.domain.outgoing.Level;
+import com.shadowbring.aggregator.domain.outgoing.Product;
+import com.shadowbring.aggregator.domain.outgoing.ProductsBulk;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generators of the deterministic data for the benchmarks. Books are shaped by the number of products, price levels
+ * per side and orders per price level, so the same parameters always produce the same load
+ *
+ * @author Dmytro Bezruk
+ */
+final class BenchmarkData {
+
+  private BenchmarkData() {
+  }
+
+  /**
+   * Generates {@link AddOrder}s that build books of the requested shape. Order IDs start from 1 and are contiguous
+   *
+   * @param products       - number of the products
+   * @param levels         - number of the price levels on every side of every book
+   * @param ordersPerLevel - number of the orders at every price level
+   * @return - orders in the order of their IDs
+   */
+  static List<AddOrder> generateAddOrders(int products, int levels, int ordersPerLevel) {
+    List<AddOrder> orders = new ArrayList<>(products * levels * ordersPerLevel * 2);
+    int orderId = 1;
+    for (int product = 0; product < products; product++) {
+      for (Side side : Side.values()) {
+        for (int level = 0; level < levels; level++) {
+          for (int i = 0; i < ordersPerLevel; i++) {
+            orders.add(generateAddOrder(orderId++, "Product" + product, side, 1000 + level, i + 1));
+          }
+        }
+      }
+    }
+    return orders;
+  }
+
+  static AddOrder generateAddOrder(int orderId, String productId, Side side, int price, int quantity) {
+    AddOrder addOrder = new AddOrder();
+    addOrder.setOrderId(orderId);
+    addOrder.setProductId(productId);
+    addOrder.setSide(side);
+    addOrder.setPrice(price);
+    addOrder.setQuantity(quantity);
+
+    return addOrder;
+  }
+
+  static ChangeOrder generateChangeOrder(int orderId, int price, int quantity) {
+    ChangeOrder changeOrder = new ChangeOrder();
+    changeOrder.setOrderId(orderId);
+    changeOrder.setPrice(price);
+    changeOrder.setQuantity(quantity);
+
+    return changeOrder;
+  }
+
+  static DeleteOrder generateDeleteOrder(int orderId) {
+    DeleteOrder deleteOrder = new DeleteOrder();
+    deleteOrder.setOrderId(orderId);
+
+    return deleteOrder;
+  }
+
+  /**
+   * Generates {@link MessageSequence} with the mix of all order types, roughly like the one of the real feed
+   *
+   * @param inSequenceNumber - sequence number of the message
+   * @param ordersCount      - number of the orders in the message
+   * @return - generated message
+   */
+  static MessageSequence generateSequence(int inSequenceNumber, int ordersCount) {
+    List<Order> orders = new ArrayList<>(ordersCount);
+    for (int i = 0; i < ordersCount; i++) {
+      int orderId = inSequenceNumber * ordersCount + i;
+      switch (i % 4) {
+        case 0:
+        case 1:
+          orders.add(generateAddOrder(orderId, "Product" + (i % 16), i % 2 == 0 ? Side.buy : Side.sell, 1000 + i,
+              10 + i));
+          break;
+        case 2:
+          orders.add(generateChangeOrder(orderId - 2, 1001 + i, 20 + i));
+          break;
+        default:
+          orders.add(generateDeleteOrder(orderId - 2));
+      }
+    }
+    MessageSequence messageSequence = new MessageSequence();
+    messageSequence.setInSequenceNumber(inSequenceNumber);
+    messageSequence.setMessages(orders);
+    return messageSequence;
+  }
+
+  /**
+   * Generates {@link ProductsBulk} with the products of the requested shape
+   *
+   * @param products - number of the products in the bulk
+   * @param levels   - number of the price levels on every side of every product
+   * @return - generated bulk
+   */
+  static ProductsBulk generateBulk(int products, int levels) {
+    List<Product> productList = new ArrayList<>(products);
+    for (int i = 0; i < products; i++) {
+      Product product = new Product();
+      product.setProductId("Product" + i);
+      product.setBuyLevels(generateLevels(levels, 2000, -1));
+      product.setSellLevels(generateLevels(levels, 2001, 1));
+      productList.add(product);
+    }
+    ProductsBulk bulk = new ProductsBulk();
+    bulk.setOutSequenceNumber(1);
+    bulk.setType(BulkType.snapshot);
+    bulk.setProducts(productList);
+    return bulk;
+  }
+
+  private static List<Level> generateLevels(int levels, int bestPrice, int step) {
+    List<Level> levelList = new ArrayList<>(levels);
+    for (int i = 0; i < levels; i++) {
+      Level level = new Level();
+      level.setPrice(bestPrice + i * step);
+      level.setQuantity(100 + i);
+      levelList.add(level);
+    }
+    return levelList;
+  }
+}
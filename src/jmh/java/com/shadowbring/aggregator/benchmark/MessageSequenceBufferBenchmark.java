@@ -0,0 +1,100 @@
+package com.shadowbring.aggregator.benchmark;
+
+import com.shadowbring.aggregator.domain.incoming.MessageSequence;
+import com.shadowbring.aggregator.metrics.PipelineMetrics;
+import com.shadowbring.aggregator.udp.UdpCompliantMessageSequenceBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ordering of the arriving {@link MessageSequence}s by {@link UdpCompliantMessageSequenceBuffer}. Every invocation
+ * delivers a batch of datagrams in the order given by the mix and flushes the buffer, as the listener does. Result is
+ * the average cost of a single delivery
+ *
+ * @author Dmytro Bezruk
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageSequenceBufferBenchmark {
+
+  private static final int BATCH_SIZE = 1024;
+
+  /**
+   * inOrder - every datagram arrives in order, reordered - every pair of the datagrams is swapped, duplicates - every
+   * datagram arrives twice
+   */
+  @Param({"inOrder", "reordered", "duplicates"})
+  private String mix;
+
+  @Param({"64"})
+  private int cacheCapacity;
+
+  private UdpCompliantMessageSequenceBuffer buffer;
+
+  /**
+   * Offset of the sequence number of every delivery in the batch from the first sequence number of the batch
+   */
+  private final int[] offsets = new int[BATCH_SIZE];
+
+  /**
+   * Datagrams by offset. Reused by every batch, only sequence numbers are updated
+   */
+  private final MessageSequence[] messageSequences = new MessageSequence[BATCH_SIZE];
+
+  /**
+   * First sequence number of the current batch
+   */
+  private int batchStart;
+
+  private int batchLength;
+
+  @Setup
+  public void setUp() {
+    buffer = new UdpCompliantMessageSequenceBuffer(cacheCapacity, 65536, 0, new PipelineMetrics());
+
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      switch (mix) {
+        case "reordered":
+          offsets[i] = i ^ 1;
+          break;
+        case "duplicates":
+          offsets[i] = i >> 1;
+          break;
+        default:
+          offsets[i] = i;
+      }
+      batchLength = Math.max(batchLength, offsets[i] + 1);
+      messageSequences[i] = BenchmarkData.generateSequence(i, 1);
+    }
+    batchStart = 1;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH_SIZE)
+  public List<MessageSequence> addMessageSequence() {
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      MessageSequence messageSequence = messageSequences[offsets[i]];
+      messageSequence.setInSequenceNumber(batchStart + offsets[i]);
+      buffer.addMessageSequence(messageSequence);
+    }
+    batchStart += batchLength;
+    return buffer.flush();
+  }
+}
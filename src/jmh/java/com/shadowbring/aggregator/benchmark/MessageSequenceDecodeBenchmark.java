@@ -0,0 +1,67 @@
+package com.shadowbring.aggregator.benchmark;
+
+import com.shadowbring.aggregator.book.ProductDictionary;
+import com.shadowbring.aggregator.codec.BinaryMessageSequenceDecoder;
+import com.shadowbring.aggregator.codec.BinaryMessageSequenceEncoder;
+import com.shadowbring.aggregator.codec.JsonMessageSequenceDecoder;
+import com.shadowbring.aggregator.codec.MessageSequenceDecoder;
+import com.shadowbring.aggregator.domain.incoming.MessageSequence;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.Json;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of the received datagram to {@link MessageSequence} by the configured inbound codec
+ *
+ * @author Dmytro Bezruk
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageSequenceDecodeBenchmark {
+
+  @Param({"json", "binary"})
+  private String codec;
+
+  /**
+   * Number of the orders in the datagram
+   */
+  @Param({"10", "100"})
+  private int orders;
+
+  private MessageSequenceDecoder decoder;
+
+  private Buffer datagram;
+
+  @Setup
+  public void setUp() {
+    MessageSequence messageSequence = BenchmarkData.generateSequence(1, orders);
+    if ("binary".equals(codec)) {
+      decoder = new BinaryMessageSequenceDecoder(new ProductDictionary());
+      datagram = new BinaryMessageSequenceEncoder().encode(messageSequence);
+    } else {
+      decoder = new JsonMessageSequenceDecoder(new ProductDictionary());
+      datagram = Buffer.buffer(Json.encode(messageSequence));
+    }
+  }
+
+  @Benchmark
+  public MessageSequence decode() {
+    return decoder.decode(datagram);
+  }
+}
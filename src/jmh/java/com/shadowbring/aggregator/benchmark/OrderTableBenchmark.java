@@ -0,0 +1,131 @@
+package com.shadowbring.aggregator.benchmark;
+
+import com.shadowbring.aggregator.book.OrderTable;
+import com.shadowbring.aggregator.domain.incoming.AddOrder;
+import com.shadowbring.aggregator.domain.incoming.ChangeOrder;
+import com.shadowbring.aggregator.domain.incoming.DeleteOrder;
+import com.shadowbring.aggregator.domain.incoming.Side;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applying of every order type to the {@link OrderTable} that already holds books of the given shape. The shape of the
+ * books stays the same during the measurement: added orders are deleted right away, changed orders move between two
+ * existing price levels
+ *
+ * @author Dmytro Bezruk
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OrderTableBenchmark {
+
+  private static final int EXTRA_ORDERS = 1024;
+
+  @Param({"10", "1000"})
+  private int products;
+
+  /**
+   * Number of the price levels on every side of every book
+   */
+  @Param({"5", "50"})
+  private int levels;
+
+  @Param({"1", "4"})
+  private int ordersPerLevel;
+
+  private OrderTable orderTable;
+
+  /**
+   * Resting orders that the table was filled with
+   */
+  private List<AddOrder> restingOrders;
+
+  private final AddOrder[] addOrders = new AddOrder[EXTRA_ORDERS];
+
+  private final DeleteOrder[] deleteOrders = new DeleteOrder[EXTRA_ORDERS];
+
+  /**
+   * Two changes per resting order: to the neighbour price level and back
+   */
+  private ChangeOrder[] changeOrders;
+
+  private int addIndex;
+
+  private int changeIndex;
+
+  @Setup
+  public void setUp() {
+    orderTable = new OrderTable();
+    restingOrders = BenchmarkData.generateAddOrders(products, levels, ordersPerLevel);
+    restingOrders.forEach(order -> order.applyToOrderTable(orderTable));
+
+    int firstExtraId = restingOrders.size() + 1;
+    for (int i = 0; i < EXTRA_ORDERS; i++) {
+      AddOrder restingOrder = restingOrders.get(i % restingOrders.size());
+      addOrders[i] = BenchmarkData.generateAddOrder(firstExtraId + i, restingOrder.getProductId(),
+          i % 2 == 0 ? Side.buy : Side.sell, restingOrder.getPrice(), 1);
+      deleteOrders[i] = BenchmarkData.generateDeleteOrder(firstExtraId + i);
+    }
+
+    changeOrders = new ChangeOrder[restingOrders.size() * 2];
+    for (int i = 0; i < restingOrders.size(); i++) {
+      AddOrder restingOrder = restingOrders.get(i);
+      int neighbourPrice = levels > 1 ? restingOrder.getPrice() ^ 1 : restingOrder.getPrice();
+      changeOrders[2 * i] = BenchmarkData.generateChangeOrder(restingOrder.getOrderId(), neighbourPrice,
+          restingOrder.getQuantity() + 1);
+      changeOrders[2 * i + 1] = BenchmarkData.generateChangeOrder(restingOrder.getOrderId(), restingOrder.getPrice(),
+          restingOrder.getQuantity());
+    }
+  }
+
+  /**
+   * Cost of the {@link AddOrder} and {@link DeleteOrder} pair, so reported time is the average of the two
+   */
+  @Benchmark
+  @OperationsPerInvocation(2)
+  public OrderTable addAndDeleteOrder() {
+    int i = addIndex++ & (EXTRA_ORDERS - 1);
+    addOrders[i].applyToOrderTable(orderTable);
+    deleteOrders[i].applyToOrderTable(orderTable);
+    return orderTable;
+  }
+
+  @Benchmark
+  public OrderTable changeOrder() {
+    changeOrders[changeIndex].applyToOrderTable(orderTable);
+    if (++changeIndex == changeOrders.length) {
+      changeIndex = 0;
+    }
+    return orderTable;
+  }
+
+  /**
+   * {@link AddOrder} with ID of the resting order replaces it
+   */
+  @Benchmark
+  public OrderTable replaceOrder() {
+    AddOrder addOrder = restingOrders.get(changeIndex);
+    addOrder.applyToOrderTable(orderTable);
+    if (++changeIndex == restingOrders.size()) {
+      changeIndex = 0;
+    }
+    return orderTable;
+  }
+}
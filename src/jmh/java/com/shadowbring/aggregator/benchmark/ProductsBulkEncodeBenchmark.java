@@ -0,0 +1,97 @@
+package com.shadowbring.aggregator.benchmark;
+
+import com.shadowbring.aggregator.codec.BinaryProductsBulkEncoder;
+import com.shadowbring.aggregator.codec.JsonProductsBulkEncoder;
+import com.shadowbring.aggregator.codec.ProductsBulkEncoder;
+import com.shadowbring.aggregator.domain.outgoing.ProductsBulk;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.Json;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding of the {@link ProductsBulk} before transmission: generic {@link Json#encode} as a baseline and both
+ * outbound codecs, to unpooled buffers and to the pooled ones the way the emitter does it. Run with -prof gc to compare
+ * allocation rates
+ *
+ * @author Dmytro Bezruk
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProductsBulkEncodeBenchmark {
+
+  /**
+   * Number of the products in the bulk
+   */
+  @Param({"5", "50"})
+  private int products;
+
+  /**
+   * Number of the price levels on every side of every product
+   */
+  @Param({"1", "10"})
+  private int levels;
+
+  private ProductsBulk bulk;
+
+  private final JsonProductsBulkEncoder jsonEncoder = new JsonProductsBulkEncoder();
+
+  private final BinaryProductsBulkEncoder binaryEncoder = new BinaryProductsBulkEncoder();
+
+  @Setup
+  public void setUp() {
+    bulk = BenchmarkData.generateBulk(products, levels);
+  }
+
+  @Benchmark
+  public String jsonEncode() {
+    return Json.encode(bulk);
+  }
+
+  @Benchmark
+  public Buffer jsonEncoder() {
+    return jsonEncoder.encode(bulk);
+  }
+
+  @Benchmark
+  public Buffer binaryEncoder() {
+    return binaryEncoder.encode(bulk);
+  }
+
+  @Benchmark
+  public int jsonEncoderPooled() {
+    return encodePooled(jsonEncoder);
+  }
+
+  @Benchmark
+  public int binaryEncoderPooled() {
+    return encodePooled(binaryEncoder);
+  }
+
+  private int encodePooled(ProductsBulkEncoder encoder) {
+    ByteBuf target = PooledByteBufAllocator.DEFAULT.directBuffer(2048);
+    try {
+      encoder.encode(bulk, target);
+      return target.readableBytes();
+    } finally {
+      target.release();
+    }
+  }
+}
@@ -0,0 +1,165 @@
+package com.shadowbring.aggregator.loadtest;
+
+import com.shadowbring.aggregator.codec.BinaryProductsBulkDecoder;
+import com.shadowbring.aggregator.domain.outgoing.Product;
+import com.shadowbring.aggregator.domain.outgoing.ProductsBulk;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.Json;
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Consumes the {@link ProductsBulk}s the aggregator emits to its multicast group, the way the downstream consumer does,
+ * and counts them along with their products and bytes. Unicast emission address is supported as well, for the hosts
+ * without multicast routing.
+ * <p>
+ * Bulks of every emission are numbered from 1, so a missing bulk shows up as a gap in the numbers of the same
+ * emission, and a number that doesn't follow the previous one starts the next emission. Bulks lost at the end of the
+ * emission can't be told from the end itself and are not counted. End-to-end latency is measured by the
+ * {@link LatencyProbes} seen in the bulks
+ *
+ * @author Dmytro Bezruk
+ */
+@Slf4j
+class BulkReceiver implements Runnable {
+
+  private static final int MAX_DATAGRAM_LENGTH = 65535;
+
+  private static final int RECEIVE_TIMEOUT = 100;
+
+  private static final int RECEIVE_BUFFER_SIZE = 4 * 1024 * 1024;
+
+  private final LoadSettings settings;
+
+  private final LatencyProbes probes;
+
+  private final BinaryProductsBulkDecoder binaryDecoder = new BinaryProductsBulkDecoder();
+
+  /**
+   * Latencies in microseconds, up to a minute with 3 significant digits
+   */
+  private final Recorder latencies = new Recorder(TimeUnit.MINUTES.toMicros(1), 3);
+
+  private final AtomicLong bulksReceived = new AtomicLong();
+
+  private final AtomicLong productsReceived = new AtomicLong();
+
+  private final AtomicLong bytesReceived = new AtomicLong();
+
+  private final AtomicLong bulksMissing = new AtomicLong();
+
+  private final AtomicLong emissions = new AtomicLong();
+
+  private final AtomicLong decodeFailures = new AtomicLong();
+
+  private volatile boolean running = true;
+
+  /**
+   * Number of the previous bulk of the current emission, zero before the first one
+   */
+  private int lastSequenceNumber;
+
+  BulkReceiver(LoadSettings settings, LatencyProbes probes) {
+    this.settings = settings;
+    this.probes = probes;
+  }
+
+  @Override
+  public void run() {
+    boolean binary = "binary".equals(settings.getString("codec-outbound"));
+    try (MulticastSocket socket = new MulticastSocket(settings.getInt("emission-port"))) {
+      InetAddress group = InetAddress.getByName(settings.getString("emission-address"));
+      socket.setReceiveBufferSize(RECEIVE_BUFFER_SIZE);
+      socket.setSoTimeout(RECEIVE_TIMEOUT);
+      if (group.isMulticastAddress()) {
+        socket.joinGroup(new InetSocketAddress(group, 0), settings.getNetworkInterface());
+      }
+      log.info("Bulks are received from [{}:{}]", group.getHostAddress(), settings.getInt("emission-port"));
+
+      DatagramPacket packet = new DatagramPacket(new byte[MAX_DATAGRAM_LENGTH], MAX_DATAGRAM_LENGTH);
+      while (running) {
+        try {
+          socket.receive(packet);
+        } catch (SocketTimeoutException e) {
+          continue;
+        }
+        long now = System.nanoTime();
+        bytesReceived.addAndGet(packet.getLength());
+        try {
+          onBulk(binary ? binaryDecoder.decode(Buffer.buffer(Arrays.copyOf(packet.getData(), packet.getLength()))) :
+                     Json.mapper.readValue(packet.getData(), 0, packet.getLength(), ProductsBulk.class), now);
+        } catch (DecodeException | IOException e) {
+          decodeFailures.incrementAndGet();
+        }
+      }
+    } catch (IOException e) {
+      log.error("Bulk receiver failed", e);
+    }
+  }
+
+  void stop() {
+    running = false;
+  }
+
+  /**
+   * @return - latencies in microseconds recorded since the previous call
+   */
+  Histogram takeLatencies() {
+    return latencies.getIntervalHistogram();
+  }
+
+  long getBulksReceived() {
+    return bulksReceived.get();
+  }
+
+  long getProductsReceived() {
+    return productsReceived.get();
+  }
+
+  long getBytesReceived() {
+    return bytesReceived.get();
+  }
+
+  long getBulksMissing() {
+    return bulksMissing.get();
+  }
+
+  long getEmissions() {
+    return emissions.get();
+  }
+
+  long getDecodeFailures() {
+    return decodeFailures.get();
+  }
+
+  private void onBulk(ProductsBulk bulk, long now) {
+    int sequenceNumber = bulk.getOutSequenceNumber();
+    if (sequenceNumber <= lastSequenceNumber || lastSequenceNumber == 0) {
+      emissions.incrementAndGet();
+      bulksMissing.addAndGet(sequenceNumber - 1);
+    } else {
+      bulksMissing.addAndGet(sequenceNumber - lastSequenceNumber - 1);
+    }
+    lastSequenceNumber = sequenceNumber;
+    bulksReceived.incrementAndGet();
+    productsReceived.addAndGet(bulk.getProducts().size());
+    for (Product product : bulk.getProducts()) {
+      if (LatencyProbes.PRODUCT_ID.equals(product.getProductId())) {
+        probes.observe(product, now, latency -> latencies.recordValue(
+            Math.min(TimeUnit.NANOSECONDS.toMicros(latency), TimeUnit.MINUTES.toMicros(1))));
+      }
+    }
+  }
+}
@@ -0,0 +1,196 @@
+package com.shadowbring.aggregator.loadtest;
+
+import com.shadowbring.aggregator.codec.BinaryMessageSequenceEncoder;
+import com.shadowbring.aggregator.domain.incoming.MessageSequence;
+import com.shadowbring.aggregator.domain.incoming.Order;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.Json;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Publishes {@link MessageSequence}s of the generated {@link OrderFlow} to the inbound multicast group of the
+ * aggregator at the configured rate, the way the exchange feed does. Datagrams are paced by the absolute schedule, so
+ * the rate doesn't drift with the time spent on the generation and sending.
+ * <p>
+ * The feed can be impaired the way UDP is: datagrams are lost, duplicated or swapped with the following one with the
+ * configured probabilities. Bursts multiply the rate for the configured part of every burst period. The probe order of
+ * the {@link LatencyProbes} is added to the message every probe interval
+ *
+ * @author Dmytro Bezruk
+ */
+@Slf4j
+class FeedSimulator implements Runnable {
+
+  /**
+   * Waits shorter than this are spun, longer ones are parked
+   */
+  private static final long SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+  private final LoadSettings settings;
+
+  private final LatencyProbes probes;
+
+  private final OrderFlow orderFlow;
+
+  private final Random random;
+
+  private final BinaryMessageSequenceEncoder binaryEncoder = new BinaryMessageSequenceEncoder();
+
+  private final AtomicLong messagesSent = new AtomicLong();
+
+  private final AtomicLong ordersSent = new AtomicLong();
+
+  private final AtomicLong bytesSent = new AtomicLong();
+
+  private final AtomicLong lost = new AtomicLong();
+
+  private final AtomicLong duplicated = new AtomicLong();
+
+  private final AtomicLong reordered = new AtomicLong();
+
+  private volatile boolean running = true;
+
+  FeedSimulator(LoadSettings settings, LatencyProbes probes) {
+    this.settings = settings;
+    this.probes = probes;
+    long seed = settings.getInt("seed");
+    orderFlow = new OrderFlow(settings.getInt("products"), settings.getInt("depth"), settings.getDouble("add"),
+        settings.getDouble("change"), settings.getDouble("delete"), seed);
+    random = new Random(seed + 1);
+  }
+
+  @Override
+  public void run() {
+    double rate = settings.getDouble("rate");
+    double burstFactor = settings.getDouble("burst-factor");
+    long burstPeriod = TimeUnit.MILLISECONDS.toNanos(settings.getInt("burst-period"));
+    long burstLength = TimeUnit.MILLISECONDS.toNanos(settings.getInt("burst-length"));
+    long probeInterval = TimeUnit.MILLISECONDS.toNanos(settings.getInt("probe-interval"));
+    int ordersPerMessage = settings.getInt("orders-per-message");
+    double loss = settings.getDouble("loss");
+    double duplicate = settings.getDouble("duplicate");
+    double reorder = settings.getDouble("reorder");
+    boolean binary = "binary".equals(settings.getString("codec-inbound"));
+
+    try (DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET)) {
+      channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, settings.getNetworkInterface());
+      channel.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true);
+      InetSocketAddress target = new InetSocketAddress(settings.getString("inbound-address"),
+          settings.getInt("inbound-port"));
+      log.info("Feed is published to [{}] at [{}] messages/s", target, rate);
+
+      long start = System.nanoTime();
+      long nextSend = start;
+      long nextProbe = start;
+      int sequenceNumber = 0;
+      ByteBuffer held = null;
+      while (running) {
+        long now = waitUntil(nextSend);
+        boolean burst = burstPeriod > 0 && (now - start) % burstPeriod < burstLength;
+        nextSend += (long) (TimeUnit.SECONDS.toNanos(1) / (burst ? rate * burstFactor : rate));
+
+        List<Order> orders = new ArrayList<>(ordersPerMessage + 1);
+        for (int i = 0; i < ordersPerMessage; i++) {
+          orders.add(orderFlow.next());
+        }
+        if (now >= nextProbe) {
+          orders.add(probes.publish(now));
+          nextProbe = now + probeInterval;
+        }
+        MessageSequence messageSequence = new MessageSequence();
+        messageSequence.setInSequenceNumber(++sequenceNumber);
+        messageSequence.setMessages(orders);
+        Buffer encoded = binary ? binaryEncoder.encode(messageSequence) : Buffer.buffer(Json.encode(messageSequence));
+        ByteBuffer datagram = ByteBuffer.wrap(encoded.getBytes());
+        ordersSent.addAndGet(orders.size());
+
+        if (random.nextDouble() < loss) {
+          lost.incrementAndGet();
+          continue;
+        }
+        if (held == null && random.nextDouble() < reorder) {
+          held = datagram;
+          continue;
+        }
+        send(channel, datagram, target);
+        if (random.nextDouble() < duplicate) {
+          datagram.rewind();
+          send(channel, datagram, target);
+          duplicated.incrementAndGet();
+        }
+        if (held != null) {
+          send(channel, held, target);
+          reordered.incrementAndGet();
+          held = null;
+        }
+      }
+    } catch (IOException e) {
+      log.error("Feed simulator failed", e);
+    }
+  }
+
+  void stop() {
+    running = false;
+  }
+
+  long getMessagesSent() {
+    return messagesSent.get();
+  }
+
+  long getOrdersSent() {
+    return ordersSent.get();
+  }
+
+  long getBytesSent() {
+    return bytesSent.get();
+  }
+
+  long getLost() {
+    return lost.get();
+  }
+
+  long getDuplicated() {
+    return duplicated.get();
+  }
+
+  long getReordered() {
+    return reordered.get();
+  }
+
+  int getRestingOrders() {
+    return orderFlow.getRestingCount();
+  }
+
+  private void send(DatagramChannel channel, ByteBuffer datagram, InetSocketAddress target) throws IOException {
+    bytesSent.addAndGet(channel.send(datagram, target));
+    messagesSent.incrementAndGet();
+  }
+
+  /**
+   * @param deadline - time in nanoseconds to wait until
+   * @return - current time in nanoseconds
+   */
+  private static long waitUntil(long deadline) {
+    long now = System.nanoTime();
+    while (now < deadline) {
+      if (deadline - now > SPIN_NANOS) {
+        LockSupport.parkNanos(deadline - now - SPIN_NANOS);
+      }
+      now = System.nanoTime();
+    }
+    return now;
+  }
+}
@@ -0,0 +1,98 @@
+package com.shadowbring.aggregator.loadtest;
+
+import com.shadowbring.aggregator.domain.incoming.AddOrder;
+import com.shadowbring.aggregator.domain.incoming.Side;
+import com.shadowbring.aggregator.domain.outgoing.Level;
+import com.shadowbring.aggregator.domain.outgoing.Product;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
+
+/**
+ * Measures the end-to-end latency with the probe orders. Every probe replaces the single resting order of the dedicated
+ * product, and its price carries the number of the probe. Once the receiver sees the price level of the probe in the
+ * emitted book, the time since the probe was published is the latency of the whole pipeline: decoding, ordering,
+ * aggregation, the wait for the emission and sending.
+ * <p>
+ * The book reflects the probes published before the seen one too, even if they were replaced before any emission, so
+ * every probe up to the seen one is measured at that moment. Otherwise, only the last probe before every emission would
+ * be measured, hiding the wait for the emission. Probes are published by the simulator and observed by the receiver, so
+ * they are tracked in a concurrent map
+ *
+ * @author Dmytro Bezruk
+ */
+class LatencyProbes {
+
+  static final String PRODUCT_ID = "~probe";
+
+  /**
+   * Order ID of the probe, out of the range the {@link OrderFlow} reaches
+   */
+  private static final int ORDER_ID = Integer.MAX_VALUE;
+
+  /**
+   * Number of the probe -> time in nanoseconds it was published at
+   */
+  private final Map<Integer, Long> publishedAt = new ConcurrentHashMap<>();
+
+  private final AtomicInteger published = new AtomicInteger();
+
+  /**
+   * Number of the last measured probe, accessed by the receiver only
+   */
+  private int lastObserved;
+
+  /**
+   * @param now - time in nanoseconds the probe is published at
+   * @return - probe order to be published
+   */
+  AddOrder publish(long now) {
+    int probe = published.incrementAndGet();
+    publishedAt.put(probe, now);
+    AddOrder addOrder = new AddOrder();
+    addOrder.setOrderId(ORDER_ID);
+    addOrder.setProductId(PRODUCT_ID);
+    addOrder.setSide(Side.buy);
+    addOrder.setPrice(probe);
+    addOrder.setQuantity(1);
+    return addOrder;
+  }
+
+  /**
+   * Measures all probes up to the one seen in the emitted product that were not measured yet
+   *
+   * @param product  - emitted product of the probes
+   * @param now      - time in nanoseconds the product is received at
+   * @param recorder - receiver of the latencies in nanoseconds
+   */
+  void observe(Product product, long now, LongConsumer recorder) {
+    for (Level level : product.getBuyLevels()) {
+      int probe = level.getPrice();
+      if (level.getQuantity() > 0 && probe > lastObserved) {
+        for (int i = lastObserved + 1; i <= probe; i++) {
+          Long sentAt = publishedAt.remove(i);
+          if (sentAt != null) {
+            recorder.accept(now - sentAt);
+          }
+        }
+        lastObserved = probe;
+      }
+    }
+  }
+
+  /**
+   * @return - number of the published probes
+   */
+  int getPublished() {
+    return published.get();
+  }
+
+  /**
+   * @return - number of the published probes that are not reflected by any emitted book yet
+   */
+  int getPending() {
+    return publishedAt.size();
+  }
+}
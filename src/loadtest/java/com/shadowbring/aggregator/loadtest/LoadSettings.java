@@ -0,0 +1,100 @@
+package com.shadowbring.aggregator.loadtest;
+
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Settings of the load test, passed as "key=value" arguments. Every setting has a default that matches the default
+ * application.properties of the aggregator, so the load test runs against the aggregator started as is
+ *
+ * @author Dmytro Bezruk
+ */
+final class LoadSettings {
+
+  private final Map<String, String> values = new LinkedHashMap<>();
+
+  private LoadSettings() {
+    // Groups and codecs of the aggregator
+    values.put("inbound-address", "230.0.0.1");
+    values.put("inbound-port", "1234");
+    values.put("emission-address", "224.0.0.1");
+    values.put("emission-port", "1235");
+    values.put("interface", "");
+    values.put("codec-inbound", "json");
+    values.put("codec-outbound", "json");
+    // Shape of the order flow
+    values.put("rate", "10000");
+    values.put("orders-per-message", "10");
+    values.put("products", "1000");
+    values.put("depth", "10");
+    values.put("add", "0.5");
+    values.put("change", "0.3");
+    values.put("delete", "0.2");
+    values.put("seed", "42");
+    // Impairments of the feed
+    values.put("reorder", "0");
+    values.put("duplicate", "0");
+    values.put("loss", "0");
+    values.put("burst-factor", "1");
+    values.put("burst-period", "0");
+    values.put("burst-length", "0");
+    // Run
+    values.put("duration", "30");
+    values.put("report-interval", "1");
+    values.put("probe-interval", "10");
+  }
+
+  /**
+   * @param args - "key=value" pairs that override the defaults
+   * @return - settings of the load test
+   * @throws IllegalArgumentException if the argument is not a pair or the key is unknown
+   */
+  static LoadSettings parse(String... args) {
+    LoadSettings settings = new LoadSettings();
+    for (String arg : args) {
+      int separator = arg.indexOf('=');
+      if (separator < 0 || !settings.values.containsKey(arg.substring(0, separator))) {
+        throw new IllegalArgumentException("Unknown setting '" + arg + "', known ones are " + settings.values.keySet());
+      }
+      settings.values.put(arg.substring(0, separator), arg.substring(separator + 1));
+    }
+    return settings;
+  }
+
+  String getString(String key) {
+    return values.get(key);
+  }
+
+  int getInt(String key) {
+    return Integer.parseInt(values.get(key));
+  }
+
+  double getDouble(String key) {
+    return Double.parseDouble(values.get(key));
+  }
+
+  /**
+   * @return - interface the groups are joined and published through. The interface of the local host is used if none
+   * is configured, the same way the aggregator does
+   * @throws SocketException      if the interface can't be found
+   * @throws UnknownHostException if the local host can't be resolved
+   */
+  NetworkInterface getNetworkInterface() throws SocketException, UnknownHostException {
+    String name = values.get("interface");
+    NetworkInterface networkInterface = name.isEmpty() ? NetworkInterface.getByInetAddress(InetAddress.getLocalHost())
+                                                       : NetworkInterface.getByName(name);
+    if (networkInterface == null) {
+      throw new SocketException("There is no interface '" + name + "'");
+    }
+    return networkInterface;
+  }
+
+  @Override
+  public String toString() {
+    return values.toString();
+  }
+}
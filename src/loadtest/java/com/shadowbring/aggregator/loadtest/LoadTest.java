@@ -0,0 +1,135 @@
+package com.shadowbring.aggregator.loadtest;
+
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.Histogram;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end load test of the running aggregator. {@link FeedSimulator} publishes the order flow to the inbound group
+ * and {@link BulkReceiver} consumes the emitted bulks on the same host. Every report interval the rates of both sides
+ * and the latencies of the interval are logged. When the duration is over, the feed stops, the receiver waits for the
+ * drain of the last emissions and the summary of the whole run is logged.
+ * <p>
+ * Settings are passed as "key=value" arguments, see {@link LoadSettings} for the keys and their defaults
+ *
+ * @author Dmytro Bezruk
+ */
+@Slf4j
+public final class LoadTest {
+
+  /**
+   * Time the receiver keeps receiving after the feed stops, longer than the default emission period
+   */
+  private static final long DRAIN_MILLIS = 3000;
+
+  private static final double[] PERCENTILES = {50, 99, 99.9};
+
+  private static final String[] PERCENTILE_NAMES = {"p50", "p99", "p99.9"};
+
+  private LoadTest() {
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    LoadSettings settings = LoadSettings.parse(args);
+    log.info("Load test settings: {}", settings);
+    LatencyProbes probes = new LatencyProbes();
+    FeedSimulator simulator = new FeedSimulator(settings, probes);
+    BulkReceiver receiver = new BulkReceiver(settings, probes);
+    Thread receiverThread = new Thread(receiver, "bulk-receiver");
+    Thread simulatorThread = new Thread(simulator, "feed-simulator");
+    receiverThread.start();
+    simulatorThread.start();
+
+    long reportInterval = TimeUnit.SECONDS.toMillis(settings.getInt("report-interval"));
+    long duration = TimeUnit.SECONDS.toMillis(settings.getInt("duration"));
+    Histogram total = new Histogram(TimeUnit.MINUTES.toMicros(1), 3);
+    Snapshot previous = new Snapshot(simulator, receiver);
+    long start = System.currentTimeMillis();
+    for (long elapsed = reportInterval; elapsed <= duration; elapsed += reportInterval) {
+      Thread.sleep(Math.max(start + elapsed - System.currentTimeMillis(), 0));
+      Snapshot current = new Snapshot(simulator, receiver);
+      Histogram latencies = receiver.takeLatencies();
+      total.add(latencies);
+      double seconds = reportInterval / 1000.0;
+      log.info("{}s: in {} msg/s {} orders/s, out {} bulks/s {} products/s {} KB/s, missing bulks {}, " +
+                   "resting orders {}, latency {}", elapsed / 1000, rate(current.messages - previous.messages, seconds),
+          rate(current.orders - previous.orders, seconds), rate(current.bulks - previous.bulks, seconds),
+          rate(current.products - previous.products, seconds), rate((current.bytes - previous.bytes) / 1024, seconds),
+          current.missing - previous.missing, simulator.getRestingOrders(), describe(latencies));
+      previous = current;
+    }
+
+    simulator.stop();
+    simulatorThread.join();
+    Thread.sleep(DRAIN_MILLIS);
+    receiver.stop();
+    receiverThread.join();
+    total.add(receiver.takeLatencies());
+    logSummary(simulator, receiver, probes, total, duration / 1000.0);
+  }
+
+  private static void logSummary(FeedSimulator simulator, BulkReceiver receiver, LatencyProbes probes,
+                                 Histogram latencies, double seconds) {
+    long expectedBulks = receiver.getBulksReceived() + receiver.getBulksMissing();
+    log.info("Sustained inbound rate: {} msg/s, {} orders/s, {} KB/s", rate(simulator.getMessagesSent(), seconds),
+        rate(simulator.getOrdersSent(), seconds), rate(simulator.getBytesSent() / 1024, seconds));
+    log.info("Injected impairments: lost {}, duplicated {}, reordered {}", simulator.getLost(),
+        simulator.getDuplicated(), simulator.getReordered());
+    log.info("Sustained outbound rate: {} bulks/s, {} products/s, {} KB/s over {} emissions",
+        rate(receiver.getBulksReceived(), seconds), rate(receiver.getProductsReceived(), seconds),
+        rate(receiver.getBytesReceived() / 1024, seconds), receiver.getEmissions());
+    log.info("Bulk drop rate: {}% ({} of {}), undecodable bulks {}",
+        String.format("%.3f", expectedBulks == 0 ? 0.0 : 100.0 * receiver.getBulksMissing() / expectedBulks),
+        receiver.getBulksMissing(), expectedBulks, receiver.getDecodeFailures());
+    log.info("End-to-end latency of {} of {} probes: {}", latencies.getTotalCount(), probes.getPublished(),
+        describe(latencies));
+  }
+
+  private static long rate(long count, double seconds) {
+    return Math.round(count / seconds);
+  }
+
+  /**
+   * @param latencies - latencies in microseconds
+   * @return - percentiles and maximum of the latencies in milliseconds
+   */
+  private static String describe(Histogram latencies) {
+    if (latencies.getTotalCount() == 0) {
+      return "n/a";
+    }
+    StringBuilder description = new StringBuilder();
+    for (int i = 0; i < PERCENTILES.length; i++) {
+      description.append(String.format("%s=%.2fms ", PERCENTILE_NAMES[i],
+          latencies.getValueAtPercentile(PERCENTILES[i]) / 1000.0));
+    }
+    return description.append(String.format("max=%.2fms", latencies.getMaxValue() / 1000.0)).toString();
+  }
+
+  /**
+   * Counters of both sides at the moment
+   */
+  private static class Snapshot {
+
+    private final long messages;
+
+    private final long orders;
+
+    private final long bulks;
+
+    private final long products;
+
+    private final long bytes;
+
+    private final long missing;
+
+    private Snapshot(FeedSimulator simulator, BulkReceiver receiver) {
+      messages = simulator.getMessagesSent();
+      orders = simulator.getOrdersSent();
+      bulks = receiver.getBulksReceived();
+      products = receiver.getProductsReceived();
+      bytes = receiver.getBytesReceived();
+      missing = receiver.getBulksMissing();
+    }
+  }
+}
@@ -0,0 +1,134 @@
+package com.shadowbring.aggregator.loadtest;
+
+import com.shadowbring.aggregator.domain.incoming.AddOrder;
+import com.shadowbring.aggregator.domain.incoming.ChangeOrder;
+import com.shadowbring.aggregator.domain.incoming.DeleteOrder;
+import com.shadowbring.aggregator.domain.incoming.Order;
+import com.shadowbring.aggregator.domain.incoming.Side;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generator of the random order flow that keeps track of the resting orders, so changes and deletions always refer to
+ * the existing orders. Prices of every side stay within the configured number of the price levels around the fixed mid
+ * price, so the books are as deep as configured, while the number of the resting orders follows the mix of the order
+ * types.
+ * <p>
+ * Order types are drawn by their weights. Deletions and changes turn into additions while there are no resting
+ * orders, so the books are built up from scratch first
+ *
+ * @author Dmytro Bezruk
+ */
+class OrderFlow {
+
+  private static final int MID_PRICE = 10000;
+
+  private static final int MAX_QUANTITY = 100;
+
+  private final Random random;
+
+  private final String[] productIds;
+
+  private final int depth;
+
+  private final double addShare;
+
+  private final double changeShare;
+
+  /**
+   * Order IDs of the resting orders, unordered
+   */
+  private int[] restingOrderIds = new int[1024];
+
+  /**
+   * Sides of the resting orders, so the changed prices stay on the side of the order
+   */
+  private Side[] restingSides = new Side[1024];
+
+  private int restingCount;
+
+  private int nextOrderId = 1;
+
+  /**
+   * @param products - number of the products the orders are spread evenly between
+   * @param depth    - number of the price levels per side
+   * @param add      - weight of the additions
+   * @param change   - weight of the changes
+   * @param delete   - weight of the deletions
+   * @param seed     - seed of the random numbers, so the same settings produce the same flow
+   */
+  OrderFlow(int products, int depth, double add, double change, double delete, long seed) {
+    random = new Random(seed);
+    productIds = new String[products];
+    for (int i = 0; i < products; i++) {
+      productIds[i] = "Product" + i;
+    }
+    this.depth = Math.max(depth, 1);
+    double total = add + change + delete;
+    addShare = add / total;
+    changeShare = change / total;
+  }
+
+  /**
+   * @return - next order of the flow
+   */
+  Order next() {
+    double draw = random.nextDouble();
+    if (restingCount == 0 || draw < addShare) {
+      return add();
+    }
+    int index = random.nextInt(restingCount);
+    int orderId = restingOrderIds[index];
+    if (draw < addShare + changeShare) {
+      ChangeOrder changeOrder = new ChangeOrder();
+      changeOrder.setOrderId(orderId);
+      changeOrder.setPrice(randomPrice(restingSides[index]));
+      changeOrder.setQuantity(randomQuantity());
+      return changeOrder;
+    }
+    restingCount--;
+    restingOrderIds[index] = restingOrderIds[restingCount];
+    restingSides[index] = restingSides[restingCount];
+    DeleteOrder deleteOrder = new DeleteOrder();
+    deleteOrder.setOrderId(orderId);
+    return deleteOrder;
+  }
+
+  /**
+   * @return - number of the orders that rest in the books
+   */
+  int getRestingCount() {
+    return restingCount;
+  }
+
+  private AddOrder add() {
+    if (restingCount == restingOrderIds.length) {
+      restingOrderIds = Arrays.copyOf(restingOrderIds, restingCount << 1);
+      restingSides = Arrays.copyOf(restingSides, restingCount << 1);
+    }
+    int orderId = nextOrderId++;
+    Side side = random.nextBoolean() ? Side.buy : Side.sell;
+    restingOrderIds[restingCount] = orderId;
+    restingSides[restingCount++] = side;
+    AddOrder addOrder = new AddOrder();
+    addOrder.setOrderId(orderId);
+    addOrder.setProductId(productIds[random.nextInt(productIds.length)]);
+    addOrder.setSide(side);
+    addOrder.setPrice(randomPrice(side));
+    addOrder.setQuantity(randomQuantity());
+    return addOrder;
+  }
+
+  /**
+   * Buy prices are below the mid price and sell prices are above it, so the books never cross
+   */
+  private int randomPrice(Side side) {
+    int level = random.nextInt(depth) + 1;
+    return side == Side.buy ? MID_PRICE - level : MID_PRICE + level;
+  }
+
+  private int randomQuantity() {
+    return random.nextInt(MAX_QUANTITY) + 1;
+  }
+}
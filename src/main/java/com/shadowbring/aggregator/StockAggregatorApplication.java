@@ -1,12 +1,19 @@
 package com.shadowbring.aggregator;
 
+import com.shadowbring.aggregator.aggregation.AggregationShard;
+import com.shadowbring.aggregator.aggregation.PriceLevelsAggregator;
 import com.shadowbring.aggregator.listener.StockListener;
+import com.shadowbring.aggregator.metrics.MetricsEndpoint;
 import io.vertx.core.Vertx;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 
 import javax.annotation.PostConstruct;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Standard entry point for any Spring Boot Application
@@ -16,6 +23,11 @@ import javax.annotation.PostConstruct;
 @SpringBootApplication
 public class StockAggregatorApplication {
 
+  /**
+   * Maximum time to wait for the deployment of the shards, in seconds
+   */
+  private static final long SHARDS_DEPLOYMENT_TIMEOUT = 30;
+
   /**
    * {@link Vertx} instance to run the verticle
    */
@@ -28,6 +40,18 @@ public class StockAggregatorApplication {
   @Autowired
   private StockListener stockListener;
 
+  /**
+   * Service that owns the {@link AggregationShard}s to be deployed
+   */
+  @Autowired
+  private PriceLevelsAggregator aggregator;
+
+  /**
+   * Verticle that serves the metrics
+   */
+  @Autowired
+  private MetricsEndpoint metricsEndpoint;
+
   /**
    * Application start
    *
@@ -38,10 +62,32 @@ public class StockAggregatorApplication {
   }
 
   /**
-   * Deployment of the verticle
+   * Deployment of the verticles. {@link AggregationShard}s are deployed first, each to its own event loop, and the
+   * listener that feeds them is deployed only when all of them are ready
+   *
+   * @throws InterruptedException if interrupted while waiting for the shards
+   * @throws IllegalStateException if any of the shards was not deployed, or not in time
    */
   @PostConstruct
-  public void deployVerticles() {
+  public void deployVerticles() throws InterruptedException {
+    CountDownLatch shardsDeployment = new CountDownLatch(aggregator.getShards().size());
+    Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+    aggregator.getShards().forEach(shard -> vertx.deployVerticle(shard, asyncResult -> {
+      if (asyncResult.failed()) {
+        failures.add(asyncResult.cause());
+      }
+      shardsDeployment.countDown();
+    }));
+    if (!shardsDeployment.await(SHARDS_DEPLOYMENT_TIMEOUT, TimeUnit.SECONDS)) {
+      throw new IllegalStateException("Aggregation shards were not deployed in time");
+    }
+    if (!failures.isEmpty()) {
+      IllegalStateException exception = new IllegalStateException(
+          failures.size() + " aggregation shard(s) failed to deploy", failures.peek());
+      failures.stream().skip(1).forEach(exception::addSuppressed);
+      throw exception;
+    }
+    vertx.deployVerticle(metricsEndpoint);
     vertx.deployVerticle(stockListener);
   }
 }
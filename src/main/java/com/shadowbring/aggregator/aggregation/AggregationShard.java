@@ -0,0 +1,307 @@
+package com.shadowbring.aggregator.aggregation;
+
+import com.shadowbring.aggregator.book.DepthLimits;
+import com.shadowbring.aggregator.book.OrderTable;
+import com.shadowbring.aggregator.book.OrderTableSnapshot;
+import com.shadowbring.aggregator.book.ProductBook;
+import com.shadowbring.aggregator.book.ProductDictionary;
+import com.shadowbring.aggregator.collection.SpscRing;
+import com.shadowbring.aggregator.domain.incoming.Order;
+import com.shadowbring.aggregator.domain.outgoing.BulkType;
+import com.shadowbring.aggregator.domain.outgoing.Product;
+import com.shadowbring.aggregator.metrics.PipelineMetrics;
+import com.shadowbring.aggregator.metrics.Stage;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A verticle that owns the subset of the {@link Order}s (all orders of the products that are routed to it) and their
+ * price levels books. All its state is confined to its own event loop, so shards apply orders and build price levels
+ * in parallel without any locking. Orders are routed to the shards by the {@link PriceLevelsAggregator}.
+ * <p>
+ * Tasks are handed over to the shard's event loop through the bounded {@link SpscRing}: the listener's event loop is
+ * the only producer, and the shard's event loop drains the ring in batches. Orders are routed only if the ring has
+ * room for them, while a few slots are always kept for the snapshots and the collections of the price levels. Every
+ * task carries the orders of a single flush of the buffer, whose ready messages are bounded, so neither the number
+ * of the tasks nor their size grows unbounded. While the shard falls behind, the orders are held back in the buffer
+ * until its capacity is reached, then the following messages are dropped and recovered as a gap.
+ * <p>
+ * While a snapshot of the books is built by the {@link ParallelSnapshots}, the event loop is free, but the tasks of the
+ * shard that would change or read the books are not drained and run in order once the snapshot is built, or once it
+ * failed to be built
+ *
+ * @author Dmytro Bezruk
+ */
+@Slf4j
+public class AggregationShard extends AbstractVerticle {
+
+  /**
+   * Number of the slots of the ring that are kept for the tasks other than routed orders. There is at most one
+   * collection of the price levels, one snapshot and one restore at a time
+   */
+  static final int RESERVED_TASKS = 4;
+
+  /**
+   * Maximal number of the tasks that are run by a single task of the event loop, so other tasks of the event loop are
+   * not delayed for too long
+   */
+  private static final int DRAIN_BATCH_SIZE = 256;
+
+  /**
+   * Index of the shard
+   */
+  private final int index;
+
+  /**
+   * Storage of the orders that belong to this shard
+   */
+  private final OrderTable orderTable;
+
+  /**
+   * Number of the best price levels that are emitted for every product
+   */
+  private final DepthLimits depthLimits;
+
+  /**
+   * Metrics the shard reports the wait and the duration of applying the orders to
+   */
+  private final PipelineMetrics metrics;
+
+  /**
+   * Builder of the snapshots of many products
+   */
+  private final ParallelSnapshots parallelSnapshots;
+
+  /**
+   * Tasks that wait for the shard's event loop
+   */
+  private final SpscRing<Handler<Void>> tasks;
+
+  /**
+   * Handler that is invoked on the shard's event loop every time some tasks were drained, so the routing of the orders
+   * held back for the lack of room may be resumed
+   */
+  private final Handler<Void> drainedHandler;
+
+  /**
+   * Whether the event loop is already asked to drain the {@link #tasks}, so it is not woken up for every task
+   */
+  private final AtomicBoolean drainScheduled = new AtomicBoolean();
+
+  /**
+   * Whether a snapshot of the books is being built on the {@link ParallelSnapshots}' pool
+   */
+  private boolean building;
+
+  /**
+   * @param index             - index of the shard
+   * @param depthLimits       - number of the best price levels that are emitted for every product
+   * @param metrics           - metrics the shard reports to
+   * @param dictionary        - dictionary that assigned int IDs to the products of the routed orders
+   * @param parallelSnapshots - builder of the snapshots of many products
+   * @param trackLevelChanges - whether the books must remember the changed price levels, i.e. whether the deltas are
+   *                          emitted
+   * @param queueCapacity     - maximal number of the tasks that wait for the shard's event loop, rounded up to the
+   *                          power of two
+   * @param drainedHandler    - handler that is invoked on the shard's event loop every time some tasks were drained
+   */
+  AggregationShard(int index, DepthLimits depthLimits, PipelineMetrics metrics, ProductDictionary dictionary,
+                   ParallelSnapshots parallelSnapshots, boolean trackLevelChanges, int queueCapacity,
+                   Handler<Void> drainedHandler) {
+    this.index = index;
+    this.orderTable = new OrderTable(dictionary, trackLevelChanges);
+    this.depthLimits = depthLimits;
+    this.metrics = metrics;
+    this.parallelSnapshots = parallelSnapshots;
+    this.tasks = new SpscRing<>(Math.max(queueCapacity, 2 * RESERVED_TASKS));
+    this.drainedHandler = drainedHandler;
+  }
+
+  /**
+   * Tells whether the orders may be routed to the shard, i.e. whether there is room for them beside the reserved
+   * slots. Must be invoked by the producer
+   *
+   * @return - false if the shard falls behind and its ring is full
+   */
+  boolean hasCapacity() {
+    return tasks.size() < tasks.capacity() - RESERVED_TASKS;
+  }
+
+  /**
+   * Applies orders to the shard's {@link OrderTable} on the shard's event loop. Orders are applied in the same order
+   * they are submitted. Must be invoked by the producer, and only if the shard {@link #hasCapacity()}
+   *
+   * @param orders - orders that belong to this shard
+   * @throws IllegalStateException if the ring is full
+   */
+  void apply(List<Order> orders) {
+    long routedAt = System.nanoTime();
+    runOnShard(v -> {
+      long start = System.nanoTime();
+      metrics.record(Stage.applyQueue, start - routedAt);
+      orders.forEach(order -> order.applyToOrderTable(orderTable));
+      metrics.record(Stage.orderApply, System.nanoTime() - start);
+    });
+  }
+
+  /**
+   * Takes a point-in-time snapshot of the shard's {@link OrderTable} on the shard's event loop and hands it over to the
+   * handler on the caller's context. Every order submitted before this call is reflected in the snapshot. Must be
+   * invoked by the producer
+   *
+   * @param handler - handler of the snapshot
+   */
+  void snapshot(Handler<OrderTableSnapshot> handler) {
+    Context caller = vertx.getOrCreateContext();
+    runOnShard(v -> {
+      OrderTableSnapshot snapshot = orderTable.snapshot();
+      caller.runOnContext(done -> handler.handle(snapshot));
+    });
+  }
+
+  /**
+   * Adds all orders of the snapshots to the shard's {@link OrderTable} on the shard's event loop. All the snapshots are
+   * restored by a single task, so the restore takes a single reserved slot of the ring however many tables it carries.
+   * Must be invoked by the producer
+   *
+   * @param snapshots - snapshots of the orders that belong to this shard
+   * @throws IllegalStateException if the ring is full
+   */
+  void restore(List<OrderTableSnapshot> snapshots) {
+    runOnShard(v -> snapshots.forEach(snapshot -> snapshot.applyTo(orderTable)));
+  }
+
+  /**
+   * Builds aggregated price levels of the shard's products on the shard's event loop and hands them over to the
+   * handler on the caller's context. Every order submitted before this call is reflected in the result. Snapshot of
+   * many products is built in parallel, while the following tasks of the shard are held back, so the books don't
+   * change meanwhile. If the price levels fail to be built, the changes are kept and the failure is handed over. Must
+   * be invoked by the producer
+   *
+   * @param type    - whether the whole books or only the changes since the previous collection must be taken
+   * @param handler - handler of the aggregated price levels
+   */
+  void collectProducts(BulkType type, Handler<AsyncResult<List<Product>>> handler) {
+    Context caller = vertx.getOrCreateContext();
+    runOnShard(v -> {
+      if (type == BulkType.snapshot) {
+        building = true;
+        parallelSnapshots.toProducts(orderTable.getProductBooks(), depthLimits, built -> {
+          try {
+            if (built.succeeded()) {
+              orderTable.getChangedProductBooks().stream().filter(ProductBook::isEmpty)
+                        .forEach(ProductBook::forgetEmitted);
+              completeCollection(built.result(), caller, handler);
+            } else {
+              failCollection(built.cause(), caller, handler);
+            }
+          } finally {
+            building = false;
+            scheduleDrain();
+          }
+        });
+      } else {
+        List<Product> products = new ArrayList<>();
+        try {
+          orderTable.getChangedProductBooks().forEach(book -> {
+            Product product = book.toChangedProduct(depthLimits.of(book.getProduct()));
+            if (!product.getBuyLevels().isEmpty() || !product.getSellLevels().isEmpty()) {
+              products.add(product);
+            }
+          });
+        } catch (RuntimeException e) {
+          failCollection(e, caller, handler);
+          return;
+        }
+        completeCollection(products, caller, handler);
+      }
+    });
+  }
+
+  /**
+   * Forgets the collected changes of the books and hands the price levels over to the handler on the caller's context
+   *
+   * @param products - aggregated price levels of the shard's products
+   * @param caller   - context the collection was requested on
+   * @param handler  - handler of the aggregated price levels
+   */
+  private void completeCollection(List<Product> products, Context caller,
+                                  Handler<AsyncResult<List<Product>>> handler) {
+    orderTable.clearChanges();
+    log.debug("Actual size of the orders table of the shard [{}] is [{}] items", index, orderTable.size());
+    caller.runOnContext(done -> handler.handle(Future.succeededFuture(products)));
+  }
+
+  /**
+   * Hands the failure over to the handler on the caller's context. Changes of the books are kept, so they are carried
+   * by the next collection
+   *
+   * @param cause   - failure to build the price levels
+   * @param caller  - context the collection was requested on
+   * @param handler - handler of the aggregated price levels
+   */
+  private void failCollection(Throwable cause, Context caller, Handler<AsyncResult<List<Product>>> handler) {
+    log.error("Failed to build price levels of the shard [{}]", index, cause);
+    caller.runOnContext(done -> handler.handle(Future.failedFuture(cause)));
+  }
+
+  /**
+   * Hands the task over to the shard's event loop
+   *
+   * @param task - task that changes or reads the books
+   * @throws IllegalStateException if the ring is full
+   */
+  private void runOnShard(Handler<Void> task) {
+    if (!tasks.offer(task)) {
+      throw new IllegalStateException("Tasks of the shard [" + index + "] exceed the capacity " + tasks.capacity());
+    }
+    scheduleDrain();
+  }
+
+  /**
+   * Asks the shard's event loop to drain the {@link #tasks}, unless it is already asked to. May be invoked by any
+   * thread
+   */
+  private void scheduleDrain() {
+    if (drainScheduled.compareAndSet(false, true)) {
+      context.runOnContext(v -> drainTasks());
+    }
+  }
+
+  /**
+   * Runs a batch of the waiting tasks in order, until one of them starts building a snapshot. If there are more tasks
+   * than a batch, the rest is drained by the next task of the event loop. Failure of a task is logged and doesn't hold
+   * the following ones back, just as if they were run by the event loop
+   */
+  private void drainTasks() {
+    Handler<Void> task;
+    int drained = 0;
+    while (!building && drained < DRAIN_BATCH_SIZE && (task = tasks.poll()) != null) {
+      drained++;
+      try {
+        task.handle(null);
+      } catch (RuntimeException e) {
+        log.error("Task of the shard [{}] failed", index, e);
+      }
+    }
+    if (drained > 0) {
+      drainedHandler.handle(null);
+    }
+    if (!building && drained == DRAIN_BATCH_SIZE) {
+      context.runOnContext(v -> drainTasks());
+      return;
+    }
+    drainScheduled.set(false);
+    if (!building && tasks.size() > 0) {
+      scheduleDrain();
+    }
+  }
+}
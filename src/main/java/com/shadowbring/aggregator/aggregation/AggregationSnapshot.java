@@ -0,0 +1,50 @@
+package com.shadowbring.aggregator.aggregation;
+
+import com.shadowbring.aggregator.book.OrderTableSnapshot;
+
+import java.util.List;
+
+/**
+ * Consistent point-in-time state of all {@link AggregationShard}s: their orders and the sequence number of the last
+ * message applied to them along with its epoch
+ *
+ * @author Dmytro Bezruk
+ */
+public class AggregationSnapshot {
+
+  private final int lastSequenceNumber;
+
+  private final int sequenceEpoch;
+
+  private final List<OrderTableSnapshot> tables;
+
+  /**
+   * @param lastSequenceNumber - sequence number of the last message reflected by the tables
+   * @param sequenceEpoch      - number of the restarts of the sequence numbers before the last message
+   * @param tables             - snapshots of the order tables of the shards
+   */
+  public AggregationSnapshot(int lastSequenceNumber, int sequenceEpoch, List<OrderTableSnapshot> tables) {
+    this.lastSequenceNumber = lastSequenceNumber;
+    this.sequenceEpoch = sequenceEpoch;
+    this.tables = tables;
+  }
+
+  public int getLastSequenceNumber() {
+    return lastSequenceNumber;
+  }
+
+  public int getSequenceEpoch() {
+    return sequenceEpoch;
+  }
+
+  public List<OrderTableSnapshot> getTables() {
+    return tables;
+  }
+
+  /**
+   * @return - total number of the orders in the snapshot
+   */
+  public long size() {
+    return tables.stream().mapToLong(OrderTableSnapshot::size).sum();
+  }
+}
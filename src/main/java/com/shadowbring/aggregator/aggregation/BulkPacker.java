@@ -0,0 +1,161 @@
+package com.shadowbring.aggregator.aggregation;
+
+import com.shadowbring.aggregator.codec.ProductsBulkEncoder;
+import com.shadowbring.aggregator.domain.outgoing.BulkType;
+import com.shadowbring.aggregator.domain.outgoing.Level;
+import com.shadowbring.aggregator.domain.outgoing.Product;
+import com.shadowbring.aggregator.domain.outgoing.ProductsBulk;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Packs aggregated products into the {@link ProductsBulk}s, so that every encoded bulk fits a single datagram and no
+ * datagram is fragmented. Products are added to the bulk while both its encoded length (as reported by the
+ * {@link ProductsBulkEncoder}) and the number of its products fit the limits.
+ * <p>
+ * Product that doesn't fit even an empty bulk is split across consecutive bulks: every part but the last one is marked
+ * as continued, buy levels go first, then sell levels, so consumers rebuild the product by concatenating the parts.
+ * Bulks are numbered in the same pass, starting from 1
+ *
+ * @author Dmytro Bezruk
+ */
+class BulkPacker {
+
+  private final ProductsBulkEncoder encoder;
+
+  private final int maxProducts;
+
+  private final int maxLength;
+
+  private final BulkType type;
+
+  private final List<ProductsBulk> bulks = new ArrayList<>();
+
+  private List<Product> products = new ArrayList<>();
+
+  private int length;
+
+  /**
+   * @param encoder     - encoder that tells the lengths of the parts of the bulk
+   * @param maxProducts - maximal number of the products in the bulk, not limited if not positive
+   * @param maxLength   - maximal length of the encoded bulk, not limited if not positive
+   * @param type        - type of the bulks
+   */
+  private BulkPacker(ProductsBulkEncoder encoder, int maxProducts, int maxLength, BulkType type) {
+    this.encoder = encoder;
+    this.maxProducts = maxProducts > 0 ? maxProducts : Integer.MAX_VALUE;
+    this.maxLength = maxLength > 0 ? maxLength : Integer.MAX_VALUE;
+    this.type = type;
+    this.length = encoder.bulkOverhead();
+  }
+
+  /**
+   * @param products    - aggregated products to be emitted
+   * @param type        - whether the bulks are parts of the snapshot or of the delta
+   * @param encoder     - encoder that tells the lengths of the parts of the bulk
+   * @param maxProducts - maximal number of the products in the bulk, not limited if not positive
+   * @param maxLength   - maximal length of the encoded bulk, not limited if not positive
+   * @return - numbered bulks, empty if there are no products
+   */
+  static List<ProductsBulk> pack(List<Product> products, BulkType type, ProductsBulkEncoder encoder, int maxProducts,
+                                 int maxLength) {
+    BulkPacker packer = new BulkPacker(encoder, maxProducts, maxLength, type);
+    for (int i = 0; i < products.size(); i++) {
+      packer.add(products.get(i));
+    }
+    packer.closeBulk();
+    return packer.bulks;
+  }
+
+  private void add(Product product) {
+    int productLength = encoder.productOverhead(product) + levelsLength(product.getBuyLevels()) +
+                            levelsLength(product.getSellLevels());
+    if (encoder.bulkOverhead() + productLength > maxLength) {
+      split(product);
+      return;
+    }
+    if (!fits(productLength)) {
+      closeBulk();
+    }
+    addPart(product, productLength);
+  }
+
+  /**
+   * Spreads the levels of the product across the parts that fill the current bulk and as many following ones as needed
+   */
+  private void split(Product product) {
+    int overhead = encoder.productOverhead(product);
+    Level first = !product.getBuyLevels().isEmpty() ? product.getBuyLevels().get(0) :
+                      !product.getSellLevels().isEmpty() ? product.getSellLevels().get(0) : null;
+    if (!products.isEmpty() && (products.size() == maxProducts ||
+                                    length + overhead + (first == null ? 0 : encoder.levelLength(first)) > maxLength)) {
+      closeBulk();
+    }
+    Product part = newPart(product);
+    int partLength = overhead;
+    List<Level> levels = product.getBuyLevels();
+    for (int side = 0; side < 2; side++, levels = product.getSellLevels()) {
+      for (int i = 0; i < levels.size(); i++) {
+        Level level = levels.get(i);
+        int levelLength = encoder.levelLength(level);
+        if (!isEmpty(part) && length + partLength + levelLength > maxLength) {
+          part.setContinued(true);
+          addPart(part, partLength);
+          closeBulk();
+          part = newPart(product);
+          partLength = overhead;
+        }
+        (side == 0 ? part.getBuyLevels() : part.getSellLevels()).add(level);
+        partLength += levelLength;
+      }
+    }
+    addPart(part, partLength);
+  }
+
+  /**
+   * @param productLength - length of the product
+   * @return - true if the current bulk can take the whole product. Empty bulk takes anything
+   */
+  private boolean fits(int productLength) {
+    return products.isEmpty() || products.size() < maxProducts && length + productLength <= maxLength;
+  }
+
+  private void addPart(Product part, int partLength) {
+    products.add(part);
+    length += partLength;
+  }
+
+  private void closeBulk() {
+    if (products.isEmpty()) {
+      return;
+    }
+    ProductsBulk bulk = new ProductsBulk();
+    bulk.setOutSequenceNumber(bulks.size() + 1);
+    bulk.setType(type);
+    bulk.setProducts(products);
+    bulks.add(bulk);
+    products = new ArrayList<>();
+    length = encoder.bulkOverhead();
+  }
+
+  private int levelsLength(List<Level> levels) {
+    int levelsLength = 0;
+    for (int i = 0; i < levels.size(); i++) {
+      levelsLength += encoder.levelLength(levels.get(i));
+    }
+    return levelsLength;
+  }
+
+  private static Product newPart(Product product) {
+    Product part = new Product();
+    part.setProductId(product.getProductId());
+    part.setBuyLevels(new ArrayList<>());
+    part.setSellLevels(new ArrayList<>());
+    return part;
+  }
+
+  private static boolean isEmpty(Product part) {
+    return part.getBuyLevels().isEmpty() && part.getSellLevels().isEmpty();
+  }
+}
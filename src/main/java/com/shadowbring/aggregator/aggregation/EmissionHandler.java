@@ -0,0 +1,22 @@
+package com.shadowbring.aggregator.aggregation;
+
+import com.shadowbring.aggregator.domain.outgoing.ProductsBulk;
+import io.vertx.core.Handler;
+
+import java.util.List;
+
+/**
+ * Receiver of the bulks of a single emission collected by the {@link PriceLevelsAggregator}
+ *
+ * @author Dmytro Bezruk
+ */
+@FunctionalInterface
+public interface EmissionHandler {
+
+  /**
+   * @param bulks     - all aggregated price levels per product that are split in bulks for further transmission
+   * @param published - handler of the monotonic time in nanoseconds the last bulk of the emission was sent at, that
+   *                  records the receive-to-publish latency of the messages carried by the emission. Thread-safe
+   */
+  void handle(List<ProductsBulk> bulks, Handler<Long> published);
+}
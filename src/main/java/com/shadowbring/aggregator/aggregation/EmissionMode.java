@@ -0,0 +1,17 @@
+package com.shadowbring.aggregator.aggregation;
+
+/**
+ * Enumeration that contains modes of the emission of the aggregated price levels
+ *
+ * @author Dmytro Bezruk
+ */
+public enum EmissionMode {
+  /**
+   * Every emission carries the whole book
+   */
+  full,
+  /**
+   * Emissions carry only the changed price levels, while the whole book is emitted every N emissions
+   */
+  delta
+}
@@ -0,0 +1,255 @@
+package com.shadowbring.aggregator.aggregation;
+
+import com.shadowbring.aggregator.book.DepthLimits;
+import com.shadowbring.aggregator.book.ProductBook;
+import com.shadowbring.aggregator.codec.ProductsBulkEncoder;
+import com.shadowbring.aggregator.domain.outgoing.BulkType;
+import com.shadowbring.aggregator.domain.outgoing.Product;
+import com.shadowbring.aggregator.domain.outgoing.ProductsBulk;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Supplier;
+
+/**
+ * Builds large snapshots on a {@link ForkJoinPool}: the products of the books are built and packed to the bulks by
+ * chunks of the product space in parallel. The caller's event loop never waits for the pool, the result is handed
+ * over back on the caller's context once all chunks are completed. Snapshots of fewer products than the threshold are
+ * built by the caller alone and handed over straight away, as the split would cost more than it saves.
+ * <p>
+ * Result is the same as the sequential one, except that every chunk is packed to its own bulks, so the last bulk of a
+ * chunk may be not full. Bulks are numbered after all chunks are packed, in the order of the chunks, so the numbers
+ * don't depend on the order the chunks are completed in. Books must not be changed until the products are handed over,
+ * so the caller holds its changes back meanwhile
+ *
+ * @author Dmytro Bezruk
+ */
+class ParallelSnapshots {
+
+  /**
+   * Number of the products in the chunk that is built or packed by a single task
+   */
+  static final int CHUNK_SIZE = 2048;
+
+  private final ForkJoinPool pool;
+
+  private final int threshold;
+
+  /**
+   * @param parallelism - number of the threads of the pool, number of the processors if not positive
+   * @param threshold   - minimal number of the products of the snapshot that is built in parallel, snapshots are
+   *                    never built in parallel if not positive
+   */
+  ParallelSnapshots(int parallelism, int threshold) {
+    this.threshold = threshold;
+    this.pool = threshold > 0 ? new ForkJoinPool(parallelism > 0 ? parallelism :
+                                                     Runtime.getRuntime().availableProcessors()) : null;
+  }
+
+  /**
+   * Maps the books to the products with the best price levels and remembers them as emitted
+   *
+   * @param books       - books of the products
+   * @param depthLimits - depth of the products
+   * @param handler     - handler of the products in the order of the books, or of the failure to build them. Invoked
+   *                    straight away if the products are built by the caller, otherwise on the caller's context, or on
+   *                    the pool if there is none
+   */
+  void toProducts(Collection<ProductBook> books, DepthLimits depthLimits, Handler<AsyncResult<List<Product>>> handler) {
+    if (!isParallel(books.size())) {
+      handler.handle(attempt(() -> toProducts(books, depthLimits)));
+      return;
+    }
+    ProductBook[] bookArray = books.toArray(new ProductBook[0]);
+    Product[] products = new Product[bookArray.length];
+    ProductsTask task = new ProductsTask(bookArray, products, 0, bookArray.length, depthLimits);
+    complete(task, () -> Arrays.asList(products), handler);
+  }
+
+  /**
+   * Packs the products to the numbered bulks, see
+   * {@link BulkPacker#pack(List, BulkType, ProductsBulkEncoder, int, int)}
+   *
+   * @param products    - aggregated products to be emitted
+   * @param type        - whether the bulks are parts of the snapshot or of the delta
+   * @param encoder     - encoder that tells the lengths of the parts of the bulk, must be thread-safe
+   * @param maxProducts - maximal number of the products in the bulk, not limited if not positive
+   * @param maxLength   - maximal length of the encoded bulk, not limited if not positive
+   * @param handler     - handler of the numbered bulks, empty if there are no products, or of the failure to pack
+   *                    them. Invoked straight away if the bulks are packed by the caller, otherwise on the caller's
+   *                    context, or on the pool if there is none
+   */
+  void pack(List<Product> products, BulkType type, ProductsBulkEncoder encoder, int maxProducts, int maxLength,
+            Handler<AsyncResult<List<ProductsBulk>>> handler) {
+    if (!isParallel(products.size())) {
+      handler.handle(attempt(() -> BulkPacker.pack(products, type, encoder, maxProducts, maxLength)));
+      return;
+    }
+    List<PackTask> chunks = new ArrayList<>();
+    for (int from = 0; from < products.size(); from += CHUNK_SIZE) {
+      chunks.add(new PackTask(products.subList(from, Math.min(from + CHUNK_SIZE, products.size())), type, encoder,
+          maxProducts, maxLength));
+    }
+    RecursiveAction task = new RecursiveAction() {
+
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected void compute() {
+        invokeAll(chunks);
+      }
+    };
+    complete(task, () -> {
+      List<ProductsBulk> bulks = new ArrayList<>();
+      for (PackTask chunk : chunks) {
+        for (ProductsBulk bulk : chunk.getRawResult()) {
+          bulk.setOutSequenceNumber(bulks.size() + 1);
+          bulks.add(bulk);
+        }
+      }
+      return bulks;
+    }, handler);
+  }
+
+  /**
+   * Stops the threads of the pool
+   */
+  void shutdown() {
+    if (pool != null) {
+      pool.shutdown();
+    }
+  }
+
+  private boolean isParallel(int size) {
+    return pool != null && size >= threshold;
+  }
+
+  private static List<Product> toProducts(Collection<ProductBook> books, DepthLimits depthLimits) {
+    List<Product> products = new ArrayList<>(books.size());
+    books.forEach(book -> products.add(book.toProduct(depthLimits.of(book.getProduct()))));
+    return products;
+  }
+
+  /**
+   * Builds the result, so its failure, errors included, is handed over rather than thrown
+   *
+   * @param result - result to be built
+   * @param <T>    - type of the result
+   * @return - the built result or the failure to build it
+   */
+  static <T> AsyncResult<T> attempt(Supplier<T> result) {
+    try {
+      return Future.succeededFuture(result.get());
+    } catch (Throwable e) {
+      return Future.failedFuture(e);
+    }
+  }
+
+  /**
+   * Runs the task on the pool and hands its result over on the caller's context. If the task fails, the failure is
+   * handed over, so the emission is skipped and the next one carries the whole book. The snapshot is never rebuilt by
+   * the caller, as that would stall its event loop
+   *
+   * @param task    - task to be run on the pool
+   * @param result  - result of the completed task
+   * @param handler - handler of the result or of the failure to build it
+   * @param <T>     - type of the result
+   */
+  private <T> void complete(ForkJoinTask<?> task, Supplier<T> result, Handler<AsyncResult<T>> handler) {
+    Context caller = Vertx.currentContext();
+    pool.execute(() -> {
+      AsyncResult<T> completed = attempt(() -> {
+        task.invoke();
+        return result.get();
+      });
+      Handler<Void> done = v -> handler.handle(completed);
+      if (caller == null) {
+        done.handle(null);
+      } else {
+        caller.runOnContext(done);
+      }
+    });
+  }
+
+  /**
+   * Maps the range of the books to the products, splitting the range in halves until it fits a chunk
+   */
+  private static class ProductsTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final ProductBook[] books;
+
+    private final Product[] products;
+
+    private final int from;
+
+    private final int to;
+
+    private final DepthLimits depthLimits;
+
+    private ProductsTask(ProductBook[] books, Product[] products, int from, int to, DepthLimits depthLimits) {
+      this.books = books;
+      this.products = products;
+      this.from = from;
+      this.to = to;
+      this.depthLimits = depthLimits;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= CHUNK_SIZE) {
+        for (int i = from; i < to; i++) {
+          products[i] = books[i].toProduct(depthLimits.of(books[i].getProduct()));
+        }
+        return;
+      }
+      int middle = (from + to) >>> 1;
+      invokeAll(new ProductsTask(books, products, from, middle, depthLimits),
+          new ProductsTask(books, products, middle, to, depthLimits));
+    }
+  }
+
+  /**
+   * Packs a chunk of the products to the bulks
+   */
+  private static class PackTask extends RecursiveTask<List<ProductsBulk>> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<Product> products;
+
+    private final BulkType type;
+
+    private final ProductsBulkEncoder encoder;
+
+    private final int maxProducts;
+
+    private final int maxLength;
+
+    private PackTask(List<Product> products, BulkType type, ProductsBulkEncoder encoder, int maxProducts,
+                     int maxLength) {
+      this.products = products;
+      this.type = type;
+      this.encoder = encoder;
+      this.maxProducts = maxProducts;
+      this.maxLength = maxLength;
+    }
+
+    @Override
+    protected List<ProductsBulk> compute() {
+      return BulkPacker.pack(products, type, encoder, maxProducts, maxLength);
+    }
+  }
+}
@@ -1,31 +1,53 @@
 package com.shadowbring.aggregator.aggregation;
 
+import com.shadowbring.aggregator.book.DepthLimits;
+import com.shadowbring.aggregator.book.OrderTableSnapshot;
+import com.shadowbring.aggregator.book.ProductDictionary;
+import com.shadowbring.aggregator.codec.ProductsBulkEncoder;
+import com.shadowbring.aggregator.collection.IntIntHashMap;
 import com.shadowbring.aggregator.domain.incoming.AddOrder;
+import com.shadowbring.aggregator.domain.incoming.ChangeOrder;
+import com.shadowbring.aggregator.domain.incoming.DeleteOrder;
 import com.shadowbring.aggregator.domain.incoming.MessageSequence;
 import com.shadowbring.aggregator.domain.incoming.Order;
-import com.shadowbring.aggregator.domain.incoming.Side;
-import com.shadowbring.aggregator.domain.outgoing.Level;
+import com.shadowbring.aggregator.domain.outgoing.BulkType;
 import com.shadowbring.aggregator.domain.outgoing.Product;
 import com.shadowbring.aggregator.domain.outgoing.ProductsBulk;
+import com.shadowbring.aggregator.metrics.Counter;
+import com.shadowbring.aggregator.metrics.PipelineMetrics;
+import com.shadowbring.aggregator.metrics.ReceiveTimes;
+import com.shadowbring.aggregator.metrics.Stage;
 import com.shadowbring.aggregator.udp.UdpCompliantMessageSequenceBuffer;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.collections4.ListUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import java.util.*;
-import java.util.function.Function;
-import java.util.stream.Collectors;
-
-import static java.util.stream.Collectors.groupingBy;
-import static java.util.stream.Collectors.toMap;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * This service was designed for processing of the {@link MessageSequence}s, that were previously ordered and cleaned up
  * by the {@link UdpCompliantMessageSequenceBuffer}, extraction of the {@link Order}s from the sequences, updating of
  * the {@link Order}s' storage and aggregation that will be specified below.
  * <p>
+ * The storage is partitioned by product ID between {@link AggregationShard}s (configurable via application.properties
+ * file), so orders are applied and price levels are built on several event loops in parallel. This service routes
+ * every order to the shard that owns its product and merges the price levels built by the shards.
+ * <p>
+ * Orders are routed only if every shard has room for them. Otherwise they are held in the
+ * {@link UdpCompliantMessageSequenceBuffer} and routed as a single batch once the shards catch up, so a slow shard
+ * applies backpressure to the listener instead of growing an unbounded queue. Only one emission is collected at a
+ * time, the ones that come meanwhile are skipped.
+ * <p>
  * As a result of its work, provides chunks of the price levels table that are ready for transmission via UDP.
  *
  * @author Dmytro Bezruk
@@ -35,15 +57,73 @@ import static java.util.stream.Collectors.toMap;
 public class PriceLevelsAggregator {
 
   /**
-   * Storage of the extracted orders. {@link Map} provides convenient lookup by OrderId at a constant time.
+   * Maximal number of the products in the bulk, not limited if not positive. Configurable via application.properties
+   * file
    */
-  private final Map<Integer, Order> orders = new HashMap<>();
+  @Value("${price-levels.bulk-size}")
+  private Integer bulkSize;
 
   /**
-   * Size of the bulks that aggregated price levels will be split in. Configurable via application.properties file
+   * Maximal length of the encoded bulk, i.e. of the datagram payload, so the datagrams are not fragmented. Not limited
+   * if not positive. Configurable via application.properties file
    */
-  @Value("${price-levels.bulk-size}")
-  private Integer bulkSize;
+  @Value("${price-levels.bulk-bytes}")
+  private Integer bulkBytes;
+
+  /**
+   * Number of the best price levels per side that are emitted for every product, all of them if not positive.
+   * Configurable via application.properties file
+   */
+  @Value("${price-levels.depth}")
+  private Integer depth;
+
+  /**
+   * Depth of the particular products in the form "productId:depth,productId:depth". Configurable via
+   * application.properties file
+   */
+  @Value("${price-levels.depth-overrides}")
+  private String depthOverrides;
+
+  /**
+   * Whether every emission carries the whole book or only the changes. Configurable via application.properties file
+   */
+  @Value("${emission.mode}")
+  private EmissionMode emissionMode;
+
+  /**
+   * In the delta mode, every N-th emission carries the whole book, so late joiners can sync. If not positive, only the
+   * very first emission and the forced ones carry the whole book. Configurable via application.properties file
+   */
+  @Value("${emission.snapshot-interval}")
+  private Integer snapshotInterval;
+
+  /**
+   * Number of the shards the storage is partitioned to. Configurable via application.properties file
+   */
+  @Value("${aggregation.shards}")
+  private Integer shardsCount;
+
+  /**
+   * Number of the threads that build the large snapshots, number of the processors if not positive. Configurable via
+   * application.properties file
+   */
+  @Value("${aggregation.parallelism}")
+  private Integer parallelism;
+
+  /**
+   * Minimal number of the products of the shard or of the emission whose snapshot is built and packed in parallel,
+   * never in parallel if not positive. Configurable via application.properties file
+   */
+  @Value("${aggregation.parallelism-threshold}")
+  private Integer parallelismThreshold;
+
+  /**
+   * Maximal number of the tasks that wait for every shard, i.e. of the batches of the routed orders. Configurable via
+   * application.properties file
+   */
+  @Value("${aggregation.queue-capacity}")
+  private Integer queueCapacity;
+
   /**
    * Buffer that performs ordering of the received {@link MessageSequence}s and removes duplicates
    */
@@ -51,147 +131,487 @@ public class PriceLevelsAggregator {
   private UdpCompliantMessageSequenceBuffer buffer;
 
   /**
-   * Extracts all orders from the buffer and stores them in the {@link Map}
+   * Metrics the aggregator reports the reorder wait, the aggregation time, the routed orders and the stalls to
+   */
+  @Autowired
+  private PipelineMetrics metrics;
+
+  /**
+   * Encoder of the emitted bulks, tells how many bytes every product takes
+   */
+  @Autowired
+  private ProductsBulkEncoder encoder;
+
+  /**
+   * Dictionary that assigned int IDs to the products when the orders were decoded
+   */
+  @Autowired
+  private ProductDictionary dictionary;
+
+  /**
+   * Shards that own the orders and their price levels books
+   */
+  private List<AggregationShard> shards;
+
+  /**
+   * Builder of the large snapshots that is shared by the shards
+   */
+  private ParallelSnapshots parallelSnapshots;
+
+  /**
+   * Order ID -> index of the shard that owns the order. {@link ChangeOrder}s and {@link DeleteOrder}s carry no product
+   * ID, so they are routed by this table. Not used if there is only one shard
+   */
+  private final IntIntHashMap shardsByOrderId = new IntIntHashMap(1024);
+
+  /**
+   * Sequence number of the last message whose orders were routed to the shards
+   */
+  private int lastSequenceNumber;
+
+  /**
+   * Epoch of {@link #lastSequenceNumber}
+   */
+  private int lastSequenceEpoch;
+
+  /**
+   * Whether any message was routed to the shards, so {@link #lastSequenceNumber} is known
+   */
+  private boolean sequenceApplied;
+
+  /**
+   * Receive times of the messages routed since the start of the previous emission, so their changes are carried by the
+   * next one
+   */
+  private ReceiveTimes unpublished = new ReceiveTimes();
+
+  /**
+   * Receive times of the messages whose emission failed, so they are carried by the next one. Time they waited for the
+   * emission is already recorded. Null if there are none
    */
-  private void updateOrders() {
-    buffer.flush().stream()
-        .map(MessageSequence::getMessages)
-        .forEach(orderList -> orderList.forEach(order -> order.applyToOrderTable(orders)));
-    log.info("Actual size of the orders table is [{}] items", orders.size());
+  private ReceiveTimes unemitted;
+
+  /**
+   * Number of the emissions performed so far
+   */
+  private long emissionsCount;
+
+  /**
+   * Whether the next emission must carry the whole book regardless of the mode and the interval
+   */
+  private boolean snapshotForced;
+
+  /**
+   * Whether an emission is being collected from the shards or packed, so the next one is skipped
+   */
+  private boolean emitting;
+
+  /**
+   * Handler that is notified every time an emission is completed, handed over or not
+   */
+  private Handler<Void> emissionCompletedHandler;
+
+  /**
+   * Whether the orders are held in the buffer because a shard has no room for them
+   */
+  private final AtomicBoolean stalled = new AtomicBoolean();
+
+  /**
+   * Handler that resumes the routing of the held orders once the shards catch up
+   */
+  private volatile Handler<Void> capacityHandler;
+
+  /**
+   * Creation of the shards with the already injected property. Shards must be deployed before any order is routed
+   */
+  @PostConstruct
+  public void initShards() {
+    DepthLimits depthLimits = DepthLimits.parse(depth, depthOverrides, dictionary);
+    parallelSnapshots = new ParallelSnapshots(parallelism, parallelismThreshold);
+    List<AggregationShard> shardList = new ArrayList<>(shardsCount);
+    for (int i = 0; i < shardsCount; i++) {
+      shardList.add(new AggregationShard(i, depthLimits, metrics, dictionary, parallelSnapshots,
+          emissionMode == EmissionMode.delta, queueCapacity, v -> onShardDrained()));
+    }
+    shards = Collections.unmodifiableList(shardList);
+  }
+
+  /**
+   * Stops the threads that build the large snapshots
+   */
+  @PreDestroy
+  public void shutdown() {
+    parallelSnapshots.shutdown();
   }
 
   /**
-   * Method that is invoked by the {@link com.shadowbring.aggregator.listener.StockListener} when it is time to process
-   * and aggregate all {@link MessageSequence}s accumulated in the {@link UdpCompliantMessageSequenceBuffer}. It
-   * calculates sell and buy price levels per single product, sorts sell price levels in ascending order and buy price
-   * levels in descending one.
+   * Extracts all orders from the buffer and routes them to the shards that own their products. Invoked by the
+   * {@link com.shadowbring.aggregator.listener.StockListener} every time new messages were received. If any shard has
+   * no room for the orders, they are left in the buffer and reported as {@link Counter#shardQueueStalls}. The buffer
+   * holds a bounded number of the ready messages, the ones that arrive once it is full are dropped and reported as
+   * {@link Counter#readyOverflows}
    *
-   * @return all aggregated price levels per product that are split in bulks for further transmission
+   * @return - true if any message was flushed from the buffer, so the books may have changed
    */
-  public List<ProductsBulk> aggregateByPriceLevels() {
-    List<Product> products = new ArrayList<>();
-    updateOrders();
-    Map<String, Map<Side, List<AddOrder>>> byProductIdAndSide = groupOrdersBySide(groupOrdersByProductId());
-    aggregateProductPriceLevels(products, byProductIdAndSide);
-    return mapPriceLevelBulksToDtoList(ListUtils.partition(products, bulkSize));
+  public boolean updateOrders() {
+    if (!buffer.hasReady() || !hasCapacity()) {
+      return false;
+    }
+    List<MessageSequence> messageSequences = buffer.flush();
+    lastSequenceNumber = messageSequences.get(messageSequences.size() - 1).getInSequenceNumber();
+    lastSequenceEpoch = buffer.getSequenceEpoch();
+    sequenceApplied = true;
+    long now = System.nanoTime();
+    for (MessageSequence messageSequence : messageSequences) {
+      if (messageSequence.getReceivedAt() != 0) {
+        metrics.record(Stage.reorderWait, now - messageSequence.getReceivedAt());
+        unpublished.add(messageSequence.getReceivedAt());
+      }
+    }
+    if (shards.size() == 1) {
+      List<Order> orders = new ArrayList<>();
+      messageSequences.forEach(messageSequence -> orders.addAll(messageSequence.getMessages()));
+      orders.forEach(this::countOrder);
+      shards.get(0).apply(orders);
+      return true;
+    }
+    List<List<Order>> ordersByShard = new ArrayList<>(shards.size());
+    for (int i = 0; i < shards.size(); i++) {
+      ordersByShard.add(new ArrayList<>());
+    }
+    messageSequences.forEach(messageSequence -> messageSequence.getMessages()
+                                                    .forEach(order -> routeOrder(order, ordersByShard)));
+    for (int i = 0; i < shards.size(); i++) {
+      if (!ordersByShard.get(i).isEmpty()) {
+        shards.get(i).apply(ordersByShard.get(i));
+      }
+    }
+    return true;
   }
 
   /**
-   * Maps partitioned and aggregated price levels to POJO-class that will be converted to JSON later
+   * Registers the handler that routes the orders held in the buffer once the shards catch up. Must be invoked on the
+   * listener's event loop, the handler is invoked on it too
    *
-   * @param partitionedProducts - aggregated price levels that are split in equal parts
-   * @return {@link List<ProductsBulk>} of the data transfer objects
+   * @param handler - handler that invokes {@link #updateOrders()}
    */
-  private List<ProductsBulk> mapPriceLevelBulksToDtoList(List<List<Product>> partitionedProducts) {
-    return partitionedProducts.stream()
-               .map(productsList -> {
-                 ProductsBulk bulk = new ProductsBulk();
-                 bulk.setOutSequenceNumber(partitionedProducts.indexOf(productsList) + 1);
-                 bulk.setProducts(productsList);
-                 return bulk;
-               })
-               .collect(Collectors.toList());
+  public void onCapacity(Handler<Void> handler) {
+    Context context = Vertx.currentContext();
+    capacityHandler = v -> context.runOnContext(handler);
   }
 
   /**
-   * Accumulates price levels in the {@link List<Product>} for further partitioning
+   * Registers the handler that is notified every time an emission is completed, either handed over or failed, so the
+   * emission that was skipped meanwhile can be retried. Must be invoked on the listener's event loop, the handler is
+   * invoked on it too
    *
-   * @param products           - {@link List<Product>} where price levels are accumulated
-   * @param byProductIdAndSide - {@link Order}s that are grouped by product ID and then by sell/buy side
-   */
-  private void aggregateProductPriceLevels(List<Product> products,
-                                           Map<String, Map<Side, List<AddOrder>>> byProductIdAndSide) {
-    byProductIdAndSide.forEach((productId, sideListMap) -> {
-      Product product = new Product();
-      List<Level> buyLevels = new ArrayList<>();
-      List<Level> sellLevels = new ArrayList<>();
-      product.setProductId(productId);
-
-      sideListMap.forEach((side, ordersForSide) -> {
-        switch (side) {
-          case buy:
-            calculateLevelsForProduct(buyLevels, ordersForSide);
-            break;
-          case sell:
-            calculateLevelsForProduct(sellLevels, ordersForSide);
-            break;
+   * @param handler - handler of the completion of the emission
+   */
+  public void onEmissionCompleted(Handler<Void> handler) {
+    emissionCompletedHandler = handler;
+  }
+
+  /**
+   * Method that is invoked by the {@link com.shadowbring.aggregator.listener.StockListener} when it is time to emit
+   * the aggregated price levels. Every shard reads sell and buy price levels of its products from the maintained books,
+   * where sell price levels are sorted in ascending order and buy price levels in descending one. Results of the shards
+   * are merged in the order of the shards.
+   * <p>
+   * In the delta mode only the products and price levels that were changed since the previous emission are taken,
+   * except for every N-th emission (and the very first one, and the forced one) that carries the whole book. If the
+   * depth is limited, only the best price levels of every side are walked and emitted.
+   * <p>
+   * Products are packed in the bulks by the {@link BulkPacker} up to the configured number of the products and length
+   * of the encoded bulk. Snapshots of many products are built and packed in parallel by the {@link ParallelSnapshots}.
+   * If the price levels fail to be built or packed, the emission is skipped and the next one carries the whole book.
+   * If the previous emission is still being collected or packed, the current one is skipped and reported as
+   * {@link Counter#skippedEmissions}, its changes are carried by the next one. The completion of the previous emission
+   * is reported to the handler registered by {@link #onEmissionCompleted(Handler)}.
+   * <p>
+   * Messages routed since the start of the previous emission are carried by this one, as their changes are applied
+   * before the shards collect the price levels. If the emission fails, they are carried by the next one, so their
+   * receive-to-publish latency is recorded anyway
+   *
+   * @param handler - handler of the bulks of the emission. Invoked on the caller's context
+   * @return - false if the emission was skipped, so the handler is not invoked
+   */
+  public boolean aggregateByPriceLevels(EmissionHandler handler) {
+    if (emitting) {
+      log.debug("Previous emission is still being collected, the current one is skipped");
+      metrics.increment(Counter.skippedEmissions);
+      return false;
+    }
+    emitting = true;
+    long start = System.nanoTime();
+    ReceiveTimes cycle = startEmissionCycle(start);
+    BulkType type = nextBulkType();
+    List<List<Product>> productsByShard = new ArrayList<>(Collections.nCopies(shards.size(), null));
+    int[] pendingShards = {shards.size()};
+    boolean[] failed = {false};
+    for (int i = 0; i < shards.size(); i++) {
+      int shardIndex = i;
+      shards.get(i).collectProducts(type, shardProducts -> {
+        if (shardProducts.succeeded()) {
+          productsByShard.set(shardIndex, shardProducts.result());
+        } else {
+          failed[0] = true;
+        }
+        if (--pendingShards[0] == 0) {
+          if (failed[0]) {
+            log.error("Failed to collect price levels of the shards, the emission is skipped");
+            snapshotForced = true;
+            unemitted = cycle;
+            completeEmission();
+            return;
+          }
+          List<Product> products = new ArrayList<>();
+          productsByShard.forEach(products::addAll);
+          pack(products, type, bulks -> {
+            if (bulks.failed()) {
+              log.error("Failed to pack the bulks, the emission is skipped", bulks.cause());
+              snapshotForced = true;
+              unemitted = cycle;
+              completeEmission();
+              return;
+            }
+            metrics.record(Stage.aggregation, System.nanoTime() - start);
+            emitting = false;
+            try {
+              handler.handle(bulks.result(), publishedAt -> cycle.record(metrics, Stage.receiveToPublish, publishedAt));
+            } finally {
+              completeEmission();
+            }
+          });
         }
       });
+    }
+    return true;
+  }
 
-      sellLevels.sort(Comparator.comparingInt(Level::getPrice));
-      buyLevels.sort((level1, level2) -> level2.getPrice() - level1.getPrice());
+  /**
+   * Takes a consistent snapshot of all shards: every shard copies its orders after applying everything that was routed
+   * to it so far, so the snapshot reflects exactly the messages up to the last routed one. Shards are not paused, they
+   * only copy their columns
+   *
+   * @param handler - handler of the snapshot. Invoked on the caller's context
+   * @return - false if no message was applied yet, so there is nothing to snapshot and the handler is not invoked
+   */
+  public boolean snapshot(Handler<AggregationSnapshot> handler) {
+    if (!sequenceApplied) {
+      return false;
+    }
+    int sequenceNumber = lastSequenceNumber;
+    int sequenceEpoch = lastSequenceEpoch;
+    List<OrderTableSnapshot> tables = new ArrayList<>(Collections.nCopies(shards.size(), null));
+    int[] pendingShards = {shards.size()};
+    for (int i = 0; i < shards.size(); i++) {
+      int shardIndex = i;
+      shards.get(i).snapshot(table -> {
+        tables.set(shardIndex, table);
+        if (--pendingShards[0] == 0) {
+          handler.handle(new AggregationSnapshot(sequenceNumber, sequenceEpoch, tables));
+        }
+      });
+    }
+    return true;
+  }
+
+  /**
+   * Routes all orders of the snapshot to the shards that own their products. The snapshot may have been taken with a
+   * different number of the shards. Must be invoked before any message is routed
+   *
+   * @param snapshot - snapshot to be restored
+   */
+  public void restore(AggregationSnapshot snapshot) {
+    if (shards.size() == 1) {
+      shards.get(0).restore(snapshot.getTables());
+    } else {
+      List<List<Order>> ordersByShard = new ArrayList<>(shards.size());
+      for (int i = 0; i < shards.size(); i++) {
+        ordersByShard.add(new ArrayList<>());
+      }
+      snapshot.getTables().forEach(table -> table.forEach((orderId, productId, side, price, quantity) -> {
+        int product = dictionary.idOf(productId);
+        int shard = shardOf(product);
+        shardsByOrderId.put(orderId, shard);
+        AddOrder addOrder = new AddOrder();
+        addOrder.setOrderId(orderId);
+        addOrder.setProductId(dictionary.productIdOf(product));
+        addOrder.setProduct(product);
+        addOrder.setSide(side);
+        addOrder.setPrice(price);
+        addOrder.setQuantity(quantity);
+        ordersByShard.get(shard).add(addOrder);
+      }));
+      for (int i = 0; i < shards.size(); i++) {
+        shards.get(i).apply(ordersByShard.get(i));
+      }
+    }
+    lastSequenceNumber = snapshot.getLastSequenceNumber();
+    lastSequenceEpoch = snapshot.getSequenceEpoch();
+    sequenceApplied = true;
+  }
 
-      product.setBuyLevels(buyLevels);
-      product.setSellLevels(sellLevels);
+  /**
+   * Makes the next emission carry the whole book, so the consumers resync after the changes they can't follow as a
+   * delta, e.g. after the restart of the sequence numbers. Must be invoked on the listener's event loop
+   */
+  public void forceSnapshot() {
+    snapshotForced = true;
+  }
 
-      products.add(product);
-    });
+  /**
+   * @return - shards that must be deployed to the Vert.x instance
+   */
+  public List<AggregationShard> getShards() {
+    return shards;
   }
 
   /**
-   * Method that groups by sell/buy side {@link Order}s that are already grouped by product ID
+   * Adds the order to the batch of the shard that owns it. {@link AddOrder}s are routed by the int ID of the product,
+   * which is assigned here if the decoder did not, other orders follow the {@link AddOrder} with the same order ID.
+   * Orders that refer to the unknown order ID are dropped, as they would change nothing anyway
    *
-   * @param ordersByProductId - {@link Order}s that are already grouped by product ID
-   * @return - {@link Order}s that are grouped by product ID and then by sell/buy side
+   * @param order         - order to be routed
+   * @param ordersByShard - batches of the orders by index of the shard
    */
-  private Map<String, Map<Side, List<AddOrder>>> groupOrdersBySide(Map<String, List<AddOrder>> ordersByProductId) {
-    return ordersByProductId.entrySet().stream()
-               .map(addSubGroupingBySide())
-               .collect(toMap(AbstractMap.SimpleEntry::getKey,
-                   AbstractMap.SimpleEntry::getValue));
+  private void routeOrder(Order order, List<List<Order>> ordersByShard) {
+    countOrder(order);
+    if (order instanceof AddOrder) {
+      AddOrder addOrder = (AddOrder) order;
+      if (addOrder.getProduct() == ProductDictionary.NO_PRODUCT) {
+        addOrder.setProduct(dictionary.idOf(addOrder.getProductId()));
+      }
+      int shard = shardOf(addOrder.getProduct());
+      int previousShard = shardsByOrderId.put(addOrder.getOrderId(), shard);
+      if (previousShard != IntIntHashMap.MISSING && previousShard != shard) {
+        DeleteOrder deleteOrder = new DeleteOrder();
+        deleteOrder.setOrderId(addOrder.getOrderId());
+        ordersByShard.get(previousShard).add(deleteOrder);
+      }
+      ordersByShard.get(shard).add(order);
+    } else if (order instanceof ChangeOrder) {
+      int shard = shardsByOrderId.get(((ChangeOrder) order).getOrderId());
+      if (shard != IntIntHashMap.MISSING) {
+        ordersByShard.get(shard).add(order);
+      }
+    } else if (order instanceof DeleteOrder) {
+      int shard = shardsByOrderId.remove(((DeleteOrder) order).getOrderId());
+      if (shard != IntIntHashMap.MISSING) {
+        ordersByShard.get(shard).add(order);
+      }
+    }
   }
 
   /**
-   * Method that groups all {@link Order}s by product ID
+   * @param product - int ID of the product
+   * @return - index of the shard that owns the product
+   */
+  private int shardOf(int product) {
+    return product % shards.size();
+  }
+
+  /**
+   * Counts the routed order by its type
    *
-   * @return - {@link Map} where {@link Order}s are grouped by product ID
+   * @param order - order that is routed to the shard
    */
-  private Map<String, List<AddOrder>> groupOrdersByProductId() {
-    return orders.values()
-               .stream()
-               .map(order -> ((AddOrder) order))
-               .collect(groupingBy(AddOrder::getProductId));
+  private void countOrder(Order order) {
+    if (order instanceof AddOrder) {
+      metrics.increment(Counter.addOrders);
+    } else if (order instanceof ChangeOrder) {
+      metrics.increment(Counter.changeOrders);
+    } else if (order instanceof DeleteOrder) {
+      metrics.increment(Counter.deleteOrders);
+    }
   }
 
   /**
-   * Calculates sell/buy levels for a particular product
+   * Tells whether every shard has room for the orders. If not, the routing is resumed by {@link #onShardDrained()},
+   * the flag is raised before the second check, so the shard that catches up meanwhile never misses it
    *
-   * @param levels        - {@link List<Level>} where levels are accumulated
-   * @param ordersForSide - only sell or buy {@link Order}s
+   * @return - false if the orders must be held in the buffer
+   */
+  private boolean hasCapacity() {
+    if (shards.stream().allMatch(AggregationShard::hasCapacity)) {
+      return true;
+    }
+    stalled.set(true);
+    if (shards.stream().allMatch(AggregationShard::hasCapacity)) {
+      return true;
+    }
+    log.debug("Shards fall behind, orders are held in the buffer");
+    metrics.increment(Counter.shardQueueStalls);
+    return false;
+  }
+
+  /**
+   * Resumes the routing of the orders held in the buffer, if any. Invoked on the shard's event loop every time the
+   * shard drained some tasks
    */
-  private void calculateLevelsForProduct(List<Level> levels, List<AddOrder> ordersForSide) {
-    Map<Integer, List<AddOrder>> ordersByPrice = ordersForSide.stream()
-                                                     .collect(groupingBy(AddOrder::getPrice));
-    ordersByPrice.entrySet().stream()
-        .map(mapOrderToPriceLevel())
-        .forEach(levels::add);
+  private void onShardDrained() {
+    Handler<Void> handler = capacityHandler;
+    if (handler != null && stalled.get() && stalled.compareAndSet(true, false)) {
+      handler.handle(null);
+    }
   }
 
   /**
-   * Function that maps particular sell or buy orders to price level
+   * Starts the emission cycle: the messages routed since the start of the previous cycle are attributed to this one and
+   * the time they waited for the emission is recorded. The messages of the failed emission are attributed to this one
+   * too
    *
-   * @return - mapping function
+   * @param now - monotonic time in nanoseconds the emission started at
+   * @return - receive times of the messages carried by the emission
    */
-  private Function<Map.Entry<Integer, List<AddOrder>>, Level> mapOrderToPriceLevel() {
-    return entry -> {
-      Level level = new Level();
-      level.setPrice(entry.getKey());
-      level.setQuantity(entry.getValue().stream()
-                            .map(AddOrder::getQuantity)
-                            .reduce(0, (q1, q2) -> q1 + q2));
+  private ReceiveTimes startEmissionCycle(long now) {
+    ReceiveTimes cycle = unpublished;
+    unpublished = new ReceiveTimes();
+    cycle.record(metrics, Stage.emissionWait, now);
+    if (unemitted != null) {
+      cycle.addAll(unemitted);
+      unemitted = null;
+    }
+    return cycle;
+  }
+
+  /**
+   * Allows the next emission and notifies the handler registered by {@link #onEmissionCompleted(Handler)}, if any
+   */
+  private void completeEmission() {
+    emitting = false;
+    Handler<Void> handler = emissionCompletedHandler;
+    if (handler != null) {
+      handler.handle(null);
+    }
+  }
 
-      return level;
-    };
+  /**
+   * Packs the products to the bulks. Snapshots are packed on the pool of the {@link ParallelSnapshots}, other bulks by
+   * the caller
+   *
+   * @param products - aggregated products of the emission
+   * @param type     - type of the bulks of the emission
+   * @param handler  - handler of the bulks or of the failure to pack them
+   */
+  private void pack(List<Product> products, BulkType type, Handler<AsyncResult<List<ProductsBulk>>> handler) {
+    if (type == BulkType.snapshot) {
+      parallelSnapshots.pack(products, type, encoder, bulkSize, bulkBytes, handler);
+    } else {
+      handler.handle(ParallelSnapshots.attempt(() -> BulkPacker.pack(products, type, encoder, bulkSize, bulkBytes)));
+    }
   }
 
   /**
-   * Function that adds grouping of the {@link Order}s by sell or buy side
+   * Determines whether the current emission is a snapshot or a delta
    *
-   * @return - mapping function
+   * @return - type of the bulks of the current emission
    */
-  private Function<Map.Entry<String, List<AddOrder>>, AbstractMap.SimpleEntry<String, Map<Side, List<AddOrder>>>>
-  addSubGroupingBySide() {
-    return entry -> new HashMap.SimpleEntry<>(entry.getKey(),
-                                                 entry.getValue().stream().collect(groupingBy(AddOrder::getSide)));
+  private BulkType nextBulkType() {
+    boolean snapshot = emissionMode == EmissionMode.full || snapshotForced || emissionsCount == 0 ||
+                           snapshotInterval > 0 && emissionsCount % snapshotInterval == 0;
+    snapshotForced = false;
+    emissionsCount++;
+    return snapshot ? BulkType.snapshot : BulkType.delta;
   }
 }
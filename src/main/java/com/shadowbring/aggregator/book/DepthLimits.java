@@ -0,0 +1,72 @@
+package com.shadowbring.aggregator.book;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Number of the best price levels per side that are emitted for every product. Consists of the default depth and
+ * optional overrides for the particular products. Not positive depth means that all levels are emitted.
+ * <p>
+ * Overrides are resolved to the int IDs of the {@link ProductDictionary} once, when the limits are parsed, so the depth
+ * of the book is looked up by the array index on every emission
+ *
+ * @author Dmytro Bezruk
+ */
+public class DepthLimits {
+
+  private static final int[] NO_OVERRIDES = new int[0];
+
+  private final int defaultDepth;
+
+  /**
+   * Depth of the product by its int ID. Products beyond the array have no override
+   */
+  private final int[] depthByProduct;
+
+  /**
+   * @param defaultDepth   - depth of the products that have no override
+   * @param depthByProduct - depth of the product by its int ID
+   */
+  private DepthLimits(int defaultDepth, int[] depthByProduct) {
+    this.defaultDepth = defaultDepth;
+    this.depthByProduct = depthByProduct;
+  }
+
+  /**
+   * Parses overrides in the form "productId:depth,productId:depth". Products of the overrides are assigned int IDs, if
+   * they have none yet
+   *
+   * @param defaultDepth - depth of the products that have no override
+   * @param overrides    - overrides of the depth for the particular products, may be empty
+   * @param dictionary   - dictionary that assigns int IDs to the products
+   * @return - parsed limits
+   * @throws IllegalArgumentException if overrides are malformed
+   */
+  public static DepthLimits parse(int defaultDepth, String overrides, ProductDictionary dictionary) {
+    if (overrides == null || overrides.trim().isEmpty()) {
+      return new DepthLimits(defaultDepth, NO_OVERRIDES);
+    }
+    Map<Integer, Integer> depthById = new HashMap<>();
+    for (String override : overrides.split(",")) {
+      int separator = override.lastIndexOf(':');
+      if (separator <= 0) {
+        throw new IllegalArgumentException("Malformed depth override '" + override + "'");
+      }
+      depthById.put(dictionary.idOf(override.substring(0, separator).trim()),
+          Integer.parseInt(override.substring(separator + 1).trim()));
+    }
+    int[] depthByProduct = new int[depthById.keySet().stream().mapToInt(Integer::intValue).max().orElse(-1) + 1];
+    Arrays.fill(depthByProduct, defaultDepth);
+    depthById.forEach((product, depth) -> depthByProduct[product] = depth);
+    return new DepthLimits(defaultDepth, depthByProduct);
+  }
+
+  /**
+   * @param product - int ID of the product
+   * @return - depth of the product
+   */
+  public int of(int product) {
+    return product < depthByProduct.length ? depthByProduct[product] : defaultDepth;
+  }
+}
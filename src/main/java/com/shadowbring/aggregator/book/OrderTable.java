@@ -0,0 +1,407 @@
+package com.shadowbring.aggregator.book;
+
+import com.shadowbring.aggregator.collection.IntIntHashMap;
+import com.shadowbring.aggregator.domain.incoming.Order;
+import com.shadowbring.aggregator.domain.incoming.Side;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Storage of the extracted {@link Order}s that maintains price levels books of the products along with the orders
+ * themselves. Every {@link Order} applied to the table updates only the price levels it touches, so aggregation never
+ * has to regroup the whole table.
+ * <p>
+ * Orders are not stored as objects. Every resting order occupies a row in the set of primitive columns (struct of
+ * arrays) and {@link IntIntHashMap} maps order ID to the row, so a resting order costs about 30 bytes of heap and no
+ * pointers for the garbage collector to trace. Rows of the deleted orders are reused by the following ones. Products
+ * are referred to by their int IDs of the {@link ProductDictionary}, so the book of the order is found by indexing an
+ * array, and the books that have resting orders are tracked by a bit set of the int IDs, so no product ID is hashed
+ * while the orders are applied.
+ * <p>
+ * Table also tracks the books that were changed since the last emission, including the ones that lost all their
+ * orders, so the changes can be emitted without scanning all the books
+ *
+ * @author Dmytro Bezruk
+ */
+public class OrderTable {
+
+  private static final int INITIAL_CAPACITY = 1024;
+
+  /**
+   * Value of the side column that marks the row as free
+   */
+  static final byte FREE_ROW = -1;
+
+  private static final Side[] SIDES = Side.values();
+
+  /**
+   * Order ID -> row in the columns
+   */
+  private final IntIntHashMap rowsByOrderId = new IntIntHashMap(INITIAL_CAPACITY);
+
+  private int[] orderIds = new int[INITIAL_CAPACITY];
+
+  /**
+   * Int ID of the product, index of its book in {@link #booksByProduct}
+   */
+  private int[] products = new int[INITIAL_CAPACITY];
+
+  /**
+   * Ordinal of the {@link Side} or {@link #FREE_ROW}
+   */
+  private byte[] sides = new byte[INITIAL_CAPACITY];
+
+  private int[] prices = new int[INITIAL_CAPACITY];
+
+  private int[] quantities = new int[INITIAL_CAPACITY];
+
+  /**
+   * Stack of the rows that were released by the deleted orders
+   */
+  private int[] freeRows = new int[INITIAL_CAPACITY];
+
+  private int freeRowsCount;
+
+  /**
+   * Number of the rows that were ever occupied
+   */
+  private int rowsCount;
+
+  /**
+   * Dictionary that assigns int IDs to the products
+   */
+  private final ProductDictionary dictionary;
+
+  /**
+   * Whether the books remember the price levels changed since the last emission
+   */
+  private final boolean trackLevelChanges;
+
+  /**
+   * Price levels books by int ID of the product, null for the products that were never added to this table
+   */
+  private ProductBook[] booksByProduct = new ProductBook[INITIAL_CAPACITY];
+
+  /**
+   * Highest int ID of the product that was added to this table plus one
+   */
+  private int productsCount;
+
+  /**
+   * Int IDs of the products that currently have resting orders
+   */
+  private final BitSet activeProducts = new BitSet(INITIAL_CAPACITY);
+
+  /**
+   * Number of the products that currently have resting orders
+   */
+  private int activeProductsCount;
+
+  /**
+   * Price levels books of the products that currently have resting orders, in the order of their int IDs
+   */
+  private final Collection<ProductBook> activeBooks = new ActiveBooks();
+
+  /**
+   * Price levels books that were changed since the last emission
+   */
+  private final List<ProductBook> changedBooks = new ArrayList<>();
+
+  /**
+   * Creates the table with its own {@link ProductDictionary}, whose books remember the changed price levels
+   */
+  public OrderTable() {
+    this(new ProductDictionary(), true);
+  }
+
+  /**
+   * @param dictionary        - dictionary that assigns int IDs to the products, shared with the decoders of the orders
+   * @param trackLevelChanges - whether the books must remember the price levels changed since the last emission, so
+   *                          they can be emitted as the deltas
+   */
+  public OrderTable(ProductDictionary dictionary, boolean trackLevelChanges) {
+    this.dictionary = dictionary;
+    this.trackLevelChanges = trackLevelChanges;
+  }
+
+  /**
+   * Adds new order to the table. If order with the same ID already exists it is replaced
+   *
+   * @param orderId   - ID of the order
+   * @param productId - ID of the product
+   * @param side      - sell/buy side of the order
+   * @param price     - price of the order
+   * @param quantity  - quantity of the order
+   */
+  public void add(int orderId, String productId, Side side, int price, int quantity) {
+    add(orderId, dictionary.idOf(productId), side, price, quantity);
+  }
+
+  /**
+   * Adds new order to the table. If order with the same ID already exists it is replaced
+   *
+   * @param orderId  - ID of the order
+   * @param product  - int ID of the product assigned by the {@link ProductDictionary} of this table
+   * @param side     - sell/buy side of the order
+   * @param price    - price of the order
+   * @param quantity - quantity of the order
+   */
+  public void add(int orderId, int product, Side side, int price, int quantity) {
+    int row = rowsByOrderId.get(orderId);
+    if (row == IntIntHashMap.MISSING) {
+      row = allocateRow();
+      rowsByOrderId.put(orderId, row);
+    } else {
+      removeFromBook(row);
+    }
+    ProductBook book = bookOf(product);
+    if (book.isEmpty()) {
+      activeProducts.set(product);
+      activeProductsCount++;
+    }
+    markChanged(book);
+    book.add(side, price, quantity);
+
+    orderIds[row] = orderId;
+    products[row] = product;
+    sides[row] = (byte) side.ordinal();
+    prices[row] = price;
+    quantities[row] = quantity;
+  }
+
+  /**
+   * Updates price and quantity of the existing order. Nothing happens if there is no order with such ID
+   *
+   * @param orderId  - ID of the order to be updated
+   * @param price    - new price
+   * @param quantity - new quantity
+   */
+  public void change(int orderId, int price, int quantity) {
+    int row = rowsByOrderId.get(orderId);
+    if (row == IntIntHashMap.MISSING) {
+      return;
+    }
+    ProductBook book = booksByProduct[products[row]];
+    Side side = SIDES[sides[row]];
+    markChanged(book);
+    book.remove(side, prices[row], quantities[row]);
+    book.add(side, price, quantity);
+
+    prices[row] = price;
+    quantities[row] = quantity;
+  }
+
+  /**
+   * Deletes the existing order. Nothing happens if there is no order with such ID
+   *
+   * @param orderId - ID of the order to be deleted
+   */
+  public void delete(int orderId) {
+    int row = rowsByOrderId.remove(orderId);
+    if (row != IntIntHashMap.MISSING) {
+      removeFromBook(row);
+      releaseRow(row);
+    }
+  }
+
+  /**
+   * @param orderId - ID of the order
+   * @return - true if there is a resting order with the specified ID
+   */
+  public boolean contains(int orderId) {
+    return rowsByOrderId.containsKey(orderId);
+  }
+
+  /**
+   * @param orderId - ID of the resting order
+   * @return - ID of the order's product
+   */
+  public String getProductId(int orderId) {
+    return dictionary.productIdOf(products[rowOf(orderId)]);
+  }
+
+  /**
+   * @param orderId - ID of the resting order
+   * @return - sell/buy side of the order
+   */
+  public Side getSide(int orderId) {
+    return SIDES[sides[rowOf(orderId)]];
+  }
+
+  /**
+   * @param orderId - ID of the resting order
+   * @return - price of the order
+   */
+  public int getPrice(int orderId) {
+    return prices[rowOf(orderId)];
+  }
+
+  /**
+   * @param orderId - ID of the resting order
+   * @return - quantity of the order
+   */
+  public int getQuantity(int orderId) {
+    return quantities[rowOf(orderId)];
+  }
+
+  /**
+   * @return - number of the resting orders
+   */
+  public int size() {
+    return rowsByOrderId.size();
+  }
+
+  /**
+   * @return - true if there are no resting orders
+   */
+  public boolean isEmpty() {
+    return rowsByOrderId.isEmpty();
+  }
+
+  /**
+   * @return - price levels books of all products that have resting orders, in the order of their int IDs. The view is
+   * backed by the table
+   */
+  public Collection<ProductBook> getProductBooks() {
+    return activeBooks;
+  }
+
+  /**
+   * @return - price levels books that were changed since the last emission, including the ones that lost all their
+   * orders
+   */
+  public Collection<ProductBook> getChangedProductBooks() {
+    return changedBooks;
+  }
+
+  /**
+   * Takes a point-in-time copy of the resting orders. Columns are copied as they are, so the cost is a few array
+   * copies, regardless of the number of the products. Product IDs are taken by their int IDs from the dictionary
+   * without copying. Free rows are skipped later, by the snapshot itself
+   *
+   * @return - snapshot of the table
+   */
+  public OrderTableSnapshot snapshot() {
+    return new OrderTableSnapshot(dictionary.productIds(productsCount), rowsCount,
+        Arrays.copyOf(orderIds, rowsCount), Arrays.copyOf(products, rowsCount), Arrays.copyOf(sides, rowsCount),
+        Arrays.copyOf(prices, rowsCount), Arrays.copyOf(quantities, rowsCount));
+  }
+
+  /**
+   * Forgets all changes, so the next delta is calculated from the current state of the books
+   */
+  public void clearChanges() {
+    changedBooks.forEach(ProductBook::clearChanges);
+    changedBooks.clear();
+  }
+
+  private void markChanged(ProductBook book) {
+    if (book.listAsChanged()) {
+      changedBooks.add(book);
+    }
+  }
+
+  private int rowOf(int orderId) {
+    int row = rowsByOrderId.get(orderId);
+    if (row == IntIntHashMap.MISSING) {
+      throw new IllegalArgumentException("There is no order with ID " + orderId);
+    }
+    return row;
+  }
+
+  private ProductBook bookOf(int product) {
+    if (product >= booksByProduct.length) {
+      booksByProduct = Arrays.copyOf(booksByProduct, Math.max(booksByProduct.length << 1, product + 1));
+    }
+    ProductBook book = booksByProduct[product];
+    if (book == null) {
+      book = new ProductBook(dictionary.productIdOf(product), product, trackLevelChanges);
+      booksByProduct[product] = book;
+      productsCount = Math.max(productsCount, product + 1);
+    }
+    return book;
+  }
+
+  /**
+   * Removes quantity of the order from its product's book. Book is dropped from the active ones when its last order
+   * leaves it
+   *
+   * @param row - row of the order to be removed
+   */
+  private void removeFromBook(int row) {
+    ProductBook book = booksByProduct[products[row]];
+    markChanged(book);
+    book.remove(SIDES[sides[row]], prices[row], quantities[row]);
+    if (book.isEmpty()) {
+      activeProducts.clear(products[row]);
+      activeProductsCount--;
+    }
+  }
+
+  private int allocateRow() {
+    if (freeRowsCount > 0) {
+      return freeRows[--freeRowsCount];
+    }
+    if (rowsCount == sides.length) {
+      growColumns(rowsCount << 1);
+    }
+    return rowsCount++;
+  }
+
+  private void releaseRow(int row) {
+    sides[row] = FREE_ROW;
+    if (freeRowsCount == freeRows.length) {
+      freeRows = Arrays.copyOf(freeRows, freeRowsCount << 1);
+    }
+    freeRows[freeRowsCount++] = row;
+  }
+
+  private void growColumns(int capacity) {
+    orderIds = Arrays.copyOf(orderIds, capacity);
+    products = Arrays.copyOf(products, capacity);
+    sides = Arrays.copyOf(sides, capacity);
+    prices = Arrays.copyOf(prices, capacity);
+    quantities = Arrays.copyOf(quantities, capacity);
+  }
+
+  /**
+   * Read-only view of the books of the products that have resting orders
+   */
+  private class ActiveBooks extends AbstractCollection<ProductBook> {
+
+    @Override
+    public Iterator<ProductBook> iterator() {
+      return new Iterator<ProductBook>() {
+
+        private int next = activeProducts.nextSetBit(0);
+
+        @Override
+        public boolean hasNext() {
+          return next >= 0;
+        }
+
+        @Override
+        public ProductBook next() {
+          if (next < 0) {
+            throw new NoSuchElementException();
+          }
+          ProductBook book = booksByProduct[next];
+          next = activeProducts.nextSetBit(next + 1);
+          return book;
+        }
+      };
+    }
+
+    @Override
+    public int size() {
+      return activeProductsCount;
+    }
+  }
+}
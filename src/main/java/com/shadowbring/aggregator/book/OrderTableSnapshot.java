@@ -0,0 +1,167 @@
+package com.shadowbring.aggregator.book;
+
+import com.shadowbring.aggregator.domain.incoming.Side;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Point-in-time copy of the resting orders of the {@link OrderTable}. Taken by copying the primitive columns, so it
+ * costs a few array copies on the owner's thread, while serialization can be performed by any other thread. Rows that
+ * were free at the moment of copying are skipped.
+ * <p>
+ * Binary form:
+ * <pre>
+ *   int productsCount | productsCount * UTF productId | int ordersCount | ordersCount * order
+ *   order: int orderId | int productIndex | byte side | int price | int quantity
+ * </pre>
+ * Only the products the orders refer to are written, indexed in order of their first order. The dictionary is shared
+ * by all the shards, so every shard writes the IDs of its own products rather than of all the known ones
+ *
+ * @author Dmytro Bezruk
+ */
+public class OrderTableSnapshot {
+
+  private static final Side[] SIDES = Side.values();
+
+  /**
+   * Product IDs by index of the product
+   */
+  private final List<String> productIds;
+
+  /**
+   * Number of the copied rows, including the free ones
+   */
+  private final int rowsCount;
+
+  private final int[] orderIds;
+
+  private final int[] products;
+
+  private final byte[] sides;
+
+  private final int[] prices;
+
+  private final int[] quantities;
+
+  OrderTableSnapshot(List<String> productIds, int rowsCount, int[] orderIds, int[] products, byte[] sides,
+                     int[] prices, int[] quantities) {
+    this.productIds = productIds;
+    this.rowsCount = rowsCount;
+    this.orderIds = orderIds;
+    this.products = products;
+    this.sides = sides;
+    this.prices = prices;
+    this.quantities = quantities;
+  }
+
+  /**
+   * Receiver of the orders of the snapshot
+   */
+  @FunctionalInterface
+  public interface OrderVisitor {
+
+    void visit(int orderId, String productId, Side side, int price, int quantity);
+  }
+
+  /**
+   * @return - number of the orders in the snapshot
+   */
+  public int size() {
+    int ordersCount = 0;
+    for (int row = 0; row < rowsCount; row++) {
+      if (sides[row] != OrderTable.FREE_ROW) {
+        ordersCount++;
+      }
+    }
+    return ordersCount;
+  }
+
+  /**
+   * Passes all orders of the snapshot to the visitor
+   *
+   * @param visitor - receiver of the orders
+   */
+  public void forEach(OrderVisitor visitor) {
+    for (int row = 0; row < rowsCount; row++) {
+      if (sides[row] != OrderTable.FREE_ROW) {
+        visitor.visit(orderIds[row], productIds.get(products[row]), SIDES[sides[row]], prices[row], quantities[row]);
+      }
+    }
+  }
+
+  /**
+   * Adds all orders of the snapshot to the table
+   *
+   * @param orderTable - table to be filled
+   */
+  public void applyTo(OrderTable orderTable) {
+    forEach(orderTable::add);
+  }
+
+  /**
+   * Writes the orders in the binary form along with the IDs of their products only
+   *
+   * @param output - output the snapshot is written to
+   * @throws IOException if the output fails
+   */
+  public void writeTo(DataOutput output) throws IOException {
+    // written index of the product plus one by its int ID, zero if the product is not written yet
+    int[] writtenIndexes = new int[productIds.size()];
+    List<String> writtenProductIds = new ArrayList<>();
+    int ordersCount = 0;
+    for (int row = 0; row < rowsCount; row++) {
+      if (sides[row] != OrderTable.FREE_ROW) {
+        ordersCount++;
+        if (writtenIndexes[products[row]] == 0) {
+          writtenProductIds.add(productIds.get(products[row]));
+          writtenIndexes[products[row]] = writtenProductIds.size();
+        }
+      }
+    }
+    output.writeInt(writtenProductIds.size());
+    for (String productId : writtenProductIds) {
+      output.writeUTF(productId);
+    }
+    output.writeInt(ordersCount);
+    for (int row = 0; row < rowsCount; row++) {
+      if (sides[row] != OrderTable.FREE_ROW) {
+        output.writeInt(orderIds[row]);
+        output.writeInt(writtenIndexes[products[row]] - 1);
+        output.writeByte(sides[row]);
+        output.writeInt(prices[row]);
+        output.writeInt(quantities[row]);
+      }
+    }
+  }
+
+  public static OrderTableSnapshot readFrom(DataInput input) throws IOException {
+    int productsCount = input.readInt();
+    List<String> productIds = new ArrayList<>(productsCount);
+    for (int i = 0; i < productsCount; i++) {
+      productIds.add(input.readUTF());
+    }
+    int ordersCount = input.readInt();
+    int[] orderIds = new int[ordersCount];
+    int[] products = new int[ordersCount];
+    byte[] sides = new byte[ordersCount];
+    int[] prices = new int[ordersCount];
+    int[] quantities = new int[ordersCount];
+    for (int i = 0; i < ordersCount; i++) {
+      orderIds[i] = input.readInt();
+      products[i] = input.readInt();
+      sides[i] = input.readByte();
+      prices[i] = input.readInt();
+      quantities[i] = input.readInt();
+      if (products[i] < 0 || products[i] >= productsCount || sides[i] < 0 || sides[i] >= SIDES.length) {
+        throw new IOException("Corrupted order [" + orderIds[i] + "] in the snapshot");
+      }
+    }
+    return new OrderTableSnapshot(Collections.unmodifiableList(productIds), ordersCount, orderIds, products, sides,
+        prices, quantities);
+  }
+}
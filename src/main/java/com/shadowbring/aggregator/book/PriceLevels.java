@@ -0,0 +1,339 @@
+package com.shadowbring.aggregator.book;
+
+import com.shadowbring.aggregator.domain.outgoing.Level;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * One side (sell or buy) of the {@link ProductBook}. Keeps price levels sorted in the order they must be emitted, so
+ * every update costs O(log levels) and reading the levels requires no sorting at all. If the changes are tracked (in
+ * the delta emission mode only), also remembers which price levels were changed since the last emission, so only they
+ * can be emitted. Changed prices are appended to a primitive array, at most once per level thanks to the flag of the
+ * level, and are sorted only when the changes are emitted.
+ * <p>
+ * Emission can be limited by depth: only the best N levels are walked, the rest of the side is never touched. Prices
+ * of the levels emitted last time are remembered, so the delta of the depth-limited side also reports levels that
+ * entered the top N (with their quantity) and levels that left it (with zero quantity), even if they didn't change
+ *
+ * @author Dmytro Bezruk
+ */
+public class PriceLevels {
+
+  /**
+   * Price levels of the side: price -> aggregated quantity and number of the orders at this price
+   */
+  private final NavigableMap<Integer, PriceLevel> levels;
+
+  private final Comparator<Integer> priceOrder;
+
+  /**
+   * Whether the levels are kept in descending order of the prices
+   */
+  private final boolean descending;
+
+  /**
+   * Whether the changed price levels are remembered
+   */
+  private final boolean trackChanges;
+
+  /**
+   * Prices of the levels that were changed or removed since the last emission. May contain duplicates of the removed
+   * levels until sorted
+   */
+  private int[] changedPrices = new int[0];
+
+  private int changedPricesCount;
+
+  /**
+   * Whether {@link #changedPrices} are sorted in ascending order and contain no duplicates
+   */
+  private boolean changedPricesSorted = true;
+
+  /**
+   * Levels whose flags must be reset once the changes are emitted, in the order they were changed
+   */
+  private PriceLevel[] changedLevels = new PriceLevel[0];
+
+  private int changedLevelsCount;
+
+  /**
+   * Prices of the levels emitted last time by the depth-limited emission, in the order they are kept
+   */
+  private int[] emittedPrices = new int[0];
+
+  private int emittedCount;
+
+  /**
+   * @param descending   - whether the price levels must be kept in descending order of the prices
+   * @param trackChanges - whether the price levels changed since the last emission must be remembered
+   */
+  PriceLevels(boolean descending, boolean trackChanges) {
+    this.priceOrder = descending ? Comparator.reverseOrder() : Comparator.naturalOrder();
+    this.levels = new TreeMap<>(priceOrder);
+    this.descending = descending;
+    this.trackChanges = trackChanges;
+  }
+
+  /**
+   * Adds quantity of the order to the price level. Level is created if it doesn't exist yet
+   *
+   * @param price    - price of the order
+   * @param quantity - quantity of the order
+   */
+  void add(int price, int quantity) {
+    PriceLevel level = levels.get(price);
+    if (level == null) {
+      level = new PriceLevel();
+      levels.put(price, level);
+    }
+    level.quantity += quantity;
+    level.orders++;
+    markChanged(price, level);
+  }
+
+  /**
+   * Subtracts quantity of the order from the price level. Level is removed when the last order leaves it
+   *
+   * @param price    - price of the order
+   * @param quantity - quantity of the order
+   */
+  void remove(int price, int quantity) {
+    PriceLevel level = levels.get(price);
+    if (level == null) {
+      return;
+    }
+    if (--level.orders == 0) {
+      levels.remove(price);
+    } else {
+      level.quantity -= quantity;
+    }
+    markChanged(price, level);
+  }
+
+  /**
+   * @return - true if there are no orders at this side
+   */
+  public boolean isEmpty() {
+    return levels.isEmpty();
+  }
+
+  /**
+   * @return - number of the price levels at this side
+   */
+  public int size() {
+    return levels.size();
+  }
+
+  /**
+   * Maps price levels to POJO-classes in the order they are kept
+   *
+   * @return - {@link List<Level>} of the sorted price levels
+   */
+  public List<Level> toLevels() {
+    List<Level> result = new ArrayList<>(levels.size());
+    levels.forEach((price, priceLevel) -> result.add(toLevel(price, priceLevel.quantity)));
+    return result;
+  }
+
+  /**
+   * Maps the best price levels to POJO-classes in the order they are kept and remembers them as emitted
+   *
+   * @param depth - maximum number of the levels, unlimited if not positive
+   * @return - {@link List<Level>} of the sorted best price levels
+   */
+  public List<Level> toLevels(int depth) {
+    if (depth <= 0) {
+      return toLevels();
+    }
+    List<Level> result = new ArrayList<>(Math.min(depth, levels.size()));
+    Iterator<Map.Entry<Integer, PriceLevel>> iterator = levels.entrySet().iterator();
+    while (result.size() < depth && iterator.hasNext()) {
+      Map.Entry<Integer, PriceLevel> entry = iterator.next();
+      result.add(toLevel(entry.getKey(), entry.getValue().quantity));
+    }
+    rememberEmitted(result);
+    return result;
+  }
+
+  /**
+   * Maps the price levels that were changed since the last emission to POJO-classes in the order they are kept.
+   * Removed levels are represented by the levels with zero quantity
+   *
+   * @return - {@link List<Level>} of the sorted changed price levels
+   * @throws IllegalStateException if the changes are not tracked
+   */
+  public List<Level> toChangedLevels() {
+    sortChangedPrices();
+    List<Level> result = new ArrayList<>(changedPricesCount);
+    for (int i = 0; i < changedPricesCount; i++) {
+      int price = changedPrices[descending ? changedPricesCount - 1 - i : i];
+      PriceLevel priceLevel = levels.get(price);
+      result.add(toLevel(price, priceLevel == null ? 0 : priceLevel.quantity));
+    }
+    return result;
+  }
+
+  /**
+   * Maps the changes of the best price levels since the last emission to POJO-classes in the order they are kept and
+   * remembers the best levels as emitted. The current best levels are merged with the ones emitted last time: levels
+   * that are new to the top or were changed are taken with their quantity, levels that left the top are taken with
+   * zero quantity
+   *
+   * @param depth - maximum number of the levels, unlimited if not positive
+   * @return - {@link List<Level>} of the sorted changed best price levels
+   * @throws IllegalStateException if the changes are not tracked
+   */
+  public List<Level> toChangedLevels(int depth) {
+    if (depth <= 0) {
+      return toChangedLevels();
+    }
+    sortChangedPrices();
+    List<Level> current = new ArrayList<>(Math.min(depth, levels.size()));
+    if (changedPricesCount == 0) {
+      return current;
+    }
+    Iterator<Map.Entry<Integer, PriceLevel>> iterator = levels.entrySet().iterator();
+    while (current.size() < depth && iterator.hasNext()) {
+      Map.Entry<Integer, PriceLevel> entry = iterator.next();
+      current.add(toLevel(entry.getKey(), entry.getValue().quantity));
+    }
+
+    List<Level> result = new ArrayList<>();
+    int i = 0;
+    int j = 0;
+    while (i < current.size() || j < emittedCount) {
+      int comparison;
+      if (i == current.size()) {
+        comparison = 1;
+      } else if (j == emittedCount) {
+        comparison = -1;
+      } else {
+        comparison = priceOrder.compare(current.get(i).getPrice(), emittedPrices[j]);
+      }
+      if (comparison < 0) {
+        result.add(current.get(i++));
+      } else if (comparison > 0) {
+        result.add(toLevel(emittedPrices[j++], 0));
+      } else {
+        if (Arrays.binarySearch(changedPrices, 0, changedPricesCount, emittedPrices[j]) >= 0) {
+          result.add(current.get(i));
+        }
+        i++;
+        j++;
+      }
+    }
+    rememberEmitted(current);
+    return result;
+  }
+
+  /**
+   * @return - true if any price level was changed since the last emission, always false if the changes are not tracked
+   */
+  public boolean isChanged() {
+    return changedLevelsCount > 0;
+  }
+
+  /**
+   * Forgets the changes, so the next delta is calculated from the current state
+   */
+  void clearChanges() {
+    for (int i = 0; i < changedLevelsCount; i++) {
+      changedLevels[i].changed = false;
+      changedLevels[i] = null;
+    }
+    changedLevelsCount = 0;
+    changedPricesCount = 0;
+    changedPricesSorted = true;
+  }
+
+  /**
+   * Remembers the price of the level as changed, unless the level is already flagged as changed. Price of the level
+   * that was removed and added again is remembered twice
+   *
+   * @param price - price of the level
+   * @param level - changed or removed level
+   */
+  private void markChanged(int price, PriceLevel level) {
+    if (!trackChanges || level.changed) {
+      return;
+    }
+    if (changedLevelsCount == changedLevels.length) {
+      int capacity = Math.max(changedLevels.length << 1, 4);
+      changedLevels = Arrays.copyOf(changedLevels, capacity);
+      changedPrices = Arrays.copyOf(changedPrices, capacity);
+    }
+    level.changed = true;
+    changedLevels[changedLevelsCount++] = level;
+    changedPrices[changedPricesCount++] = price;
+    changedPricesSorted = false;
+  }
+
+  /**
+   * Sorts the changed prices in ascending order and drops the duplicates
+   *
+   * @throws IllegalStateException if the changes are not tracked
+   */
+  private void sortChangedPrices() {
+    if (!trackChanges) {
+      throw new IllegalStateException("Changes of the price levels are not tracked");
+    }
+    if (changedPricesSorted) {
+      return;
+    }
+    Arrays.sort(changedPrices, 0, changedPricesCount);
+    int distinct = 0;
+    for (int i = 0; i < changedPricesCount; i++) {
+      if (distinct == 0 || changedPrices[i] != changedPrices[distinct - 1]) {
+        changedPrices[distinct++] = changedPrices[i];
+      }
+    }
+    changedPricesCount = distinct;
+    changedPricesSorted = true;
+  }
+
+  /**
+   * Forgets the levels emitted last time, as the receivers are known to have no levels of this side
+   */
+  void forgetEmitted() {
+    emittedCount = 0;
+  }
+
+  private void rememberEmitted(List<Level> emitted) {
+    if (emittedPrices.length < emitted.size()) {
+      emittedPrices = new int[emitted.size()];
+    }
+    for (int i = 0; i < emitted.size(); i++) {
+      emittedPrices[i] = emitted.get(i).getPrice();
+    }
+    emittedCount = emitted.size();
+  }
+
+  private static Level toLevel(int price, int quantity) {
+    Level level = new Level();
+    level.setPrice(price);
+    level.setQuantity(quantity);
+    return level;
+  }
+
+  /**
+   * Mutable aggregate of the single price level
+   */
+  private static final class PriceLevel {
+
+    private int quantity;
+
+    private int orders;
+
+    /**
+     * Whether the price of the level is already remembered as changed
+     */
+    private boolean changed;
+  }
+}
@@ -0,0 +1,186 @@
+package com.shadowbring.aggregator.book;
+
+import com.shadowbring.aggregator.domain.incoming.Side;
+import com.shadowbring.aggregator.domain.outgoing.Product;
+
+/**
+ * Maintained price levels book of the single product. Sell price levels are kept in ascending order and buy price
+ * levels in descending one. Book can be emitted either as a whole or as the delta of the levels that were changed since
+ * the last emission
+ *
+ * @author Dmytro Bezruk
+ */
+public class ProductBook {
+
+  private final String productId;
+
+  /**
+   * Int ID of the product that was assigned by the {@link ProductDictionary}
+   */
+  private final int product;
+
+  private final PriceLevels buyLevels;
+
+  private final PriceLevels sellLevels;
+
+  /**
+   * Whether the book is already listed among the changed ones by the {@link OrderTable}
+   */
+  private boolean listedAsChanged;
+
+  /**
+   * @param productId         - ID of the product this book belongs to
+   * @param product           - int ID of the product this book belongs to
+   * @param trackLevelChanges - whether the price levels changed since the last emission must be remembered, so the
+   *                          book can be emitted as the delta
+   */
+  ProductBook(String productId, int product, boolean trackLevelChanges) {
+    this.productId = productId;
+    this.product = product;
+    this.buyLevels = new PriceLevels(true, trackLevelChanges);
+    this.sellLevels = new PriceLevels(false, trackLevelChanges);
+  }
+
+  /**
+   * Adds quantity of the order to the corresponding price level
+   *
+   * @param side     - sell/buy side of the order
+   * @param price    - price of the order
+   * @param quantity - quantity of the order
+   */
+  void add(Side side, int price, int quantity) {
+    levelsFor(side).add(price, quantity);
+  }
+
+  /**
+   * Subtracts quantity of the order from the corresponding price level
+   *
+   * @param side     - sell/buy side of the order
+   * @param price    - price of the order
+   * @param quantity - quantity of the order
+   */
+  void remove(Side side, int price, int quantity) {
+    levelsFor(side).remove(price, quantity);
+  }
+
+  /**
+   * @return - true if any price level of the product was changed since the last emission
+   */
+  public boolean isChanged() {
+    return buyLevels.isChanged() || sellLevels.isChanged();
+  }
+
+  /**
+   * @return - true if there are no orders for this product
+   */
+  public boolean isEmpty() {
+    return buyLevels.isEmpty() && sellLevels.isEmpty();
+  }
+
+  public String getProductId() {
+    return productId;
+  }
+
+  public int getProduct() {
+    return product;
+  }
+
+  public PriceLevels getBuyLevels() {
+    return buyLevels;
+  }
+
+  public PriceLevels getSellLevels() {
+    return sellLevels;
+  }
+
+  /**
+   * Maps the book to the POJO-class that will be converted to JSON later
+   *
+   * @return - {@link Product} with already sorted price levels
+   */
+  public Product toProduct() {
+    Product product = new Product();
+    product.setProductId(productId);
+    product.setBuyLevels(buyLevels.toLevels());
+    product.setSellLevels(sellLevels.toLevels());
+    return product;
+  }
+
+  /**
+   * Maps the best price levels of the book to the POJO-class that will be converted to JSON later and remembers them
+   * as emitted
+   *
+   * @param depth - maximum number of the levels per side, unlimited if not positive
+   * @return - {@link Product} with already sorted best price levels
+   */
+  public Product toProduct(int depth) {
+    Product product = new Product();
+    product.setProductId(productId);
+    product.setBuyLevels(buyLevels.toLevels(depth));
+    product.setSellLevels(sellLevels.toLevels(depth));
+    return product;
+  }
+
+  /**
+   * Maps the changes of the book to the POJO-class that will be converted to JSON later. Removed price levels have
+   * zero quantity
+   *
+   * @return - {@link Product} with the sorted changed price levels only
+   */
+  public Product toChangedProduct() {
+    Product product = new Product();
+    product.setProductId(productId);
+    product.setBuyLevels(buyLevels.toChangedLevels());
+    product.setSellLevels(sellLevels.toChangedLevels());
+    return product;
+  }
+
+  /**
+   * Maps the changes of the best price levels of the book to the POJO-class that will be converted to JSON later.
+   * Levels that were removed or left the best ones have zero quantity
+   *
+   * @param depth - maximum number of the levels per side, unlimited if not positive
+   * @return - {@link Product} with the sorted changed best price levels only
+   */
+  public Product toChangedProduct(int depth) {
+    Product product = new Product();
+    product.setProductId(productId);
+    product.setBuyLevels(buyLevels.toChangedLevels(depth));
+    product.setSellLevels(sellLevels.toChangedLevels(depth));
+    return product;
+  }
+
+  /**
+   * Forgets the levels emitted last time by both sides. Used when the book was not a part of the emitted snapshot
+   */
+  public void forgetEmitted() {
+    buyLevels.forgetEmitted();
+    sellLevels.forgetEmitted();
+  }
+
+  /**
+   * Forgets the changes of both sides
+   */
+  void clearChanges() {
+    buyLevels.clearChanges();
+    sellLevels.clearChanges();
+    listedAsChanged = false;
+  }
+
+  /**
+   * Marks the book as listed among the changed ones
+   *
+   * @return - true if the book wasn't listed yet
+   */
+  boolean listAsChanged() {
+    if (listedAsChanged) {
+      return false;
+    }
+    listedAsChanged = true;
+    return true;
+  }
+
+  private PriceLevels levelsFor(Side side) {
+    return side == Side.buy ? buyLevels : sellLevels;
+  }
+}
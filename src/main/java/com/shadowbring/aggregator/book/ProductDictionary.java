@@ -0,0 +1,179 @@
+package com.shadowbring.aggregator.book;
+
+import io.vertx.core.buffer.Buffer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dictionary that maps every product ID to the dense int ID once, when the order is decoded, so the order tables, the
+ * books and the routing of the orders deal with the array indexes only. Every product ID is kept as a single canonical
+ * {@link String} instance, which is looked up by its int ID only when the price levels are emitted.
+ * <p>
+ * Product IDs of the binary datagrams are looked up by their UTF-8 bytes straight in the datagram, so no
+ * {@link String} is created for the already known products. IDs are assigned for the lifetime of the process and never
+ * reused, they are not persisted: snapshots keep the product IDs themselves.
+ * <p>
+ * Lookups and assignments are synchronized, as they come from several threads: the decoders run on the listener's
+ * event loop or on the busy-poll thread, the journal is decoded and the snapshot is restored by the recovery worker,
+ * which also routes the replayed orders, and the listener's event loop routes the orders that arrived without int IDs.
+ * These rarely overlap, so the lock is uncontended in practice. Product ID of the already assigned int ID can be read
+ * by any thread without locking
+ *
+ * @author Dmytro Bezruk
+ */
+@Component
+public class ProductDictionary {
+
+  /**
+   * Int ID of the product that was not looked up in the dictionary yet
+   */
+  public static final int NO_PRODUCT = -1;
+
+  private static final int INITIAL_CAPACITY = 1024;
+
+  /**
+   * Product ID -> int ID
+   */
+  private final Map<String, Integer> ids = new HashMap<>(INITIAL_CAPACITY);
+
+  /**
+   * Open addressing table of the UTF-8 bytes of the product IDs. Every slot holds the bytes, their hash and the int ID
+   * plus one, zero marks the empty slot
+   */
+  private byte[][] slotKeys = new byte[INITIAL_CAPACITY << 1][];
+
+  private int[] slotHashes = new int[INITIAL_CAPACITY << 1];
+
+  private int[] slotIds = new int[INITIAL_CAPACITY << 1];
+
+  private int slotsCount;
+
+  /**
+   * Product IDs by int ID. Replaced by the grown copy, so the readers always see the assigned IDs
+   */
+  private volatile String[] productIds = new String[INITIAL_CAPACITY];
+
+  private int size;
+
+  /**
+   * @param productId - ID of the product
+   * @return - int ID of the product, assigned if the product is new
+   */
+  public synchronized int idOf(String productId) {
+    Integer id = ids.get(productId);
+    return id != null ? id : assign(productId);
+  }
+
+  /**
+   * Looks up the product ID by its UTF-8 bytes without decoding them, unless the bytes were never seen before
+   *
+   * @param data   - buffer that contains the product ID
+   * @param offset - offset of the product ID
+   * @param length - length of the product ID in bytes
+   * @return - int ID of the product, assigned if the product is new
+   */
+  public synchronized int idOf(Buffer data, int offset, int length) {
+    int hash = 1;
+    for (int i = offset; i < offset + length; i++) {
+      hash = 31 * hash + data.getByte(i);
+    }
+    int mask = slotIds.length - 1;
+    for (int slot = mix(hash) & mask; slotIds[slot] != 0; slot = (slot + 1) & mask) {
+      if (slotHashes[slot] == hash && equal(slotKeys[slot], data, offset, length)) {
+        return slotIds[slot] - 1;
+      }
+    }
+    byte[] key = data.getBytes(offset, offset + length);
+    int id = idOf(new String(key, StandardCharsets.UTF_8));
+    if ((slotsCount + 1) << 1 > slotIds.length) {
+      growSlots();
+    }
+    putSlot(key, hash, id);
+    return id;
+  }
+
+  /**
+   * @param id - int ID that was assigned by the dictionary
+   * @return - canonical instance of the product ID
+   */
+  public String productIdOf(int id) {
+    return productIds[id];
+  }
+
+  /**
+   * @return - number of the known products
+   */
+  public synchronized int size() {
+    return size;
+  }
+
+  /**
+   * @param count - number of the int IDs, starting from zero, that were already assigned
+   * @return - product IDs by int ID. Entries are never changed, so the list can be read by any thread
+   */
+  List<String> productIds(int count) {
+    return Collections.unmodifiableList(Arrays.asList(productIds).subList(0, count));
+  }
+
+  private int assign(String productId) {
+    int id = size++;
+    String[] current = productIds;
+    if (id == current.length) {
+      current = Arrays.copyOf(current, id << 1);
+    }
+    current[id] = productId;
+    productIds = current;
+    ids.put(productId, id);
+    return id;
+  }
+
+  private void growSlots() {
+    byte[][] keys = slotKeys;
+    int[] hashes = slotHashes;
+    int[] slotIdsToMove = slotIds;
+    slotKeys = new byte[keys.length << 1][];
+    slotHashes = new int[keys.length << 1];
+    slotIds = new int[keys.length << 1];
+    slotsCount = 0;
+    for (int i = 0; i < keys.length; i++) {
+      if (slotIdsToMove[i] != 0) {
+        putSlot(keys[i], hashes[i], slotIdsToMove[i] - 1);
+      }
+    }
+  }
+
+  private void putSlot(byte[] key, int hash, int id) {
+    int mask = slotIds.length - 1;
+    int slot = mix(hash) & mask;
+    while (slotIds[slot] != 0) {
+      slot = (slot + 1) & mask;
+    }
+    slotKeys[slot] = key;
+    slotHashes[slot] = hash;
+    slotIds[slot] = id + 1;
+    slotsCount++;
+  }
+
+  private static boolean equal(byte[] key, Buffer data, int offset, int length) {
+    if (key.length != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (key[i] != data.getByte(offset + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int mix(int hash) {
+    int mixed = hash * 0x9E3779B9;
+    return mixed ^ (mixed >>> 16);
+  }
+}
@@ -0,0 +1,135 @@
+package com.shadowbring.aggregator.codec;
+
+import com.shadowbring.aggregator.domain.incoming.Side;
+import com.shadowbring.aggregator.domain.outgoing.BulkType;
+
+/**
+ * Fixed layout of the binary wire format. All numbers are big-endian, strings are UTF-8 bytes prefixed with their
+ * unsigned short length.
+ * <p>
+ * Inbound {@link com.shadowbring.aggregator.domain.incoming.MessageSequence}:
+ * <pre>
+ *   int inSequenceNumber | ushort messagesCount | messages
+ *   addOrder:    byte 1 | int orderId | byte side | int price | int quantity | string productId
+ *   changeOrder: byte 2 | int orderId | int price | int quantity
+ *   deleteOrder: byte 3 | int orderId
+ * </pre>
+ * Outbound {@link com.shadowbring.aggregator.domain.outgoing.ProductsBulk}:
+ * <pre>
+ *   int outSequenceNumber | byte type | ushort productsCount | products
+ *   product: string productId | byte flags | ushort buyLevelsCount | levels | ushort sellLevelsCount | levels
+ *   level:   int price | int quantity
+ * </pre>
+ * The only product flag is {@link #CONTINUED}, set when the rest of the product's levels follow in the next bulk
+ *
+ * @author Dmytro Bezruk
+ */
+final class BinaryLayout {
+
+  static final byte ADD_ORDER = 1;
+
+  static final byte CHANGE_ORDER = 2;
+
+  static final byte DELETE_ORDER = 3;
+
+  static final byte BUY = 0;
+
+  static final byte SELL = 1;
+
+  static final int SEQUENCE_HEADER_LENGTH = 4 + 2;
+
+  static final byte SNAPSHOT = 0;
+
+  static final byte DELTA = 1;
+
+  static final int BULK_HEADER_LENGTH = 4 + 1 + 2;
+
+  static final byte CONTINUED = 1;
+
+  /**
+   * Product header without the product ID bytes: ID length, flags and both levels counts
+   */
+  static final int PRODUCT_HEADER_LENGTH = 2 + 1 + 2 + 2;
+
+  static final int LEVEL_LENGTH = 4 + 4;
+
+  static final String CHARSET = "UTF-8";
+
+  /**
+   * Largest count or string length that fits the unsigned short
+   */
+  static final int MAX_UNSIGNED_SHORT = 0xFFFF;
+
+  private BinaryLayout() {
+  }
+
+  /**
+   * @param value - string to be encoded
+   * @return - number of bytes the string takes in UTF-8, without encoding it. Unpaired surrogates take one byte
+   */
+  static int utf8Length(String value) {
+    int length = 0;
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        length++;
+      } else if (c < 0x800) {
+        length += 2;
+      } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                     && Character.isLowSurrogate(value.charAt(i + 1))) {
+        length += 4;
+        i++;
+      } else if (Character.isSurrogate(c)) {
+        length++;
+      } else {
+        length += 3;
+      }
+    }
+    return length;
+  }
+
+  /**
+   * Guards the fields of the unsigned short type, as the buffers silently keep the lowest 16 bits only
+   *
+   * @param value - count or length to be encoded
+   * @param field - name of the field for the error message
+   * @return - the same value
+   * @throws IllegalArgumentException if the value doesn't fit the unsigned short
+   */
+  static int unsignedShort(int value, String field) {
+    if (value < 0 || value > MAX_UNSIGNED_SHORT) {
+      throw new IllegalArgumentException(field + " [" + value + "] exceeds " + MAX_UNSIGNED_SHORT);
+    }
+    return value;
+  }
+
+  static byte encodeSide(Side side) {
+    return side == Side.buy ? BUY : SELL;
+  }
+
+  static byte encodeBulkType(BulkType type) {
+    return type == BulkType.delta ? DELTA : SNAPSHOT;
+  }
+
+  static BulkType decodeBulkType(byte type) {
+    switch (type) {
+      case SNAPSHOT:
+        return BulkType.snapshot;
+      case DELTA:
+        return BulkType.delta;
+      default:
+        throw new IllegalArgumentException("Unknown bulk type " + type);
+    }
+  }
+
+  static Side decodeSide(byte side) {
+    switch (side) {
+      case BUY:
+        return Side.buy;
+      case SELL:
+        return Side.sell;
+      default:
+        throw new IllegalArgumentException("Unknown side " + side);
+    }
+  }
+}
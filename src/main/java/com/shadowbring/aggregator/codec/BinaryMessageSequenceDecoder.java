@@ -0,0 +1,120 @@
+package com.shadowbring.aggregator.codec;
+
+import com.shadowbring.aggregator.book.ProductDictionary;
+import com.shadowbring.aggregator.domain.incoming.AddOrder;
+import com.shadowbring.aggregator.domain.incoming.ChangeOrder;
+import com.shadowbring.aggregator.domain.incoming.DeleteOrder;
+import com.shadowbring.aggregator.domain.incoming.MessageSequence;
+import com.shadowbring.aggregator.domain.incoming.Order;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.shadowbring.aggregator.codec.BinaryLayout.*;
+
+/**
+ * Decodes datagrams of the fixed binary layout described in {@link BinaryLayout}. Fields are read at their fixed
+ * offsets without any tokenizing, and product IDs are looked up in the {@link ProductDictionary} by their bytes, so the
+ * known ones are not even decoded. Enabled by codec.inbound=binary.
+ * <p>
+ * Orders are still materialized as POJO-classes rather than read through flyweights over the datagram: the sequence
+ * may wait in the reorder buffer, and its orders are routed to the shards and applied later on their event loops, so
+ * flyweights would pin every datagram till then and the routing would read every field through the buffer anyway
+ *
+ * @author Dmytro Bezruk
+ */
+@Component
+@ConditionalOnProperty(name = "codec.inbound", havingValue = "binary")
+public class BinaryMessageSequenceDecoder implements MessageSequenceDecoder {
+
+  private final ProductDictionary dictionary;
+
+  /**
+   * @param dictionary - dictionary the product IDs are looked up in
+   */
+  @Autowired
+  public BinaryMessageSequenceDecoder(ProductDictionary dictionary) {
+    this.dictionary = dictionary;
+  }
+
+  @Override
+  public int peekSequenceNumber(Buffer data) {
+    if (data.length() < SEQUENCE_HEADER_LENGTH) {
+      throw new DecodeException("Failed to decode: " + data.length() + " bytes is shorter than the header");
+    }
+    return data.getInt(0);
+  }
+
+  @Override
+  public MessageSequence decode(Buffer data) {
+    try {
+      MessageSequence messageSequence = new MessageSequence();
+      messageSequence.setInSequenceNumber(data.getInt(0));
+      int messagesCount = data.getUnsignedShort(4);
+      List<Order> messages = new ArrayList<>(messagesCount);
+      int offset = SEQUENCE_HEADER_LENGTH;
+      for (int i = 0; i < messagesCount; i++) {
+        byte type = data.getByte(offset);
+        switch (type) {
+          case ADD_ORDER:
+            offset = decodeAddOrder(data, offset + 1, messages);
+            break;
+          case CHANGE_ORDER:
+            offset = decodeChangeOrder(data, offset + 1, messages);
+            break;
+          case DELETE_ORDER:
+            offset = decodeDeleteOrder(data, offset + 1, messages);
+            break;
+          default:
+            throw new DecodeException("Failed to decode: unknown message type " + type);
+        }
+      }
+      if (offset != data.length()) {
+        throw new DecodeException("Failed to decode: " + (data.length() - offset) + " trailing bytes");
+      }
+      messageSequence.setMessages(messages);
+      return messageSequence;
+    } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+      throw new DecodeException("Failed to decode: " + e.getMessage());
+    }
+  }
+
+  private int decodeAddOrder(Buffer data, int offset, List<Order> messages) {
+    AddOrder addOrder = new AddOrder();
+    addOrder.setOrderId(data.getInt(offset));
+    addOrder.setSide(decodeSide(data.getByte(offset + 4)));
+    addOrder.setPrice(data.getInt(offset + 5));
+    addOrder.setQuantity(data.getInt(offset + 9));
+    int productIdLength = data.getUnsignedShort(offset + 13);
+    int productIdOffset = offset + 15;
+    if (productIdOffset + productIdLength > data.length()) {
+      throw new IndexOutOfBoundsException("product ID exceeds the datagram");
+    }
+    int product = dictionary.idOf(data, productIdOffset, productIdLength);
+    addOrder.setProduct(product);
+    addOrder.setProductId(dictionary.productIdOf(product));
+    messages.add(addOrder);
+    return productIdOffset + productIdLength;
+  }
+
+  private int decodeChangeOrder(Buffer data, int offset, List<Order> messages) {
+    ChangeOrder changeOrder = new ChangeOrder();
+    changeOrder.setOrderId(data.getInt(offset));
+    changeOrder.setPrice(data.getInt(offset + 4));
+    changeOrder.setQuantity(data.getInt(offset + 8));
+    messages.add(changeOrder);
+    return offset + 12;
+  }
+
+  private int decodeDeleteOrder(Buffer data, int offset, List<Order> messages) {
+    DeleteOrder deleteOrder = new DeleteOrder();
+    deleteOrder.setOrderId(data.getInt(offset));
+    messages.add(deleteOrder);
+    return offset + 4;
+  }
+}
@@ -0,0 +1,60 @@
+package com.shadowbring.aggregator.codec;
+
+import com.shadowbring.aggregator.domain.incoming.AddOrder;
+import com.shadowbring.aggregator.domain.incoming.ChangeOrder;
+import com.shadowbring.aggregator.domain.incoming.DeleteOrder;
+import com.shadowbring.aggregator.domain.incoming.MessageSequence;
+import com.shadowbring.aggregator.domain.incoming.Order;
+import io.vertx.core.buffer.Buffer;
+
+import java.nio.charset.StandardCharsets;
+
+import static com.shadowbring.aggregator.codec.BinaryLayout.*;
+
+/**
+ * Encodes {@link MessageSequence}s to the fixed binary layout described in {@link BinaryLayout}. Counterpart of the
+ * {@link BinaryMessageSequenceDecoder} for the feed publishers
+ *
+ * @author Dmytro Bezruk
+ */
+public class BinaryMessageSequenceEncoder {
+
+  /**
+   * Encodes the sequence
+   *
+   * @param messageSequence - {@link MessageSequence} to be published
+   * @return - payload of the datagram
+   * @throws IllegalArgumentException if the sequence has more than 65535 messages or the product ID takes more than
+   *                                  65535 bytes
+   */
+  public Buffer encode(MessageSequence messageSequence) {
+    Buffer buffer = Buffer.buffer();
+    buffer.appendInt(messageSequence.getInSequenceNumber());
+    buffer.appendUnsignedShort(unsignedShort(messageSequence.getMessages().size(), "Messages count"));
+    for (Order order : messageSequence.getMessages()) {
+      if (order instanceof AddOrder) {
+        AddOrder addOrder = (AddOrder) order;
+        byte[] productId = addOrder.getProductId().getBytes(StandardCharsets.UTF_8);
+        buffer.appendByte(ADD_ORDER)
+            .appendInt(addOrder.getOrderId())
+            .appendByte(encodeSide(addOrder.getSide()))
+            .appendInt(addOrder.getPrice())
+            .appendInt(addOrder.getQuantity())
+            .appendUnsignedShort(unsignedShort(productId.length, "Product ID length"))
+            .appendBytes(productId);
+      } else if (order instanceof ChangeOrder) {
+        ChangeOrder changeOrder = (ChangeOrder) order;
+        buffer.appendByte(CHANGE_ORDER)
+            .appendInt(changeOrder.getOrderId())
+            .appendInt(changeOrder.getPrice())
+            .appendInt(changeOrder.getQuantity());
+      } else if (order instanceof DeleteOrder) {
+        buffer.appendByte(DELETE_ORDER)
+            .appendInt(((DeleteOrder) order).getOrderId());
+      } else {
+        throw new IllegalArgumentException("Unknown order type " + order.getClass());
+      }
+    }
+    return buffer;
+  }
+}
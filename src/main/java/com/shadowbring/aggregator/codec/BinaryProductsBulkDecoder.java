@@ -0,0 +1,70 @@
+package com.shadowbring.aggregator.codec;
+
+import com.shadowbring.aggregator.domain.outgoing.Level;
+import com.shadowbring.aggregator.domain.outgoing.Product;
+import com.shadowbring.aggregator.domain.outgoing.ProductsBulk;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.shadowbring.aggregator.codec.BinaryLayout.*;
+
+/**
+ * Decodes {@link ProductsBulk}s of the fixed binary layout described in {@link BinaryLayout}. Counterpart of the
+ * {@link BinaryProductsBulkEncoder} for the consumers of the aggregated price levels
+ *
+ * @author Dmytro Bezruk
+ */
+public class BinaryProductsBulkDecoder {
+
+  /**
+   * Decodes the payload of the datagram
+   *
+   * @param data - payload of the received datagram
+   * @return - decoded {@link ProductsBulk}
+   * @throws DecodeException if payload is malformed
+   */
+  public ProductsBulk decode(Buffer data) {
+    try {
+      ProductsBulk bulk = new ProductsBulk();
+      bulk.setOutSequenceNumber(data.getInt(0));
+      bulk.setType(decodeBulkType(data.getByte(4)));
+      int productsCount = data.getUnsignedShort(5);
+      List<Product> products = new ArrayList<>(productsCount);
+      int offset = BULK_HEADER_LENGTH;
+      for (int i = 0; i < productsCount; i++) {
+        Product product = new Product();
+        int productIdLength = data.getUnsignedShort(offset);
+        product.setProductId(data.getString(offset + 2, offset + 2 + productIdLength, CHARSET));
+        offset += 2 + productIdLength;
+        product.setContinued((data.getByte(offset++) & CONTINUED) != 0);
+        List<Level> buyLevels = new ArrayList<>();
+        offset = decodeLevels(data, offset, buyLevels);
+        List<Level> sellLevels = new ArrayList<>();
+        offset = decodeLevels(data, offset, sellLevels);
+        product.setBuyLevels(buyLevels);
+        product.setSellLevels(sellLevels);
+        products.add(product);
+      }
+      bulk.setProducts(products);
+      return bulk;
+    } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+      throw new DecodeException("Failed to decode: " + e.getMessage());
+    }
+  }
+
+  private int decodeLevels(Buffer data, int offset, List<Level> levels) {
+    int levelsCount = data.getUnsignedShort(offset);
+    offset += 2;
+    for (int i = 0; i < levelsCount; i++) {
+      Level level = new Level();
+      level.setPrice(data.getInt(offset));
+      level.setQuantity(data.getInt(offset + 4));
+      levels.add(level);
+      offset += LEVEL_LENGTH;
+    }
+    return offset;
+  }
+}
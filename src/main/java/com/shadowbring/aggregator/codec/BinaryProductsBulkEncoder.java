@@ -0,0 +1,74 @@
+package com.shadowbring.aggregator.codec;
+
+import com.shadowbring.aggregator.domain.outgoing.Level;
+import com.shadowbring.aggregator.domain.outgoing.Product;
+import com.shadowbring.aggregator.domain.outgoing.ProductsBulk;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+import static com.shadowbring.aggregator.codec.BinaryLayout.*;
+
+/**
+ * Encodes {@link ProductsBulk}s to the fixed binary layout described in {@link BinaryLayout}. Fields are written
+ * straight to the target buffer, product IDs are encoded to UTF-8 in place, so no intermediate arrays are created.
+ * Counts and lengths that don't fit their unsigned short fields are rejected rather than truncated. Enabled by
+ * codec.outbound=binary
+ *
+ * @author Dmytro Bezruk
+ */
+@Component
+@ConditionalOnProperty(name = "codec.outbound", havingValue = "binary")
+public class BinaryProductsBulkEncoder implements ProductsBulkEncoder {
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws IllegalArgumentException if the bulk has more than 65535 products, the product has more than 65535 levels
+   *                                  on a side or its ID takes more than 65535 bytes
+   */
+  @Override
+  public void encode(ProductsBulk bulk, ByteBuf target) {
+    List<Product> products = bulk.getProducts();
+    target.writeInt(bulk.getOutSequenceNumber());
+    target.writeByte(encodeBulkType(bulk.getType()));
+    target.writeShort(unsignedShort(products.size(), "Products count"));
+    for (int i = 0; i < products.size(); i++) {
+      Product product = products.get(i);
+      int lengthIndex = target.writerIndex();
+      target.writeShort(0);
+      target.setShort(lengthIndex,
+          unsignedShort(ByteBufUtil.writeUtf8(target, product.getProductId()), "Product ID length"));
+      target.writeByte(product.isContinued() ? CONTINUED : 0);
+      writeLevels(target, product.getBuyLevels());
+      writeLevels(target, product.getSellLevels());
+    }
+  }
+
+  @Override
+  public int bulkOverhead() {
+    return BULK_HEADER_LENGTH;
+  }
+
+  @Override
+  public int productOverhead(Product product) {
+    return PRODUCT_HEADER_LENGTH + utf8Length(product.getProductId());
+  }
+
+  @Override
+  public int levelLength(Level level) {
+    return LEVEL_LENGTH;
+  }
+
+  private void writeLevels(ByteBuf target, List<Level> levels) {
+    target.writeShort(unsignedShort(levels.size(), "Levels count"));
+    for (int i = 0; i < levels.size(); i++) {
+      Level level = levels.get(i);
+      target.writeInt(level.getPrice());
+      target.writeInt(level.getQuantity());
+    }
+  }
+}
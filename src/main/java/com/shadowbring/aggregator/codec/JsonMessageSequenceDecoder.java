@@ -0,0 +1,115 @@
+package com.shadowbring.aggregator.codec;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.shadowbring.aggregator.book.ProductDictionary;
+import com.shadowbring.aggregator.domain.incoming.AddOrder;
+import com.shadowbring.aggregator.domain.incoming.MessageSequence;
+import com.shadowbring.aggregator.domain.incoming.Order;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.Json;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes JSON datagrams in one streaming pass: Jackson reads tokens straight from the bytes of the datagram and binds
+ * them to {@link MessageSequence} and its orders. Neither intermediate {@link String} nor JSON tree is built. Default
+ * inbound format, codec.inbound=json.
+ * <p>
+ * Product IDs of the bound orders are replaced by their canonical instances from the {@link ProductDictionary}, along
+ * with their int IDs, so the decoded duplicates are dropped right away
+ * <p>
+ * Sequence number is peeked by walking the top-level tokens only, so the messages are skipped without binding. Both
+ * the sequence number and the messages are required, the datagram without any of them is malformed
+ *
+ * @author Dmytro Bezruk
+ */
+@Component
+@ConditionalOnProperty(name = "codec.inbound", havingValue = "json", matchIfMissing = true)
+public class JsonMessageSequenceDecoder implements MessageSequenceDecoder {
+
+  private static final String SEQUENCE_NUMBER_FIELD = "inSequenceNumber";
+
+  /**
+   * Reader is immutable and thread-safe, so it is prepared once
+   */
+  private final ObjectReader reader = Json.mapper.readerFor(MessageSequence.class);
+
+  private final JsonFactory factory = Json.mapper.getFactory();
+
+  private final ProductDictionary dictionary;
+
+  /**
+   * @param dictionary - dictionary that assigns int IDs to the products of the decoded orders
+   */
+  @Autowired
+  public JsonMessageSequenceDecoder(ProductDictionary dictionary) {
+    this.dictionary = dictionary;
+  }
+
+  @Override
+  public int peekSequenceNumber(Buffer data) {
+    ByteBuf byteBuf = data.getByteBuf();
+    try (JsonParser parser = byteBuf.hasArray() ?
+                                 factory.createParser(byteBuf.array(), byteBuf.arrayOffset() + byteBuf.readerIndex(),
+                                     byteBuf.readableBytes()) :
+                                 factory.createParser((InputStream) new ByteBufInputStream(byteBuf))) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new DecodeException("Failed to decode: object expected");
+      }
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        JsonToken value = parser.nextToken();
+        if (SEQUENCE_NUMBER_FIELD.equals(field) && value == JsonToken.VALUE_NUMBER_INT) {
+          return parser.getIntValue();
+        }
+        parser.skipChildren();
+      }
+      throw new DecodeException("Failed to decode: no sequence number");
+    } catch (IOException e) {
+      throw new DecodeException("Failed to decode: " + e.getMessage());
+    }
+  }
+
+  @Override
+  public MessageSequence decode(Buffer data) {
+    ByteBuf byteBuf = data.getByteBuf();
+    MessageSequence messageSequence;
+    try {
+      if (byteBuf.hasArray()) {
+        messageSequence = reader.readValue(byteBuf.array(), byteBuf.arrayOffset() + byteBuf.readerIndex(),
+            byteBuf.readableBytes());
+      } else {
+        messageSequence = reader.readValue((InputStream) new ByteBufInputStream(byteBuf));
+      }
+    } catch (IOException e) {
+      throw new DecodeException("Failed to decode: " + e.getMessage());
+    }
+    if (messageSequence == null || messageSequence.getInSequenceNumber() == null) {
+      throw new DecodeException("Failed to decode: no sequence number");
+    }
+    if (messageSequence.getMessages() == null || messageSequence.getMessages().contains(null)) {
+      throw new DecodeException("Failed to decode: no messages");
+    }
+    messageSequence.getMessages().forEach(this::internProduct);
+    return messageSequence;
+  }
+
+  private void internProduct(Order order) {
+    if (order instanceof AddOrder && ((AddOrder) order).getProductId() != null) {
+      AddOrder addOrder = (AddOrder) order;
+      int product = dictionary.idOf(addOrder.getProductId());
+      addOrder.setProduct(product);
+      addOrder.setProductId(dictionary.productIdOf(product));
+    }
+  }
+}
@@ -0,0 +1,302 @@
+package com.shadowbring.aggregator.codec;
+
+import com.shadowbring.aggregator.domain.outgoing.BulkType;
+import com.shadowbring.aggregator.domain.outgoing.Level;
+import com.shadowbring.aggregator.domain.outgoing.Product;
+import com.shadowbring.aggregator.domain.outgoing.ProductsBulk;
+import io.netty.buffer.ByteBuf;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Encodes {@link ProductsBulk}s to JSON. Default outbound format, codec.outbound=json
+ * <p>
+ * JSON is written byte by byte straight to the target buffer: field names are pre-encoded, numbers are written digit by
+ * digit and strings are escaped and encoded to UTF-8 in place. Neither intermediate {@link String}s nor arrays are
+ * created, so encoding to a pooled buffer produces no garbage. Output is the same as the one of
+ * {@link io.vertx.core.json.Json#encode}
+ *
+ * @author Dmytro Bezruk
+ */
+@Component
+@ConditionalOnProperty(name = "codec.outbound", havingValue = "json", matchIfMissing = true)
+public class JsonProductsBulkEncoder implements ProductsBulkEncoder {
+
+  private static final byte[] OUT_SEQUENCE_NUMBER = bytes("{\"outSequenceNumber\":");
+
+  private static final byte[] TYPE = bytes(",\"type\":");
+
+  private static final byte[] PRODUCTS = bytes(",\"products\":");
+
+  private static final byte[] PRODUCT_ID = bytes("{\"productId\":");
+
+  private static final byte[] BUY_LEVELS = bytes(",\"buyLevels\":");
+
+  private static final byte[] SELL_LEVELS = bytes(",\"sellLevels\":");
+
+  private static final byte[] CONTINUED = bytes(",\"continued\":true");
+
+  private static final byte[] PRICE = bytes("{\"price\":");
+
+  private static final byte[] QUANTITY = bytes(",\"quantity\":");
+
+  private static final byte[] NULL = bytes("null");
+
+  private static final byte[] MIN_INT = bytes(String.valueOf(Integer.MIN_VALUE));
+
+  private static final byte[] HEX_DIGITS = bytes("0123456789ABCDEF");
+
+  /**
+   * Quoted names of the {@link BulkType}s by ordinal
+   */
+  private static final byte[][] BULK_TYPES = new byte[BulkType.values().length][];
+
+  /**
+   * Length of the bulk without products: the longest sequence number and type, brackets of the products array
+   */
+  private static final int BULK_OVERHEAD;
+
+  static {
+    int longestType = NULL.length;
+    for (BulkType type : BulkType.values()) {
+      BULK_TYPES[type.ordinal()] = bytes("\"" + type.name() + "\"");
+      longestType = Math.max(longestType, BULK_TYPES[type.ordinal()].length);
+    }
+    BULK_OVERHEAD = OUT_SEQUENCE_NUMBER.length + MIN_INT.length + TYPE.length + longestType + PRODUCTS.length + 3;
+  }
+
+  @Override
+  public void encode(ProductsBulk bulk, ByteBuf target) {
+    target.writeBytes(OUT_SEQUENCE_NUMBER);
+    writeInteger(target, bulk.getOutSequenceNumber());
+    target.writeBytes(TYPE);
+    if (bulk.getType() == null) {
+      target.writeBytes(NULL);
+    } else {
+      target.writeBytes(BULK_TYPES[bulk.getType().ordinal()]);
+    }
+    target.writeBytes(PRODUCTS);
+    List<Product> products = bulk.getProducts();
+    if (products == null) {
+      target.writeBytes(NULL);
+    } else {
+      target.writeByte('[');
+      for (int i = 0; i < products.size(); i++) {
+        if (i > 0) {
+          target.writeByte(',');
+        }
+        writeProduct(target, products.get(i));
+      }
+      target.writeByte(']');
+    }
+    target.writeByte('}');
+  }
+
+  @Override
+  public int bulkOverhead() {
+    return BULK_OVERHEAD;
+  }
+
+  @Override
+  public int productOverhead(Product product) {
+    return 1 + PRODUCT_ID.length + stringLength(product.getProductId()) + BUY_LEVELS.length + SELL_LEVELS.length + 4 +
+               CONTINUED.length + 1;
+  }
+
+  @Override
+  public int levelLength(Level level) {
+    return 1 + PRICE.length + integerLength(level.getPrice()) + QUANTITY.length + integerLength(level.getQuantity())
+        + 1;
+  }
+
+  private static void writeProduct(ByteBuf target, Product product) {
+    target.writeBytes(PRODUCT_ID);
+    writeString(target, product.getProductId());
+    target.writeBytes(BUY_LEVELS);
+    writeLevels(target, product.getBuyLevels());
+    target.writeBytes(SELL_LEVELS);
+    writeLevels(target, product.getSellLevels());
+    if (product.isContinued()) {
+      target.writeBytes(CONTINUED);
+    }
+    target.writeByte('}');
+  }
+
+  private static void writeLevels(ByteBuf target, List<Level> levels) {
+    if (levels == null) {
+      target.writeBytes(NULL);
+      return;
+    }
+    target.writeByte('[');
+    for (int i = 0; i < levels.size(); i++) {
+      if (i > 0) {
+        target.writeByte(',');
+      }
+      Level level = levels.get(i);
+      target.writeBytes(PRICE);
+      writeInteger(target, level.getPrice());
+      target.writeBytes(QUANTITY);
+      writeInteger(target, level.getQuantity());
+      target.writeByte('}');
+    }
+    target.writeByte(']');
+  }
+
+  private static void writeInteger(ByteBuf target, Integer value) {
+    if (value == null) {
+      target.writeBytes(NULL);
+    } else {
+      writeInt(target, value);
+    }
+  }
+
+  private static void writeInt(ByteBuf target, int value) {
+    if (value == Integer.MIN_VALUE) {
+      target.writeBytes(MIN_INT);
+      return;
+    }
+    if (value < 0) {
+      target.writeByte('-');
+      value = -value;
+    }
+    int divisor = 1;
+    while (value / divisor >= 10) {
+      divisor *= 10;
+    }
+    for (; divisor > 0; divisor /= 10) {
+      target.writeByte('0' + value / divisor % 10);
+    }
+  }
+
+  private static int integerLength(Integer value) {
+    if (value == null) {
+      return NULL.length;
+    }
+    if (value == Integer.MIN_VALUE) {
+      return MIN_INT.length;
+    }
+    int length = value < 0 ? 2 : 1;
+    for (int rest = Math.abs(value); rest >= 10; rest /= 10) {
+      length++;
+    }
+    return length;
+  }
+
+  /**
+   * @return - length of the string written by {@link #writeString}
+   */
+  private static int stringLength(String value) {
+    if (value == null) {
+      return NULL.length;
+    }
+    int length = 2;
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        length += c >= 0x20 && c != '"' && c != '\\' ? 1 : escapeLength(c);
+      } else if (c < 0x800) {
+        length += 2;
+      } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                     && Character.isLowSurrogate(value.charAt(i + 1))) {
+        length += 4;
+        i++;
+      } else if (Character.isSurrogate(c)) {
+        length++;
+      } else {
+        length += 3;
+      }
+    }
+    return length;
+  }
+
+  private static int escapeLength(char c) {
+    switch (c) {
+      case '"':
+      case '\\':
+      case '\b':
+      case '\t':
+      case '\n':
+      case '\f':
+      case '\r':
+        return 2;
+      default:
+        return 6;
+    }
+  }
+
+  /**
+   * Writes the string quoted, escaped the same way Jackson does it by default and encoded to UTF-8
+   */
+  private static void writeString(ByteBuf target, String value) {
+    if (value == null) {
+      target.writeBytes(NULL);
+      return;
+    }
+    target.writeByte('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        writeAsciiChar(target, c);
+      } else if (c < 0x800) {
+        target.writeByte(0xC0 | c >> 6);
+        target.writeByte(0x80 | c & 0x3F);
+      } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                     && Character.isLowSurrogate(value.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, value.charAt(++i));
+        target.writeByte(0xF0 | codePoint >> 18);
+        target.writeByte(0x80 | codePoint >> 12 & 0x3F);
+        target.writeByte(0x80 | codePoint >> 6 & 0x3F);
+        target.writeByte(0x80 | codePoint & 0x3F);
+      } else if (Character.isSurrogate(c)) {
+        target.writeByte('?');
+      } else {
+        target.writeByte(0xE0 | c >> 12);
+        target.writeByte(0x80 | c >> 6 & 0x3F);
+        target.writeByte(0x80 | c & 0x3F);
+      }
+    }
+    target.writeByte('"');
+  }
+
+  private static void writeAsciiChar(ByteBuf target, char c) {
+    if (c >= 0x20 && c != '"' && c != '\\') {
+      target.writeByte(c);
+      return;
+    }
+    target.writeByte('\\');
+    switch (c) {
+      case '"':
+      case '\\':
+        target.writeByte(c);
+        break;
+      case '\b':
+        target.writeByte('b');
+        break;
+      case '\t':
+        target.writeByte('t');
+        break;
+      case '\n':
+        target.writeByte('n');
+        break;
+      case '\f':
+        target.writeByte('f');
+        break;
+      case '\r':
+        target.writeByte('r');
+        break;
+      default:
+        target.writeByte('u');
+        target.writeByte('0');
+        target.writeByte('0');
+        target.writeByte(HEX_DIGITS[c >> 4]);
+        target.writeByte(HEX_DIGITS[c & 0xF]);
+    }
+  }
+
+  private static byte[] bytes(String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,32 @@
+package com.shadowbring.aggregator.codec;
+
+import com.shadowbring.aggregator.domain.incoming.MessageSequence;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+
+/**
+ * Defines the contract for the decoding of the received datagrams to {@link MessageSequence}s
+ *
+ * @author Dmytro Bezruk
+ */
+public interface MessageSequenceDecoder {
+
+  /**
+   * Decodes the payload of the datagram
+   *
+   * @param data - payload of the received datagram
+   * @return - decoded {@link MessageSequence}
+   * @throws DecodeException if payload is malformed
+   */
+  MessageSequence decode(Buffer data);
+
+  /**
+   * Reads only the sequence number of the datagram, without decoding its messages. Lets the redundant copies of the
+   * already received messages be dropped before the full decoding
+   *
+   * @param data - payload of the received datagram
+   * @return - {@link MessageSequence#inSequenceNumber} of the datagram
+   * @throws DecodeException if payload is malformed or has no sequence number
+   */
+  int peekSequenceNumber(Buffer data);
+}
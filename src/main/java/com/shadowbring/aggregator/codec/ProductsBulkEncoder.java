@@ -0,0 +1,58 @@
+package com.shadowbring.aggregator.codec;
+
+import com.shadowbring.aggregator.domain.outgoing.Level;
+import com.shadowbring.aggregator.domain.outgoing.Product;
+import com.shadowbring.aggregator.domain.outgoing.ProductsBulk;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * Defines the contract for the encoding of the {@link ProductsBulk}s to the payloads of the emitted datagrams.
+ * Encoders write straight to the provided buffer, so the payload can be encoded to a pooled buffer without any
+ * intermediate copies.
+ * <p>
+ * Encoders also tell how many bytes every part of the bulk takes, so the bulks can be packed up to the datagram size
+ * before they are encoded. Lengths are upper bounds: the encoded bulk never exceeds the sum of its parts
+ *
+ * @author Dmytro Bezruk
+ */
+public interface ProductsBulkEncoder {
+
+  /**
+   * Encodes the bulk to the buffer, starting at its writer index. Buffer grows if needed
+   *
+   * @param bulk   - {@link ProductsBulk} to be emitted
+   * @param target - buffer the payload of the datagram is written to
+   */
+  void encode(ProductsBulk bulk, ByteBuf target);
+
+  /**
+   * Encodes the bulk to a new unpooled buffer
+   *
+   * @param bulk - {@link ProductsBulk} to be emitted
+   * @return - payload of the datagram
+   */
+  default Buffer encode(ProductsBulk bulk) {
+    ByteBuf target = Unpooled.buffer();
+    encode(bulk, target);
+    return Buffer.buffer(target);
+  }
+
+  /**
+   * @return - length of the bulk without products, including the longest possible sequence number and type
+   */
+  int bulkOverhead();
+
+  /**
+   * @param product - product of the bulk
+   * @return - length of the product without its levels, including the separator and the continuation marker
+   */
+  int productOverhead(Product product);
+
+  /**
+   * @param level - price level of the product
+   * @return - length of the level, including the separator
+   */
+  int levelLength(Level level);
+}
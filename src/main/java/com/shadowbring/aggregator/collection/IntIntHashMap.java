@@ -0,0 +1,215 @@
+package com.shadowbring.aggregator.collection;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from primitive int keys to primitive int values. Keys and values are kept in two plain
+ * arrays and collisions are resolved with linear probing, so neither lookups nor updates allocate or box anything.
+ * <p>
+ * Key 0 is used as the marker of a free slot, so its mapping is stored aside from the arrays. Not thread-safe
+ *
+ * @author Dmytro Bezruk
+ */
+public class IntIntHashMap {
+
+  /**
+   * Value that is returned by {@link #get(int)} and {@link #remove(int)} when there is no mapping for the key
+   */
+  public static final int MISSING = -1;
+
+  private static final int FREE_KEY = 0;
+
+  private static final float LOAD_FACTOR = 0.5f;
+
+  private int[] keys;
+
+  private int[] values;
+
+  private int mask;
+
+  private int size;
+
+  private int resizeThreshold;
+
+  private boolean hasFreeKey;
+
+  private int freeKeyValue;
+
+  /**
+   * @param expectedSize - number of the mappings that can be stored without resizing
+   */
+  public IntIntHashMap(int expectedSize) {
+    allocate(capacityFor(expectedSize));
+  }
+
+  /**
+   * @param key - key to look up
+   * @return - value mapped to the key or {@link #MISSING} if there is no such mapping
+   */
+  public int get(int key) {
+    if (key == FREE_KEY) {
+      return hasFreeKey ? freeKeyValue : MISSING;
+    }
+    int slot = hash(key) & mask;
+    int current;
+    while ((current = keys[slot]) != FREE_KEY) {
+      if (current == key) {
+        return values[slot];
+      }
+      slot = (slot + 1) & mask;
+    }
+    return MISSING;
+  }
+
+  /**
+   * @param key - key to look up
+   * @return - true if there is a mapping for the key
+   */
+  public boolean containsKey(int key) {
+    return get(key) != MISSING;
+  }
+
+  /**
+   * Maps the value to the key replacing the previous mapping, if any
+   *
+   * @param key   - key
+   * @param value - value, must not be equal to {@link #MISSING}
+   * @return - previous value or {@link #MISSING} if there was no mapping
+   */
+  public int put(int key, int value) {
+    if (key == FREE_KEY) {
+      int previous = hasFreeKey ? freeKeyValue : MISSING;
+      if (!hasFreeKey) {
+        size++;
+      }
+      hasFreeKey = true;
+      freeKeyValue = value;
+      return previous;
+    }
+    int slot = hash(key) & mask;
+    int current;
+    while ((current = keys[slot]) != FREE_KEY) {
+      if (current == key) {
+        int previous = values[slot];
+        values[slot] = value;
+        return previous;
+      }
+      slot = (slot + 1) & mask;
+    }
+    keys[slot] = key;
+    values[slot] = value;
+    if (++size > resizeThreshold) {
+      rehash(keys.length << 1);
+    }
+    return MISSING;
+  }
+
+  /**
+   * Removes the mapping of the key. Following slots of the probe chain are shifted back, so lookups never have to skip
+   * deleted slots
+   *
+   * @param key - key to remove
+   * @return - removed value or {@link #MISSING} if there was no mapping
+   */
+  public int remove(int key) {
+    if (key == FREE_KEY) {
+      if (!hasFreeKey) {
+        return MISSING;
+      }
+      hasFreeKey = false;
+      size--;
+      return freeKeyValue;
+    }
+    int slot = hash(key) & mask;
+    int current;
+    while ((current = keys[slot]) != FREE_KEY) {
+      if (current == key) {
+        int removed = values[slot];
+        shiftKeys(slot);
+        size--;
+        return removed;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return MISSING;
+  }
+
+  /**
+   * @return - number of the mappings
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return - true if there are no mappings
+   */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Removes all mappings keeping the allocated capacity
+   */
+  public void clear() {
+    Arrays.fill(keys, FREE_KEY);
+    hasFreeKey = false;
+    size = 0;
+  }
+
+  private void shiftKeys(int slot) {
+    int last;
+    int current;
+    while (true) {
+      last = slot;
+      slot = (slot + 1) & mask;
+      while (true) {
+        if ((current = keys[slot]) == FREE_KEY) {
+          keys[last] = FREE_KEY;
+          return;
+        }
+        int home = hash(current) & mask;
+        if (last <= slot ? last >= home || home > slot : last >= home && home > slot) {
+          break;
+        }
+        slot = (slot + 1) & mask;
+      }
+      keys[last] = current;
+      values[last] = values[slot];
+    }
+  }
+
+  private void rehash(int newCapacity) {
+    int[] oldKeys = keys;
+    int[] oldValues = values;
+    allocate(newCapacity);
+    for (int i = 0; i < oldKeys.length; i++) {
+      int key = oldKeys[i];
+      if (key != FREE_KEY) {
+        int slot = hash(key) & mask;
+        while (keys[slot] != FREE_KEY) {
+          slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = oldValues[i];
+      }
+    }
+  }
+
+  private void allocate(int capacity) {
+    keys = new int[capacity];
+    values = new int[capacity];
+    mask = capacity - 1;
+    resizeThreshold = (int) (capacity * LOAD_FACTOR);
+  }
+
+  private static int capacityFor(int expectedSize) {
+    int capacity = Integer.highestOneBit(Math.max((int) (expectedSize / LOAD_FACTOR), 2) - 1) << 1;
+    return Math.max(capacity, 4);
+  }
+
+  private static int hash(int key) {
+    int h = key * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+}
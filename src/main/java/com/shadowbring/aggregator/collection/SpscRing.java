@@ -0,0 +1,112 @@
+package com.shadowbring.aggregator.collection;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded lock-free queue for exactly one producer thread and one consumer thread. Elements are kept in a ring of the
+ * power-of-two size, the producer owns the tail and the consumer owns the head, so neither of them ever waits for the
+ * other or takes a lock. Indices are published with the ordered stores only, and every side caches the last seen index
+ * of the other one, so the shared counters are read only when the ring looks full or empty.
+ * <p>
+ * If the ring is full, {@link #offer(Object)} fails straight away and it is up to the producer to report the overflow
+ *
+ * @param <T> - type of the elements
+ * @author Dmytro Bezruk
+ */
+public class SpscRing<T> {
+
+  private final Object[] elements;
+
+  private final int mask;
+
+  /**
+   * Index of the next element to be taken, written by the consumer only
+   */
+  private final AtomicLong head = new AtomicLong();
+
+  /**
+   * Index of the next element to be added, written by the producer only
+   */
+  private final AtomicLong tail = new AtomicLong();
+
+  /**
+   * Head as the producer saw it last time
+   */
+  private long producerHeadCache;
+
+  /**
+   * Tail as the consumer saw it last time
+   */
+  private long consumerTailCache;
+
+  /**
+   * @param capacity - maximal number of the elements, rounded up to the power of two
+   * @throws IllegalArgumentException if capacity is not positive
+   */
+  public SpscRing(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity must be positive, but was " + capacity);
+    }
+    int size = Integer.highestOneBit(capacity);
+    if (size < capacity) {
+      size <<= 1;
+    }
+    elements = new Object[size];
+    mask = size - 1;
+  }
+
+  /**
+   * Adds the element. Must be invoked by the producer thread only
+   *
+   * @param element - element to be added, not null
+   * @return - false if the ring is full and the element was not added
+   */
+  public boolean offer(T element) {
+    long currentTail = tail.get();
+    if (currentTail - producerHeadCache == elements.length) {
+      producerHeadCache = head.get();
+      if (currentTail - producerHeadCache == elements.length) {
+        return false;
+      }
+    }
+    elements[(int) currentTail & mask] = element;
+    tail.lazySet(currentTail + 1);
+    return true;
+  }
+
+  /**
+   * Takes the oldest element. Must be invoked by the consumer thread only
+   *
+   * @return - the oldest element or null if the ring is empty
+   */
+  @SuppressWarnings("unchecked")
+  public T poll() {
+    long currentHead = head.get();
+    if (currentHead == consumerTailCache) {
+      consumerTailCache = tail.get();
+      if (currentHead == consumerTailCache) {
+        return null;
+      }
+    }
+    int slot = (int) currentHead & mask;
+    T element = (T) elements[slot];
+    elements[slot] = null;
+    head.lazySet(currentHead + 1);
+    return element;
+  }
+
+  /**
+   * @return - number of the elements at the moment. Can be invoked by any thread, so it is an estimate only
+   */
+  public int size() {
+    long currentHead = head.get();
+    return (int) (tail.get() - currentHead);
+  }
+
+  /**
+   * @return - maximal number of the elements
+   */
+  public int capacity() {
+    return elements.length;
+  }
+}
@@ -1,8 +1,10 @@
 package com.shadowbring.aggregator.domain.incoming;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.shadowbring.aggregator.book.OrderTable;
+import com.shadowbring.aggregator.book.ProductDictionary;
 import lombok.Data;
-
-import java.util.Map;
+import lombok.EqualsAndHashCode;
 
 /**
  * POJO-class that represents the message with the new order
@@ -10,25 +12,37 @@ import java.util.Map;
  * @author Dmytro Bezruk
  */
 @Data
+@EqualsAndHashCode(exclude = "product")
 public class AddOrder implements Order {
 
-  private Integer orderId;
+  private int orderId;
 
   private String productId;
 
+  /**
+   * Int ID of the product assigned by the {@link ProductDictionary} when the order is decoded. Not a part of the
+   * message
+   */
+  @JsonIgnore
+  private int product = ProductDictionary.NO_PRODUCT;
+
   private Side side;
 
-  private Integer price;
+  private int price;
 
-  private Integer quantity;
+  private int quantity;
 
   /**
-   * Method that adds current instance to the {@link Order}s' store
+   * Method that adds current order to the {@link Order}s' store. The instance itself is not retained by the store
    *
    * @param orders - destination where this instance must be added
    */
   @Override
-  public void applyToOrderTable(Map<Integer, Order> orders) {
-    orders.put(this.orderId, this);
+  public void applyToOrderTable(OrderTable orders) {
+    if (this.product == ProductDictionary.NO_PRODUCT) {
+      orders.add(this.orderId, this.productId, this.side, this.price, this.quantity);
+    } else {
+      orders.add(this.orderId, this.product, this.side, this.price, this.quantity);
+    }
   }
 }
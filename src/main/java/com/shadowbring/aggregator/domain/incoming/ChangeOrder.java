@@ -1,9 +1,8 @@
 package com.shadowbring.aggregator.domain.incoming;
 
+import com.shadowbring.aggregator.book.OrderTable;
 import lombok.Data;
 
-import java.util.Map;
-
 /**
  * POJO-class that represents the message that updates existing {@link Order}
  *
@@ -12,28 +11,20 @@ import java.util.Map;
 @Data
 public class ChangeOrder implements Order {
 
-  private Integer orderId;
+  private int orderId;
 
-  private Integer price;
+  private int price;
 
-  private Integer quantity;
+  private int quantity;
 
   /**
-   * This method looks for the {@link Order} with the particular ID in the {@link Map}. If found - updates particular
-   * {@link Order}. Nothing otherwise
+   * This method looks for the {@link Order} with the particular ID in the {@link OrderTable}. If found - updates
+   * particular {@link Order} and the price levels it belongs to. Nothing otherwise
    *
    * @param orders - destination where this instance must apply its updates
    */
   @Override
-  public void applyToOrderTable(Map<Integer, Order> orders) {
-    if (orders.containsKey(this.orderId)) {
-      orders.compute(this.orderId, (id, order) -> {
-        AddOrder updatedOrder = (AddOrder) order;
-        updatedOrder.setPrice(this.price);
-        updatedOrder.setQuantity(this.quantity);
-
-        return updatedOrder;
-      });
-    }
+  public void applyToOrderTable(OrderTable orders) {
+    orders.change(this.orderId, this.price, this.quantity);
   }
 }
@@ -1,9 +1,8 @@
 package com.shadowbring.aggregator.domain.incoming;
 
+import com.shadowbring.aggregator.book.OrderTable;
 import lombok.Data;
 
-import java.util.Map;
-
 /**
  * POJO-class that represents the message that deletes existing {@link Order}
  *
@@ -12,18 +11,16 @@ import java.util.Map;
 @Data
 public class DeleteOrder implements Order {
 
-  private Integer orderId;
+  private int orderId;
 
   /**
-   * This method looks for the {@link Order} with the particular ID in the {@link Map}. If found - deletes it.
-   * Nothing otherwise
+   * This method looks for the {@link Order} with the particular ID in the {@link OrderTable}. If found - deletes it
+   * and releases its quantity from the price level. Nothing otherwise
    *
    * @param orders - destination where this instance must delete an existing order
    */
   @Override
-  public void applyToOrderTable(Map<Integer, Order> orders) {
-    if (orders.containsKey(this.orderId)) {
-      orders.remove(this.orderId);
-    }
+  public void applyToOrderTable(OrderTable orders) {
+    orders.delete(this.orderId);
   }
 }
@@ -1,6 +1,8 @@
 package com.shadowbring.aggregator.domain.incoming;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 
 import java.util.List;
 
@@ -10,6 +12,7 @@ import java.util.List;
  * @author Dmytro Bezruk
  */
 @Data
+@EqualsAndHashCode(exclude = "receivedAt")
 public class MessageSequence {
 
   /**
@@ -21,4 +24,11 @@ public class MessageSequence {
    * Sequence of the {@link Order}s
    */
   private List<Order> messages;
+
+  /**
+   * Monotonic time in nanoseconds ({@link System#nanoTime()}) the datagram of the sequence was received at, zero if
+   * the sequence was not received from the network. Not a part of the message
+   */
+  @JsonIgnore
+  private long receivedAt;
 }
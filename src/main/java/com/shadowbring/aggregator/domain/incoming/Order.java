@@ -2,8 +2,7 @@ package com.shadowbring.aggregator.domain.incoming;
 
 import com.fasterxml.jackson.annotation.JsonSubTypes;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
-
-import java.util.Map;
+import com.shadowbring.aggregator.book.OrderTable;
 
 /**
  * Marker interface that simplifies mapping of the JSON messages to the defined POJO-classes. Also defines the contract
@@ -24,5 +23,5 @@ public interface Order {
    *
    * @param orders - storage of the {@link Order}s
    */
-  void applyToOrderTable(Map<Integer, Order> orders);
+  void applyToOrderTable(OrderTable orders);
 }
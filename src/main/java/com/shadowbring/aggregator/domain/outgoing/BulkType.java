@@ -0,0 +1,17 @@
+package com.shadowbring.aggregator.domain.outgoing;
+
+/**
+ * Enumeration that contains kinds of the {@link ProductsBulk}s
+ *
+ * @author Dmytro Bezruk
+ */
+public enum BulkType {
+  /**
+   * Bulk carries all price levels of its products
+   */
+  snapshot,
+  /**
+   * Bulk carries only the price levels that were changed since the previous emission. Removed levels have zero quantity
+   */
+  delta
+}
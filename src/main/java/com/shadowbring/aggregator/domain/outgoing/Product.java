@@ -1,5 +1,6 @@
 package com.shadowbring.aggregator.domain.outgoing;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.Data;
 
 import java.util.List;
@@ -17,4 +18,11 @@ public class Product {
   private List<Level> buyLevels;
 
   private List<Level> sellLevels;
+
+  /**
+   * Whether the product didn't fit the datagram and the rest of its price levels follow in the next bulk. Omitted from
+   * JSON unless set
+   */
+  @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+  private boolean continued;
 }
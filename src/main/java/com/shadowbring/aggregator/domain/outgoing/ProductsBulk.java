@@ -18,6 +18,11 @@ public class ProductsBulk {
    */
   private Integer outSequenceNumber;
 
+  /**
+   * Whether the bulk is a part of the full snapshot or of the delta since the previous emission
+   */
+  private BulkType type;
+
   /**
    * Aggregated price levels for the particular product
    */
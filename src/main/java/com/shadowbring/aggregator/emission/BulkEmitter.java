@@ -0,0 +1,25 @@
+package com.shadowbring.aggregator.emission;
+
+import com.shadowbring.aggregator.domain.outgoing.ProductsBulk;
+import io.vertx.core.Handler;
+
+import java.util.List;
+
+/**
+ * Defines the contract for the transmission of the aggregated price levels. Implementation is chosen by
+ * emission.transport property of the application.properties file
+ *
+ * @author Dmytro Bezruk
+ */
+public interface BulkEmitter {
+
+  /**
+   * Encodes and sends all bulks of a single emission, in order. Invoked on the event loop, so it must not block
+   *
+   * @param bulks     - bulks of the emission
+   * @param published - handler of the monotonic time in nanoseconds the last bulk was sent at, failed or not. Invoked
+   *                  straight away if there are no bulks, and never if the emission is dropped
+   * @return - false if the emission was dropped, so the consumers of the deltas miss its changes
+   */
+  boolean emit(List<ProductsBulk> bulks, Handler<Long> published);
+}
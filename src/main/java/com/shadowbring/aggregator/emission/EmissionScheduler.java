@@ -0,0 +1,174 @@
+package com.shadowbring.aggregator.emission;
+
+import com.shadowbring.aggregator.aggregation.PriceLevelsAggregator;
+import io.vertx.core.Vertx;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when the aggregated price levels are collected by the {@link PriceLevelsAggregator} and handed over to the
+ * {@link BulkEmitter}.
+ * <p>
+ * Fixed timer emits every 2 seconds (configurable via application.properties file) in any case. If emission is
+ * triggered by the changes, the changes are also coalesced: emission follows once no change arrived within the
+ * coalescing window, but never later than the maximum staleness after the first change it carries. So a single change
+ * is published within the window, a burst is published as a single emission and a steady flow is published at the pace
+ * of the maximum staleness, without an emission per message.
+ * <p>
+ * Not thread-safe, must be started and notified on the same event loop
+ *
+ * @author Dmytro Bezruk
+ */
+@Component
+@Slf4j
+public class EmissionScheduler {
+
+  private static final long NO_TIMER = -1;
+
+  /**
+   * Interval between emissions of the fixed timer. Configurable via application.properties file
+   */
+  private final long emissionPeriod;
+
+  /**
+   * Whether the changes of the books trigger emissions. Configurable via application.properties file
+   */
+  private final EmissionTrigger trigger;
+
+  /**
+   * Period of silence in milliseconds after which the changes are emitted. Configurable via application.properties
+   * file
+   */
+  private final long coalescingWindow;
+
+  /**
+   * Maximum delay in milliseconds between the change and its emission. Configurable via application.properties file
+   */
+  private final long maxStaleness;
+
+  /**
+   * Service that performs aggregation of the price levels
+   */
+  private final PriceLevelsAggregator aggregator;
+
+  /**
+   * Transport of the aggregated price levels
+   */
+  private final BulkEmitter emitter;
+
+  private Vertx vertx;
+
+  /**
+   * Whether there are changes that were not emitted yet
+   */
+  private boolean changesPending;
+
+  private long firstChangeNanos;
+
+  private long lastChangeNanos;
+
+  private long timerId = NO_TIMER;
+
+  /**
+   * Creates the scheduler. Nothing is scheduled until it is started
+   *
+   * @param emissionPeriod   - interval between emissions of the fixed timer
+   * @param trigger          - whether the changes of the books trigger emissions
+   * @param coalescingWindow - period of silence in milliseconds after which the changes are emitted
+   * @param maxStaleness     - maximum delay in milliseconds between the change and its emission
+   * @param aggregator       - service that performs aggregation of the price levels
+   * @param emitter          - transport of the aggregated price levels
+   */
+  @Autowired
+  public EmissionScheduler(@Value("${emission.period}") long emissionPeriod,
+                           @Value("${emission.trigger}") EmissionTrigger trigger,
+                           @Value("${emission.coalescing-window}") long coalescingWindow,
+                           @Value("${emission.max-staleness}") long maxStaleness,
+                           PriceLevelsAggregator aggregator,
+                           BulkEmitter emitter) {
+    this.emissionPeriod = emissionPeriod;
+    this.trigger = trigger;
+    this.coalescingWindow = coalescingWindow;
+    this.maxStaleness = maxStaleness;
+    this.aggregator = aggregator;
+    this.emitter = emitter;
+  }
+
+  /**
+   * Registers the fixed timer on the caller's event loop. If the changes were not emitted because the previous emission
+   * was still in progress, they are emitted as soon as it completes
+   *
+   * @param vertx - Vert.x instance the timers are set on
+   */
+  public void start(Vertx vertx) {
+    this.vertx = vertx;
+    aggregator.onEmissionCompleted(v -> {
+      if (changesPending && timerId == NO_TIMER) {
+        emit();
+      }
+    });
+    vertx.setPeriodic(emissionPeriod, id -> {
+      log.info("Preparation for sending aggregated price levels has been started...");
+      emit();
+    });
+  }
+
+  /**
+   * Notifies the scheduler that orders were applied to the books. Schedules the emission if it is triggered by the
+   * changes and there is no emission scheduled yet
+   */
+  public void onBooksChanged() {
+    if (trigger != EmissionTrigger.change) {
+      return;
+    }
+    lastChangeNanos = System.nanoTime();
+    if (!changesPending) {
+      changesPending = true;
+      firstChangeNanos = lastChangeNanos;
+      timerId = vertx.setTimer(coalescingWindow, this::onDeadline);
+    }
+  }
+
+  /**
+   * Emits if no change arrived within the coalescing window or if the first pending change reached the maximum
+   * staleness. Otherwise waits for the earlier of the two
+   */
+  private void onDeadline(long id) {
+    timerId = NO_TIMER;
+    long now = System.nanoTime();
+    long deadline = Math.min(lastChangeNanos + TimeUnit.MILLISECONDS.toNanos(coalescingWindow),
+        firstChangeNanos + TimeUnit.MILLISECONDS.toNanos(maxStaleness));
+    if (now - deadline >= 0) {
+      log.debug("Changes are emitted [{}] us after the first one",
+          TimeUnit.NANOSECONDS.toMicros(now - firstChangeNanos));
+      emit();
+    } else {
+      timerId = vertx.setTimer(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - now + 999_999)), this::onDeadline);
+    }
+  }
+
+  /**
+   * Collects the price levels and hands them over to the emitter. Every pending change is carried by this emission. If
+   * the emitter drops the emission, the next one carries the whole book, so the consumers of the deltas don't drift. If
+   * the aggregator skips the emission, the pending changes stay pending till the current emission completes
+   */
+  private void emit() {
+    if (timerId != NO_TIMER) {
+      vertx.cancelTimer(timerId);
+      timerId = NO_TIMER;
+    }
+    boolean pending = changesPending;
+    changesPending = false;
+    if (!aggregator.aggregateByPriceLevels((bulks, published) -> {
+      if (!emitter.emit(bulks, published)) {
+        aggregator.forceSnapshot();
+      }
+    })) {
+      changesPending = pending;
+    }
+  }
+}
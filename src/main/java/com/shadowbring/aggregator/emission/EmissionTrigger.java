@@ -0,0 +1,17 @@
+package com.shadowbring.aggregator.emission;
+
+/**
+ * Enumeration that contains kinds of the events that trigger the emission of the aggregated price levels
+ *
+ * @author Dmytro Bezruk
+ */
+public enum EmissionTrigger {
+  /**
+   * Price levels are emitted by the fixed timer only
+   */
+  timer,
+  /**
+   * Price levels are emitted shortly after the books change, while the fixed timer remains as a heartbeat
+   */
+  change
+}
@@ -0,0 +1,253 @@
+package com.shadowbring.aggregator.emission;
+
+import com.shadowbring.aggregator.codec.ProductsBulkEncoder;
+import com.shadowbring.aggregator.domain.outgoing.ProductsBulk;
+import com.shadowbring.aggregator.metrics.Counter;
+import com.shadowbring.aggregator.metrics.PipelineMetrics;
+import com.shadowbring.aggregator.metrics.Stage;
+import com.shadowbring.aggregator.metrics.TraceEvent;
+import com.shadowbring.aggregator.metrics.TraceOutcome;
+import com.shadowbring.aggregator.metrics.TraceRing;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.vertx.core.Handler;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.channels.DatagramChannel;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends all bulks of the emission in a tight batch through a blocking {@link DatagramChannel} bound to the emission
+ * interface, on a dedicated sender thread, so the event loop only hands the bulks over and goes back to the inbound
+ * datagrams. Bulks are encoded one after another to the single direct buffer taken from the pool, which is reused for
+ * every datagram, so sending takes no allocations. Outcome of the batch is reported as counters, with no callback per
+ * datagram. Enabled by emission.transport=nio
+ * <p>
+ * If the sender falls behind and there are too many emissions waiting for it, the new emission is dropped and its bulks
+ * are counted as {@link Counter#sendFailures}. The caller is told about the drop, so the next emission can carry the
+ * whole book
+ *
+ * @author Dmytro Bezruk
+ */
+@Component
+@Slf4j
+@ConditionalOnProperty(name = "emission.transport", havingValue = "nio")
+public class NioBulkEmitter implements BulkEmitter {
+
+  /**
+   * Initial capacity of the buffer the bulks are encoded to. Buffer grows if the bulk doesn't fit
+   */
+  private static final int PAYLOAD_INITIAL_CAPACITY = 2048;
+
+  /**
+   * Maximum number of the emissions waiting for the sender
+   */
+  private static final int PENDING_EMISSIONS_CAPACITY = 4;
+
+  /**
+   * Multicast address for sending aggregated price levels. Configurable via application.properties file
+   */
+  private final String emissionAddress;
+
+  /**
+   * Port for sending aggregated price levels. Configurable via application.properties file
+   */
+  private final int emissionPort;
+
+  /**
+   * Address of the interface the channel is bound to and multicasts through. If it is a wildcard address, the
+   * interface of the local host is used. Configurable via application.properties file
+   */
+  private final String emissionHost;
+
+  /**
+   * Encoder of the emitted bulks
+   */
+  private final ProductsBulkEncoder encoder;
+
+  private final PipelineMetrics metrics;
+
+  private final TraceRing traceRing;
+
+  private final BlockingQueue<PendingEmission> pendingEmissions =
+      new ArrayBlockingQueue<>(PENDING_EMISSIONS_CAPACITY);
+
+  private DatagramChannel channel;
+
+  private InetSocketAddress target;
+
+  private Thread sender;
+
+  private volatile boolean running;
+
+  /**
+   * Creates the emitter. The channel is opened by {@link #open()}
+   *
+   * @param emissionAddress - multicast address for sending aggregated price levels
+   * @param emissionPort    - port for sending aggregated price levels
+   * @param emissionHost    - address of the interface the channel is bound to and multicasts through
+   * @param encoder         - encoder of the emitted bulks
+   * @param metrics         - metrics the outcome of the batches is counted in
+   * @param traceRing       - ring the sent bulks are traced to
+   */
+  @Autowired
+  public NioBulkEmitter(@Value("${emission.address}") String emissionAddress,
+                        @Value("${emission.port}") int emissionPort,
+                        @Value("${emission.host}") String emissionHost,
+                        ProductsBulkEncoder encoder,
+                        PipelineMetrics metrics,
+                        TraceRing traceRing) {
+    this.emissionAddress = emissionAddress;
+    this.emissionPort = emissionPort;
+    this.emissionHost = emissionHost;
+    this.encoder = encoder;
+    this.metrics = metrics;
+    this.traceRing = traceRing;
+  }
+
+  /**
+   * Opens the channel and starts the sender thread
+   *
+   * @throws IOException if the channel can't be opened or bound
+   */
+  @PostConstruct
+  public void open() throws IOException {
+    InetAddress host = InetAddress.getByName(emissionHost);
+    channel = DatagramChannel.open(StandardProtocolFamily.INET);
+    channel.bind(new InetSocketAddress(host, 0));
+    NetworkInterface networkInterface = NetworkInterface.getByInetAddress(
+        host.isAnyLocalAddress() ? InetAddress.getLocalHost() : host);
+    if (networkInterface != null) {
+      channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, networkInterface);
+    }
+    target = new InetSocketAddress(emissionAddress, emissionPort);
+    running = true;
+    sender = new Thread(this::sendLoop, "bulk-emitter");
+    sender.setDaemon(true);
+    sender.start();
+    log.info("Bulks are emitted to [{}] through [{}]", target, channel.getLocalAddress());
+  }
+
+  @Override
+  public boolean emit(List<ProductsBulk> bulks, Handler<Long> published) {
+    if (bulks.isEmpty()) {
+      published.handle(System.nanoTime());
+    } else if (!pendingEmissions.offer(new PendingEmission(bulks, published))) {
+      metrics.add(Counter.sendFailures, bulks.size());
+      log.warn("Sender falls behind, emission of [{}] bulks is dropped", bulks.size());
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Stops the sender after the emission it is sending and closes the channel
+   *
+   * @throws InterruptedException if interrupted while waiting for the sender
+   * @throws IOException          if the channel can't be closed
+   */
+  @PreDestroy
+  public void stop() throws InterruptedException, IOException {
+    running = false;
+    if (sender != null) {
+      sender.join(TimeUnit.SECONDS.toMillis(5));
+    }
+    if (channel != null) {
+      channel.close();
+    }
+  }
+
+  private void sendLoop() {
+    ByteBuf payload = PooledByteBufAllocator.DEFAULT.directBuffer(PAYLOAD_INITIAL_CAPACITY);
+    try {
+      while (running) {
+        PendingEmission emission = pendingEmissions.poll(100, TimeUnit.MILLISECONDS);
+        if (emission != null) {
+          sendBatch(emission.bulks, payload);
+          emission.published.handle(System.nanoTime());
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      payload.release();
+    }
+  }
+
+  /**
+   * Encodes and sends the bulks one after another and reports the outcome of the whole batch
+   *
+   * @param bulks   - bulks of the emission
+   * @param payload - buffer the bulks are encoded to
+   */
+  private void sendBatch(List<ProductsBulk> bulks, ByteBuf payload) {
+    long start = System.nanoTime();
+    int sent = 0;
+    int encodeFailures = 0;
+    int sendFailures = 0;
+    long bytes = 0;
+    for (int i = 0; i < bulks.size(); i++) {
+      long encodeStart = System.nanoTime();
+      payload.clear();
+      try {
+        encoder.encode(bulks.get(i), payload);
+      } catch (RuntimeException e) {
+        encodeFailures++;
+        log.error("Failed to encode bulk [{}]", bulks.get(i).getOutSequenceNumber(), e);
+        continue;
+      }
+      int length = payload.readableBytes();
+      long sendStart = System.nanoTime();
+      metrics.record(Stage.encode, sendStart - encodeStart);
+      TraceOutcome outcome = TraceOutcome.sent;
+      try {
+        channel.send(payload.internalNioBuffer(0, length), target);
+        sent++;
+        bytes += length;
+      } catch (IOException e) {
+        outcome = TraceOutcome.failed;
+        if (sendFailures++ == 0) {
+          log.error("Failed to send bulk [{}]", bulks.get(i).getOutSequenceNumber(), e);
+        }
+      }
+      long sendTime = System.nanoTime() - sendStart;
+      metrics.record(Stage.send, sendTime);
+      traceRing.record(TraceEvent.emitted, bulks.get(i).getOutSequenceNumber(), length, outcome, sendTime);
+    }
+    metrics.add(Counter.bulksOut, sent);
+    metrics.add(Counter.bytesOut, bytes);
+    metrics.add(Counter.sendFailures, encodeFailures + sendFailures);
+    log.debug("[{}] bulks of [{}] bytes were sent in [{}] us, [{}] failed to encode, [{}] failed to send", sent,
+        bytes, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start), encodeFailures, sendFailures);
+  }
+
+  /**
+   * Emission waiting for the sender along with the handler of its publication
+   */
+  private static class PendingEmission {
+
+    private final List<ProductsBulk> bulks;
+
+    private final Handler<Long> published;
+
+    private PendingEmission(List<ProductsBulk> bulks, Handler<Long> published) {
+      this.bulks = bulks;
+      this.published = published;
+    }
+  }
+}
@@ -0,0 +1,128 @@
+package com.shadowbring.aggregator.emission;
+
+import com.shadowbring.aggregator.codec.ProductsBulkEncoder;
+import com.shadowbring.aggregator.domain.outgoing.ProductsBulk;
+import com.shadowbring.aggregator.metrics.Counter;
+import com.shadowbring.aggregator.metrics.PipelineMetrics;
+import com.shadowbring.aggregator.metrics.Stage;
+import com.shadowbring.aggregator.metrics.TraceEvent;
+import com.shadowbring.aggregator.metrics.TraceOutcome;
+import com.shadowbring.aggregator.metrics.TraceRing;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.datagram.DatagramSocket;
+import io.vertx.core.datagram.DatagramSocketOptions;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.List;
+
+/**
+ * Sends every bulk with its own asynchronous send of the Vert.x {@link DatagramSocket}, right on the event loop. Every
+ * bulk is encoded to a pooled buffer that is released when the send completes. Default transport,
+ * emission.transport=vertx
+ *
+ * @author Dmytro Bezruk
+ */
+@Component
+@Slf4j
+@ConditionalOnProperty(name = "emission.transport", havingValue = "vertx", matchIfMissing = true)
+public class VertxBulkEmitter implements BulkEmitter {
+
+  /**
+   * Initial capacity of the pooled buffer a bulk is encoded to. Buffer grows within the pool if the bulk doesn't fit
+   */
+  private static final int PAYLOAD_INITIAL_CAPACITY = 2048;
+
+  /**
+   * Multicast address for sending aggregated price levels. Configurable via application.properties file
+   */
+  @Value("${emission.address}")
+  private String emissionAddress;
+
+  /**
+   * Port for sending aggregated price levels. Configurable via application.properties file
+   */
+  @Value("${emission.port}")
+  private Integer emissionPort;
+
+  @Autowired
+  private Vertx vertx;
+
+  /**
+   * Encoder of the emitted bulks
+   */
+  @Autowired
+  private ProductsBulkEncoder encoder;
+
+  @Autowired
+  private PipelineMetrics metrics;
+
+  @Autowired
+  private TraceRing traceRing;
+
+  private DatagramSocket socket;
+
+  @PostConstruct
+  public void initSocket() {
+    socket = vertx.createDatagramSocket(new DatagramSocketOptions());
+  }
+
+  @Override
+  public boolean emit(List<ProductsBulk> bulks, Handler<Long> published) {
+    if (bulks.isEmpty()) {
+      published.handle(System.nanoTime());
+      return true;
+    }
+    int[] pendingSends = {bulks.size()};
+    bulks.forEach(bulk -> send(bulk, sentAt -> {
+      if (--pendingSends[0] == 0) {
+        published.handle(sentAt);
+      }
+    }));
+    return true;
+  }
+
+  /**
+   * @param bulk - bulk to be sent
+   * @param sent - handler of the monotonic time in nanoseconds the send completed at. Invoked on the event loop
+   */
+  private void send(ProductsBulk bulk, Handler<Long> sent) {
+    long encodeStart = System.nanoTime();
+    ByteBuf pooled = PooledByteBufAllocator.DEFAULT.directBuffer(PAYLOAD_INITIAL_CAPACITY);
+    try {
+      encoder.encode(bulk, pooled);
+    } catch (RuntimeException e) {
+      pooled.release();
+      throw e;
+    }
+    int length = pooled.readableBytes();
+    long sendStart = System.nanoTime();
+    metrics.record(Stage.encode, sendStart - encodeStart);
+    if (log.isDebugEnabled()) {
+      log.debug("Bulk [{}] of [{}] bytes is about to be sent", bulk.getOutSequenceNumber(), length);
+    }
+    socket.send(Buffer.buffer(pooled), emissionPort, emissionAddress, asyncResult -> {
+      pooled.release();
+      long sentAt = System.nanoTime();
+      long sendTime = sentAt - sendStart;
+      metrics.record(Stage.send, sendTime);
+      if (asyncResult.succeeded()) {
+        metrics.increment(Counter.bulksOut);
+        metrics.add(Counter.bytesOut, length);
+      } else {
+        metrics.increment(Counter.sendFailures);
+      }
+      traceRing.record(TraceEvent.emitted, bulk.getOutSequenceNumber(), length,
+          asyncResult.succeeded() ? TraceOutcome.sent : TraceOutcome.failed, sendTime);
+      sent.handle(sentAt);
+    });
+  }
+}
@@ -0,0 +1,510 @@
+package com.shadowbring.aggregator.journal;
+
+import com.shadowbring.aggregator.metrics.Counter;
+import com.shadowbring.aggregator.metrics.PipelineMetrics;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Journal of the received datagrams in their raw wire form, so the order table can be rebuilt after restart.
+ * <p>
+ * Journal is a directory of the fixed-size segment files that are memory-mapped and filled one after another. Every
+ * record is the datagram prefixed with its int length and int sequence number, zero length marks the end of the data.
+ * Payload is written before its length, so a record that was cut by the crash is never seen by the replay. Sequence
+ * number lets the replay skip the datagrams that are already reflected by a snapshot without decoding them, and lets
+ * the segments that are fully covered by a snapshot be removed. Restart of the sequence numbers opens a new segment
+ * that starts with the header-only record of negative length carrying the new epoch of the sequence numbers. Replay
+ * compares the sequence numbers of the snapshot's epoch only, so the records of the new numbering are never skipped
+ * for the snapshot of the previous one. The segments of the previous numbering are removed as a whole once a snapshot
+ * of the new one is written.
+ * <p>
+ * Receive path only hands datagrams over to the bounded queue; copying to the mapped segments and rolling of the
+ * segments are performed by a dedicated writer thread. If the writer falls behind and the queue is full, datagrams
+ * are not journaled and counted as {@link Counter#journalDrops}.
+ * <p>
+ * Datagrams are replayed as they are, so the journal must be replayed with the same inbound codec it was written with
+ *
+ * @author Dmytro Bezruk
+ */
+@Component
+@Slf4j
+public class InboundJournal {
+
+  private static final String SEGMENT_PREFIX = "segment-";
+
+  private static final String SEGMENT_SUFFIX = ".journal";
+
+  private static final int RECORD_HEADER_LENGTH = 4 + 4;
+
+  /**
+   * Length of the record that marks the restart of the sequence numbers and carries the new epoch instead of the
+   * sequence number
+   */
+  private static final int RESET_LENGTH = -1;
+
+  /**
+   * Result of the scan of the segment that is not covered by the snapshot
+   */
+  private static final int NOT_COVERED = -1;
+
+  /**
+   * Maximum number of the datagrams written to the segment in one go
+   */
+  private static final int WRITE_BATCH_SIZE = 256;
+
+  /**
+   * Whether the datagrams are journaled and replayed. Configurable via application.properties file
+   */
+  private final boolean enabled;
+
+  /**
+   * Directory of the segment files. Configurable via application.properties file
+   */
+  private final String directory;
+
+  /**
+   * Size of the segment file in bytes. Configurable via application.properties file
+   */
+  private final int segmentSize;
+
+  /**
+   * Maximum number of the datagrams waiting for the writer. Configurable via application.properties file
+   */
+  private final int queueCapacity;
+
+  private final PipelineMetrics metrics;
+
+  /**
+   * Datagrams waiting for the writer along with their sequence numbers
+   */
+  private BlockingQueue<Record> queue;
+
+  private Thread writer;
+
+  private volatile boolean running;
+
+  /**
+   * Segment that is currently filled by the writer. Confined to the writer thread
+   */
+  private MappedByteBuffer segment;
+
+  private volatile int segmentIndex;
+
+  /**
+   * Index of the segment the last restart of the sequence numbers was written to, 0 if there was none
+   */
+  private volatile int resetSegmentIndex;
+
+  /**
+   * Creates the journal. Settings are configurable via application.properties file
+   *
+   * @param enabled       - whether the datagrams are journaled and replayed
+   * @param directory     - directory of the segment files
+   * @param segmentSize   - size of the segment file in bytes
+   * @param queueCapacity - maximum number of the datagrams waiting for the writer
+   * @param metrics       - metrics the journal reports to
+   */
+  @Autowired
+  public InboundJournal(@Value("${journal.enabled}") boolean enabled,
+                        @Value("${journal.directory}") String directory,
+                        @Value("${journal.segment-size}") int segmentSize,
+                        @Value("${journal.queue-capacity}") int queueCapacity,
+                        PipelineMetrics metrics) {
+    this.enabled = enabled;
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.queueCapacity = queueCapacity;
+    this.metrics = metrics;
+  }
+
+  /**
+   * @return - true if journaling is enabled
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Reads journaled datagrams in the order they were received. Must be invoked before {@link #start()}. Records that
+   * precede the restart the snapshot's epoch started with are reflected by the snapshot, and so are the records of
+   * that epoch up to the snapshot's sequence number, so they are skipped. Everything that follows the next restart is
+   * replayed
+   *
+   * @param after        - position of the snapshot, so only the datagrams that follow it are replayed, all of them if
+   *                     null
+   * @param handler      - handler of the datagrams. Content of the datagram is valid only during the invocation of the
+   *                     handler
+   * @param resetHandler - handler of the epoch of the sequence numbers that are restarted by the following datagrams
+   * @return - number of the replayed datagrams
+   */
+  public long replay(SequencePosition after, Handler<Buffer> handler, Handler<Integer> resetHandler) {
+    if (!enabled) {
+      return 0;
+    }
+    List<MappedByteBuffer> segments = new ArrayList<>();
+    segmentFiles().forEach(file -> segments.add(map(file, FileChannel.MapMode.READ_ONLY)));
+    int[] start = after != null ? findReset(segments, after.getSequenceEpoch()) : null;
+    boolean filtering = after != null;
+    long records = 0;
+    byte[] bytes = new byte[2048];
+    for (int i = start != null ? start[0] : 0; i < segments.size(); i++) {
+      MappedByteBuffer mapped = segments.get(i);
+      int position = start != null && i == start[0] ? start[1] : 0;
+      int length;
+      while ((length = recordLength(mapped, position)) != 0) {
+        int sequenceNumber = mapped.getInt(position + 4);
+        if (length == RESET_LENGTH) {
+          if (after == null || sequenceNumber > after.getSequenceEpoch()) {
+            filtering = false;
+            resetHandler.handle(sequenceNumber);
+          }
+        } else if (!filtering || sequenceNumber - after.getSequenceNumber() > 0) {
+          if (bytes.length < length) {
+            bytes = new byte[Math.max(length, bytes.length << 1)];
+          }
+          mapped.position(position + RECORD_HEADER_LENGTH);
+          mapped.get(bytes, 0, length);
+          handler.handle(Buffer.buffer(Unpooled.wrappedBuffer(bytes, 0, length)));
+          records++;
+        }
+        position += recordSize(length);
+      }
+    }
+    return records;
+  }
+
+  /**
+   * Opens the last segment for appending after its last record and starts the writer thread
+   */
+  public void start() {
+    if (!enabled) {
+      return;
+    }
+    List<File> files = segmentFiles();
+    if (files.isEmpty()) {
+      openSegment(1);
+    } else {
+      File last = files.get(files.size() - 1);
+      segmentIndex = segmentIndexOf(last);
+      segment = map(last, FileChannel.MapMode.READ_WRITE);
+      int position = 0;
+      int length;
+      while ((length = recordLength(segment, position)) != 0) {
+        position += recordSize(length);
+      }
+      segment.position(position);
+    }
+    queue = new ArrayBlockingQueue<>(queueCapacity);
+    running = true;
+    writer = new Thread(this::writeLoop, "journal-writer");
+    writer.setDaemon(true);
+    writer.start();
+    log.info("Journal is opened at segment [{}] of '{}'", segmentIndex, directory);
+  }
+
+  /**
+   * Hands the datagram over to the writer. Never blocks
+   *
+   * @param datagram       - received datagram as it is
+   * @param sequenceNumber - sequence number of the decoded datagram
+   */
+  public void append(Buffer datagram, int sequenceNumber) {
+    if (!running) {
+      return;
+    }
+    if (!queue.offer(new Record(datagram, sequenceNumber))) {
+      metrics.increment(Counter.journalDrops);
+    }
+  }
+
+  /**
+   * Marks the restart of the sequence numbers: the datagrams handed over after it are written to a new segment that
+   * starts with the mark. Never blocks
+   *
+   * @param sequenceEpoch - epoch of the restarted sequence numbers
+   */
+  public void markReset(int sequenceEpoch) {
+    if (!running) {
+      return;
+    }
+    if (!queue.offer(new Record(null, sequenceEpoch))) {
+      log.warn("Journal queue is full, restart of the sequence numbers is not journaled");
+    }
+  }
+
+  /**
+   * Removes the segments that precede the last restart of the sequence numbers, as their sequence numbers can't be
+   * compared to the new ones. Blocking, must not be invoked on an event loop
+   *
+   * @return - number of the removed segments
+   */
+  public int pruneBeforeReset() {
+    if (!running) {
+      return 0;
+    }
+    int removed = 0;
+    int currentResetSegmentIndex = resetSegmentIndex;
+    for (File file : segmentFiles()) {
+      if (segmentIndexOf(file) >= currentResetSegmentIndex) {
+        break;
+      }
+      if (file.delete()) {
+        removed++;
+      } else {
+        log.warn("Failed to remove journal segment '{}'", file);
+        break;
+      }
+    }
+    return removed;
+  }
+
+  /**
+   * Removes the segments that contain only the datagrams up to the specified position. Records that precede the first
+   * restart are taken for the records of the position's epoch, so the segments of the previous numbering are never
+   * removed by mistake. The segment that is currently filled is never removed. Blocking, must not be invoked on an
+   * event loop
+   *
+   * @param covered - position that is already reflected by a durable snapshot
+   * @return - number of the removed segments
+   */
+  public int prune(SequencePosition covered) {
+    if (!running) {
+      return 0;
+    }
+    int removed = 0;
+    int currentSegmentIndex = segmentIndex;
+    int epoch = covered.getSequenceEpoch();
+    for (File file : segmentFiles()) {
+      if (segmentIndexOf(file) >= currentSegmentIndex ||
+              (epoch = coveredUntil(file, epoch, covered)) == NOT_COVERED) {
+        break;
+      }
+      if (file.delete()) {
+        removed++;
+      } else {
+        log.warn("Failed to remove journal segment '{}'", file);
+        break;
+      }
+    }
+    return removed;
+  }
+
+  /**
+   * Stops the writer after all handed over datagrams are written and flushes the current segment to the disk
+   *
+   * @throws InterruptedException if interrupted while waiting for the writer
+   */
+  @PreDestroy
+  public void stop() throws InterruptedException {
+    if (!running) {
+      return;
+    }
+    running = false;
+    writer.join();
+    segment.force();
+  }
+
+  private void writeLoop() {
+    List<Record> batch = new ArrayList<>(WRITE_BATCH_SIZE);
+    try {
+      while (running || !queue.isEmpty()) {
+        Record first = queue.poll(100, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+        queue.drainTo(batch, WRITE_BATCH_SIZE - 1);
+        batch.forEach(this::write);
+        batch.clear();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (RuntimeException e) {
+      log.error("Journal writer has failed, datagrams are not journaled anymore", e);
+      running = false;
+    }
+  }
+
+  private void write(Record record) {
+    if (record.datagram == null) {
+      if (segment.position() > 0) {
+        openSegment(segmentIndex + 1);
+      }
+      resetSegmentIndex = segmentIndex;
+      int position = segment.position();
+      segment.putInt(position + 4, record.sequenceNumber);
+      segment.putInt(position, RESET_LENGTH);
+      segment.position(position + RECORD_HEADER_LENGTH);
+      return;
+    }
+    ByteBuf data = record.datagram.getByteBuf();
+    int length = data.readableBytes();
+    if (RECORD_HEADER_LENGTH + length > segmentSize - RECORD_HEADER_LENGTH) {
+      log.error("Datagram of [{}] bytes doesn't fit the journal segment and is not journaled", length);
+      metrics.increment(Counter.journalDrops);
+      return;
+    }
+    if (segment.position() + RECORD_HEADER_LENGTH + length > segment.capacity() - RECORD_HEADER_LENGTH) {
+      openSegment(segmentIndex + 1);
+    }
+    int position = segment.position();
+    int end = position + RECORD_HEADER_LENGTH + length;
+    segment.limit(end).position(position + RECORD_HEADER_LENGTH);
+    data.getBytes(data.readerIndex(), segment);
+    segment.limit(segment.capacity()).position(end);
+    segment.putInt(position + 4, record.sequenceNumber);
+    segment.putInt(position, length);
+  }
+
+  /**
+   * Tells whether all records of the segment are reflected by the snapshot
+   *
+   * @param file    - segment file
+   * @param epoch   - epoch of the sequence numbers at the start of the segment
+   * @param covered - position of the snapshot
+   * @return - epoch of the sequence numbers at the end of the segment or {@link #NOT_COVERED}
+   */
+  private int coveredUntil(File file, int epoch, SequencePosition covered) {
+    MappedByteBuffer mapped = map(file, FileChannel.MapMode.READ_ONLY);
+    int position = 0;
+    int length;
+    while ((length = recordLength(mapped, position)) != 0) {
+      int sequenceNumber = mapped.getInt(position + 4);
+      if (length == RESET_LENGTH) {
+        if (sequenceNumber > covered.getSequenceEpoch()) {
+          return NOT_COVERED;
+        }
+        epoch = sequenceNumber;
+      } else if (epoch == covered.getSequenceEpoch() && sequenceNumber - covered.getSequenceNumber() > 0) {
+        return NOT_COVERED;
+      }
+      position += recordSize(length);
+    }
+    return epoch;
+  }
+
+  /**
+   * Finds the last restart of the sequence numbers that started the specified epoch
+   *
+   * @param segments      - mapped segments in order
+   * @param sequenceEpoch - epoch of the sequence numbers
+   * @return - index of the segment and position of the restart in it, or null if there is none
+   */
+  private static int[] findReset(List<MappedByteBuffer> segments, int sequenceEpoch) {
+    int[] found = null;
+    for (int i = 0; i < segments.size(); i++) {
+      MappedByteBuffer mapped = segments.get(i);
+      int position = 0;
+      int length;
+      while ((length = recordLength(mapped, position)) != 0) {
+        if (length == RESET_LENGTH && mapped.getInt(position + 4) == sequenceEpoch) {
+          found = new int[]{i, position};
+        }
+        position += recordSize(length);
+      }
+    }
+    return found;
+  }
+
+  /**
+   * Zero-filled tail of the segment is never smaller than the record header, so the end of the data is always marked
+   *
+   * @return - length of the datagram, {@link #RESET_LENGTH} for the restart of the sequence numbers, or zero at the
+   * end of the data
+   */
+  private static int recordLength(MappedByteBuffer mapped, int position) {
+    if (position + RECORD_HEADER_LENGTH > mapped.capacity()) {
+      return 0;
+    }
+    int length = mapped.getInt(position);
+    if (length < 0 && length != RESET_LENGTH) {
+      return 0;
+    }
+    return position + recordSize(length) <= mapped.capacity() ? length : 0;
+  }
+
+  private static int recordSize(int length) {
+    return RECORD_HEADER_LENGTH + Math.max(length, 0);
+  }
+
+  private void openSegment(int index) {
+    if (segment != null) {
+      segment.force();
+    }
+    File dir = new File(directory);
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new UncheckedIOException(new IOException("Failed to create journal directory " + dir));
+    }
+    segmentIndex = index;
+    segment = map(new File(dir, String.format("%s%010d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX)),
+        FileChannel.MapMode.READ_WRITE);
+  }
+
+  private MappedByteBuffer map(File file, FileChannel.MapMode mode) {
+    boolean readOnly = mode == FileChannel.MapMode.READ_ONLY;
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, readOnly ? "r" : "rw")) {
+      if (!readOnly && randomAccessFile.length() < segmentSize) {
+        randomAccessFile.setLength(segmentSize);
+      }
+      return randomAccessFile.getChannel().map(mode, 0, randomAccessFile.length());
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to map journal segment " + file, e);
+    }
+  }
+
+  private List<File> segmentFiles() {
+    File[] files = new File(directory).listFiles(
+        (dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+    if (files == null) {
+      return new ArrayList<>();
+    }
+    Arrays.sort(files, (first, second) -> Integer.compare(segmentIndexOf(first), segmentIndexOf(second)));
+    return Arrays.asList(files);
+  }
+
+  private static int segmentIndexOf(File file) {
+    String name = file.getName();
+    return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+  }
+
+  /**
+   * Datagram waiting for the writer
+   */
+  private static class Record {
+
+    /**
+     * Datagram as it is, null for the restart of the sequence numbers
+     */
+    private final Buffer datagram;
+
+    /**
+     * Sequence number of the datagram or the epoch of the restarted sequence numbers
+     */
+    private final int sequenceNumber;
+
+    private Record(Buffer datagram, int sequenceNumber) {
+      this.datagram = datagram;
+      this.sequenceNumber = sequenceNumber;
+    }
+  }
+}
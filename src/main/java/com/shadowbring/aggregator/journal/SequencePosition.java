@@ -0,0 +1,31 @@
+package com.shadowbring.aggregator.journal;
+
+/**
+ * Position of the message in the stream of the received ones. Sequence numbers are comparable within the same epoch
+ * only: the epoch is the number of the restarts of the sequence numbers since the stream was first received
+ *
+ * @author Dmytro Bezruk
+ */
+public class SequencePosition {
+
+  private final int sequenceEpoch;
+
+  private final int sequenceNumber;
+
+  /**
+   * @param sequenceEpoch  - number of the restarts of the sequence numbers before the message
+   * @param sequenceNumber - sequence number of the message
+   */
+  public SequencePosition(int sequenceEpoch, int sequenceNumber) {
+    this.sequenceEpoch = sequenceEpoch;
+    this.sequenceNumber = sequenceNumber;
+  }
+
+  public int getSequenceEpoch() {
+    return sequenceEpoch;
+  }
+
+  public int getSequenceNumber() {
+    return sequenceNumber;
+  }
+}
@@ -0,0 +1,212 @@
+package com.shadowbring.aggregator.listener;
+
+import com.shadowbring.aggregator.udp.MulticastGroup;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Receives the datagrams of the stock feed on a dedicated thread that busy-polls non-blocking {@link DatagramChannel}s
+ * joined to the multicast groups, so the receipt never waits for the event loop that also aggregates and emits the
+ * price levels. A channel is opened for every port of the groups and joins all groups of that port. Enabled by
+ * ingestion.mode=busypoll, it trades a core for the consistent receive latency.
+ * <p>
+ * After a poll of all channels that received nothing, the thread waits the way the {@link WaitStrategy} tells. The
+ * thread can be pinned to a CPU, which is done by taskset on Linux, as the JVM has no API for that
+ *
+ * @author Dmytro Bezruk
+ */
+@Component
+@Slf4j
+public class BusyPollIngestion {
+
+  /**
+   * Maximal UDP payload, every datagram is received to the buffer of this size
+   */
+  private static final int MAX_DATAGRAM_LENGTH = 65535;
+
+  /**
+   * Receive buffer of the channels, so a stall of the thread doesn't drop the datagrams
+   */
+  private static final int RECEIVE_BUFFER_SIZE = 4 * 1024 * 1024;
+
+  /**
+   * IP-address where the channels are bound. Configurable via application.properties file
+   */
+  private final String socketHost;
+
+  /**
+   * The way the thread waits after an empty poll. Configurable via application.properties file
+   */
+  private final WaitStrategy waitStrategy;
+
+  /**
+   * Time in nanoseconds the thread parks for after an empty poll, if the wait strategy is "park". Configurable via
+   * application.properties file
+   */
+  private final long parkNanos;
+
+  /**
+   * CPU the thread is pinned to, not pinned if negative. Configurable via application.properties file
+   */
+  private final int cpu;
+
+  private final List<DatagramChannel> channels = new ArrayList<>();
+
+  private Thread poller;
+
+  private volatile boolean running;
+
+  /**
+   * Creates the ingestion. Channels are opened and the polling thread is started only when the groups are known
+   *
+   * @param socketHost   - IP-address where the channels are bound
+   * @param waitStrategy - the way the thread waits after an empty poll
+   * @param parkNanos    - time in nanoseconds the thread parks for after an empty poll, if the wait strategy is "park"
+   * @param cpu          - CPU the thread is pinned to, not pinned if negative
+   */
+  @Autowired
+  public BusyPollIngestion(@Value("${socket.host}") String socketHost,
+                           @Value("${ingestion.wait-strategy}") WaitStrategy waitStrategy,
+                           @Value("${ingestion.park-nanos}") long parkNanos,
+                           @Value("${ingestion.cpu}") int cpu) {
+    this.socketHost = socketHost;
+    this.waitStrategy = waitStrategy;
+    this.parkNanos = parkNanos;
+    this.cpu = cpu;
+  }
+
+  /**
+   * Opens and binds the channels, joins the groups and starts the polling thread
+   *
+   * @param groups           - groups the datagrams are received from. Unicast addresses are received from without
+   *                         joining
+   * @param networkInterface - interface the groups are joined on
+   * @param handler          - handler of the received datagrams. Invoked on the polling thread, so it must not block
+   * @throws IOException if a channel can't be opened, bound or can't join the group
+   */
+  public void start(List<MulticastGroup> groups, NetworkInterface networkInterface, Handler<Buffer> handler)
+      throws IOException {
+    Map<Integer, List<MulticastGroup>> groupsByPort = groups.stream()
+                                                          .collect(Collectors.groupingBy(MulticastGroup::getPort,
+                                                              LinkedHashMap::new, Collectors.toList()));
+    for (Map.Entry<Integer, List<MulticastGroup>> portGroups : groupsByPort.entrySet()) {
+      DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET);
+      channels.add(channel);
+      channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+      channel.setOption(StandardSocketOptions.SO_RCVBUF, RECEIVE_BUFFER_SIZE);
+      channel.bind(new InetSocketAddress(socketHost, portGroups.getKey()));
+      channel.configureBlocking(false);
+      for (MulticastGroup group : portGroups.getValue()) {
+        InetAddress address = InetAddress.getByName(group.getAddress());
+        if (address.isMulticastAddress()) {
+          channel.join(address, networkInterface);
+        }
+      }
+      log.info("Groups {} are busy-polled through [{}]", portGroups.getValue(), channel.getLocalAddress());
+    }
+    running = true;
+    poller = new Thread(() -> pollLoop(handler), "ingestion-poller");
+    poller.setDaemon(true);
+    poller.start();
+  }
+
+  /**
+   * Stops the polling thread and closes the channels
+   *
+   * @throws InterruptedException if interrupted while waiting for the thread
+   * @throws IOException          if a channel can't be closed
+   */
+  @PreDestroy
+  public void stop() throws InterruptedException, IOException {
+    running = false;
+    if (poller != null) {
+      poller.join(TimeUnit.SECONDS.toMillis(5));
+    }
+    for (DatagramChannel channel : channels) {
+      channel.close();
+    }
+    channels.clear();
+  }
+
+  private void pollLoop(Handler<Buffer> handler) {
+    if (cpu >= 0) {
+      pinToCpu(cpu);
+    }
+    ByteBuffer datagram = ByteBuffer.allocateDirect(MAX_DATAGRAM_LENGTH);
+    byte[] payload = new byte[MAX_DATAGRAM_LENGTH];
+    while (running) {
+      boolean received = false;
+      for (int i = 0; i < channels.size(); i++) {
+        datagram.clear();
+        try {
+          if (channels.get(i).receive(datagram) == null) {
+            continue;
+          }
+        } catch (IOException e) {
+          log.error("Failed to receive datagram", e);
+          continue;
+        }
+        received = true;
+        datagram.flip();
+        int length = datagram.remaining();
+        datagram.get(payload, 0, length);
+        try {
+          handler.handle(Buffer.buffer(length).appendBytes(payload, 0, length));
+        } catch (RuntimeException e) {
+          log.error("Failed to handle datagram", e);
+        }
+      }
+      if (!received) {
+        waitStrategy.idle(parkNanos);
+      }
+    }
+  }
+
+  /**
+   * Pins the calling thread to the CPU by its native ID, which is read from /proc/thread-self. Failure is logged, as
+   * the thread works unpinned as well
+   *
+   * @param cpu - index of the CPU
+   */
+  private static void pinToCpu(int cpu) {
+    try {
+      Path thread = Files.readSymbolicLink(Paths.get("/proc/thread-self"));
+      String threadId = thread.getFileName().toString();
+      Process taskset = new ProcessBuilder("taskset", "-p", "-c", String.valueOf(cpu), threadId)
+                            .redirectErrorStream(true)
+                            .start();
+      if (taskset.waitFor() == 0) {
+        log.info("Ingestion thread [{}] is pinned to CPU [{}]", threadId, cpu);
+      } else {
+        log.warn("Failed to pin ingestion thread to CPU [{}], taskset exited with [{}]", cpu, taskset.exitValue());
+      }
+    } catch (IOException | UnsupportedOperationException e) {
+      log.warn("Failed to pin ingestion thread to CPU [{}]: {}", cpu, e.toString());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
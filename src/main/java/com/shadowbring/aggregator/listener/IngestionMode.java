@@ -0,0 +1,19 @@
+package com.shadowbring.aggregator.listener;
+
+/**
+ * Enumeration that contains the ways the datagrams of the stock feed are received
+ *
+ * @author Dmytro Bezruk
+ */
+public enum IngestionMode {
+  /**
+   * Datagrams are received by the Vert.x sockets on the event loop of the {@link StockListener}, along with everything
+   * else it does
+   */
+  eventloop,
+  /**
+   * Datagrams are received and decoded by the {@link BusyPollIngestion} on its own thread, and the decoded sequences
+   * are handed over to the event loop
+   */
+  busypoll
+}
@@ -1,29 +1,58 @@
 package com.shadowbring.aggregator.listener;
 
+import com.shadowbring.aggregator.aggregation.AggregationSnapshot;
 import com.shadowbring.aggregator.aggregation.PriceLevelsAggregator;
+import com.shadowbring.aggregator.codec.MessageSequenceDecoder;
+import com.shadowbring.aggregator.collection.SpscRing;
 import com.shadowbring.aggregator.domain.incoming.MessageSequence;
 import com.shadowbring.aggregator.domain.incoming.Order;
+import com.shadowbring.aggregator.emission.EmissionScheduler;
+import com.shadowbring.aggregator.journal.InboundJournal;
+import com.shadowbring.aggregator.journal.SequencePosition;
+import com.shadowbring.aggregator.metrics.Counter;
+import com.shadowbring.aggregator.metrics.PipelineMetrics;
+import com.shadowbring.aggregator.metrics.Stage;
+import com.shadowbring.aggregator.metrics.TraceEvent;
+import com.shadowbring.aggregator.metrics.TraceOutcome;
+import com.shadowbring.aggregator.metrics.TraceRing;
+import com.shadowbring.aggregator.snapshot.SnapshotStore;
+import com.shadowbring.aggregator.udp.GapRecovery;
+import com.shadowbring.aggregator.udp.MulticastGroup;
 import com.shadowbring.aggregator.udp.UdpCompliantMessageSequenceBuffer;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.datagram.DatagramSocket;
 import io.vertx.core.datagram.DatagramSocketOptions;
 import io.vertx.core.json.DecodeException;
-import io.vertx.core.json.Json;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
 
 /**
  * A verticle that is deployed to the Vert.x instance and is listening to the UDP multicast socket, waiting for the
- * incoming messages.
- * Every 2 seconds (configurable via application.properties) it processes {@link MessageSequence}s accumulated in the
- * {@link UdpCompliantMessageSequenceBuffer}, extracts {@link Order}s, aggregates them and emits via UDP multicast
- * socket
+ * incoming messages. {@link MessageSequence}s ordered by the {@link UdpCompliantMessageSequenceBuffer} are handed over
+ * to the {@link PriceLevelsAggregator} as they arrive, so {@link Order}s are applied continuously. Received datagrams
+ * are journaled by the {@link InboundJournal} and the orders are periodically saved by the {@link SnapshotStore}. On
+ * startup the latest snapshot is restored and only the journaled messages that follow it are replayed, before the
+ * multicast group is joined. On the latency-critical hosts the datagrams may be received and decoded by the
+ * {@link BusyPollIngestion} on its own thread instead of the event loop.
+ * Aggregated price levels are emitted via UDP multicast socket every 2 seconds (configurable via
+ * application.properties) and, if configured so, shortly after the books change, as decided by the
+ * {@link EmissionScheduler}
  *
  * @author Dmytro Bezruk
  */
@@ -31,6 +60,27 @@ import java.net.NetworkInterface;
 @Slf4j
 public class StockListener extends AbstractVerticle {
 
+  /**
+   * Number of the replayed datagrams after which the accumulated orders are handed over to the aggregator
+   */
+  private static final int REPLAY_BATCH_SIZE = 1024;
+
+  /**
+   * Pause of the replay in nanoseconds while the shards have no room for the replayed orders
+   */
+  private static final long REPLAY_STALL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  /**
+   * Receive buffer of the sockets. Vert.x also allocates a buffer of this size for every read datagram, so it's the
+   * maximal UDP payload rather than as much as the kernel allows
+   */
+  private static final int RECEIVE_BUFFER_SIZE = 65535;
+
+  /**
+   * Number of the handed over messages the event loop takes at once, so the timers are not starved by a burst
+   */
+  private static final int HANDOFF_DRAIN_BATCH_SIZE = 256;
+
   /**
    * IP-address of the multicast group. Configurable via application.properties file
    */
@@ -42,6 +92,14 @@ public class StockListener extends AbstractVerticle {
    */
   @Value("${multicast.port}")
   private Integer port;
+
+  /**
+   * Groups of the redundant feeds that carry the same sequence space as the main one, in the form
+   * "address:port,address:port". Configurable via application.properties file
+   */
+  @Value("${multicast.redundant-groups}")
+  private String redundantGroups;
+
   /**
    * IP-address where the socket is opened. Configurable via application.properties file
    */
@@ -49,22 +107,24 @@ public class StockListener extends AbstractVerticle {
   private String socketHost;
 
   /**
-   * Interval between emissions of the aggregated price levels
+   * Interval between snapshots of the orders. Configurable via application.properties file
    */
-  @Value("${emission.period}")
-  private Long emissionPeriod;
+  @Value("${snapshot.period}")
+  private Long snapshotPeriod;
 
   /**
-   * Multicast address for sending aggregated price levels. Configurable via application.properties file
+   * The way the datagrams are received: on the event loop or by the dedicated polling thread. Configurable via
+   * application.properties file
    */
-  @Value("${emission.address}")
-  private String emissionAddress;
+  @Value("${ingestion.mode}")
+  private IngestionMode ingestionMode;
 
   /**
-   * Port for sending aggregated price levels. Configurable via application.properties file
+   * Maximal number of the decoded messages waiting for the event loop in the busy-poll ingestion mode. Configurable via
+   * application.properties file
    */
-  @Value("${emission.port}")
-  private Integer emissionPort;
+  @Value("${ingestion.handoff-capacity}")
+  private Integer handoffCapacity;
 
   /**
    * Buffer that is responsible for the reconstruction of the messages' order
@@ -72,6 +132,18 @@ public class StockListener extends AbstractVerticle {
   @Autowired
   private UdpCompliantMessageSequenceBuffer buffer;
 
+  /**
+   * Decoder of the received datagrams
+   */
+  @Autowired
+  private MessageSequenceDecoder decoder;
+
+  /**
+   * Scheduler of the emissions of the aggregated price levels
+   */
+  @Autowired
+  private EmissionScheduler emissionScheduler;
+
   /**
    * Service that performs aggregation of the price levels
    */
@@ -79,68 +151,447 @@ public class StockListener extends AbstractVerticle {
   private PriceLevelsAggregator aggregator;
 
   /**
-   * Verticle startup method. Opens UDP socket at the specified host and port that will then join to the multicast group
-   * and wait for the incoming messages. Also registers timer that will fire every 2 seconds (configurable), perform
-   * aggregation and transmit it via UDP
+   * Per-stage latencies and counters of the pipeline
+   */
+  @Autowired
+  private PipelineMetrics metrics;
+
+  /**
+   * Recovery of the gaps of the buffer from the retransmission endpoint
+   */
+  @Autowired
+  private GapRecovery gapRecovery;
+
+  /**
+   * Dedicated thread that receives the datagrams in the busy-poll ingestion mode
+   */
+  @Autowired
+  private BusyPollIngestion busyPollIngestion;
+
+  /**
+   * Sampled trace of the received datagrams
+   */
+  @Autowired
+  private TraceRing traceRing;
+
+  /**
+   * Journal of the received datagrams that rebuilds the orders on startup
+   */
+  @Autowired
+  private InboundJournal journal;
+
+  /**
+   * Storage of the snapshots of the orders
+   */
+  @Autowired
+  private SnapshotStore snapshotStore;
+
+  /**
+   * Whether the previous snapshot is still being written
+   */
+  private boolean snapshotInProgress;
+
+  /**
+   * Whether the sequence numbers were restarted, so a snapshot must be written as soon as the previous one is
+   */
+  private boolean resetSnapshotPending;
+
+  /**
+   * Whether the buffer took the restart of the sequence numbers since the orders were handed over to the aggregator
+   */
+  private boolean sequenceReset;
+
+  /**
+   * Ring the busy-poll thread hands the decoded messages over to the event loop through
+   */
+  private SpscRing<DecodedDatagram> handoff;
+
+  /**
+   * Whether the event loop is already asked to drain the {@link #handoff}, so the busy-poll thread doesn't wake it up
+   * for every message
+   */
+  private final AtomicBoolean handoffDrainScheduled = new AtomicBoolean();
+
+  /**
+   * Whether the previous message of the busy-poll thread was dropped as well, so the overflow is logged once
+   */
+  private boolean handoffOverflowing;
+
+  /**
+   * Verticle startup method. Replays the journal, then opens UDP socket at the specified host and port that will then
+   * join to the multicast group and wait for the incoming messages. If there are redundant feeds, a socket is opened
+   * for every port of the groups and joins all groups of that port; all sockets share the same handler. In the
+   * busy-poll ingestion mode the groups are joined by the {@link BusyPollIngestion} instead. Also starts the
+   * {@link EmissionScheduler} that will perform aggregation and transmit it via UDP, once the recovered orders are
+   * applied, so the recovery never races with an emission. Recovered orders the shards had no room for are routed
+   * first, and from then on the held orders are routed as soon as the shards catch up
    *
    * @throws Exception if verticle startup vas failed
    */
   @Override
   public void start() throws Exception {
-    DatagramSocket socket = vertx.createDatagramSocket(new DatagramSocketOptions()
-                                                           .setReceiveBufferSize(Integer.MAX_VALUE)
-                                                           .setLogActivity(true));
-    String networkInterfaceName = NetworkInterface.getByInetAddress(InetAddress.getLocalHost()).getName();
-    socket.listen(port, socketHost, asyncResult -> {
-      if (asyncResult.succeeded()) {
-        registerIncomingMessageHandler(socket);
-        socket.listenMulticastGroup(multicastAddress, networkInterfaceName, null,
-            listenMulticastResult -> log.debug("Is listening succeeded: '{}'", listenMulticastResult.succeeded()));
-      } else {
-        log.error("Failed to listen multicast group", asyncResult.cause());
+    List<MulticastGroup> groups = new ArrayList<>();
+    groups.add(new MulticastGroup(multicastAddress, port));
+    groups.addAll(MulticastGroup.parse(redundantGroups));
+    boolean arbitrated = groups.size() > 1;
+    Map<Integer, List<MulticastGroup>> groupsByPort = groups.stream()
+                                                          .collect(Collectors.groupingBy(MulticastGroup::getPort,
+                                                              LinkedHashMap::new, Collectors.toList()));
+    NetworkInterface networkInterface = NetworkInterface.getByInetAddress(InetAddress.getLocalHost());
+    if (journal.isEnabled() && !snapshotStore.isEnabled()) {
+      log.warn("Journal is enabled without snapshots, so it is never pruned and grows until the disk is full");
+    }
+    vertx.<Long>executeBlocking(future -> future.complete(recover()), recoveryResult -> {
+      if (recoveryResult.failed()) {
+        log.error("Failed to recover the orders", recoveryResult.cause());
       }
+      aggregator.onCapacity(v -> updateBooks());
+      updateBooks();
+      emissionScheduler.start(vertx);
+      journal.start();
+      registerPeriodicSnapshot();
+      gapRecovery.start(vertx, datagram -> handleDatagram(datagram, true));
+      if (ingestionMode == IngestionMode.busypoll) {
+        handoff = new SpscRing<>(handoffCapacity);
+        try {
+          busyPollIngestion.start(groups, networkInterface, datagram -> handlePolledDatagram(datagram, arbitrated));
+        } catch (IOException e) {
+          log.error("Failed to start busy-poll ingestion of multicast groups {}", groups, e);
+        }
+        return;
+      }
+      groupsByPort.forEach((groupsPort, portGroups) -> {
+        DatagramSocket socket = vertx.createDatagramSocket(new DatagramSocketOptions()
+                                                               .setReceiveBufferSize(RECEIVE_BUFFER_SIZE));
+        socket.listen(groupsPort, socketHost, asyncResult -> {
+          if (asyncResult.succeeded()) {
+            registerIncomingMessageHandler(socket, arbitrated);
+            portGroups.forEach(group -> socket.listenMulticastGroup(group.getAddress(), networkInterface.getName(),
+                null, listenMulticastResult -> log.debug("Is listening to '{}' succeeded: '{}'", group,
+                    listenMulticastResult.succeeded())));
+          } else {
+            log.error("Failed to listen multicast groups {}", portGroups, asyncResult.cause());
+          }
+        });
+      });
     });
+  }
 
-    registerPeriodicEmitter(socket);
+  /**
+   * Registers a handler that waits for the incoming messages, decodes them straight to POJO-classes (JSON or binary,
+   * configurable via application.properties file) and adds objects to the {@link UdpCompliantMessageSequenceBuffer}.
+   * Orders that became ordered are handed over to the {@link PriceLevelsAggregator} straight away.
+   * <p>
+   * If redundant feeds are arbitrated, only the sequence number is read first: the copy that arrives first wins, while
+   * the copies of the messages that were already taken by the buffer are dropped without decoding and journaling
+   *
+   * @param socket     - {@link DatagramSocket} for data receiving
+   * @param arbitrated - whether the same messages arrive from several feeds
+   */
+  private void registerIncomingMessageHandler(DatagramSocket socket, boolean arbitrated) {
+    socket.handler(packet -> handleDatagram(packet.data(), arbitrated));
   }
 
   /**
-   * Timer that will fire every 2 seconds (configurable), perform
-   * aggregation and transmit it via UDP
+   * Handles the datagram received from the multicast group or from the retransmission endpoint on the event loop
    *
-   * @param socket - {@link DatagramSocket} for data transferring
-   */
-  private void registerPeriodicEmitter(DatagramSocket socket) {
-    vertx.setPeriodic(emissionPeriod, id -> {
-      log.info("Preparation for sending aggregated price levels has been started...");
-      aggregator.aggregateByPriceLevels()
-          .forEach(bulk -> {
-            String json = Json.encode(bulk);
-            log.info("The following bulk is about to be sent: {}", json);
-            socket.send(Buffer.buffer(json), emissionPort, emissionAddress,
-                asyncResult -> log.info("Successfully sent? {}", asyncResult.succeeded()));
-          });
-    });
+   * @param data       - payload of the datagram
+   * @param arbitrated - whether copies of the message may have been received already
+   */
+  private void handleDatagram(Buffer data, boolean arbitrated) {
+    long receivedAt = countDatagram(data);
+    try {
+      if (arbitrated && isRedundant(decoder.peekSequenceNumber(data), data.length(), receivedAt)) {
+        return;
+      }
+      bufferSequence(data, decode(data, receivedAt));
+      updateBooks();
+    } catch (DecodeException e) {
+      onMalformedDatagram(data, receivedAt, e);
+    }
+  }
+
+  /**
+   * Handles the datagram received by the {@link BusyPollIngestion}. Invoked on the polling thread: the datagram is
+   * decoded right there and the message is published to the {@link SpscRing} the event loop drains. The event loop is
+   * woken up only if it is not going to drain the ring anyway. If the ring is full, the message is dropped and reported
+   * as {@link Counter#handoffOverflows}, so the polling thread never waits for the event loop and the gap is recovered
+   * the same way as the one of the network
+   *
+   * @param data       - payload of the datagram
+   * @param arbitrated - whether copies of the message may have been received already
+   */
+  private void handlePolledDatagram(Buffer data, boolean arbitrated) {
+    long receivedAt = countDatagram(data);
+    MessageSequence messageSequence;
+    try {
+      messageSequence = decode(data, receivedAt);
+    } catch (DecodeException e) {
+      onMalformedDatagram(data, receivedAt, e);
+      return;
+    }
+    if (!handoff.offer(new DecodedDatagram(data, messageSequence, System.nanoTime()))) {
+      metrics.increment(Counter.handoffOverflows);
+      traceRing.record(TraceEvent.received, messageSequence.getInSequenceNumber(), data.length(),
+          TraceOutcome.overflow, System.nanoTime() - receivedAt);
+      if (!handoffOverflowing) {
+        handoffOverflowing = true;
+        log.warn("Event loop falls behind, handoff of [{}] messages is full and messages are dropped",
+            handoff.capacity());
+      }
+      return;
+    }
+    handoffOverflowing = false;
+    if (handoffDrainScheduled.compareAndSet(false, true)) {
+      context.runOnContext(v -> drainHandoff(arbitrated));
+    }
+  }
+
+  /**
+   * Takes the handed over messages in a batch and buffers them, then hands the orders that became ordered over to the
+   * aggregator at once. If there are more messages than a batch, the rest is drained by the next task of the event loop.
+   * Failure of a message is logged and doesn't hold the following ones back, and the drain is rescheduled even if the
+   * aggregator fails, so the polling thread never stops being drained
+   *
+   * @param arbitrated - whether copies of the messages may have been received already
+   */
+  private void drainHandoff(boolean arbitrated) {
+    DecodedDatagram datagram;
+    int drained = 0;
+    try {
+      while (drained < HANDOFF_DRAIN_BATCH_SIZE && (datagram = handoff.poll()) != null) {
+        drained++;
+        MessageSequence messageSequence = datagram.messageSequence;
+        metrics.record(Stage.handoffWait, System.nanoTime() - datagram.handedOverAt);
+        try {
+          if (!arbitrated || !isRedundant(messageSequence.getInSequenceNumber(), datagram.data.length(),
+              messageSequence.getReceivedAt())) {
+            bufferSequence(datagram.data, messageSequence);
+          }
+        } catch (RuntimeException e) {
+          log.error("Handed over message [{}] failed to be buffered", messageSequence.getInSequenceNumber(), e);
+        }
+      }
+      updateBooks();
+    } finally {
+      if (drained == HANDOFF_DRAIN_BATCH_SIZE) {
+        context.runOnContext(v -> drainHandoff(arbitrated));
+      } else {
+        handoffDrainScheduled.set(false);
+        if (handoff.size() > 0 && handoffDrainScheduled.compareAndSet(false, true)) {
+          context.runOnContext(v -> drainHandoff(arbitrated));
+        }
+      }
+    }
+  }
+
+  /**
+   * @param data - payload of the received datagram
+   * @return - monotonic time in nanoseconds the datagram is received at
+   */
+  private long countDatagram(Buffer data) {
+    metrics.increment(Counter.packetsIn);
+    metrics.add(Counter.bytesIn, data.length());
+    return System.nanoTime();
+  }
+
+  /**
+   * @param sequenceNumber - sequence number of the received message
+   * @param length         - length of the datagram
+   * @param receivedAt     - time the datagram was received at
+   * @return - true if the message was already taken by the buffer, so the copy is dropped
+   */
+  private boolean isRedundant(int sequenceNumber, int length, long receivedAt) {
+    if (buffer.accepts(sequenceNumber)) {
+      return false;
+    }
+    metrics.increment(Counter.redundantCopies);
+    traceRing.record(TraceEvent.received, sequenceNumber, length, TraceOutcome.redundant,
+        System.nanoTime() - receivedAt);
+    return true;
+  }
+
+  private MessageSequence decode(Buffer data, long receivedAt) {
+    MessageSequence messageSequence = decoder.decode(data);
+    messageSequence.setReceivedAt(receivedAt);
+    metrics.record(Stage.decode, System.nanoTime() - receivedAt);
+    return messageSequence;
+  }
+
+  /**
+   * Adds the message to the buffer and journals it if the buffer accepted it. Stale and duplicate messages, including
+   * the retransmitted copies of the already accepted ones, are not journaled, as the replay would drop them anyway.
+   * Restart of the sequence numbers is journaled before the message
+   *
+   * @param data            - payload of the datagram
+   * @param messageSequence - decoded message
+   */
+  private void bufferSequence(Buffer data, MessageSequence messageSequence) {
+    long insertStart = System.nanoTime();
+    TraceOutcome outcome = buffer.addMessageSequence(messageSequence);
+    if (outcome == TraceOutcome.reset) {
+      sequenceReset = true;
+      journal.markReset(buffer.getSequenceEpoch());
+    }
+    if (outcome == TraceOutcome.inOrder || outcome == TraceOutcome.reordered || outcome == TraceOutcome.reset) {
+      journal.append(data, messageSequence.getInSequenceNumber());
+    }
+    long insertEnd = System.nanoTime();
+    metrics.record(Stage.bufferInsert, insertEnd - insertStart);
+    traceRing.record(TraceEvent.received, messageSequence.getInSequenceNumber(), data.length(), outcome,
+        insertEnd - messageSequence.getReceivedAt());
+  }
+
+  /**
+   * Hands the orders that became ordered over to the aggregator. After the restart of the sequence numbers the next
+   * emission carries the whole book, and a snapshot of the orders is written, so the journal of the previous numbering
+   * can be removed
+   */
+  private void updateBooks() {
+    if (aggregator.updateOrders()) {
+      emissionScheduler.onBooksChanged();
+    }
+    if (sequenceReset) {
+      sequenceReset = false;
+      aggregator.forceSnapshot();
+      if (snapshotStore.isEnabled()) {
+        resetSnapshotPending = true;
+        takeSnapshot();
+      }
+    }
+  }
+
+  private void onMalformedDatagram(Buffer data, long receivedAt, DecodeException e) {
+    metrics.increment(Counter.decodeFailures);
+    traceRing.record(TraceEvent.received, TraceRing.NO_SEQUENCE, data.length(), TraceOutcome.malformed,
+        System.nanoTime() - receivedAt);
+    log.error("Failed to decode message.", e);
+  }
+
+  /**
+   * Timer that will fire every minute (configurable) and take a snapshot of the orders
+   */
+  private void registerPeriodicSnapshot() {
+    if (!snapshotStore.isEnabled()) {
+      return;
+    }
+    vertx.setPeriodic(snapshotPeriod, id -> takeSnapshot());
   }
 
   /**
-   * Registers a handler that waits for the incoming messages, maps them from JSON to POJO-classes and adds objects to
-   * the {@link UdpCompliantMessageSequenceBuffer}
+   * Takes a snapshot of the orders and writes it on a worker thread. Journal segments that are fully covered by the
+   * oldest retained snapshot are removed, so recovery may fall back to any retained snapshot if the latest one is
+   * corrupted. If the snapshot follows the restart of the sequence numbers, the snapshots and the journal segments of
+   * the previous numbering are removed. If the previous snapshot is still being written, the periodic one is skipped,
+   * while the one that follows the restart is taken as soon as the previous one is written
+   */
+  private void takeSnapshot() {
+    if (snapshotInProgress) {
+      if (!resetSnapshotPending) {
+        log.warn("Previous snapshot is still being written, the current one is skipped");
+      }
+      return;
+    }
+    boolean afterReset = resetSnapshotPending;
+    resetSnapshotPending = false;
+    snapshotInProgress = aggregator.snapshot(snapshot -> vertx.<Integer>executeBlocking(future -> {
+      long start = System.nanoTime();
+      try {
+        snapshotStore.write(snapshot);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      log.info("Snapshot of [{}] orders up to message sequence [{}] was written in [{}] ms", snapshot.size(),
+          snapshot.getLastSequenceNumber(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+      int removed = 0;
+      if (afterReset) {
+        snapshotStore.retainLatestOnly();
+        removed = journal.pruneBeforeReset();
+      }
+      SequencePosition retainedPosition = snapshotStore.oldestRetainedPosition();
+      if (retainedPosition != null) {
+        removed += journal.prune(retainedPosition);
+      }
+      future.complete(removed);
+    }, false, asyncResult -> {
+      if (asyncResult.failed()) {
+        log.error("Failed to write snapshot", asyncResult.cause());
+      } else {
+        log.debug("[{}] journal segments were removed", asyncResult.result());
+      }
+      snapshotInProgress = false;
+      if (resetSnapshotPending) {
+        takeSnapshot();
+      }
+    }));
+  }
+
+  /**
+   * Rebuilds the orders before the multicast group is joined: restores the latest snapshot and replays the journaled
+   * datagrams that follow it. Replayed datagrams go the same way as the received ones, through the
+   * {@link UdpCompliantMessageSequenceBuffer} to the {@link PriceLevelsAggregator}, but in batches, and the replay waits
+   * for the shards that fall behind instead of dropping the messages
    *
-   * @param socket - {@link DatagramSocket} for data receiving
+   * @return - number of the replayed datagrams
    */
-  private void registerIncomingMessageHandler(DatagramSocket socket) {
-    socket.handler(packet -> {
-      MessageSequence messageSequence;
-      log.info("Received packet from host '{}' and port '{}'. Data: {}",
-          packet.sender().host(), packet.sender().port(), packet.data().toString());
+  private long recover() {
+    long start = System.nanoTime();
+    SequencePosition snapshotPosition = null;
+    AggregationSnapshot snapshot = snapshotStore.loadLatest();
+    if (snapshot != null) {
+      snapshotPosition = new SequencePosition(snapshot.getSequenceEpoch(), snapshot.getLastSequenceNumber());
+      aggregator.restore(snapshot);
+      buffer.resumeAfter(snapshot.getLastSequenceNumber(), snapshot.getSequenceEpoch());
+      log.info("Snapshot of [{}] orders up to message sequence [{}] of epoch [{}] was restored in [{}] ms",
+          snapshot.size(), snapshot.getLastSequenceNumber(), snapshot.getSequenceEpoch(),
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+    int[] pendingDatagrams = {0};
+    long replayed = journal.replay(snapshotPosition, datagram -> {
       try {
-        messageSequence = packet.data().toJsonObject().mapTo(MessageSequence.class);
-        log.info("JSON message was successfully parsed!");
-        buffer.addMessageSequence(messageSequence);
+        buffer.addMessageSequence(decoder.decode(datagram));
       } catch (DecodeException e) {
-        log.error("Failed to parse JSON message.", e);
+        log.warn("Failed to decode journaled message, it is skipped: {}", e.getMessage());
       }
-    });
+      if (++pendingDatagrams[0] == REPLAY_BATCH_SIZE || buffer.isFull()) {
+        routeReplayed();
+        pendingDatagrams[0] = 0;
+      }
+    }, buffer::expectRestart);
+    routeReplayed();
+    log.info("[{}] journaled datagrams were replayed in [{}] ms", replayed,
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    return replayed;
+  }
+
+  /**
+   * Routes the replayed orders to the shards, waiting for them to catch up if they have no room, so the journaled
+   * messages are never dropped by the bounded buffer. Invoked by the recovery worker only, which may block
+   */
+  private void routeReplayed() {
+    while (buffer.hasReady() && !aggregator.updateOrders()) {
+      LockSupport.parkNanos(REPLAY_STALL_NANOS);
+    }
+  }
+
+  /**
+   * Message decoded by the busy-poll thread along with its datagram, waiting for the event loop
+   */
+  private static class DecodedDatagram {
+
+    private final Buffer data;
+
+    private final MessageSequence messageSequence;
+
+    /**
+     * Monotonic time in nanoseconds the message was handed over at
+     */
+    private final long handedOverAt;
+
+    private DecodedDatagram(Buffer data, MessageSequence messageSequence, long handedOverAt) {
+      this.data = data;
+      this.messageSequence = messageSequence;
+      this.handedOverAt = handedOverAt;
+    }
   }
 }
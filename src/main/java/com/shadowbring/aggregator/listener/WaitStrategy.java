@@ -0,0 +1,47 @@
+package com.shadowbring.aggregator.listener;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Enumeration that contains the ways the {@link BusyPollIngestion} waits after a poll that received nothing. The
+ * shorter the wait, the lower and more consistent the receive latency, and the more of the core is burnt
+ *
+ * @author Dmytro Bezruk
+ */
+public enum WaitStrategy {
+  /**
+   * Polls again straight away, the core is fully busy
+   */
+  spin {
+    @Override
+    void idle(long parkNanos) {
+      // Nothing to wait for
+    }
+  },
+  /**
+   * Yields the core to the other runnable threads, if any
+   */
+  yield {
+    @Override
+    void idle(long parkNanos) {
+      Thread.yield();
+    }
+  },
+  /**
+   * Parks the thread for the configured time, so the core is mostly free, while the latency grows by the park time and
+   * the timer slack of the OS
+   */
+  park {
+    @Override
+    void idle(long parkNanos) {
+      LockSupport.parkNanos(parkNanos);
+    }
+  };
+
+  /**
+   * Waits after an empty poll
+   *
+   * @param parkNanos - time to park for, if the strategy parks
+   */
+  abstract void idle(long parkNanos);
+}
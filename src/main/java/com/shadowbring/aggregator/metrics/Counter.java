@@ -0,0 +1,99 @@
+package com.shadowbring.aggregator.metrics;
+
+/**
+ * Events and volumes counted by {@link PipelineMetrics}
+ *
+ * @author Dmytro Bezruk
+ */
+public enum Counter {
+
+  packetsIn,
+
+  bytesIn,
+
+  decodeFailures,
+
+  /**
+   * Messages that arrived after their sequence number was already processed or skipped
+   */
+  staleMessages,
+
+  /**
+   * Messages whose slot of the reorder window was already taken
+   */
+  duplicateMessages,
+
+  /**
+   * Copies of the messages that were already received from another redundant feed, dropped before decoding
+   */
+  redundantCopies,
+
+  /**
+   * Arrivals that didn't fit the reorder window and forced skipping of the oldest gap
+   */
+  windowOverflows,
+
+  /**
+   * Sequence numbers that were skipped as lost
+   */
+  lostSequences,
+
+  /**
+   * Messages that were far behind the expected sequence number and restarted the sequence numbers
+   */
+  sequenceResets,
+
+  /**
+   * Requests for retransmission of the missing sequence numbers
+   */
+  retransmissionRequests,
+
+  /**
+   * Requests for retransmission that failed or timed out
+   */
+  retransmissionFailures,
+
+  /**
+   * Datagrams received from the retransmission endpoint
+   */
+  retransmittedMessages,
+
+  addOrders,
+
+  changeOrders,
+
+  deleteOrders,
+
+  /**
+   * Messages that arrived in order, but were dropped because the shards fell behind and the ready messages of the
+   * buffer reached their capacity. Recovered as a gap
+   */
+  readyOverflows,
+
+  /**
+   * Attempts to route the orders that were held in the buffer because a shard fell behind and its task ring was full
+   */
+  shardQueueStalls,
+
+  /**
+   * Emissions that were skipped because the previous one was still being collected or packed
+   */
+  skippedEmissions,
+
+  bulksOut,
+
+  bytesOut,
+
+  sendFailures,
+
+  /**
+   * Datagrams that were not journaled because the journal writer fell behind
+   */
+  journalDrops,
+
+  /**
+   * Messages that were dropped by the busy-poll ingestion because the event loop fell behind and the handoff ring was
+   * full
+   */
+  handoffOverflows
+}
@@ -0,0 +1,91 @@
+package com.shadowbring.aggregator.metrics;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Future;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.Json;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * A verticle that serves the cumulative and the interval snapshots of {@link PipelineMetrics} and the events kept by
+ * the {@link TraceRing} as JSON over HTTP. Runs on the same Vert.x instance as the rest of the application and is meant
+ * to be scraped from the local host only
+ *
+ * @author Dmytro Bezruk
+ */
+@Component
+@Slf4j
+public class MetricsEndpoint extends AbstractVerticle {
+
+  /**
+   * Host the endpoint is bound to. Configurable via application.properties file
+   */
+  @Value("${metrics.host}")
+  private String metricsHost;
+
+  /**
+   * Port of the endpoint. Configurable via application.properties file
+   */
+  @Value("${metrics.port}")
+  private Integer metricsPort;
+
+  /**
+   * Path of the endpoint. Configurable via application.properties file
+   */
+  @Value("${metrics.path}")
+  private String metricsPath;
+
+  /**
+   * Path of the interval snapshot, every request starts the next interval. Configurable via application.properties
+   * file
+   */
+  @Value("${metrics.interval-path}")
+  private String intervalPath;
+
+  /**
+   * Path of the trace dump. Configurable via application.properties file
+   */
+  @Value("${trace.path}")
+  private String tracePath;
+
+  @Autowired
+  private PipelineMetrics metrics;
+
+  @Autowired
+  private TraceRing traceRing;
+
+  @Override
+  public void start(Future<Void> startFuture) {
+    vertx.createHttpServer()
+        .requestHandler(request -> {
+          if (request.method() == HttpMethod.GET && metricsPath.equals(request.path())) {
+            request.response()
+                .putHeader("Content-Type", "application/json")
+                .end(Json.encodePrettily(metrics.snapshot()));
+          } else if (request.method() == HttpMethod.GET && intervalPath.equals(request.path())) {
+            request.response()
+                .putHeader("Content-Type", "application/json")
+                .end(Json.encodePrettily(metrics.intervalSnapshot()));
+          } else if (request.method() == HttpMethod.GET && tracePath.equals(request.path())) {
+            request.response()
+                .putHeader("Content-Type", "application/json")
+                .end(Json.encodePrettily(traceRing.dump()));
+          } else {
+            request.response().setStatusCode(404).end();
+          }
+        })
+        .listen(metricsPort, metricsHost, asyncResult -> {
+          if (asyncResult.succeeded()) {
+            log.info("Metrics are served at http://{}:{}{}", metricsHost, asyncResult.result().actualPort(),
+                metricsPath);
+            startFuture.complete();
+          } else {
+            log.error("Failed to start metrics endpoint", asyncResult.cause());
+            startFuture.fail(asyncResult.cause());
+          }
+        });
+  }
+}
@@ -0,0 +1,168 @@
+package com.shadowbring.aggregator.metrics;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Built-in instrumentation of the pipeline: a latency histogram per {@link Stage} and a counter per {@link Counter}.
+ * Recording is lock-free and allocation-free, so it is safe to call from the hot path of any event loop. Histograms
+ * keep 3 significant digits of the nanosecond values and are cumulative since the start of the application.
+ * <p>
+ * Interval snapshots report only what was recorded since the previous interval snapshot, so a scraper gets the
+ * percentiles of every interval without resetting the cumulative histograms that other readers rely on
+ *
+ * @author Dmytro Bezruk
+ */
+@Component
+public class PipelineMetrics {
+
+  private static final int SIGNIFICANT_DIGITS = 3;
+
+  private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+  private final ConcurrentHistogram[] histograms = new ConcurrentHistogram[Stage.values().length];
+
+  private final LongAdder[] counters = new LongAdder[Counter.values().length];
+
+  /**
+   * Histograms as of the previous interval snapshot
+   */
+  private final Histogram[] intervalStartHistograms = new Histogram[Stage.values().length];
+
+  /**
+   * Counter values as of the previous interval snapshot
+   */
+  private final long[] intervalStartCounters = new long[Counter.values().length];
+
+  /**
+   * Monotonic time in nanoseconds of the previous interval snapshot
+   */
+  private long intervalStart = System.nanoTime();
+
+  /**
+   * Creates empty histograms of all the stages and zero counters
+   */
+  public PipelineMetrics() {
+    for (int i = 0; i < histograms.length; i++) {
+      histograms[i] = new ConcurrentHistogram(SIGNIFICANT_DIGITS);
+      intervalStartHistograms[i] = new Histogram(SIGNIFICANT_DIGITS);
+    }
+    for (int i = 0; i < counters.length; i++) {
+      counters[i] = new LongAdder();
+    }
+  }
+
+  /**
+   * @param stage - stage of the pipeline
+   * @param nanos - duration of the stage in nanoseconds. Negative durations (clock adjustments) are ignored
+   */
+  public void record(Stage stage, long nanos) {
+    if (nanos >= 0) {
+      histograms[stage.ordinal()].recordValue(nanos);
+    }
+  }
+
+  /**
+   * @param counter - counter to be incremented by one
+   */
+  public void increment(Counter counter) {
+    counters[counter.ordinal()].increment();
+  }
+
+  /**
+   * @param counter - counter to be incremented
+   * @param value   - value to be added to the counter
+   */
+  public void add(Counter counter, long value) {
+    counters[counter.ordinal()].add(value);
+  }
+
+  /**
+   * @param counter - counter
+   * @return - current value of the counter
+   */
+  public long get(Counter counter) {
+    return counters[counter.ordinal()].sum();
+  }
+
+  /**
+   * @param stage - stage of the pipeline
+   * @return - copy of the histogram of the stage's durations in nanoseconds
+   */
+  public Histogram getHistogram(Stage stage) {
+    return histograms[stage.ordinal()].copy();
+  }
+
+  /**
+   * Takes a snapshot of all metrics in the form that is ready to be encoded to JSON. Durations are in microseconds
+   *
+   * @return - counters by name and summaries of the histograms by stage name
+   */
+  public Map<String, Object> snapshot() {
+    Map<String, Object> counterValues = new LinkedHashMap<>();
+    for (Counter counter : Counter.values()) {
+      counterValues.put(counter.name(), get(counter));
+    }
+    Map<String, Object> stages = new LinkedHashMap<>();
+    for (Stage stage : Stage.values()) {
+      stages.put(stage.name(), summarize(getHistogram(stage)));
+    }
+    Map<String, Object> snapshot = new LinkedHashMap<>();
+    snapshot.put("counters", counterValues);
+    snapshot.put("stagesMicros", stages);
+    return snapshot;
+  }
+
+  /**
+   * Takes a snapshot of what was recorded since the previous interval snapshot (or the start of the application) and
+   * starts the next interval. Durations are in microseconds
+   *
+   * @return - length of the interval in milliseconds, counter increments by name and summaries of the durations
+   * recorded within the interval by stage name
+   */
+  public synchronized Map<String, Object> intervalSnapshot() {
+    long now = System.nanoTime();
+    Map<String, Object> counterValues = new LinkedHashMap<>();
+    for (Counter counter : Counter.values()) {
+      long value = get(counter);
+      counterValues.put(counter.name(), value - intervalStartCounters[counter.ordinal()]);
+      intervalStartCounters[counter.ordinal()] = value;
+    }
+    Map<String, Object> stages = new LinkedHashMap<>();
+    for (Stage stage : Stage.values()) {
+      Histogram current = getHistogram(stage);
+      Histogram interval = current.copy();
+      interval.subtract(intervalStartHistograms[stage.ordinal()]);
+      intervalStartHistograms[stage.ordinal()] = current;
+      stages.put(stage.name(), summarize(interval));
+    }
+    Map<String, Object> snapshot = new LinkedHashMap<>();
+    snapshot.put("intervalMillis", TimeUnit.NANOSECONDS.toMillis(now - intervalStart));
+    snapshot.put("counters", counterValues);
+    snapshot.put("stagesMicros", stages);
+    intervalStart = now;
+    return snapshot;
+  }
+
+  private static Map<String, Object> summarize(Histogram histogram) {
+    Map<String, Object> summary = new LinkedHashMap<>();
+    summary.put("count", histogram.getTotalCount());
+    summary.put("mean", toMicros(histogram.getMean()));
+    for (double percentile : PERCENTILES) {
+      summary.put("p" + String.valueOf(percentile).replace(".0", ""),
+          toMicros(histogram.getValueAtPercentile(percentile)));
+    }
+    summary.put("max", toMicros(histogram.getMaxValue()));
+    return summary;
+  }
+
+  private static double toMicros(double nanos) {
+    return nanos / TimeUnit.MICROSECONDS.toNanos(1);
+  }
+}
@@ -0,0 +1,58 @@
+package com.shadowbring.aggregator.metrics;
+
+import java.util.Arrays;
+
+/**
+ * Receive times of the messages that are carried by the same emission. Times are kept in a growable primitive array,
+ * so collecting them takes no allocation per message. Not thread-safe: times are added on a single event loop, and
+ * the latencies are recorded once the collection is handed over to the emission
+ *
+ * @author Dmytro Bezruk
+ */
+public class ReceiveTimes {
+
+  private long[] times = new long[64];
+
+  private int size;
+
+  /**
+   * @param receivedAt - monotonic time in nanoseconds the message was received at
+   */
+  public void add(long receivedAt) {
+    if (size == times.length) {
+      times = Arrays.copyOf(times, size << 1);
+    }
+    times[size++] = receivedAt;
+  }
+
+  /**
+   * @param receiveTimes - receive times of other messages that are carried by the same emission
+   */
+  public void addAll(ReceiveTimes receiveTimes) {
+    if (size + receiveTimes.size > times.length) {
+      times = Arrays.copyOf(times, Math.max(size + receiveTimes.size, size << 1));
+    }
+    System.arraycopy(receiveTimes.times, 0, times, size, receiveTimes.size);
+    size += receiveTimes.size;
+  }
+
+  /**
+   * @return - number of the messages
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Records the time from the receipt of every message till the given moment as the duration of the stage
+   *
+   * @param metrics - metrics the durations are recorded to
+   * @param stage   - stage the durations belong to
+   * @param now     - monotonic time in nanoseconds the stage ended at
+   */
+  public void record(PipelineMetrics metrics, Stage stage, long now) {
+    for (int i = 0; i < size; i++) {
+      metrics.record(stage, now - times[i]);
+    }
+  }
+}
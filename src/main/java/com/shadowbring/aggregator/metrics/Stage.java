@@ -0,0 +1,68 @@
+package com.shadowbring.aggregator.metrics;
+
+/**
+ * Stages of the pipeline whose durations are recorded by {@link PipelineMetrics}. Besides the processing stages, there
+ * are the queueing ones, where a message waits for the next stage, and the end-to-end one, from the receipt of a
+ * message till the publication of the emission that carries its changes
+ *
+ * @author Dmytro Bezruk
+ */
+public enum Stage {
+
+  /**
+   * Decoding of a received datagram
+   */
+  decode,
+
+  /**
+   * Time from handing a decoded message over to the event loop till the event loop takes it, in the busy-poll
+   * ingestion mode only
+   */
+  handoffWait,
+
+  /**
+   * Adding of a decoded message to the reorder buffer
+   */
+  bufferInsert,
+
+  /**
+   * Time from the receipt of a message till it is flushed from the reorder buffer, including the wait for the missing
+   * preceding messages
+   */
+  reorderWait,
+
+  /**
+   * Time from routing a batch of orders to a shard till the shard starts applying it
+   */
+  applyQueue,
+
+  /**
+   * Applying of a batch of orders to the order table of a shard
+   */
+  orderApply,
+
+  /**
+   * Time from the receipt of a message till the start of the emission that carries its changes
+   */
+  emissionWait,
+
+  /**
+   * Aggregation of all price levels for an emission, from the request to the merged bulks
+   */
+  aggregation,
+
+  /**
+   * Encoding of a bulk
+   */
+  encode,
+
+  /**
+   * Time from handing a bulk over to the socket till the completion of the send
+   */
+  send,
+
+  /**
+   * Time from the receipt of a message till the last bulk of the emission that carries its changes is sent
+   */
+  receiveToPublish
+}
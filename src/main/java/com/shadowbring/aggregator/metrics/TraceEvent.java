@@ -0,0 +1,19 @@
+package com.shadowbring.aggregator.metrics;
+
+/**
+ * Kinds of the events recorded by {@link TraceRing}
+ *
+ * @author Dmytro Bezruk
+ */
+public enum TraceEvent {
+
+  /**
+   * Datagram was received, decoded and added to the reorder buffer
+   */
+  received,
+
+  /**
+   * Bulk was sent
+   */
+  emitted
+}
@@ -0,0 +1,63 @@
+package com.shadowbring.aggregator.metrics;
+
+/**
+ * Outcomes of the events recorded by {@link TraceRing}. Anomalies are recorded regardless of the sampling
+ *
+ * @author Dmytro Bezruk
+ */
+public enum TraceOutcome {
+
+  /**
+   * Message arrived with the expected sequence number
+   */
+  inOrder(false),
+
+  /**
+   * Message arrived ahead of the expected sequence number and waits in the reorder window
+   */
+  reordered(false),
+
+  /**
+   * Message arrived after its sequence number was already processed or skipped
+   */
+  stale(true),
+
+  /**
+   * Message was far behind the expected sequence number and restarted the sequence numbers
+   */
+  reset(true),
+
+  /**
+   * Message whose slot of the reorder window was already taken
+   */
+  duplicate(true),
+
+  /**
+   * Message was already received from another redundant feed
+   */
+  redundant(false),
+
+  /**
+   * Datagram couldn't be decoded
+   */
+  malformed(true),
+
+  /**
+   * Message was dropped because the next stage fell behind and its queue was full
+   */
+  overflow(true),
+
+  sent(false),
+
+  failed(true);
+
+  private final boolean anomaly;
+
+  TraceOutcome(boolean anomaly) {
+    this.anomaly = anomaly;
+  }
+
+  public boolean isAnomaly() {
+    return anomaly;
+  }
+}
@@ -0,0 +1,143 @@
+package com.shadowbring.aggregator.metrics;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size ring of the most recent compact trace events of the pipeline, served on demand by the
+ * {@link MetricsEndpoint} instead of logging every datagram.
+ * <p>
+ * Every event takes a slot of primitive fields: sequence number, size, kind and outcome, wall-clock time and duration.
+ * Writers claim slots by incrementing the cursor and never wait for each other or for the readers; every slot carries
+ * the number of its claim, so the reader skips the slots that are being overwritten. Regular events are sampled (one in
+ * N, configurable via application.properties file), while anomalies are always recorded
+ *
+ * @author Dmytro Bezruk
+ */
+@Component
+public class TraceRing {
+
+  /**
+   * Sequence number of the events that have none, e.g. malformed datagrams
+   */
+  public static final int NO_SEQUENCE = -1;
+
+  private static final int VERSION = 0;
+
+  private static final int TIMESTAMP = 1;
+
+  private static final int KIND = 2;
+
+  private static final int SEQUENCE = 3;
+
+  private static final int SIZE = 4;
+
+  private static final int DURATION = 5;
+
+  private static final int FIELDS = 6;
+
+  private static final long WRITING = -1;
+
+  private static final TraceEvent[] EVENTS = TraceEvent.values();
+
+  private static final TraceOutcome[] OUTCOMES = TraceOutcome.values();
+
+  /**
+   * One in this number of the regular events is recorded, nothing is recorded if not positive. Configurable via
+   * application.properties file
+   */
+  private final int sampling;
+
+  /**
+   * Slots of {@link #FIELDS} fields each. Version field holds the number of the claim plus one, or {@link #WRITING}
+   */
+  private final AtomicLongArray slots;
+
+  private final int mask;
+
+  /**
+   * Number of the slots ever claimed
+   */
+  private final AtomicLong cursor = new AtomicLong();
+
+  /**
+   * Creates the ring with all its slots, so recording never allocates. Settings are configurable via
+   * application.properties file
+   *
+   * @param capacity - number of the events the ring keeps, rounded up to the power of two
+   * @param sampling - one in this number of the regular events is recorded, nothing is recorded if not positive
+   */
+  @Autowired
+  public TraceRing(@Value("${trace.capacity}") int capacity, @Value("${trace.sampling}") int sampling) {
+    this.sampling = sampling;
+    int slotsCount = Math.max(Integer.highestOneBit(Math.max(capacity, 1) - 1) << 1, 1);
+    slots = new AtomicLongArray(slotsCount * FIELDS);
+    mask = slotsCount - 1;
+  }
+
+  /**
+   * Records the event, unless it is not sampled
+   *
+   * @param event          - kind of the event
+   * @param sequenceNumber - sequence number of the message or bulk, {@link #NO_SEQUENCE} if there is none
+   * @param size           - size of the datagram in bytes
+   * @param outcome        - outcome of the event
+   * @param durationNanos  - time spent on the event
+   */
+  public void record(TraceEvent event, int sequenceNumber, int size, TraceOutcome outcome, long durationNanos) {
+    if (sampling <= 0 ||
+            !outcome.isAnomaly() && sampling > 1 && ThreadLocalRandom.current().nextInt(sampling) != 0) {
+      return;
+    }
+    long claim = cursor.getAndIncrement();
+    int base = (int) (claim & mask) * FIELDS;
+    slots.set(base + VERSION, WRITING);
+    slots.set(base + TIMESTAMP, System.currentTimeMillis());
+    slots.set(base + KIND, event.ordinal() << 8 | outcome.ordinal());
+    slots.set(base + SEQUENCE, sequenceNumber);
+    slots.set(base + SIZE, size);
+    slots.set(base + DURATION, durationNanos);
+    slots.set(base + VERSION, claim + 1);
+  }
+
+  /**
+   * Reads the events that are currently kept by the ring, from the oldest to the newest. Slots that are being written
+   * are skipped
+   *
+   * @return - events, every one as a map of its fields
+   */
+  public List<Map<String, Object>> dump() {
+    long end = cursor.get();
+    long start = Math.max(0, end - (mask + 1));
+    List<Map<String, Object>> events = new ArrayList<>((int) (end - start));
+    long[] fields = new long[FIELDS];
+    for (long claim = start; claim < end; claim++) {
+      int base = (int) (claim & mask) * FIELDS;
+      for (int i = 0; i < FIELDS; i++) {
+        fields[i] = slots.get(base + i);
+      }
+      if (fields[VERSION] != claim + 1 || slots.get(base + VERSION) != claim + 1) {
+        continue;
+      }
+      Map<String, Object> event = new LinkedHashMap<>();
+      event.put("timestamp", fields[TIMESTAMP]);
+      event.put("event", EVENTS[(int) fields[KIND] >> 8]);
+      event.put("sequenceNumber", fields[SEQUENCE]);
+      event.put("size", fields[SIZE]);
+      event.put("outcome", OUTCOMES[(int) fields[KIND] & 0xFF]);
+      event.put("durationMicros", TimeUnit.NANOSECONDS.toMicros(fields[DURATION]));
+      events.add(event);
+    }
+    return events;
+  }
+}
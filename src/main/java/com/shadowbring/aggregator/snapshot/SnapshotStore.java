@@ -0,0 +1,230 @@
+package com.shadowbring.aggregator.snapshot;
+
+import com.shadowbring.aggregator.aggregation.AggregationSnapshot;
+import com.shadowbring.aggregator.book.OrderTableSnapshot;
+import com.shadowbring.aggregator.journal.SequencePosition;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Storage of the {@link AggregationSnapshot}s, so the order tables can be restored after restart without replaying the
+ * whole history. Every snapshot is a separate file that is written to a temporary one, synced to the disk and renamed,
+ * so a snapshot file is either complete or absent. Only a few latest snapshots are retained.
+ * <p>
+ * Binary form:
+ * <pre>
+ *   int magic | int version | int lastSequenceNumber | int sequenceEpoch | int tablesCount | tables
+ *   | long CRC32 of all preceding bytes
+ * </pre>
+ * where every table is {@link OrderTableSnapshot} in its binary form
+ *
+ * @author Dmytro Bezruk
+ */
+@Component
+@Slf4j
+public class SnapshotStore {
+
+  private static final int MAGIC = 0x534E4150;
+
+  private static final int VERSION = 1;
+
+  private static final String SNAPSHOT_PREFIX = "snapshot-";
+
+  private static final String SNAPSHOT_SUFFIX = ".snapshot";
+
+  private static final int IO_BUFFER_SIZE = 1 << 16;
+
+  /**
+   * Whether snapshots are written and loaded. Configurable via application.properties file
+   */
+  private final boolean enabled;
+
+  /**
+   * Directory of the snapshot files. Configurable via application.properties file
+   */
+  private final String directory;
+
+  /**
+   * Number of the latest snapshots that are kept. Configurable via application.properties file
+   */
+  private final int retained;
+
+  /**
+   * Number that makes name of the snapshot unique even if several snapshots are written within a millisecond
+   */
+  private long lastSnapshotId;
+
+  /**
+   * Creates the store. Nothing is read from the directory until the snapshots are loaded
+   *
+   * @param enabled   - whether snapshots are written and loaded
+   * @param directory - directory of the snapshot files
+   * @param retained  - number of the latest snapshots that are kept
+   */
+  @Autowired
+  public SnapshotStore(@Value("${snapshot.enabled}") boolean enabled,
+                       @Value("${snapshot.directory}") String directory,
+                       @Value("${snapshot.retained}") int retained) {
+    this.enabled = enabled;
+    this.directory = directory;
+    this.retained = retained;
+  }
+
+  /**
+   * @return - true if snapshots are enabled
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Writes the snapshot to the disk and removes the outdated ones. Blocking, must not be invoked on an event loop
+   *
+   * @param snapshot - snapshot to be written
+   * @throws IOException if snapshot can't be written
+   */
+  public synchronized void write(AggregationSnapshot snapshot) throws IOException {
+    File dir = new File(directory);
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Failed to create snapshot directory " + dir);
+    }
+    lastSnapshotId = Math.max(lastSnapshotId + 1, System.currentTimeMillis());
+    File file = new File(dir, String.format("%s%020d%s", SNAPSHOT_PREFIX, lastSnapshotId, SNAPSHOT_SUFFIX));
+    File temporary = new File(dir, file.getName() + ".tmp");
+
+    try (FileOutputStream fileOutput = new FileOutputStream(temporary)) {
+      CheckedOutputStream checkedOutput = new CheckedOutputStream(new BufferedOutputStream(fileOutput, IO_BUFFER_SIZE),
+          new CRC32());
+      DataOutputStream output = new DataOutputStream(checkedOutput);
+      output.writeInt(MAGIC);
+      output.writeInt(VERSION);
+      output.writeInt(snapshot.getLastSequenceNumber());
+      output.writeInt(snapshot.getSequenceEpoch());
+      output.writeInt(snapshot.getTables().size());
+      for (OrderTableSnapshot table : snapshot.getTables()) {
+        table.writeTo(output);
+      }
+      output.writeLong(checkedOutput.getChecksum().getValue());
+      output.flush();
+      fileOutput.getFD().sync();
+    }
+    Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    removeOutdatedSnapshots();
+  }
+
+  /**
+   * Loads the latest complete snapshot. Corrupted snapshots are skipped in favour of the older ones
+   *
+   * @return - the latest snapshot or null if there is none
+   */
+  public AggregationSnapshot loadLatest() {
+    if (!enabled) {
+      return null;
+    }
+    List<File> files = snapshotFiles();
+    for (int i = files.size() - 1; i >= 0; i--) {
+      try {
+        return read(files.get(i));
+      } catch (IOException e) {
+        log.error("Snapshot '{}' is corrupted and will be skipped: {}", files.get(i), e.getMessage());
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Tells the position the journal must be retained after, so any retained snapshot that {@link #loadLatest()} may
+   * fall back to is followed by the journaled datagrams. Blocking, must not be invoked on an event loop
+   *
+   * @return - position of the oldest readable retained snapshot or null if there are none
+   */
+  public SequencePosition oldestRetainedPosition() {
+    for (File file : snapshotFiles()) {
+      try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+        if (input.readInt() == MAGIC && input.readInt() == VERSION) {
+          int lastSequenceNumber = input.readInt();
+          return new SequencePosition(input.readInt(), lastSequenceNumber);
+        }
+      } catch (IOException e) {
+        log.debug("Snapshot '{}' can't be read: {}", file, e.getMessage());
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Removes all snapshots but the latest one, e.g. after the restart of the sequence numbers, as the journal can't
+   * follow the snapshots of the previous numbering anymore. Blocking, must not be invoked on an event loop
+   */
+  public synchronized void retainLatestOnly() {
+    List<File> files = snapshotFiles();
+    for (int i = 0; i < files.size() - 1; i++) {
+      if (!files.get(i).delete()) {
+        log.warn("Failed to remove outdated snapshot '{}'", files.get(i));
+      }
+    }
+  }
+
+  private AggregationSnapshot read(File file) throws IOException {
+    try (CheckedInputStream checkedInput = new CheckedInputStream(
+        new BufferedInputStream(new FileInputStream(file), IO_BUFFER_SIZE), new CRC32())) {
+      DataInputStream input = new DataInputStream(checkedInput);
+      if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+        throw new IOException("unknown format");
+      }
+      int lastSequenceNumber = input.readInt();
+      int sequenceEpoch = input.readInt();
+      int tablesCount = input.readInt();
+      List<OrderTableSnapshot> tables = new ArrayList<>(tablesCount);
+      for (int i = 0; i < tablesCount; i++) {
+        tables.add(OrderTableSnapshot.readFrom(input));
+      }
+      long checksum = checkedInput.getChecksum().getValue();
+      if (input.readLong() != checksum) {
+        throw new IOException("checksum mismatch");
+      }
+      return new AggregationSnapshot(lastSequenceNumber, sequenceEpoch, tables);
+    }
+  }
+
+  private void removeOutdatedSnapshots() {
+    List<File> files = snapshotFiles();
+    for (int i = 0; i < files.size() - retained; i++) {
+      if (!files.get(i).delete()) {
+        log.warn("Failed to remove outdated snapshot '{}'", files.get(i));
+      }
+    }
+  }
+
+  /**
+   * @return - complete snapshot files from the oldest to the latest
+   */
+  private List<File> snapshotFiles() {
+    File[] files = new File(directory).listFiles(
+        (dir, name) -> name.startsWith(SNAPSHOT_PREFIX) && name.endsWith(SNAPSHOT_SUFFIX));
+    if (files == null) {
+      return new ArrayList<>();
+    }
+    Arrays.sort(files);
+    return Arrays.asList(files);
+  }
+}
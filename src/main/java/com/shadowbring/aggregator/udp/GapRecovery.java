@@ -0,0 +1,240 @@
+package com.shadowbring.aggregator.udp;
+
+import com.shadowbring.aggregator.metrics.Counter;
+import com.shadowbring.aggregator.metrics.PipelineMetrics;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.net.NetClient;
+import io.vertx.core.net.NetClientOptions;
+import io.vertx.core.net.NetSocket;
+import io.vertx.core.parsetools.RecordParser;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Fills the gaps of the {@link UdpCompliantMessageSequenceBuffer} by requesting the missing messages from the
+ * retransmission endpoint, instead of waiting until the reorder window overflows and the gap is skipped as lost.
+ * <p>
+ * Gap is considered persistent if the same sequence number is still missing on two consecutive checks, performed every
+ * gap timeout (configurable via application.properties file). The missing range, from the expected sequence number up
+ * to the first waiting message, is requested over TCP:
+ * <pre>
+ *   request:  int fromSequenceNumber | int toSequenceNumber (inclusive)
+ *   response: frames of int length | datagram in the inbound wire format, terminated by zero length
+ * </pre>
+ * Response with the frame length that is negative or exceeds the maximal datagram length is malformed, the request
+ * fails on it and the rest of the response is ignored.
+ * <p>
+ * Recovered datagrams are handed over to the same handler as the received ones, so they are decoded, journaled and
+ * merged into the buffer the regular way. Messages keep arriving to the reorder window in the meantime; if it
+ * overflows before the gap is filled, the gap is skipped as before. Only one request is in flight at a time.
+ * <p>
+ * Not thread-safe, must be started on the event loop that owns the buffer
+ *
+ * @author Dmytro Bezruk
+ */
+@Component
+@Slf4j
+public class GapRecovery {
+
+  private static final int FRAME_HEADER_LENGTH = 4;
+
+  /**
+   * Maximal length of the frame, i.e. of the datagram it carries
+   */
+  private static final int MAX_FRAME_LENGTH = 65535;
+
+  /**
+   * Whether the gaps are recovered. Configurable via application.properties file
+   */
+  private final boolean enabled;
+
+  /**
+   * Host of the retransmission endpoint. Configurable via application.properties file
+   */
+  private final String host;
+
+  /**
+   * Port of the retransmission endpoint. Configurable via application.properties file
+   */
+  private final int port;
+
+  /**
+   * Interval in milliseconds between the checks of the buffer for the persistent gap. Configurable via
+   * application.properties file
+   */
+  private final long gapTimeout;
+
+  /**
+   * Time in milliseconds the request may take before it is abandoned. Configurable via application.properties file
+   */
+  private final long requestTimeout;
+
+  /**
+   * Buffer whose gaps are recovered
+   */
+  private final UdpCompliantMessageSequenceBuffer buffer;
+
+  private final PipelineMetrics metrics;
+
+  private Vertx vertx;
+
+  private NetClient client;
+
+  private Handler<Buffer> datagramHandler;
+
+  private boolean requestInFlight;
+
+  /**
+   * Whether a gap was seen by the previous check
+   */
+  private boolean gapObserved;
+
+  /**
+   * First missing sequence number seen by the previous check
+   */
+  private int observedGapStart;
+
+  /**
+   * Creates the recovery. No connection is made until it is started
+   *
+   * @param enabled        - whether the gaps are recovered
+   * @param host           - host of the retransmission endpoint
+   * @param port           - port of the retransmission endpoint
+   * @param gapTimeout     - interval in milliseconds between the checks of the buffer for the persistent gap
+   * @param requestTimeout - time in milliseconds the request may take before it is abandoned
+   * @param buffer         - buffer whose gaps are recovered
+   * @param metrics        - metrics the outcome of the requests is counted in
+   */
+  @Autowired
+  public GapRecovery(@Value("${retransmission.enabled}") boolean enabled,
+                     @Value("${retransmission.host}") String host,
+                     @Value("${retransmission.port}") int port,
+                     @Value("${retransmission.gap-timeout}") long gapTimeout,
+                     @Value("${retransmission.request-timeout}") long requestTimeout,
+                     UdpCompliantMessageSequenceBuffer buffer,
+                     PipelineMetrics metrics) {
+    this.enabled = enabled;
+    this.host = host;
+    this.port = port;
+    this.gapTimeout = gapTimeout;
+    this.requestTimeout = requestTimeout;
+    this.buffer = buffer;
+    this.metrics = metrics;
+  }
+
+  /**
+   * Starts the periodic checks of the buffer on the caller's event loop
+   *
+   * @param vertx           - Vert.x instance the checks and requests are performed on
+   * @param datagramHandler - handler of the recovered datagrams
+   */
+  public void start(Vertx vertx, Handler<Buffer> datagramHandler) {
+    if (!enabled) {
+      return;
+    }
+    this.vertx = vertx;
+    this.datagramHandler = datagramHandler;
+    client = vertx.createNetClient(new NetClientOptions().setConnectTimeout((int) requestTimeout));
+    vertx.setPeriodic(gapTimeout, id -> checkGap());
+    log.info("Gaps are recovered from {}:{}", host, port);
+  }
+
+  /**
+   * Requests the missing range if the gap seen by the previous check is still there
+   */
+  void checkGap() {
+    if (requestInFlight || !buffer.hasGap()) {
+      gapObserved = false;
+      return;
+    }
+    int gapStart = buffer.getNextSequenceNumber();
+    if (gapObserved && gapStart == observedGapStart) {
+      gapObserved = false;
+      request(gapStart, buffer.getFirstPendingSequenceNumber() - 1);
+    } else {
+      gapObserved = true;
+      observedGapStart = gapStart;
+    }
+  }
+
+  private void request(int from, int to) {
+    requestInFlight = true;
+    metrics.increment(Counter.retransmissionRequests);
+    log.info("Retransmission of the message sequences [{}..{}] is requested", from, to);
+    client.connect(port, host, connectResult -> {
+      if (connectResult.failed()) {
+        fail(from, to, connectResult.cause());
+        return;
+      }
+      NetSocket socket = connectResult.result();
+      Response response = new Response();
+      long timerId = vertx.setTimer(requestTimeout, id -> socket.close());
+      RecordParser parser = RecordParser.newFixed(FRAME_HEADER_LENGTH, null);
+      parser.setOutput(frame -> {
+        if (response.completed || response.malformed) {
+          return;
+        }
+        if (!response.expectingHeader) {
+          response.recovered++;
+          metrics.increment(Counter.retransmittedMessages);
+          datagramHandler.handle(frame);
+          response.expectingHeader = true;
+          parser.fixedSizeMode(FRAME_HEADER_LENGTH);
+          return;
+        }
+        int length = frame.getInt(0);
+        if (length == 0) {
+          response.completed = true;
+          socket.close();
+        } else if (length < 0 || length > MAX_FRAME_LENGTH) {
+          log.warn("Retransmitted frame of [{}] bytes is malformed", length);
+          response.malformed = true;
+          socket.close();
+        } else {
+          response.expectingHeader = false;
+          parser.fixedSizeMode(length);
+        }
+      });
+      socket.handler(parser);
+      socket.exceptionHandler(e -> log.warn("Retransmission connection failed: {}", e.getMessage()));
+      socket.closeHandler(v -> {
+        vertx.cancelTimer(timerId);
+        if (response.completed) {
+          requestInFlight = false;
+          log.info("[{}] of the message sequences [{}..{}] were retransmitted", response.recovered, from, to);
+        } else {
+          fail(from, to, null);
+        }
+      });
+      socket.write(Buffer.buffer(8).appendInt(from).appendInt(to));
+    });
+  }
+
+  private void fail(int from, int to, Throwable cause) {
+    requestInFlight = false;
+    metrics.increment(Counter.retransmissionFailures);
+    log.warn("Retransmission of the message sequences [{}..{}] failed{}", from, to,
+        cause == null ? "" : ": " + cause.getMessage());
+  }
+
+  /**
+   * State of the response that is being read
+   */
+  private static class Response {
+
+    private boolean expectingHeader = true;
+
+    private boolean completed;
+
+    /**
+     * Whether the frame of the invalid length was read, so the rest of the response is ignored
+     */
+    private boolean malformed;
+
+    private int recovered;
+  }
+}
@@ -0,0 +1,62 @@
+package com.shadowbring.aggregator.udp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Multicast group the stock feed is received from: address of the group and port of the socket that joins it
+ *
+ * @author Dmytro Bezruk
+ */
+public class MulticastGroup {
+
+  private final String address;
+
+  private final int port;
+
+  /**
+   * @param address - IP-address of the multicast group
+   * @param port    - port the datagrams of the group are sent to
+   */
+  public MulticastGroup(String address, int port) {
+    this.address = address;
+    this.port = port;
+  }
+
+  /**
+   * Parses groups in the form "address:port,address:port"
+   *
+   * @param groups - groups, may be empty
+   * @return - parsed groups in the same order
+   * @throws IllegalArgumentException if groups are malformed
+   */
+  public static List<MulticastGroup> parse(String groups) {
+    if (groups == null || groups.trim().isEmpty()) {
+      return Collections.emptyList();
+    }
+    List<MulticastGroup> parsed = new ArrayList<>();
+    for (String group : groups.split(",")) {
+      int separator = group.lastIndexOf(':');
+      if (separator <= 0) {
+        throw new IllegalArgumentException("Malformed multicast group '" + group + "'");
+      }
+      parsed.add(new MulticastGroup(group.substring(0, separator).trim(),
+          Integer.parseInt(group.substring(separator + 1).trim())));
+    }
+    return parsed;
+  }
+
+  public String getAddress() {
+    return address;
+  }
+
+  public int getPort() {
+    return port;
+  }
+
+  @Override
+  public String toString() {
+    return address + ":" + port;
+  }
+}
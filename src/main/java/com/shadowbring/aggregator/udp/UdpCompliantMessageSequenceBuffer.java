@@ -1,16 +1,42 @@
 package com.shadowbring.aggregator.udp;
 
 import com.shadowbring.aggregator.domain.incoming.MessageSequence;
+import com.shadowbring.aggregator.metrics.Counter;
+import com.shadowbring.aggregator.metrics.PipelineMetrics;
+import com.shadowbring.aggregator.metrics.TraceOutcome;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import javax.annotation.PostConstruct;
-import java.util.*;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * This service acts like a temporal storage for the incoming messages and mitigates data distortion that was caused by
- * the nature of the UDP protocol
+ * the nature of the UDP protocol.
+ * <p>
+ * Messages that arrive in order are appended to the list of the ready ones straight away. Messages that arrive ahead
+ * of the expected {@link MessageSequence#inSequenceNumber} wait in the reorder window - the ring of the power-of-two
+ * size where every sequence number has its own slot, so placing, duplicate detection and draining of the contiguous
+ * run cost O(1) per message. Duplicates and messages that are older than the expected one are dropped.
+ * <p>
+ * A message that is far behind the expected one (further than it could be delayed) is taken for the restart of the
+ * publisher's sequence numbers: the waiting messages are made ready, and the numbering continues from the received
+ * one, so the feed doesn't go dark after the publisher was restarted. Every restart starts the new epoch of the
+ * sequence numbers, as the numbers of different epochs are not comparable.
+ * <p>
+ * Ready messages wait until the {@link com.shadowbring.aggregator.aggregation.PriceLevelsAggregator} flushes them,
+ * which it does only while the shards have room for the orders. Their number is bounded: once it reaches the capacity,
+ * the following messages that arrive in order are dropped and reported as {@link Counter#readyOverflows} without
+ * advancing the expected sequence number, so they turn into a gap that is recovered by the
+ * {@link GapRecovery} or skipped as lost, just like the messages lost by the network. The messages made ready by
+ * the reorder window may exceed the capacity by the size of the window at most.
+ * <p>
+ * Buffer has no locks, as it's used by a single thread at a time: on startup the journal is replayed into it by the
+ * worker thread of the {@link com.shadowbring.aggregator.listener.StockListener}, then both adding and flushing are
+ * performed by the listener's event loop. The event loop takes over only when the recovery completes, and the
+ * completion of the blocking code makes the worker's writes visible to it
  *
  * @author Dmytro Bezruk
  */
@@ -18,119 +44,363 @@ import java.util.*;
 @Slf4j
 public class UdpCompliantMessageSequenceBuffer {
 
+  private final PipelineMetrics metrics;
+
+  /**
+   * Reorder window. Message with sequence number N waits in the slot N & {@link #mask}
+   */
+  private final MessageSequence[] window;
+
+  private final int mask;
+
+  /**
+   * Backward distance from the expected sequence number, starting from which the message is taken for the restart of
+   * the sequence numbers rather than for a stale one. Never less than the capacity of the reorder window
+   */
+  private final int resetThreshold;
+
+  /**
+   * Number of the ready messages, starting from which the messages that arrive in order are dropped, not limited if
+   * not positive
+   */
+  private final int readyCapacity;
+
   /**
-   * The back-end of this buffer. Features of {@link TreeMap} allow to skip duplicates and reorder the messages
-   * correctly in case of properly implemented {@link Comparator}
+   * Whether the previous message that arrived in order was dropped as well, so the overflow is logged once
    */
-  private final NavigableSet<MessageSequence> orderedMessageSequenceBuffer =
-      Collections
-          .synchronizedNavigableSet(new TreeSet<>(Comparator.comparingInt(MessageSequence::getInSequenceNumber)));
+  private boolean overflowing;
 
   /**
-   * Capacity of the cache. Configurable via application.properties file
+   * Number of the messages that wait in the reorder window
    */
-  @Value("${cache.capacity}")
-  private Integer cacheCapacity;
+  private int pendingCount;
 
   /**
-   * Back-end of the cache
+   * Sequence number that is expected to arrive next
    */
-  private Map<Integer, MessageSequence> cache;
+  private int nextSequenceNumber;
 
   /**
-   * Initialization of the cache with the already injected property
+   * Whether the first message was received and {@link #nextSequenceNumber} is known
    */
-  @PostConstruct
-  public void initCache() {
-    cache = Collections.synchronizedMap(new HashMap<>(cacheCapacity, 1));
+  private boolean started;
+
+  /**
+   * Number of the restarts of the sequence numbers
+   */
+  private int sequenceEpoch;
+
+  /**
+   * Messages that are ordered and ready to be flushed
+   */
+  private List<MessageSequence> ready = new ArrayList<>();
+
+  /**
+   * Creates the buffer with the initialized reorder window. Settings are configurable via application.properties file
+   *
+   * @param cacheCapacity - capacity of the reorder window, rounded up to the power of two
+   * @param resetDistance - backward distance from the expected sequence number, starting from which the message is
+   *                      taken for the restart of the sequence numbers rather than for a stale one
+   * @param readyCapacity - number of the ready messages, starting from which the messages that arrive in order are
+   *                      dropped, not limited if not positive
+   * @param metrics       - metrics the buffer reports to
+   */
+  @Autowired
+  public UdpCompliantMessageSequenceBuffer(@Value("${cache.capacity}") int cacheCapacity,
+                                           @Value("${cache.reset-distance}") int resetDistance,
+                                           @Value("${cache.ready-capacity}") int readyCapacity,
+                                           PipelineMetrics metrics) {
+    this.metrics = metrics;
+    this.readyCapacity = readyCapacity;
+    int capacity = Integer.highestOneBit(Math.max(cacheCapacity, 1) - 1) << 1;
+    window = new MessageSequence[Math.max(capacity, 1)];
+    mask = window.length - 1;
+    resetThreshold = Math.max(resetDistance, window.length);
   }
 
   /**
    * Adds {@link MessageSequence} to the buffer if its {@link MessageSequence#inSequenceNumber} is expected (there are
-   * no skipped numbers). Otherwise, its placed to the cache
+   * no skipped numbers) along with all the following messages that already wait in the reorder window. Otherwise, it's
+   * placed to the reorder window. If the sequence number doesn't fit the window, the oldest gap is considered lost and
+   * skipped. If the sequence number is far behind the expected one, the sequence numbers are considered restarted. If
+   * the message is expected, but the ready messages reached their capacity, it is dropped
    *
    * @param messageSequence - {@link MessageSequence} to be added
+   * @return - what happened to the message
+   */
+  public TraceOutcome addMessageSequence(MessageSequence messageSequence) {
+    int sequenceNumber = messageSequence.getInSequenceNumber();
+    if (!started) {
+      nextSequenceNumber = sequenceNumber;
+      started = true;
+    }
+    int distance = sequenceNumber - nextSequenceNumber;
+    if (distance <= -resetThreshold) {
+      restartSequence(sequenceNumber);
+      ready.add(messageSequence);
+      nextSequenceNumber++;
+      return TraceOutcome.reset;
+    }
+    if (distance < 0) {
+      log.debug("Message sequence [{}] is already processed and will be dropped", sequenceNumber);
+      metrics.increment(Counter.staleMessages);
+      return TraceOutcome.stale;
+    }
+    if (distance >= window.length) {
+      skipGap(sequenceNumber);
+      distance = sequenceNumber - nextSequenceNumber;
+    }
+    if (distance == 0) {
+      if (isFull()) {
+        dropOverflow(sequenceNumber);
+        return TraceOutcome.overflow;
+      }
+      overflowing = false;
+      ready.add(messageSequence);
+      nextSequenceNumber++;
+      drainWindow();
+      return TraceOutcome.inOrder;
+    }
+    int slot = sequenceNumber & mask;
+    if (window[slot] != null) {
+      log.debug("Message sequence [{}] is a duplicate and will be dropped", sequenceNumber);
+      metrics.increment(Counter.duplicateMessages);
+      return TraceOutcome.duplicate;
+    }
+    window[slot] = messageSequence;
+    pendingCount++;
+    return TraceOutcome.reordered;
+  }
+
+  /**
+   * Tells whether the message with the specified sequence number would be taken by the buffer, without adding it.
+   * Arbitration between the redundant feeds relies on it: the first copy of the message is taken, the later copies are
+   * either stale or duplicates, so they are dropped before decoding
+   *
+   * @param sequenceNumber - sequence number of the received message
+   * @return - false if the message was already processed or waits in the reorder window
+   */
+  public boolean accepts(int sequenceNumber) {
+    if (!started) {
+      return true;
+    }
+    int distance = sequenceNumber - nextSequenceNumber;
+    if (distance < 0) {
+      return distance <= -resetThreshold;
+    }
+    return distance == 0 || distance >= window.length || window[sequenceNumber & mask] == null;
+  }
+
+  /**
+   * @return - true if messages wait in the reorder window, so at least one sequence number is missing
+   */
+  public boolean hasGap() {
+    return pendingCount > 0;
+  }
+
+  /**
+   * @return - true if there are ordered messages to be flushed
+   */
+  public boolean hasReady() {
+    return !ready.isEmpty();
+  }
+
+  /**
+   * @return - true if the ready messages reached their capacity, so the messages that arrive in order are dropped until
+   * the buffer is flushed
+   */
+  public boolean isFull() {
+    return readyCapacity > 0 && ready.size() >= readyCapacity;
+  }
+
+  /**
+   * @return - sequence number that is expected to arrive next, i.e. the first missing one if there is a gap
+   */
+  public int getNextSequenceNumber() {
+    return nextSequenceNumber;
+  }
+
+  /**
+   * @return - number of the restarts of the sequence numbers, so the epoch the last ready message belongs to
    */
-  public void addMessageSequence(MessageSequence messageSequence) {
-    if (isSequenceNumberExpected(messageSequence)) {
-      orderedMessageSequenceBuffer.add(messageSequence);
-      log.info("Buffer size: " + orderedMessageSequenceBuffer.size());
-      log.info("Buffer contents: " + orderedMessageSequenceBuffer);
-      lookupNextSequencesInCache(messageSequence);
-    } else {
-      putInCache(messageSequence);
+  public int getSequenceEpoch() {
+    return sequenceEpoch;
+  }
+
+  /**
+   * Scans the reorder window for the first waiting message. Costs up to the window capacity, so it is meant for the
+   * occasional checks only
+   *
+   * @return - sequence number of the first message that waits in the reorder window, i.e. the one that follows the
+   * first gap
+   * @throws IllegalStateException if there is no gap
+   */
+  public int getFirstPendingSequenceNumber() {
+    for (int distance = 1; distance < window.length && pendingCount > 0; distance++) {
+      if (window[(nextSequenceNumber + distance) & mask] != null) {
+        return nextSequenceNumber + distance;
+      }
     }
+    throw new IllegalStateException("There is no gap");
   }
 
   /**
-   * Transfers all data from this buffer to {@link com.shadowbring.aggregator.aggregation.PriceLevelsAggregator}.
-   * Removes all data from the backing {@link TreeSet}, clears cache
+   * Makes the buffer expect the message that follows the specified one, so the messages up to it are dropped as the
+   * already processed ones. Used on recovery from a snapshot, before any message is added
    *
-   * @return - all {@link MessageSequence}s accumulated during the current synchronization cycle
+   * @param sequenceNumber - sequence number of the last message that is already reflected by the order table
+   * @param sequenceEpoch  - epoch of the sequence number
    */
-  public NavigableSet<MessageSequence> flush() {
-    NavigableSet<MessageSequence> content = new TreeSet<>(orderedMessageSequenceBuffer);
-    orderedMessageSequenceBuffer.removeAll(content);
-    cache.clear();
+  public void resumeAfter(int sequenceNumber, int sequenceEpoch) {
+    nextSequenceNumber = sequenceNumber + 1;
+    this.sequenceEpoch = sequenceEpoch;
+    started = true;
+  }
+
+  /**
+   * Makes the buffer take the next message for the first one of the specified epoch. Used on replay of the journaled
+   * restart, which is known for sure, so it's neither detected by the distance nor counted again
+   *
+   * @param sequenceEpoch - epoch of the restarted sequence numbers
+   */
+  public void expectRestart(int sequenceEpoch) {
+    moveWindowToReady();
+    this.sequenceEpoch = sequenceEpoch;
+    started = false;
+  }
+
+  /**
+   * Transfers all ordered data from this buffer to
+   * {@link com.shadowbring.aggregator.aggregation.PriceLevelsAggregator}. The ready messages are handed over as is,
+   * without copying, while the messages that wait in the reorder window stay there
+   *
+   * @return - all {@link MessageSequence}s ordered during the current synchronization cycle
+   */
+  public List<MessageSequence> flush() {
+    List<MessageSequence> content = ready;
+    ready = new ArrayList<>();
 
     return content;
   }
 
   /**
-   * Puts the {@link MessageSequence} with the unexpected {@link MessageSequence#inSequenceNumber} in cache. If cache
-   * capacity is exceeded, cache will be evicted
+   * Reports the expected message that was dropped because the ready messages reached their capacity. The expected
+   * sequence number is kept, so the message is awaited as a missing one
    *
-   * @param messageSequence - {@link MessageSequence} with the unexpected {@link MessageSequence#inSequenceNumber}
-   */
-  private void putInCache(MessageSequence messageSequence) {
-    if (cache.size() >= cacheCapacity) {
-      log.info("Cache has reached its maximum size and will be evicted. Nothing will be added to cache.");
-      cache.clear();
-    } else {
-      cache.put(messageSequence.getInSequenceNumber(), messageSequence);
+   * @param sequenceNumber - sequence number of the dropped message
+   */
+  private void dropOverflow(int sequenceNumber) {
+    metrics.increment(Counter.readyOverflows);
+    if (!overflowing) {
+      overflowing = true;
+      log.warn("Shards fall behind, [{}] ready messages are held and message sequence [{}] is dropped", ready.size(),
+          sequenceNumber);
+    }
+  }
+
+  /**
+   * Moves the contiguous run of the messages that wait in the reorder window to the ready ones
+   */
+  private void drainWindow() {
+    if (pendingCount == 0) {
+      return;
+    }
+    int slot;
+    while (window[slot = nextSequenceNumber & mask] != null) {
+      ready.add(window[slot]);
+      window[slot] = null;
+      pendingCount--;
+      nextSequenceNumber++;
     }
   }
 
   /**
-   * After successful addition to the buffer this method looks for {@link MessageSequence}s with the next
-   * {@link MessageSequence#inSequenceNumber} and appends them if found
+   * Advances the expected sequence number in one step, so the specified one becomes the last that fits the reorder
+   * window. Messages that wait in the passed slots are made ready, missing ones are considered lost. Only the slots of
+   * the window are visited, so a far-ahead sequence number costs no more than the window capacity
    *
-   * @param messageSequence - {@link MessageSequence} that was previously added
+   * @param sequenceNumber - sequence number that doesn't fit the reorder window
    */
-  private void lookupNextSequencesInCache(MessageSequence messageSequence) {
-    int nextSequenceNumber = messageSequence.getInSequenceNumber() + 1;
-    if (!cache.isEmpty() && cache.containsKey(nextSequenceNumber)) {
-      addMessageSequence(cache.remove(nextSequenceNumber));
+  private void skipGap(int sequenceNumber) {
+    int newNextSequenceNumber = sequenceNumber - window.length + 1;
+    int skipped = newNextSequenceNumber - nextSequenceNumber;
+    int visited = Math.min(skipped, window.length);
+    int moved = 0;
+    for (int distance = 0; distance < visited && pendingCount > 0; distance++) {
+      int slot = (nextSequenceNumber + distance) & mask;
+      if (window[slot] != null) {
+        ready.add(window[slot]);
+        window[slot] = null;
+        pendingCount--;
+        moved++;
+      }
     }
+    int lost = skipped - moved;
+    nextSequenceNumber = newNextSequenceNumber;
+    log.info("Reorder window has reached its maximum size. [{}] missing message sequences were skipped.", lost);
+    metrics.increment(Counter.windowOverflows);
+    metrics.add(Counter.lostSequences, lost);
+    drainWindow();
   }
 
   /**
-   * Checks if sequence number is expected.
+   * Makes the messages that wait in the reorder window ready, as they precede the restart, and makes the buffer expect
+   * the specified sequence number
    *
-   * @param messageSequence - {@link MessageSequence} to check
-   * @return -- true if sequence number is expected
+   * @param sequenceNumber - sequence number the publisher's numbering was restarted from
    */
-  private boolean isSequenceNumberExpected(MessageSequence messageSequence) {
-    return orderedMessageSequenceBuffer.isEmpty() ||
-               messageSequence.getInSequenceNumber() < orderedMessageSequenceBuffer.last().getInSequenceNumber() ||
-               orderedMessageSequenceBuffer.last().getInSequenceNumber() + 1 == messageSequence.getInSequenceNumber();
+  private void restartSequence(int sequenceNumber) {
+    moveWindowToReady();
+    log.warn("Message sequence [{}] is far behind the expected [{}], sequence numbers are considered restarted",
+        sequenceNumber, nextSequenceNumber);
+    metrics.increment(Counter.sequenceResets);
+    nextSequenceNumber = sequenceNumber;
+    sequenceEpoch++;
   }
 
   /**
-   * Returns the {@link Map} that represents cache. For testing purposes
+   * Makes all messages that wait in the reorder window ready in order of their sequence numbers
+   */
+  private void moveWindowToReady() {
+    for (int distance = 1; distance < window.length && pendingCount > 0; distance++) {
+      int slot = (nextSequenceNumber + distance) & mask;
+      if (window[slot] != null) {
+        ready.add(window[slot]);
+        window[slot] = null;
+        pendingCount--;
+      }
+    }
+  }
+
+  /**
+   * Returns the number of the messages that wait in the reorder window. For testing purposes
    *
-   * @return - {@link Map} that represents cache
+   * @return - number of the messages that wait in the reorder window
    */
-  Map<Integer, MessageSequence> getCache() {
-    return cache;
+  int getPendingCount() {
+    return pendingCount;
   }
 
   /**
-   * Returns the backing {@link NavigableSet}. For testing purposes
+   * Returns the messages that are ordered and ready to be flushed. For testing purposes
    *
-   * @return - the backing {@link NavigableSet}
+   * @return - the ordered messages
    */
-  NavigableSet<MessageSequence> getOrderedMessageSequenceBuffer() {
-    return orderedMessageSequenceBuffer;
+  List<MessageSequence> getReady() {
+    return ready;
+  }
+
+  /**
+   * Forgets all messages and the expected sequence number. For testing purposes
+   */
+  void reset() {
+    ready.clear();
+    for (int i = 0; i < window.length; i++) {
+      window[i] = null;
+    }
+    pendingCount = 0;
+    overflowing = false;
+    started = false;
+    sequenceEpoch = 0;
   }
 }
@@ -0,0 +1,88 @@
+package com.shadowbring.aggregator.aggregation;
+
+import com.shadowbring.aggregator.book.DepthLimits;
+import com.shadowbring.aggregator.book.ProductDictionary;
+import com.shadowbring.aggregator.domain.incoming.AddOrder;
+import com.shadowbring.aggregator.domain.incoming.Side;
+import com.shadowbring.aggregator.domain.outgoing.BulkType;
+import com.shadowbring.aggregator.domain.outgoing.Product;
+import com.shadowbring.aggregator.metrics.PipelineMetrics;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AggregationShardTest {
+
+  private final Vertx vertx = Vertx.vertx(new VertxOptions().setEventLoopPoolSize(1));
+
+  private final ParallelSnapshots parallelSnapshots = new ParallelSnapshots(0, 0);
+
+  private final CompletableFuture<Void> drained = new CompletableFuture<>();
+
+  private AggregationShard shard;
+
+  @Before
+  public void setUp() throws Exception {
+    ProductDictionary dictionary = new ProductDictionary();
+    shard = new AggregationShard(0, DepthLimits.parse(0, "", dictionary), new PipelineMetrics(), dictionary,
+        parallelSnapshots, false, 2 * AggregationShard.RESERVED_TASKS, v -> drained.complete(null));
+    CompletableFuture<String> deployment = new CompletableFuture<>();
+    vertx.deployVerticle(shard, asyncResult -> deployment.complete(asyncResult.result()));
+    deployment.get(5, TimeUnit.SECONDS);
+  }
+
+  @After
+  public void tearDown() {
+    parallelSnapshots.shutdown();
+    vertx.close();
+  }
+
+  @Test
+  public void boundTasksOfBusyShard() throws Exception {
+    CountDownLatch busy = new CountDownLatch(1);
+    vertx.runOnContext(v -> {
+      try {
+        busy.await(5, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    for (int i = 1; i <= AggregationShard.RESERVED_TASKS; i++) {
+      assertTrue("Shard must have room for the orders", shard.hasCapacity());
+      shard.apply(Collections.singletonList(addOrder(i)));
+    }
+    assertFalse("Slots reserved for other tasks must not be taken by the orders", shard.hasCapacity());
+
+    CompletableFuture<AsyncResult<List<Product>>> products = new CompletableFuture<>();
+    vertx.runOnContext(v -> shard.collectProducts(BulkType.snapshot, products::complete));
+    busy.countDown();
+
+    drained.get(5, TimeUnit.SECONDS);
+    assertEquals("All routed orders must be applied before the collection", AggregationShard.RESERVED_TASKS,
+        products.get(5, TimeUnit.SECONDS).result().size());
+    assertTrue("Shard must have room for the orders once drained", shard.hasCapacity());
+  }
+
+  private static AddOrder addOrder(int orderId) {
+    AddOrder addOrder = new AddOrder();
+    addOrder.setOrderId(orderId);
+    addOrder.setProductId("Product" + orderId);
+    addOrder.setSide(Side.buy);
+    addOrder.setPrice(10);
+    addOrder.setQuantity(1);
+    return addOrder;
+  }
+}
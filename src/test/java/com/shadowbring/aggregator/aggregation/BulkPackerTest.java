@@ -0,0 +1,108 @@
+package com.shadowbring.aggregator.aggregation;
+
+import com.shadowbring.aggregator.codec.BinaryProductsBulkEncoder;
+import com.shadowbring.aggregator.codec.JsonProductsBulkEncoder;
+import com.shadowbring.aggregator.codec.ProductsBulkEncoder;
+import com.shadowbring.aggregator.domain.outgoing.BulkType;
+import com.shadowbring.aggregator.domain.outgoing.Level;
+import com.shadowbring.aggregator.domain.outgoing.Product;
+import com.shadowbring.aggregator.domain.outgoing.ProductsBulk;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BulkPackerTest {
+
+  @Test
+  public void packUpToLength() {
+    ProductsBulkEncoder encoder = new JsonProductsBulkEncoder();
+    List<Product> products = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      products.add(generateProduct("Product" + i, 3));
+    }
+
+    List<ProductsBulk> bulks = BulkPacker.pack(products, BulkType.snapshot, encoder, 0, 600);
+
+    assertTrue("Products must be spread across several bulks", bulks.size() > 1);
+    List<Product> packed = new ArrayList<>();
+    for (int i = 0; i < bulks.size(); i++) {
+      ProductsBulk bulk = bulks.get(i);
+      assertEquals("Bulks must be numbered in order", Integer.valueOf(i + 1), bulk.getOutSequenceNumber());
+      assertTrue("Encoded bulk must fit the limit", encoder.encode(bulk).length() <= 600);
+      packed.addAll(bulk.getProducts());
+    }
+    assertEquals("All products must be packed in order", products, packed);
+  }
+
+  @Test
+  public void limitNumberOfProducts() {
+    List<Product> products = new ArrayList<>();
+    for (int i = 0; i < 7; i++) {
+      products.add(generateProduct("Product" + i, 1));
+    }
+
+    List<ProductsBulk> bulks = BulkPacker.pack(products, BulkType.delta, new BinaryProductsBulkEncoder(), 5, 1400);
+
+    assertEquals("There must be two bulks", 2, bulks.size());
+    assertEquals("First bulk must be full", 5, bulks.get(0).getProducts().size());
+    assertEquals("Second bulk must take the rest", 2, bulks.get(1).getProducts().size());
+    assertEquals("Bulks must have the requested type", BulkType.delta, bulks.get(1).getType());
+  }
+
+  @Test
+  public void splitProductThatExceedsLength() {
+    ProductsBulkEncoder encoder = new BinaryProductsBulkEncoder();
+    Product deep = generateProduct("Deep", 100);
+
+    List<ProductsBulk> bulks = BulkPacker.pack(Arrays.asList(generateProduct("Thin", 1), deep),
+        BulkType.snapshot, encoder, 5, 200);
+
+    assertEquals("Thin product must share the bulk with the first part", 2, bulks.get(0).getProducts().size());
+    List<Level> buyLevels = new ArrayList<>();
+    List<Level> sellLevels = new ArrayList<>();
+    for (int i = 0; i < bulks.size(); i++) {
+      ProductsBulk bulk = bulks.get(i);
+      assertTrue("Encoded bulk must fit the limit", encoder.encode(bulk).length() <= 200);
+      Product part = bulk.getProducts().get(bulk.getProducts().size() - 1);
+      assertEquals("Every bulk must carry a part of the deep product", "Deep", part.getProductId());
+      assertEquals("All parts but the last one must be continued", i < bulks.size() - 1, part.isContinued());
+      buyLevels.addAll(part.getBuyLevels());
+      sellLevels.addAll(part.getSellLevels());
+    }
+    assertEquals("Parts must carry all buy levels in order", deep.getBuyLevels(), buyLevels);
+    assertEquals("Parts must carry all sell levels in order", deep.getSellLevels(), sellLevels);
+  }
+
+  @Test
+  public void noBulksWithoutProducts() {
+    assertTrue("Nothing must be emitted without products",
+        BulkPacker.pack(Collections.emptyList(), BulkType.delta, new JsonProductsBulkEncoder(), 5, 1400).isEmpty());
+  }
+
+  private static Product generateProduct(String productId, int levels) {
+    Product product = new Product();
+    product.setProductId(productId);
+    List<Level> buyLevels = new ArrayList<>();
+    List<Level> sellLevels = new ArrayList<>();
+    for (int i = 0; i < levels; i++) {
+      buyLevels.add(generateLevel(1000 - i, i + 1));
+      sellLevels.add(generateLevel(1001 + i, i + 1));
+    }
+    product.setBuyLevels(buyLevels);
+    product.setSellLevels(sellLevels);
+    return product;
+  }
+
+  private static Level generateLevel(int price, int quantity) {
+    Level level = new Level();
+    level.setPrice(price);
+    level.setQuantity(quantity);
+    return level;
+  }
+}
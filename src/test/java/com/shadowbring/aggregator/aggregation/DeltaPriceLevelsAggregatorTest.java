@@ -0,0 +1,51 @@
+package com.shadowbring.aggregator.aggregation;
+
+import com.shadowbring.aggregator.domain.incoming.ChangeOrder;
+import com.shadowbring.aggregator.domain.incoming.MessageSequence;
+import com.shadowbring.aggregator.domain.outgoing.BulkType;
+import com.shadowbring.aggregator.udp.UdpCompliantMessageSequenceBuffer;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.Collections;
+
+import static com.shadowbring.aggregator.aggregation.PriceLevelsAggregatorTest.aggregate;
+import static com.shadowbring.aggregator.aggregation.PriceLevelsAggregatorTest.generateSequence;
+import static org.junit.Assert.assertEquals;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {"journal.enabled=false", "snapshot.enabled=false", "emission.period=3600000",
+    "metrics.port=0", "emission.mode=delta", "emission.snapshot-interval=0"})
+public class DeltaPriceLevelsAggregatorTest {
+
+  @Autowired
+  private PriceLevelsAggregator aggregator;
+
+  @Autowired
+  private UdpCompliantMessageSequenceBuffer buffer;
+
+  @Test
+  public void neverEmitPeriodicSnapshotsIfIntervalIsNotPositive() throws Exception {
+    buffer.addMessageSequence(generateSequence());
+    aggregator.updateOrders();
+    assertEquals("The very first emission must be a snapshot", BulkType.snapshot,
+        aggregate(aggregator).get(0).getType());
+
+    MessageSequence updates = new MessageSequence();
+    updates.setInSequenceNumber(2);
+    ChangeOrder changeOrder = new ChangeOrder();
+    changeOrder.setOrderId(1);
+    changeOrder.setPrice(10);
+    changeOrder.setQuantity(11);
+    updates.setMessages(Collections.singletonList(changeOrder));
+    buffer.addMessageSequence(updates);
+    aggregator.updateOrders();
+    assertEquals("Changes must be emitted as a delta", BulkType.delta, aggregate(aggregator).get(0).getType());
+
+    aggregator.forceSnapshot();
+    assertEquals("Forced emission must be a snapshot", BulkType.snapshot, aggregate(aggregator).get(0).getType());
+  }
+}
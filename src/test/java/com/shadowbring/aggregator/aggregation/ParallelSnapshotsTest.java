@@ -0,0 +1,134 @@
+package com.shadowbring.aggregator.aggregation;
+
+import com.shadowbring.aggregator.book.DepthLimits;
+import com.shadowbring.aggregator.book.OrderTable;
+import com.shadowbring.aggregator.book.ProductDictionary;
+import com.shadowbring.aggregator.codec.JsonProductsBulkEncoder;
+import com.shadowbring.aggregator.codec.ProductsBulkEncoder;
+import com.shadowbring.aggregator.domain.incoming.Side;
+import com.shadowbring.aggregator.domain.outgoing.BulkType;
+import com.shadowbring.aggregator.domain.outgoing.Product;
+import com.shadowbring.aggregator.domain.outgoing.ProductsBulk;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ParallelSnapshotsTest {
+
+  private static final int PRODUCTS = 3 * ParallelSnapshots.CHUNK_SIZE + 100;
+
+  private final ParallelSnapshots sequential = new ParallelSnapshots(0, 0);
+
+  private final ParallelSnapshots parallel = new ParallelSnapshots(4, 1);
+
+  private final OrderTable orderTable = new OrderTable();
+
+  private final DepthLimits allLevels = DepthLimits.parse(0, "", new ProductDictionary());
+
+  @Before
+  public void setUp() {
+    int orderId = 1;
+    for (int i = 0; i < PRODUCTS; i++) {
+      for (int level = 1; level <= 3; level++) {
+        orderTable.add(orderId++, "Product" + i, Side.buy, 100 - level, level);
+        orderTable.add(orderId++, "Product" + i, Side.sell, 100 + level, level);
+      }
+    }
+  }
+
+  @After
+  public void tearDown() {
+    parallel.shutdown();
+  }
+
+  @Test
+  public void buildProductsInOrderOfBooks() throws Exception {
+    DepthLimits depthLimits = DepthLimits.parse(2, "", new ProductDictionary());
+
+    List<Product> products = toProducts(parallel, depthLimits);
+
+    assertEquals("Products must be the same as the sequential ones", toProducts(sequential, depthLimits), products);
+    assertEquals("Depth must be limited", 2, products.get(0).getSellLevels().size());
+  }
+
+  @Test
+  public void numberBulksInOrderOfChunks() throws Exception {
+    ProductsBulkEncoder encoder = new JsonProductsBulkEncoder();
+    List<Product> products = toProducts(sequential, allLevels);
+
+    CompletableFuture<AsyncResult<List<ProductsBulk>>> packed = new CompletableFuture<>();
+    parallel.pack(products, BulkType.snapshot, encoder, 0, 1400, packed::complete);
+    List<ProductsBulk> bulks = packed.get(5, TimeUnit.SECONDS).result();
+
+    List<Product> packedProducts = new ArrayList<>();
+    for (int i = 0; i < bulks.size(); i++) {
+      ProductsBulk bulk = bulks.get(i);
+      assertEquals("Bulks must be numbered in order", Integer.valueOf(i + 1), bulk.getOutSequenceNumber());
+      assertTrue("Encoded bulk must fit the limit", encoder.encode(bulk).length() <= 1400);
+      packedProducts.addAll(bulk.getProducts());
+    }
+    assertEquals("All products must be packed in order", products, packedProducts);
+  }
+
+  @Test
+  public void handOverOnCallersContext() throws Exception {
+    Vertx vertx = Vertx.vertx();
+    try {
+      Context context = vertx.getOrCreateContext();
+      CompletableFuture<Context> handedOverOn = new CompletableFuture<>();
+      context.runOnContext(v -> parallel.toProducts(orderTable.getProductBooks(), allLevels,
+          products -> handedOverOn.complete(Vertx.currentContext())));
+
+      assertSame("Products must be handed over on the caller's context", context,
+          handedOverOn.get(5, TimeUnit.SECONDS));
+    } finally {
+      vertx.close();
+    }
+  }
+
+  @Test
+  public void handOverFailure() throws Exception {
+    for (ParallelSnapshots snapshots : new ParallelSnapshots[]{sequential, parallel}) {
+      CompletableFuture<AsyncResult<List<Product>>> products = new CompletableFuture<>();
+      snapshots.toProducts(Collections.singletonList(null), allLevels, products::complete);
+
+      assertFalse("Failure to build the products must be handed over", products.get(5, TimeUnit.SECONDS).succeeded());
+    }
+  }
+
+  @Test
+  public void handOverErrorOfPool() throws Exception {
+    List<Product> products = toProducts(sequential, allLevels);
+    ProductsBulkEncoder encoder = new JsonProductsBulkEncoder() {
+      @Override
+      public int bulkOverhead() {
+        throw new StackOverflowError();
+      }
+    };
+
+    CompletableFuture<AsyncResult<List<ProductsBulk>>> packed = new CompletableFuture<>();
+    parallel.pack(products, BulkType.snapshot, encoder, 0, 1400, packed::complete);
+
+    assertFalse("Error of the pool must be handed over", packed.get(5, TimeUnit.SECONDS).succeeded());
+  }
+
+  private List<Product> toProducts(ParallelSnapshots snapshots, DepthLimits depthLimits) throws Exception {
+    CompletableFuture<AsyncResult<List<Product>>> products = new CompletableFuture<>();
+    snapshots.toProducts(orderTable.getProductBooks(), depthLimits, products::complete);
+    return products.get(5, TimeUnit.SECONDS).result();
+  }
+}
@@ -4,7 +4,10 @@ import com.shadowbring.aggregator.domain.incoming.AddOrder;
 import com.shadowbring.aggregator.domain.incoming.MessageSequence;
 import com.shadowbring.aggregator.domain.incoming.Order;
 import com.shadowbring.aggregator.domain.incoming.Side;
+import com.shadowbring.aggregator.domain.outgoing.ProductsBulk;
 import com.shadowbring.aggregator.udp.UdpCompliantMessageSequenceBuffer;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
 import io.vertx.core.json.Json;
 import org.junit.Before;
 import org.junit.Test;
@@ -15,27 +18,31 @@ import org.springframework.test.context.junit4.SpringRunner;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
 
 @RunWith(SpringRunner.class)
-@SpringBootTest
+@SpringBootTest(properties = {"journal.enabled=false", "snapshot.enabled=false", "emission.period=3600000",
+    "metrics.port=0"})
 public class PriceLevelsAggregatorTest {
 
-  private static final String EXPECTED_AGGREGATION_RESULT = "[{\"outSequenceNumber\":1,\"products\":[{\"productId\":" +
-                                                                "\"Product5\",\"buyLevels\":[{\"price\":7,\"quantity" +
-                                                                "\":6}],\"sellLevels\":[]},{\"productId\":\"Product6" +
-                                                                "\",\"buyLevels\":[{\"price\":8,\"quantity\":7}],\"se" +
-                                                                "llLevels\":[]},{\"productId\":\"Product3\",\"buyLeve" +
-                                                                "ls\":[{\"price\":5,\"quantity\":4}],\"sellLevels\":" +
-                                                                "[]},{\"productId\":\"Product4\",\"buyLevels\":[{\"pr" +
-                                                                "ice\":6,\"quantity\":5}],\"sellLevels\":[]},{\"prod" +
-                                                                "uctId\":\"Product1\",\"buyLevels\":[{\"price\":3,\"" +
-                                                                "quantity\":2}],\"sellLevels\":[]}]},{\"outSequenceN" +
-                                                                "umber\":2,\"products\":[{\"productId\":\"Product2\"" +
-                                                                ",\"buyLevels\":[{\"price\":4,\"quantity\":3}],\"sel" +
-                                                                "lLevels\":[]},{\"productId\":\"Product0\",\"buyLeve" +
-                                                                "ls\":[{\"price\":2,\"quantity\":1}],\"sellLevels\":[]}]}]";
+  private static final String EXPECTED_AGGREGATION_RESULT = "[{\"outSequenceNumber\":1,\"type\":\"snapshot\",\"produc" +
+                                                                "ts\":[{\"productId\":\"Product0\",\"buyLevels\":[{\"" +
+                                                                "price\":2,\"quantity\":1}],\"sellLevels\":[]},{\"pro" +
+                                                                "ductId\":\"Product1\",\"buyLevels\":[{\"price\":3,\"" +
+                                                                "quantity\":2}],\"sellLevels\":[]},{\"productId\":\"P" +
+                                                                "roduct2\",\"buyLevels\":[{\"price\":4,\"quantity\":3" +
+                                                                "}],\"sellLevels\":[]},{\"productId\":\"Product3\",\"" +
+                                                                "buyLevels\":[{\"price\":5,\"quantity\":4}],\"sellLev" +
+                                                                "els\":[]},{\"productId\":\"Product4\",\"buyLevels\":" +
+                                                                "[{\"price\":6,\"quantity\":5}],\"sellLevels\":[]}]}," +
+                                                                "{\"outSequenceNumber\":2,\"type\":\"snapshot\",\"pro" +
+                                                                "ducts\":[{\"productId\":\"Product5\",\"buyLevels\":[" +
+                                                                "{\"price\":7,\"quantity\":6}],\"sellLevels\":[]},{\"" +
+                                                                "productId\":\"Product6\",\"buyLevels\":[{\"price\":8" +
+                                                                ",\"quantity\":7}],\"sellLevels\":[]}]}]";
 
   @Autowired
   private PriceLevelsAggregator aggregator;
@@ -43,7 +50,10 @@ public class PriceLevelsAggregatorTest {
   @Autowired
   private UdpCompliantMessageSequenceBuffer buffer;
 
-  private static MessageSequence generateSequence() {
+  @Autowired
+  private Vertx vertx;
+
+  static MessageSequence generateSequence() {
     MessageSequence messageSequence = new MessageSequence();
     List<Order> orders = new ArrayList<>();
     messageSequence.setInSequenceNumber(1);
@@ -67,8 +77,30 @@ public class PriceLevelsAggregatorTest {
   }
 
   @Test
-  public void aggregateByPriceLevels() {
+  public void aggregateByPriceLevels() throws Exception {
+    aggregator.updateOrders();
     assertEquals("Results of aggregation must be equal", EXPECTED_AGGREGATION_RESULT,
-        Json.encode(aggregator.aggregateByPriceLevels()));
+        Json.encode(aggregate(aggregator)));
+  }
+
+  @Test
+  public void keepEmittingAfterHandlerFailure() throws Exception {
+    aggregator.updateOrders();
+    Context context = vertx.getOrCreateContext();
+    CompletableFuture<List<ProductsBulk>> next = new CompletableFuture<>();
+    context.runOnContext(v -> aggregator.aggregateByPriceLevels((bulks, published) -> {
+      context.runOnContext(failed -> aggregator.aggregateByPriceLevels(
+          (result, nextPublished) -> next.complete(result)));
+      throw new IllegalStateException("Emitter failure");
+    }));
+
+    assertEquals("Next emission must be handed over", EXPECTED_AGGREGATION_RESULT,
+        Json.encode(next.get(5, TimeUnit.SECONDS)));
+  }
+
+  static List<ProductsBulk> aggregate(PriceLevelsAggregator aggregator) throws Exception {
+    CompletableFuture<List<ProductsBulk>> bulks = new CompletableFuture<>();
+    aggregator.aggregateByPriceLevels((result, published) -> bulks.complete(result));
+    return bulks.get(5, TimeUnit.SECONDS);
   }
 }
\ No newline at end of file
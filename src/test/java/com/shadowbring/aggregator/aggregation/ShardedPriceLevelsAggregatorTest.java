@@ -0,0 +1,57 @@
+package com.shadowbring.aggregator.aggregation;
+
+import com.shadowbring.aggregator.domain.incoming.ChangeOrder;
+import com.shadowbring.aggregator.domain.incoming.DeleteOrder;
+import com.shadowbring.aggregator.domain.incoming.MessageSequence;
+import com.shadowbring.aggregator.domain.outgoing.Product;
+import com.shadowbring.aggregator.udp.UdpCompliantMessageSequenceBuffer;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.shadowbring.aggregator.aggregation.PriceLevelsAggregatorTest.aggregate;
+import static com.shadowbring.aggregator.aggregation.PriceLevelsAggregatorTest.generateSequence;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {"journal.enabled=false", "snapshot.enabled=false", "emission.period=3600000",
+    "metrics.port=0", "aggregation.shards=3", "price-levels.bulk-size=100"})
+public class ShardedPriceLevelsAggregatorTest {
+
+  @Autowired
+  private PriceLevelsAggregator aggregator;
+
+  @Autowired
+  private UdpCompliantMessageSequenceBuffer buffer;
+
+  @Test
+  public void aggregateByPriceLevelsAcrossShards() throws Exception {
+    buffer.addMessageSequence(generateSequence());
+    MessageSequence updates = new MessageSequence();
+    updates.setInSequenceNumber(2);
+    ChangeOrder changeOrder = new ChangeOrder();
+    changeOrder.setOrderId(1);
+    changeOrder.setPrice(10);
+    changeOrder.setQuantity(11);
+    DeleteOrder deleteOrder = new DeleteOrder();
+    deleteOrder.setOrderId(2);
+    updates.setMessages(Arrays.asList(changeOrder, deleteOrder));
+    buffer.addMessageSequence(updates);
+    aggregator.updateOrders();
+
+    Map<String, Product> products = aggregate(aggregator).get(0).getProducts().stream()
+                                        .collect(Collectors.toMap(Product::getProductId, Function.identity()));
+    assertEquals("Products of all shards must be merged", 6, products.size());
+    assertEquals("ChangeOrder must be routed to the shard of its product", Integer.valueOf(11),
+        products.get("Product0").getBuyLevels().get(0).getQuantity());
+    assertFalse("DeleteOrder must be routed to the shard of its product", products.containsKey("Product1"));
+  }
+}
@@ -0,0 +1,41 @@
+package com.shadowbring.aggregator.book;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class DepthLimitsTest {
+
+  private final ProductDictionary dictionary = new ProductDictionary();
+
+  @Test
+  public void overrideDepthOfProducts() {
+    DepthLimits depthLimits = DepthLimits.parse(10, "Product1:5, Product:2:20", dictionary);
+
+    assertEquals("Override must be applied", 5, depthLimits.of(dictionary.idOf("Product1")));
+    assertEquals("Product ID may contain colons", 20, depthLimits.of(dictionary.idOf("Product:2")));
+    assertEquals("Default depth must be applied", 10, depthLimits.of(dictionary.idOf("Product3")));
+  }
+
+  @Test
+  public void resolveOverridesOfKnownProducts() {
+    int known = dictionary.idOf("Product1");
+    dictionary.idOf("Product2");
+
+    DepthLimits depthLimits = DepthLimits.parse(10, "Product2:5", dictionary);
+
+    assertEquals("Default depth must be applied below the override", 10, depthLimits.of(known));
+    assertEquals("Override must be resolved to the known ID", 5, depthLimits.of(dictionary.idOf("Product2")));
+  }
+
+  @Test
+  public void useDefaultDepthWithoutOverrides() {
+    assertEquals("Default depth must be applied", 0,
+        DepthLimits.parse(0, "", dictionary).of(dictionary.idOf("Product")));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectMalformedOverride() {
+    DepthLimits.parse(0, "Product1", dictionary);
+  }
+}
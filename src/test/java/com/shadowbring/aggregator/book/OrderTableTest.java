@@ -0,0 +1,199 @@
+package com.shadowbring.aggregator.book;
+
+import com.shadowbring.aggregator.domain.incoming.AddOrder;
+import com.shadowbring.aggregator.domain.incoming.ChangeOrder;
+import com.shadowbring.aggregator.domain.incoming.DeleteOrder;
+import com.shadowbring.aggregator.domain.incoming.Side;
+import com.shadowbring.aggregator.domain.outgoing.Level;
+import com.shadowbring.aggregator.domain.outgoing.Product;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OrderTableTest {
+
+  private OrderTable orderTable = new OrderTable();
+
+  @Test
+  public void aggregateLevelsOnAdd() {
+    generateAddOrder(1, Side.buy, 5, 10).applyToOrderTable(orderTable);
+    generateAddOrder(2, Side.buy, 5, 20).applyToOrderTable(orderTable);
+    generateAddOrder(3, Side.buy, 7, 1).applyToOrderTable(orderTable);
+    generateAddOrder(4, Side.sell, 9, 3).applyToOrderTable(orderTable);
+    generateAddOrder(5, Side.sell, 8, 4).applyToOrderTable(orderTable);
+
+    Product product = singleProduct();
+    assertLevels("Buy levels must be aggregated and sorted in descending order", product.getBuyLevels(),
+        7, 1, 5, 30);
+    assertLevels("Sell levels must be aggregated and sorted in ascending order", product.getSellLevels(),
+        8, 4, 9, 3);
+  }
+
+  @Test
+  public void moveQuantityOnChange() {
+    generateAddOrder(1, Side.buy, 5, 10).applyToOrderTable(orderTable);
+    generateAddOrder(2, Side.buy, 5, 20).applyToOrderTable(orderTable);
+    generateChangeOrder(2, 6, 25).applyToOrderTable(orderTable);
+
+    assertLevels("Quantity must be moved to the new price level", singleProduct().getBuyLevels(), 6, 25, 5, 10);
+  }
+
+  @Test
+  public void replaceOrderWithTheSameId() {
+    generateAddOrder(1, Side.buy, 5, 10).applyToOrderTable(orderTable);
+    generateAddOrder(1, Side.sell, 6, 2).applyToOrderTable(orderTable);
+
+    Product product = singleProduct();
+    assertTrue("Buy levels must be empty", product.getBuyLevels().isEmpty());
+    assertLevels("Only the replacing order must be present", product.getSellLevels(), 6, 2);
+  }
+
+  @Test
+  public void removeLevelAndBookOnDelete() {
+    generateAddOrder(1, Side.buy, 5, 10).applyToOrderTable(orderTable);
+    generateAddOrder(2, Side.buy, 6, 20).applyToOrderTable(orderTable);
+    generateDeleteOrder(2).applyToOrderTable(orderTable);
+
+    assertLevels("Deleted order's level must be removed", singleProduct().getBuyLevels(), 5, 10);
+
+    generateDeleteOrder(1).applyToOrderTable(orderTable);
+    assertTrue("Table must be empty", orderTable.isEmpty());
+    assertTrue("Books must be empty", orderTable.getProductBooks().isEmpty());
+  }
+
+  @Test
+  public void trackChangedLevels() {
+    generateAddOrder(1, Side.buy, 5, 10).applyToOrderTable(orderTable);
+    generateAddOrder(2, Side.buy, 6, 20).applyToOrderTable(orderTable);
+    generateAddOrder(3, Side.sell, 9, 1).applyToOrderTable(orderTable);
+    orderTable.clearChanges();
+    assertTrue("There must be no changes after clearing", orderTable.getChangedProductBooks().isEmpty());
+
+    generateChangeOrder(1, 5, 15).applyToOrderTable(orderTable);
+    generateDeleteOrder(2).applyToOrderTable(orderTable);
+
+    assertEquals("There must be exactly one changed book", 1, orderTable.getChangedProductBooks().size());
+    Product delta = orderTable.getChangedProductBooks().iterator().next().toChangedProduct();
+    assertLevels("Changed and removed buy levels must be present", delta.getBuyLevels(), 6, 0, 5, 15);
+    assertTrue("Untouched sell levels must be absent", delta.getSellLevels().isEmpty());
+  }
+
+  @Test
+  public void reportReaddedLevelOnce() {
+    generateAddOrder(1, Side.sell, 5, 10).applyToOrderTable(orderTable);
+    generateAddOrder(2, Side.sell, 7, 10).applyToOrderTable(orderTable);
+    orderTable.clearChanges();
+
+    generateDeleteOrder(1).applyToOrderTable(orderTable);
+    generateAddOrder(3, Side.sell, 5, 4).applyToOrderTable(orderTable);
+    generateAddOrder(4, Side.sell, 6, 1).applyToOrderTable(orderTable);
+
+    assertLevels("Level that was removed and added again must be reported once",
+        singleBook().toChangedProduct().getSellLevels(), 5, 4, 6, 1);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void rejectDeltaIfLevelChangesAreNotTracked() {
+    OrderTable untracked = new OrderTable(new ProductDictionary(), false);
+    generateAddOrder(1, Side.buy, 5, 10).applyToOrderTable(untracked);
+
+    assertEquals("Changed book must be listed", 1, untracked.getChangedProductBooks().size());
+    untracked.getChangedProductBooks().iterator().next().toChangedProduct();
+  }
+
+  @Test
+  public void trackRemovedBook() {
+    generateAddOrder(1, Side.sell, 5, 10).applyToOrderTable(orderTable);
+    orderTable.clearChanges();
+    generateDeleteOrder(1).applyToOrderTable(orderTable);
+
+    assertTrue("Books must be empty", orderTable.getProductBooks().isEmpty());
+    assertEquals("Removed book must be listed as changed", 1, orderTable.getChangedProductBooks().size());
+    assertLevels("Removed level must have zero quantity",
+        orderTable.getChangedProductBooks().iterator().next().toChangedProduct().getSellLevels(), 5, 0);
+  }
+
+  @Test
+  public void limitDepthOfSnapshot() {
+    for (int i = 1; i <= 5; i++) {
+      generateAddOrder(i, Side.buy, i, 10).applyToOrderTable(orderTable);
+      generateAddOrder(i + 5, Side.sell, 10 + i, 20).applyToOrderTable(orderTable);
+    }
+
+    Product product = singleBook().toProduct(2);
+    assertLevels("Only the best buy levels must be taken", product.getBuyLevels(), 5, 10, 4, 10);
+    assertLevels("Only the best sell levels must be taken", product.getSellLevels(), 11, 20, 12, 20);
+  }
+
+  @Test
+  public void trackLevelsEnteringAndLeavingDepth() {
+    for (int i = 1; i <= 4; i++) {
+      generateAddOrder(i, Side.buy, i, 10).applyToOrderTable(orderTable);
+    }
+    singleBook().toProduct(2);
+    orderTable.clearChanges();
+
+    generateAddOrder(5, Side.buy, 5, 7).applyToOrderTable(orderTable);
+    assertLevels("New best level must enter and the worst one must leave",
+        singleBook().toChangedProduct(2).getBuyLevels(), 5, 7, 3, 0);
+    orderTable.clearChanges();
+
+    generateDeleteOrder(5).applyToOrderTable(orderTable);
+    generateDeleteOrder(4).applyToOrderTable(orderTable);
+    assertLevels("Removed levels must leave and the next ones must enter",
+        singleBook().toChangedProduct(2).getBuyLevels(), 5, 0, 4, 0, 3, 10, 2, 10);
+    orderTable.clearChanges();
+
+    generateChangeOrder(1, 1, 99).applyToOrderTable(orderTable);
+    assertTrue("Change beyond the depth must not be emitted",
+        singleBook().toChangedProduct(2).getBuyLevels().isEmpty());
+  }
+
+  private ProductBook singleBook() {
+    assertEquals("There must be exactly one book", 1, orderTable.getProductBooks().size());
+    return orderTable.getProductBooks().iterator().next();
+  }
+
+  private Product singleProduct() {
+    assertEquals("There must be exactly one book", 1, orderTable.getProductBooks().size());
+    return orderTable.getProductBooks().iterator().next().toProduct();
+  }
+
+  private void assertLevels(String message, List<Level> levels, int... pricesAndQuantities) {
+    assertEquals(message, pricesAndQuantities.length / 2, levels.size());
+    for (int i = 0; i < levels.size(); i++) {
+      assertEquals(message, Integer.valueOf(pricesAndQuantities[2 * i]), levels.get(i).getPrice());
+      assertEquals(message, Integer.valueOf(pricesAndQuantities[2 * i + 1]), levels.get(i).getQuantity());
+    }
+  }
+
+  private AddOrder generateAddOrder(int orderId, Side side, int price, int quantity) {
+    AddOrder addOrder = new AddOrder();
+    addOrder.setOrderId(orderId);
+    addOrder.setProductId("Product");
+    addOrder.setSide(side);
+    addOrder.setPrice(price);
+    addOrder.setQuantity(quantity);
+
+    return addOrder;
+  }
+
+  private ChangeOrder generateChangeOrder(int orderId, int price, int quantity) {
+    ChangeOrder changeOrder = new ChangeOrder();
+    changeOrder.setOrderId(orderId);
+    changeOrder.setPrice(price);
+    changeOrder.setQuantity(quantity);
+
+    return changeOrder;
+  }
+
+  private DeleteOrder generateDeleteOrder(int orderId) {
+    DeleteOrder deleteOrder = new DeleteOrder();
+    deleteOrder.setOrderId(orderId);
+
+    return deleteOrder;
+  }
+}
@@ -0,0 +1,50 @@
+package com.shadowbring.aggregator.book;
+
+import io.vertx.core.buffer.Buffer;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class ProductDictionaryTest {
+
+  private ProductDictionary dictionary = new ProductDictionary();
+
+  @Test
+  public void assignDenseIds() {
+    assertEquals("First product must get zero ID", 0, dictionary.idOf("Product0"));
+    assertEquals("Next product must get the next ID", 1, dictionary.idOf("Product1"));
+    assertEquals("Known product must keep its ID", 0, dictionary.idOf(new String("Product0")));
+    assertEquals("Size must be equal to 2", 2, dictionary.size());
+  }
+
+  @Test
+  public void lookUpByBytes() {
+    int id = dictionary.idOf("Продукт");
+    byte[] bytes = "Продукт".getBytes(StandardCharsets.UTF_8);
+    Buffer datagram = Buffer.buffer().appendInt(42).appendBytes(bytes).appendInt(42);
+
+    assertEquals("Bytes of the known product must resolve to its ID", id,
+        dictionary.idOf(datagram, 4, bytes.length));
+    assertEquals("Repeated lookup must resolve to the same ID", id, dictionary.idOf(datagram, 4, bytes.length));
+    assertSame("Product ID must be the canonical instance", dictionary.productIdOf(id),
+        dictionary.productIdOf(dictionary.idOf(datagram, 4, bytes.length)));
+    assertEquals("Prefix of the product ID is a different product", 1, dictionary.idOf(datagram, 4, 2));
+  }
+
+  @Test
+  public void growBeyondInitialCapacity() {
+    for (int i = 0; i < 5000; i++) {
+      byte[] bytes = ("Product" + i).getBytes(StandardCharsets.UTF_8);
+      assertEquals("Every new product must get the next ID", i, dictionary.idOf(Buffer.buffer(bytes), 0, bytes.length));
+    }
+    for (int i = 0; i < 5000; i++) {
+      assertEquals("Every product must keep its ID", i, dictionary.idOf("Product" + i));
+      assertEquals("Product ID must be found by its ID", "Product" + i, dictionary.productIdOf(i));
+    }
+    assertEquals("Snapshot view must list the products by ID", "Product4999",
+        dictionary.productIds(5000).get(4999));
+  }
+}
@@ -0,0 +1,117 @@
+package com.shadowbring.aggregator.codec;
+
+import com.shadowbring.aggregator.book.ProductDictionary;
+import com.shadowbring.aggregator.domain.incoming.AddOrder;
+import com.shadowbring.aggregator.domain.incoming.ChangeOrder;
+import com.shadowbring.aggregator.domain.incoming.DeleteOrder;
+import com.shadowbring.aggregator.domain.incoming.MessageSequence;
+import com.shadowbring.aggregator.domain.incoming.Order;
+import com.shadowbring.aggregator.domain.incoming.Side;
+import com.shadowbring.aggregator.domain.outgoing.BulkType;
+import com.shadowbring.aggregator.domain.outgoing.Level;
+import com.shadowbring.aggregator.domain.outgoing.Product;
+import com.shadowbring.aggregator.domain.outgoing.ProductsBulk;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BinaryCodecTest {
+
+  private final BinaryMessageSequenceDecoder decoder = new BinaryMessageSequenceDecoder(new ProductDictionary());
+
+  @Test
+  public void messageSequenceRoundTrip() {
+    MessageSequence messageSequence = generateSequence();
+    Buffer encoded = new BinaryMessageSequenceEncoder().encode(messageSequence);
+
+    assertEquals("Decoded sequence must be equal to the original one", messageSequence,
+        decoder.decode(encoded));
+    assertEquals("Peeked sequence number must be equal to the original one", 42,
+        decoder.peekSequenceNumber(encoded));
+  }
+
+  @Test(expected = DecodeException.class)
+  public void decodeTruncatedMessageSequence() {
+    Buffer encoded = new BinaryMessageSequenceEncoder().encode(generateSequence());
+    decoder.decode(encoded.slice(0, encoded.length() - 1));
+  }
+
+  @Test
+  public void productsBulkRoundTrip() {
+    ProductsBulk bulk = generateBulk();
+    Buffer encoded = new BinaryProductsBulkEncoder().encode(bulk);
+
+    assertEquals("Decoded bulk must be equal to the original one", bulk,
+        new BinaryProductsBulkDecoder().decode(encoded));
+    assertTrue("Binary bulk must be smaller than JSON one",
+        encoded.length() < new JsonProductsBulkEncoder().encode(bulk).length());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectProductsCountBeyondUnsignedShort() {
+    ProductsBulk bulk = generateBulk();
+    bulk.setProducts(Collections.nCopies(0x10000, bulk.getProducts().get(1)));
+    new BinaryProductsBulkEncoder().encode(bulk);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectLevelsCountBeyondUnsignedShort() {
+    ProductsBulk bulk = generateBulk();
+    bulk.getProducts().get(0).setSellLevels(Collections.nCopies(0x10000, generateLevel(6, 1)));
+    new BinaryProductsBulkEncoder().encode(bulk);
+  }
+
+  private static MessageSequence generateSequence() {
+    AddOrder addOrder = new AddOrder();
+    addOrder.setOrderId(1);
+    addOrder.setProductId("Продукт");
+    addOrder.setSide(Side.sell);
+    addOrder.setPrice(3);
+    addOrder.setQuantity(4);
+
+    ChangeOrder changeOrder = new ChangeOrder();
+    changeOrder.setOrderId(1);
+    changeOrder.setPrice(-5);
+    changeOrder.setQuantity(6);
+
+    DeleteOrder deleteOrder = new DeleteOrder();
+    deleteOrder.setOrderId(Integer.MAX_VALUE);
+
+    MessageSequence messageSequence = new MessageSequence();
+    messageSequence.setInSequenceNumber(42);
+    messageSequence.setMessages(Arrays.<Order>asList(addOrder, changeOrder, deleteOrder));
+    return messageSequence;
+  }
+
+  private static ProductsBulk generateBulk() {
+    Product product = new Product();
+    product.setProductId("Product");
+    product.setBuyLevels(Arrays.asList(generateLevel(5, 10), generateLevel(4, 20)));
+    product.setSellLevels(Collections.singletonList(generateLevel(6, 1)));
+    product.setContinued(true);
+
+    Product emptyProduct = new Product();
+    emptyProduct.setProductId("Empty");
+    emptyProduct.setBuyLevels(Collections.emptyList());
+    emptyProduct.setSellLevels(Collections.emptyList());
+
+    ProductsBulk bulk = new ProductsBulk();
+    bulk.setOutSequenceNumber(3);
+    bulk.setType(BulkType.delta);
+    bulk.setProducts(Arrays.asList(product, emptyProduct));
+    return bulk;
+  }
+
+  private static Level generateLevel(int price, int quantity) {
+    Level level = new Level();
+    level.setPrice(price);
+    level.setQuantity(quantity);
+    return level;
+  }
+}
@@ -0,0 +1,90 @@
+package com.shadowbring.aggregator.codec;
+
+import com.shadowbring.aggregator.book.ProductDictionary;
+import com.shadowbring.aggregator.domain.incoming.AddOrder;
+import com.shadowbring.aggregator.domain.incoming.ChangeOrder;
+import com.shadowbring.aggregator.domain.incoming.DeleteOrder;
+import com.shadowbring.aggregator.domain.incoming.MessageSequence;
+import com.shadowbring.aggregator.domain.incoming.Side;
+import io.netty.buffer.Unpooled;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class JsonMessageSequenceDecoderTest {
+
+  private static final String MESSAGE_SEQUENCE = "{\"inSequenceNumber\":7,\"messages\":[" +
+                                                     "{\"type\":\"addOrder\",\"orderId\":1,\"productId\":\"Product\"," +
+                                                     "\"side\":\"sell\",\"price\":3,\"quantity\":4}," +
+                                                     "{\"type\":\"changeOrder\",\"orderId\":1,\"price\":5," +
+                                                     "\"quantity\":6},{\"type\":\"deleteOrder\",\"orderId\":1}]}";
+
+  private ProductDictionary dictionary = new ProductDictionary();
+
+  private JsonMessageSequenceDecoder decoder = new JsonMessageSequenceDecoder(dictionary);
+
+  @Test
+  public void decodeHeapBuffer() {
+    assertMessageSequence(decoder.decode(Buffer.buffer(MESSAGE_SEQUENCE)));
+  }
+
+  @Test
+  public void decodeDirectBuffer() {
+    byte[] bytes = MESSAGE_SEQUENCE.getBytes(StandardCharsets.UTF_8);
+    assertMessageSequence(decoder.decode(Buffer.buffer(Unpooled.directBuffer(bytes.length).writeBytes(bytes))));
+  }
+
+  @Test(expected = DecodeException.class)
+  public void decodeMalformedMessage() {
+    decoder.decode(Buffer.buffer("{\"inSequenceNumber\":"));
+  }
+
+  @Test(expected = DecodeException.class)
+  public void decodeMissingSequenceNumber() {
+    decoder.decode(Buffer.buffer("{\"messages\":[]}"));
+  }
+
+  @Test(expected = DecodeException.class)
+  public void decodeMissingMessages() {
+    decoder.decode(Buffer.buffer("{\"inSequenceNumber\":3}"));
+  }
+
+  @Test
+  public void peekSequenceNumberAfterMessages() {
+    String messagesFirst = "{\"messages\":[{\"type\":\"deleteOrder\",\"orderId\":1," +
+                               "\"inSequenceNumber\":3}],\"inSequenceNumber\":9}";
+    assertEquals("Sequence number must be found behind the messages", 9,
+        decoder.peekSequenceNumber(Buffer.buffer(messagesFirst)));
+    assertEquals("Sequence number must be read from the direct buffer", 7,
+        decoder.peekSequenceNumber(Buffer.buffer(Unpooled.directBuffer().writeBytes(
+            MESSAGE_SEQUENCE.getBytes(StandardCharsets.UTF_8)))));
+  }
+
+  @Test(expected = DecodeException.class)
+  public void peekMissingSequenceNumber() {
+    decoder.peekSequenceNumber(Buffer.buffer("{\"messages\":[]}"));
+  }
+
+  private void assertMessageSequence(MessageSequence messageSequence) {
+    assertEquals("Sequence number must be equal to 7", Integer.valueOf(7), messageSequence.getInSequenceNumber());
+    assertEquals("Sequence must contain 3 messages", 3, messageSequence.getMessages().size());
+
+    assertTrue("First message must be AddOrder", messageSequence.getMessages().get(0) instanceof AddOrder);
+    AddOrder addOrder = (AddOrder) messageSequence.getMessages().get(0);
+    assertEquals("Product ID must be equal to 'Product'", "Product", addOrder.getProductId());
+    assertSame("Product ID must be the canonical instance", dictionary.productIdOf(addOrder.getProduct()),
+        addOrder.getProductId());
+    assertEquals("Side must be equal to 'sell'", Side.sell, addOrder.getSide());
+    assertEquals("Quantity must be equal to 4", 4, addOrder.getQuantity());
+
+    assertTrue("Second message must be ChangeOrder", messageSequence.getMessages().get(1) instanceof ChangeOrder);
+    assertEquals("Price must be equal to 5", 5, ((ChangeOrder) messageSequence.getMessages().get(1)).getPrice());
+    assertTrue("Third message must be DeleteOrder", messageSequence.getMessages().get(2) instanceof DeleteOrder);
+  }
+}
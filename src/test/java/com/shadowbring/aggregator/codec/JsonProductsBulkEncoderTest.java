@@ -0,0 +1,80 @@
+package com.shadowbring.aggregator.codec;
+
+import com.shadowbring.aggregator.domain.outgoing.BulkType;
+import com.shadowbring.aggregator.domain.outgoing.Level;
+import com.shadowbring.aggregator.domain.outgoing.Product;
+import com.shadowbring.aggregator.domain.outgoing.ProductsBulk;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.vertx.core.json.Json;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public class JsonProductsBulkEncoderTest {
+
+  private final JsonProductsBulkEncoder encoder = new JsonProductsBulkEncoder();
+
+  @Test
+  public void encodeTheSameWayAsJackson() {
+    ProductsBulk bulk = new ProductsBulk();
+    bulk.setOutSequenceNumber(Integer.MAX_VALUE);
+    bulk.setType(BulkType.delta);
+    bulk.setProducts(Arrays.asList(
+        generateProduct("Plain", level(0, 1), level(-7, 1234567890)),
+        generateProduct("Quote\" back\\slash \b\t\n\f\r \u0001\u001f", level(Integer.MIN_VALUE, -1)),
+        generateProduct("Продукт € 😀")));
+    bulk.getProducts().get(0).setContinued(true);
+
+    assertEquals("Encoded bulk must be the same as the one encoded by Jackson", Json.encode(bulk),
+        encoder.encode(bulk).toString(StandardCharsets.UTF_8.name()));
+  }
+
+  @Test
+  public void encodeNulls() {
+    ProductsBulk bulk = new ProductsBulk();
+    Product product = new Product();
+    product.setBuyLevels(Collections.singletonList(new Level()));
+    bulk.setProducts(Collections.singletonList(product));
+
+    assertEquals("Nulls must be encoded the same way Jackson does it", Json.encode(bulk),
+        encoder.encode(bulk).toString(StandardCharsets.UTF_8.name()));
+  }
+
+  @Test
+  public void appendToPooledBuffer() {
+    ProductsBulk bulk = new ProductsBulk();
+    bulk.setOutSequenceNumber(1);
+    bulk.setType(BulkType.snapshot);
+    bulk.setProducts(Collections.singletonList(generateProduct("Product", level(5, 10))));
+
+    ByteBuf target = PooledByteBufAllocator.DEFAULT.directBuffer(8);
+    try {
+      target.writeByte('!');
+      encoder.encode(bulk, target);
+      assertEquals("Bulk must be appended after the existing content and the buffer must grow",
+          "!" + Json.encode(bulk), target.toString(StandardCharsets.UTF_8));
+    } finally {
+      target.release();
+    }
+  }
+
+  private static Product generateProduct(String productId, Level... buyLevels) {
+    Product product = new Product();
+    product.setProductId(productId);
+    product.setBuyLevels(Arrays.asList(buyLevels));
+    product.setSellLevels(Collections.singletonList(level(42, 3)));
+    return product;
+  }
+
+  private static Level level(int price, int quantity) {
+    Level level = new Level();
+    level.setPrice(price);
+    level.setQuantity(quantity);
+    return level;
+  }
+}
@@ -0,0 +1,57 @@
+package com.shadowbring.aggregator.collection;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IntIntHashMapTest {
+
+  private IntIntHashMap map = new IntIntHashMap(4);
+
+  @Test
+  public void putGetRemove() {
+    assertEquals("Missing key must not be found", IntIntHashMap.MISSING, map.get(1));
+    assertEquals("First put must not return previous value", IntIntHashMap.MISSING, map.put(1, 10));
+    assertEquals("Put must return previous value", 10, map.put(1, 11));
+    assertEquals("Value must be updated", 11, map.get(1));
+    assertEquals("Remove must return removed value", 11, map.remove(1));
+    assertFalse("Key must be removed", map.containsKey(1));
+    assertTrue("Map must be empty", map.isEmpty());
+  }
+
+  @Test
+  public void zeroKey() {
+    map.put(0, 5);
+    assertEquals("Zero key must be supported", 5, map.get(0));
+    assertEquals("Size must be equal to 1", 1, map.size());
+    assertEquals("Zero key must be removed", 5, map.remove(0));
+    assertTrue("Map must be empty", map.isEmpty());
+  }
+
+  @Test
+  public void behaveLikeHashMapUnderRandomOperations() {
+    Map<Integer, Integer> expected = new HashMap<>();
+    Random random = new Random(42);
+    for (int i = 0; i < 100_000; i++) {
+      int key = random.nextInt(2_000) - 1_000;
+      if (random.nextBoolean()) {
+        int value = random.nextInt(Integer.MAX_VALUE);
+        Integer previous = expected.put(key, value);
+        assertEquals("Previous values must be equal", previous == null ? IntIntHashMap.MISSING : previous,
+            map.put(key, value));
+      } else {
+        Integer previous = expected.remove(key);
+        assertEquals("Removed values must be equal", previous == null ? IntIntHashMap.MISSING : previous,
+            map.remove(key));
+      }
+    }
+    assertEquals("Sizes must be equal", expected.size(), map.size());
+    expected.forEach((key, value) -> assertEquals("Values must be equal", value.intValue(), map.get(key)));
+  }
+}
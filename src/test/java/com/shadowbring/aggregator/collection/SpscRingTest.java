@@ -0,0 +1,63 @@
+package com.shadowbring.aggregator.collection;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SpscRingTest {
+
+  @Test
+  public void rejectWhenFull() {
+    SpscRing<Integer> ring = new SpscRing<>(3);
+    assertEquals("Capacity must be rounded up to the power of two", 4, ring.capacity());
+    for (int i = 0; i < 4; i++) {
+      assertTrue("Element must be added while there is room", ring.offer(i));
+    }
+    assertFalse("Element must be rejected when the ring is full", ring.offer(4));
+    assertEquals("Oldest element must be taken first", Integer.valueOf(0), ring.poll());
+    assertTrue("Taken element must free its slot", ring.offer(4));
+    assertEquals("Size must be equal to 4", 4, ring.size());
+  }
+
+  @Test
+  public void keepOrderAcrossWraps() {
+    SpscRing<Integer> ring = new SpscRing<>(4);
+    for (int i = 0; i < 10; i++) {
+      ring.offer(i);
+      ring.offer(-i);
+      assertEquals("Elements must be taken in order", Integer.valueOf(i), ring.poll());
+      assertEquals("Elements must be taken in order", Integer.valueOf(-i), ring.poll());
+    }
+    assertNull("Empty ring must return nothing", ring.poll());
+  }
+
+  @Test
+  public void handOverBetweenThreads() throws Exception {
+    SpscRing<Integer> ring = new SpscRing<>(64);
+    int count = 100_000;
+    Thread producer = new Thread(() -> {
+      for (int i = 0; i < count; i++) {
+        while (!ring.offer(i)) {
+          Thread.yield();
+        }
+      }
+    });
+    producer.setDaemon(true);
+    producer.start();
+    for (int i = 0; i < count; ) {
+      Integer element = ring.poll();
+      if (element == null) {
+        Thread.yield();
+      } else {
+        assertEquals("Elements must be handed over in order", i++, element.intValue());
+      }
+    }
+    producer.join(TimeUnit.SECONDS.toMillis(5));
+    assertNull("Every element must be taken", ring.poll());
+  }
+}
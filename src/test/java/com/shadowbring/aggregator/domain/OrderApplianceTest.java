@@ -1,24 +1,22 @@
 package com.shadowbring.aggregator.domain;
 
+import com.shadowbring.aggregator.book.OrderTable;
 import com.shadowbring.aggregator.domain.incoming.*;
 import org.junit.Test;
 
-import java.util.HashMap;
-import java.util.Map;
-
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 public class OrderApplianceTest {
 
-  private Map<Integer, Order> orders = new HashMap<>();
+  private OrderTable orders = new OrderTable();
 
   @Test
   public void applyAddOrder() {
     AddOrder addOrder = generateAddOrder();
     addOrder.applyToOrderTable(orders);
     assertEquals("Size of the map with orders must be equal to 1", 1, orders.size());
-    assertEquals("Orders must be equal", addOrder, orders.get(addOrder.getOrderId()));
+    assertOrderStored(addOrder);
   }
 
   @Test
@@ -26,10 +24,10 @@ public class OrderApplianceTest {
     generateAddOrder().applyToOrderTable(orders);
     generateChangeOrder().applyToOrderTable(orders);
     assertEquals("Size of the map with orders must be equal to 1", 1, orders.size());
-    assertEquals("Product ID must be equal to 'Product'", "Product", ((AddOrder) orders.get(1)).getProductId());
-    assertEquals("Price must be equal to 7", new Integer(7), ((AddOrder) orders.get(1)).getPrice());
-    assertEquals("Quantity must be equal to 7", new Integer(7), ((AddOrder) orders.get(1)).getQuantity());
-    assertEquals("Side must be equal to 'buy'", Side.buy, ((AddOrder) orders.get(1)).getSide());
+    assertEquals("Product ID must be equal to 'Product'", "Product", orders.getProductId(1));
+    assertEquals("Price must be equal to 7", 7, orders.getPrice(1));
+    assertEquals("Quantity must be equal to 7", 7, orders.getQuantity(1));
+    assertEquals("Side must be equal to 'buy'", Side.buy, orders.getSide(1));
   }
 
   @Test
@@ -40,7 +38,7 @@ public class OrderApplianceTest {
     changeOrder.setOrderId(2);
     changeOrder.applyToOrderTable(orders);
     assertEquals("Size of the map with orders must be equal to 1", 1, orders.size());
-    assertEquals("Orders must be equal", addOrder, orders.get(addOrder.getOrderId()));
+    assertOrderStored(addOrder);
   }
 
   @Test
@@ -58,7 +56,16 @@ public class OrderApplianceTest {
     deleteOrder.setOrderId(2);
     deleteOrder.applyToOrderTable(orders);
     assertEquals("Size of the map with orders must be equal to 1", 1, orders.size());
-    assertEquals("Orders must be equal", addOrder, orders.get(addOrder.getOrderId()));
+    assertOrderStored(addOrder);
+  }
+
+  private void assertOrderStored(AddOrder addOrder) {
+    int orderId = addOrder.getOrderId();
+    assertTrue("Order must be stored", orders.contains(orderId));
+    assertEquals("Product IDs must be equal", addOrder.getProductId(), orders.getProductId(orderId));
+    assertEquals("Sides must be equal", addOrder.getSide(), orders.getSide(orderId));
+    assertEquals("Prices must be equal", addOrder.getPrice(), orders.getPrice(orderId));
+    assertEquals("Quantities must be equal", addOrder.getQuantity(), orders.getQuantity(orderId));
   }
 
   private AddOrder generateAddOrder() {
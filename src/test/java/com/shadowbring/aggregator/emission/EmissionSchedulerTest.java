@@ -0,0 +1,122 @@
+package com.shadowbring.aggregator.emission;
+
+import com.shadowbring.aggregator.aggregation.EmissionHandler;
+import com.shadowbring.aggregator.aggregation.PriceLevelsAggregator;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EmissionSchedulerTest {
+
+  private final Vertx vertx = Vertx.vertx();
+
+  private final AtomicInteger emissions = new AtomicInteger();
+
+  private final AtomicBoolean busy = new AtomicBoolean();
+
+  private Handler<Void> emissionCompleted;
+
+  private final PriceLevelsAggregator aggregator = new PriceLevelsAggregator() {
+    @Override
+    public void onEmissionCompleted(Handler<Void> handler) {
+      emissionCompleted = handler;
+    }
+
+    @Override
+    public boolean aggregateByPriceLevels(EmissionHandler handler) {
+      if (busy.get()) {
+        return false;
+      }
+      emissions.incrementAndGet();
+      handler.handle(Collections.emptyList(), publishedAt -> {
+      });
+      return true;
+    }
+  };
+
+  private EmissionScheduler scheduler = newScheduler(EmissionTrigger.change);
+
+  @After
+  public void tearDown() {
+    vertx.close();
+  }
+
+  @Test
+  public void coalesceBurstOfChanges() throws Exception {
+    onContext(() -> {
+      scheduler.start(vertx);
+      for (int i = 0; i < 10; i++) {
+        scheduler.onBooksChanged();
+      }
+    });
+    Thread.sleep(300);
+
+    assertEquals("Burst of changes must be emitted once", 1, emissions.get());
+  }
+
+  @Test
+  public void boundStalenessOfSteadyFlow() throws Exception {
+    onContext(() -> {
+      scheduler.start(vertx);
+      vertx.setPeriodic(10, id -> scheduler.onBooksChanged());
+    });
+    Thread.sleep(700);
+
+    assertTrue("Steady flow must be emitted at the pace of the maximum staleness", emissions.get() >= 3);
+    assertTrue("Steady flow must not be emitted on every change", emissions.get() <= 7);
+  }
+
+  @Test
+  public void emitSkippedChangesOnceEmissionCompletes() throws Exception {
+    busy.set(true);
+    onContext(() -> {
+      scheduler.start(vertx);
+      scheduler.onBooksChanged();
+    });
+    Thread.sleep(200);
+    assertEquals("Changes must not be emitted while the previous emission is in progress", 0, emissions.get());
+
+    onContext(() -> {
+      busy.set(false);
+      emissionCompleted.handle(null);
+    });
+
+    assertEquals("Skipped changes must be emitted once the previous emission completes", 1, emissions.get());
+  }
+
+  @Test
+  public void ignoreChangesOfTimerTrigger() throws Exception {
+    scheduler = newScheduler(EmissionTrigger.timer);
+    onContext(() -> {
+      scheduler.start(vertx);
+      scheduler.onBooksChanged();
+    });
+    Thread.sleep(200);
+
+    assertEquals("Changes must not trigger emission", 0, emissions.get());
+  }
+
+  private EmissionScheduler newScheduler(EmissionTrigger trigger) {
+    return new EmissionScheduler(TimeUnit.HOURS.toMillis(1), trigger, 50, 150, aggregator,
+        (bulks, published) -> true);
+  }
+
+  private void onContext(Runnable action) throws Exception {
+    CompletableFuture<Void> done = new CompletableFuture<>();
+    vertx.runOnContext(v -> {
+      action.run();
+      done.complete(null);
+    });
+    done.get(5, TimeUnit.SECONDS);
+  }
+}
@@ -0,0 +1,112 @@
+package com.shadowbring.aggregator.emission;
+
+import com.shadowbring.aggregator.codec.BinaryProductsBulkDecoder;
+import com.shadowbring.aggregator.codec.BinaryProductsBulkEncoder;
+import com.shadowbring.aggregator.domain.outgoing.BulkType;
+import com.shadowbring.aggregator.domain.outgoing.Level;
+import com.shadowbring.aggregator.domain.outgoing.Product;
+import com.shadowbring.aggregator.domain.outgoing.ProductsBulk;
+import com.shadowbring.aggregator.metrics.Counter;
+import com.shadowbring.aggregator.metrics.PipelineMetrics;
+import com.shadowbring.aggregator.metrics.TraceRing;
+import io.vertx.core.buffer.Buffer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NioBulkEmitterTest {
+
+  private final PipelineMetrics metrics = new PipelineMetrics();
+
+  private final TraceRing traceRing = new TraceRing(64, 1);
+
+  private DatagramChannel receiver;
+
+  private NioBulkEmitter emitter;
+
+  @Before
+  public void setUp() throws Exception {
+    receiver = DatagramChannel.open();
+    receiver.bind(new InetSocketAddress("127.0.0.1", 0));
+
+    emitter = new NioBulkEmitter("127.0.0.1", ((InetSocketAddress) receiver.getLocalAddress()).getPort(), "127.0.0.1",
+        new BinaryProductsBulkEncoder(), metrics, traceRing);
+    emitter.open();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    emitter.stop();
+    receiver.close();
+  }
+
+  @Test
+  public void sendBatchInOrder() throws Exception {
+    List<ProductsBulk> bulks = new ArrayList<>();
+    for (int i = 1; i <= 50; i++) {
+      bulks.add(generateBulk(i));
+    }
+    emitter.emit(bulks, publishedAt -> {
+    });
+
+    BinaryProductsBulkDecoder decoder = new BinaryProductsBulkDecoder();
+    ByteBuffer datagram = ByteBuffer.allocate(2048);
+    long bytes = 0;
+    for (int i = 0; i < bulks.size(); i++) {
+      datagram.clear();
+      receiver.receive(datagram);
+      datagram.flip();
+      bytes += datagram.remaining();
+      byte[] payload = new byte[datagram.remaining()];
+      datagram.get(payload);
+      assertEquals("Bulks must be received in order", bulks.get(i), decoder.decode(Buffer.buffer(payload)));
+    }
+    for (int i = 0; i < 100 && metrics.get(Counter.bulksOut) < bulks.size(); i++) {
+      Thread.sleep(10);
+    }
+    assertEquals("All bulks must be counted as sent", bulks.size(), metrics.get(Counter.bulksOut));
+    assertEquals("Sent bytes must be counted", bytes, metrics.get(Counter.bytesOut));
+    assertEquals("There must be no failures", 0, metrics.get(Counter.sendFailures));
+    assertEquals("Every sent bulk must be traced", bulks.size(), traceRing.dump().size());
+  }
+
+  @Test
+  public void reportDroppedEmission() throws Exception {
+    emitter.stop();
+    List<ProductsBulk> bulks = Collections.singletonList(generateBulk(1));
+    for (int i = 0; i < 4; i++) {
+      assertTrue("Emission must wait for the sender", emitter.emit(bulks, publishedAt -> {
+      }));
+    }
+
+    assertFalse("Emission must be dropped if too many emissions wait", emitter.emit(bulks, publishedAt -> {
+    }));
+    assertEquals("Bulks of the dropped emission must be counted", 1, metrics.get(Counter.sendFailures));
+  }
+
+  private static ProductsBulk generateBulk(int outSequenceNumber) {
+    Level level = new Level();
+    level.setPrice(outSequenceNumber);
+    level.setQuantity(10);
+    Product product = new Product();
+    product.setProductId("Product" + outSequenceNumber);
+    product.setBuyLevels(Collections.singletonList(level));
+    product.setSellLevels(Collections.emptyList());
+    ProductsBulk bulk = new ProductsBulk();
+    bulk.setOutSequenceNumber(outSequenceNumber);
+    bulk.setType(BulkType.snapshot);
+    bulk.setProducts(Collections.singletonList(product));
+    return bulk;
+  }
+}
@@ -0,0 +1,211 @@
+package com.shadowbring.aggregator.journal;
+
+import com.shadowbring.aggregator.metrics.Counter;
+import com.shadowbring.aggregator.metrics.PipelineMetrics;
+import io.vertx.core.buffer.Buffer;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class InboundJournalTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private PipelineMetrics metrics = new PipelineMetrics();
+
+  private InboundJournal journal;
+
+  @After
+  public void tearDown() throws InterruptedException {
+    journal.stop();
+  }
+
+  @Test
+  public void replayInOrderOfAppending() throws InterruptedException {
+    journal = createJournal(1024);
+    journal.start();
+    for (int i = 0; i < 10; i++) {
+      journal.append(Buffer.buffer("datagram-" + i), i);
+    }
+    journal.stop();
+
+    List<String> replayed = replay(createJournal(1024));
+    assertEquals("All datagrams must be replayed", 10, replayed.size());
+    for (int i = 0; i < 10; i++) {
+      assertEquals("Datagrams must be replayed in order", "datagram-" + i, replayed.get(i));
+    }
+  }
+
+  @Test
+  public void rollSegments() throws InterruptedException {
+    journal = createJournal(64);
+    journal.start();
+    for (int i = 0; i < 20; i++) {
+      journal.append(Buffer.buffer("datagram-" + i), i);
+    }
+    journal.stop();
+
+    File[] segments = folder.getRoot().listFiles();
+    assertEquals("Datagrams must be spread among several segments", 8, segments == null ? 0 : segments.length);
+    List<String> replayed = replay(createJournal(64));
+    assertEquals("All datagrams must be replayed", 20, replayed.size());
+    assertEquals("Datagrams must be replayed in order", "datagram-19", replayed.get(19));
+  }
+
+  @Test
+  public void appendAfterRestart() throws InterruptedException {
+    journal = createJournal(1024);
+    journal.start();
+    journal.append(Buffer.buffer("before"), 1);
+    journal.stop();
+
+    journal = createJournal(1024);
+    assertEquals("Datagram of the previous run must be replayed", 1, replay(journal).size());
+    journal.start();
+    journal.append(Buffer.buffer("after"), 2);
+    journal.stop();
+
+    List<String> replayed = replay(createJournal(1024));
+    assertEquals("Datagrams of both runs must be replayed", 2, replayed.size());
+    assertEquals("Datagram of the new run must follow the previous ones", "after", replayed.get(1));
+  }
+
+  @Test
+  public void dropOversizedDatagram() throws InterruptedException {
+    journal = createJournal(64);
+    journal.start();
+    journal.append(Buffer.buffer(new byte[100]), 1);
+    journal.append(Buffer.buffer("small"), 2);
+    journal.stop();
+
+    assertEquals("Oversized datagram must be dropped", 1, metrics.get(Counter.journalDrops));
+    assertEquals("Following datagram must be journaled", 1, replay(createJournal(64)).size());
+  }
+
+  @Test
+  public void replayAfterSequenceNumber() throws InterruptedException {
+    journal = createJournal(1024);
+    journal.start();
+    journal.append(Buffer.buffer("datagram-1"), 1);
+    journal.append(Buffer.buffer("datagram-3"), 3);
+    journal.append(Buffer.buffer("datagram-2"), 2);
+    journal.append(Buffer.buffer("datagram-4"), 4);
+    journal.stop();
+
+    List<String> replayed = replay(createJournal(1024), new SequencePosition(0, 2));
+    assertEquals("Only datagrams after the sequence number must be replayed", 2, replayed.size());
+    assertEquals("Datagrams must be replayed in order of receiving", "datagram-3", replayed.get(0));
+    assertEquals("Datagrams must be replayed in order of receiving", "datagram-4", replayed.get(1));
+  }
+
+  @Test
+  public void pruneCoveredSegments() throws InterruptedException {
+    journal = createJournal(64);
+    journal.start();
+    for (int i = 0; i < 20; i++) {
+      journal.append(Buffer.buffer("datagram-" + i), i);
+    }
+    journal.append(Buffer.buffer("datagram-5"), 5);
+    while (replay(createJournal(64)).size() < 21) {
+      Thread.sleep(10);
+    }
+
+    assertEquals("Segments up to the one with a later sequence number must be removed", 2,
+        journal.prune(new SequencePosition(0, 6)));
+    journal.stop();
+    List<String> replayed = replay(createJournal(64));
+    assertEquals("Datagrams of the removed segment must not be replayed", "datagram-6", replayed.get(0));
+  }
+
+  @Test
+  public void replayPastRestart() throws InterruptedException {
+    journal = createJournal(1024);
+    journal.start();
+    for (int i = 1; i <= 10; i++) {
+      journal.append(Buffer.buffer("old-" + i), i);
+    }
+    journal.markReset(1);
+    for (int i = 1; i <= 3; i++) {
+      journal.append(Buffer.buffer("new-" + i), i);
+    }
+    journal.stop();
+
+    List<Integer> resets = new ArrayList<>();
+    List<String> replayed = replay(createJournal(1024), new SequencePosition(0, 5), resets);
+    assertEquals("Datagrams after the snapshot and all datagrams after the restart must be replayed",
+        Arrays.asList("old-6", "old-7", "old-8", "old-9", "old-10", "new-1", "new-2", "new-3"), replayed);
+    assertEquals("Restart must be replayed with its epoch", Collections.singletonList(1), resets);
+  }
+
+  @Test
+  public void skipEpochsPrecedingSnapshot() throws InterruptedException {
+    journal = createJournal(1024);
+    journal.start();
+    for (int i = 100; i <= 102; i++) {
+      journal.append(Buffer.buffer("old-" + i), i);
+    }
+    journal.markReset(1);
+    for (int i = 1; i <= 3; i++) {
+      journal.append(Buffer.buffer("new-" + i), i);
+    }
+    journal.stop();
+
+    List<Integer> resets = new ArrayList<>();
+    List<String> replayed = replay(createJournal(1024), new SequencePosition(1, 2), resets);
+    assertEquals("Only datagrams after the snapshot of the same epoch must be replayed",
+        Collections.singletonList("new-3"), replayed);
+    assertTrue("Restart reflected by the snapshot must not be replayed", resets.isEmpty());
+  }
+
+  @Test
+  public void pruneUpToRestart() throws InterruptedException {
+    journal = createJournal(64);
+    journal.start();
+    for (int i = 1; i <= 10; i++) {
+      journal.append(Buffer.buffer("old-" + i), i);
+    }
+    journal.markReset(1);
+    for (int i = 1; i <= 10; i++) {
+      journal.append(Buffer.buffer("new-" + i), i);
+    }
+    while (replay(createJournal(64)).size() < 20) {
+      Thread.sleep(10);
+    }
+
+    assertTrue("Segments of the previous numbering must be removed", journal.prune(new SequencePosition(0, 10)) > 0);
+    journal.stop();
+    List<Integer> resets = new ArrayList<>();
+    List<String> replayed = replay(createJournal(64), null, resets);
+    assertEquals("Segments of the restarted numbering must be retained", 10, replayed.size());
+    assertEquals("Restart must be retained", Collections.singletonList(1), resets);
+  }
+
+  private InboundJournal createJournal(int segmentSize) {
+    return new InboundJournal(true, folder.getRoot().getPath(), segmentSize, 1024, metrics);
+  }
+
+  private static List<String> replay(InboundJournal inboundJournal) {
+    return replay(inboundJournal, null);
+  }
+
+  private static List<String> replay(InboundJournal inboundJournal, SequencePosition after) {
+    return replay(inboundJournal, after, new ArrayList<>());
+  }
+
+  private static List<String> replay(InboundJournal inboundJournal, SequencePosition after, List<Integer> resets) {
+    List<String> datagrams = new ArrayList<>();
+    inboundJournal.replay(after, datagram -> datagrams.add(datagram.toString()), resets::add);
+    return datagrams;
+  }
+}
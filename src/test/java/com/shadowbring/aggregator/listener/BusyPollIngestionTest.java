@@ -0,0 +1,64 @@
+package com.shadowbring.aggregator.listener;
+
+import com.shadowbring.aggregator.udp.MulticastGroup;
+import org.junit.After;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class BusyPollIngestionTest {
+
+  private BusyPollIngestion ingestion;
+
+  private final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+
+  @After
+  public void tearDown() throws Exception {
+    if (ingestion != null) {
+      ingestion.stop();
+    }
+  }
+
+  @Test
+  public void receiveFromEveryPortBySpinning() throws Exception {
+    receiveFromEveryPort(WaitStrategy.spin);
+  }
+
+  @Test
+  public void receiveFromEveryPortByParking() throws Exception {
+    receiveFromEveryPort(WaitStrategy.park);
+  }
+
+  private void receiveFromEveryPort(WaitStrategy waitStrategy) throws Exception {
+    ingestion = new BusyPollIngestion("127.0.0.1", waitStrategy, TimeUnit.MICROSECONDS.toNanos(100), -1);
+    List<MulticastGroup> groups = Arrays.asList(new MulticastGroup("127.0.0.1", freePort()),
+        new MulticastGroup("127.0.0.1", freePort()));
+    ingestion.start(groups, NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress()),
+        datagram -> received.add(datagram.toString()));
+
+    try (DatagramChannel sender = DatagramChannel.open()) {
+      sender.send(ByteBuffer.wrap("first".getBytes()), new InetSocketAddress("127.0.0.1", groups.get(0).getPort()));
+      assertEquals("Datagram must be received as it is", "first", received.poll(5, TimeUnit.SECONDS));
+      sender.send(ByteBuffer.wrap("second".getBytes()), new InetSocketAddress("127.0.0.1", groups.get(1).getPort()));
+      assertEquals("Datagram must be received from every port", "second", received.poll(5, TimeUnit.SECONDS));
+    }
+  }
+
+  private static int freePort() throws Exception {
+    try (DatagramChannel channel = DatagramChannel.open()) {
+      channel.bind(new InetSocketAddress("127.0.0.1", 0));
+      return ((InetSocketAddress) channel.getLocalAddress()).getPort();
+    }
+  }
+}
@@ -0,0 +1,78 @@
+package com.shadowbring.aggregator.metrics;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class PipelineMetricsTest {
+
+  private PipelineMetrics metrics = new PipelineMetrics();
+
+  @Test
+  public void countEvents() {
+    metrics.increment(Counter.packetsIn);
+    metrics.increment(Counter.packetsIn);
+    metrics.add(Counter.bytesOut, 100);
+    metrics.add(Counter.bytesOut, 50);
+
+    assertEquals("Increments must be counted", 2, metrics.get(Counter.packetsIn));
+    assertEquals("Values must be summed up", 150, metrics.get(Counter.bytesOut));
+    assertEquals("Untouched counter must be zero", 0, metrics.get(Counter.lostSequences));
+  }
+
+  @Test
+  public void recordStageDurations() {
+    for (int i = 1; i <= 100; i++) {
+      metrics.record(Stage.decode, i * 1000L);
+    }
+    metrics.record(Stage.decode, -1);
+
+    assertEquals("Negative durations must be ignored", 100, metrics.getHistogram(Stage.decode).getTotalCount());
+    assertEquals("Other stages must be empty", 0, metrics.getHistogram(Stage.encode).getTotalCount());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void summarizeInMicroseconds() {
+    for (int i = 1; i <= 100; i++) {
+      metrics.record(Stage.send, i * 1000L);
+    }
+    metrics.increment(Counter.bulksOut);
+
+    Map<String, Object> snapshot = metrics.snapshot();
+    Map<String, Object> counters = (Map<String, Object>) snapshot.get("counters");
+    Map<String, Object> send = (Map<String, Object>) ((Map<String, Object>) snapshot.get("stagesMicros")).get("send");
+
+    assertEquals("Counter must be present in the snapshot", 1L, counters.get("bulksOut"));
+    assertEquals("Count of the recorded durations must be present", 100L, send.get("count"));
+    assertEquals("Median must be in microseconds", 50.0, (Double) send.get("p50"), 0.1);
+    assertEquals("Maximum must be in microseconds", 100.0, (Double) send.get("max"), 0.1);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void summarizeSincePreviousInterval() {
+    for (int i = 1; i <= 100; i++) {
+      metrics.record(Stage.receiveToPublish, 1000_000L);
+    }
+    metrics.increment(Counter.packetsIn);
+    metrics.intervalSnapshot();
+    for (int i = 1; i <= 10; i++) {
+      metrics.record(Stage.receiveToPublish, i * 1000L);
+    }
+    metrics.increment(Counter.packetsIn);
+
+    Map<String, Object> snapshot = metrics.intervalSnapshot();
+    Map<String, Object> counters = (Map<String, Object>) snapshot.get("counters");
+    Map<String, Object> latency = (Map<String, Object>) ((Map<String, Object>) snapshot.get("stagesMicros"))
+                                                           .get("receiveToPublish");
+
+    assertEquals("Counter must be incremented within the interval", 1L, counters.get("packetsIn"));
+    assertEquals("Only the durations of the interval must be counted", 10L, latency.get("count"));
+    assertEquals("Maximum must be of the interval", 10.0, (Double) latency.get("max"), 0.1);
+    assertEquals("Cumulative histogram must be kept", 110, metrics.getHistogram(Stage.receiveToPublish)
+                                                               .getTotalCount());
+  }
+}
@@ -0,0 +1,42 @@
+package com.shadowbring.aggregator.metrics;
+
+import org.HdrHistogram.Histogram;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ReceiveTimesTest {
+
+  @Test
+  public void recordTimeSinceEveryReceipt() {
+    PipelineMetrics metrics = new PipelineMetrics();
+    ReceiveTimes receiveTimes = new ReceiveTimes();
+    for (int i = 1; i <= 100; i++) {
+      receiveTimes.add(i * 1000L);
+    }
+    receiveTimes.record(metrics, Stage.receiveToPublish, 101_000L);
+
+    Histogram latencies = metrics.getHistogram(Stage.receiveToPublish);
+    assertEquals("Every message must be recorded", 100, receiveTimes.size());
+    assertEquals("Every message must be recorded", 100, latencies.getTotalCount());
+    assertEquals("Latency of the last received message must be the shortest", 1000, latencies.getMinValue(), 1);
+    assertEquals("Latency of the first received message must be the longest", 100_000, latencies.getMaxValue(), 100);
+  }
+
+  @Test
+  public void carryTimesOfAnotherCollection() {
+    PipelineMetrics metrics = new PipelineMetrics();
+    ReceiveTimes receiveTimes = new ReceiveTimes();
+    ReceiveTimes failed = new ReceiveTimes();
+    for (int i = 1; i <= 100; i++) {
+      receiveTimes.add(i * 1000L);
+      failed.add(i * 1000L);
+    }
+    receiveTimes.addAll(failed);
+    receiveTimes.record(metrics, Stage.receiveToPublish, 101_000L);
+
+    assertEquals("Times of both collections must be carried", 200, receiveTimes.size());
+    assertEquals("Times of both collections must be recorded", 200,
+        metrics.getHistogram(Stage.receiveToPublish).getTotalCount());
+  }
+}
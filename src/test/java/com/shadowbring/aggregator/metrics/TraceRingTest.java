@@ -0,0 +1,55 @@
+package com.shadowbring.aggregator.metrics;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TraceRingTest {
+
+  @Test
+  public void keepMostRecentEvents() {
+    TraceRing traceRing = createRing(3, 1);
+    for (int i = 1; i <= 6; i++) {
+      traceRing.record(TraceEvent.received, i, 100 + i, TraceOutcome.inOrder, TimeUnit.MICROSECONDS.toNanos(i));
+    }
+
+    List<Map<String, Object>> events = traceRing.dump();
+    assertEquals("Capacity must be rounded up to the power of two", 4, events.size());
+    assertEquals("Oldest kept event must go first", 3L, events.get(0).get("sequenceNumber"));
+    assertEquals("Newest event must go last", 6L, events.get(3).get("sequenceNumber"));
+    assertEquals("Size must be recorded", 106L, events.get(3).get("size"));
+    assertEquals("Kind must be recorded", TraceEvent.received, events.get(3).get("event"));
+    assertEquals("Outcome must be recorded", TraceOutcome.inOrder, events.get(3).get("outcome"));
+    assertEquals("Duration must be recorded", 6L, events.get(3).get("durationMicros"));
+  }
+
+  @Test
+  public void sampleRegularEventsOnly() {
+    TraceRing traceRing = createRing(1024, 1000);
+    for (int i = 0; i < 100; i++) {
+      traceRing.record(TraceEvent.emitted, i, 10, TraceOutcome.sent, 0);
+    }
+    traceRing.record(TraceEvent.received, TraceRing.NO_SEQUENCE, 10, TraceOutcome.malformed, 0);
+
+    List<Map<String, Object>> events = traceRing.dump();
+    assertTrue("Regular events must be sampled", events.size() < 10);
+    assertEquals("Anomaly must be recorded", TraceOutcome.malformed, events.get(events.size() - 1).get("outcome"));
+  }
+
+  @Test
+  public void recordNothingIfDisabled() {
+    TraceRing traceRing = createRing(16, 0);
+    traceRing.record(TraceEvent.emitted, 1, 10, TraceOutcome.failed, 0);
+
+    assertTrue("Nothing must be recorded", traceRing.dump().isEmpty());
+  }
+
+  private static TraceRing createRing(int capacity, int sampling) {
+    return new TraceRing(capacity, sampling);
+  }
+}
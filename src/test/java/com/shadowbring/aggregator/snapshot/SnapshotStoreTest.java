@@ -0,0 +1,136 @@
+package com.shadowbring.aggregator.snapshot;
+
+import com.shadowbring.aggregator.aggregation.AggregationSnapshot;
+import com.shadowbring.aggregator.book.OrderTable;
+import com.shadowbring.aggregator.book.OrderTableSnapshot;
+import com.shadowbring.aggregator.book.ProductDictionary;
+import com.shadowbring.aggregator.domain.incoming.Side;
+import com.shadowbring.aggregator.journal.SequencePosition;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class SnapshotStoreTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private SnapshotStore store;
+
+  @Before
+  public void setUp() {
+    store = new SnapshotStore(true, folder.getRoot().getPath(), 2);
+  }
+
+  @Test
+  public void restoreOrders() throws IOException {
+    OrderTable first = new OrderTable();
+    first.add(1, "Product0", Side.buy, 10, 5);
+    first.add(2, "Product0", Side.sell, 12, 3);
+    first.add(3, "Product1", Side.buy, 7, 1);
+    first.delete(2);
+    OrderTable second = new OrderTable();
+    second.add(4, "Product2", Side.sell, 20, 8);
+
+    store.write(new AggregationSnapshot(42, 3, Arrays.asList(first.snapshot(), second.snapshot())));
+    AggregationSnapshot snapshot = store.loadLatest();
+
+    assertEquals("Sequence number must be restored", 42, snapshot.getLastSequenceNumber());
+    assertEquals("Epoch of the sequence number must be restored", 3, snapshot.getSequenceEpoch());
+    assertEquals("Deleted orders must not be restored", 3, snapshot.size());
+    OrderTable restored = new OrderTable();
+    snapshot.getTables().forEach(table -> table.applyTo(restored));
+    assertEquals("Product must be restored", "Product1", restored.getProductId(3));
+    assertEquals("Side must be restored", Side.sell, restored.getSide(4));
+    assertEquals("Price must be restored", 10, restored.getPrice(1));
+    assertEquals("Quantity must be restored", 8, restored.getQuantity(4));
+    assertFalse("Deleted order must not be restored", restored.contains(2));
+  }
+
+  @Test
+  public void writeOwnProductsOfShard() throws IOException {
+    ProductDictionary dictionary = new ProductDictionary();
+    OrderTable first = new OrderTable(dictionary, false);
+    first.add(1, "Product0", Side.buy, 10, 5);
+    OrderTable second = new OrderTable(dictionary, false);
+    second.add(2, "Product1", Side.sell, 12, 3);
+    second.add(3, "Product1", Side.buy, 11, 2);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    second.snapshot().writeTo(new DataOutputStream(bytes));
+
+    assertEquals("Only the product of the shard must be written", 1,
+        new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())).readInt());
+    OrderTable restored = new OrderTable();
+    OrderTableSnapshot.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())))
+                      .applyTo(restored);
+    assertEquals("Product must be restored", "Product1", restored.getProductId(2));
+    assertEquals("All orders must be restored", 11, restored.getPrice(3));
+  }
+
+  @Test
+  public void skipCorruptedSnapshot() throws IOException {
+    OrderTable orderTable = new OrderTable();
+    orderTable.add(1, "Product0", Side.buy, 10, 5);
+    store.write(new AggregationSnapshot(1, 0, Collections.singletonList(orderTable.snapshot())));
+    orderTable.add(2, "Product0", Side.buy, 11, 5);
+    store.write(new AggregationSnapshot(2, 0, Collections.singletonList(orderTable.snapshot())));
+
+    File[] files = folder.getRoot().listFiles();
+    Arrays.sort(files);
+    try (RandomAccessFile latest = new RandomAccessFile(files[1], "rw")) {
+      latest.seek(latest.length() - 10);
+      latest.writeByte(0x7F);
+    }
+
+    assertEquals("The previous snapshot must be loaded", 1, store.loadLatest().getLastSequenceNumber());
+  }
+
+  @Test
+  public void retainLatestSnapshots() throws IOException {
+    for (int i = 1; i <= 4; i++) {
+      store.write(new AggregationSnapshot(i, 0, Collections.singletonList(new OrderTable().snapshot())));
+    }
+
+    assertEquals("Only the latest snapshots must be retained", 2, folder.getRoot().listFiles().length);
+    assertEquals("The latest snapshot must be loaded", 4, store.loadLatest().getLastSequenceNumber());
+  }
+
+  @Test
+  public void tellOldestRetainedPosition() throws IOException {
+    assertNull("There must be no position without snapshots", store.oldestRetainedPosition());
+    for (int i = 1; i <= 3; i++) {
+      store.write(new AggregationSnapshot(i * 10, i, Collections.singletonList(new OrderTable().snapshot())));
+    }
+
+    SequencePosition oldest = store.oldestRetainedPosition();
+    assertEquals("Journal must be retained after the oldest snapshot recovery may fall back to", 20,
+        oldest.getSequenceNumber());
+    assertEquals("Epoch of the oldest snapshot must be told", 2, oldest.getSequenceEpoch());
+
+    store.retainLatestOnly();
+    assertEquals("Only the latest snapshot must be retained", 1, folder.getRoot().listFiles().length);
+    assertEquals("Journal must be retained after the latest snapshot", 30,
+        store.oldestRetainedPosition().getSequenceNumber());
+  }
+
+  @Test
+  public void loadNothingFromEmptyDirectory() {
+    assertNull("There must be no snapshot", store.loadLatest());
+  }
+}
@@ -0,0 +1,171 @@
+package com.shadowbring.aggregator.udp;
+
+import com.shadowbring.aggregator.book.ProductDictionary;
+import com.shadowbring.aggregator.codec.BinaryMessageSequenceDecoder;
+import com.shadowbring.aggregator.codec.BinaryMessageSequenceEncoder;
+import com.shadowbring.aggregator.domain.incoming.MessageSequence;
+import com.shadowbring.aggregator.metrics.Counter;
+import com.shadowbring.aggregator.metrics.PipelineMetrics;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.net.NetServer;
+import io.vertx.core.parsetools.RecordParser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GapRecoveryTest {
+
+  private final PipelineMetrics metrics = new PipelineMetrics();
+
+  private final UdpCompliantMessageSequenceBuffer buffer = new UdpCompliantMessageSequenceBuffer(16, 65536, 0, metrics);
+
+  private final BinaryMessageSequenceEncoder encoder = new BinaryMessageSequenceEncoder();
+
+  private final BinaryMessageSequenceDecoder decoder = new BinaryMessageSequenceDecoder(new ProductDictionary());
+
+  /**
+   * Ranges requested from the stand-in retransmission endpoint
+   */
+  private final List<String> requests = new ArrayList<>();
+
+  /**
+   * Length of the frame the stand-in endpoint responds with before the retransmitted datagrams, if not zero
+   */
+  private volatile int malformedLength;
+
+  private Vertx vertx;
+
+  private Context context;
+
+  private GapRecovery gapRecovery;
+
+  @Before
+  public void setUp() throws Exception {
+    vertx = Vertx.vertx();
+    context = vertx.getOrCreateContext();
+    NetServer server = vertx.createNetServer().connectHandler(socket -> socket.handler(
+        RecordParser.newFixed(8, request -> {
+          int from = request.getInt(0);
+          int to = request.getInt(4);
+          requests.add(from + ".." + to);
+          Buffer response = Buffer.buffer();
+          if (malformedLength != 0) {
+            response.appendInt(malformedLength);
+          }
+          for (int i = from; i <= to; i++) {
+            Buffer datagram = encoder.encode(generateSequence(i));
+            response.appendInt(datagram.length()).appendBuffer(datagram);
+          }
+          socket.write(response.appendInt(0));
+        })));
+    CompletableFuture<Integer> port = new CompletableFuture<>();
+    server.listen(0, "127.0.0.1", result -> port.complete(result.result().actualPort()));
+
+    gapRecovery = new GapRecovery(true, "127.0.0.1", port.get(5, TimeUnit.SECONDS), 60000, 5000, buffer, metrics);
+    onContext(() -> gapRecovery.start(vertx, datagram -> buffer.addMessageSequence(decoder.decode(datagram))));
+  }
+
+  @After
+  public void tearDown() {
+    vertx.close();
+  }
+
+  @Test
+  public void requestPersistentGapOnly() throws Exception {
+    onContext(() -> {
+      buffer.addMessageSequence(generateSequence(1));
+      buffer.addMessageSequence(generateSequence(5));
+      gapRecovery.checkGap();
+    });
+    assertEquals("Gap seen once must not be requested", 0, metrics.get(Counter.retransmissionRequests));
+
+    onContext(() -> buffer.addMessageSequence(generateSequence(2)));
+    onContext(gapRecovery::checkGap);
+    assertEquals("Gap that has moved must not be requested", 0, metrics.get(Counter.retransmissionRequests));
+  }
+
+  @Test
+  public void fillGapFromRetransmission() throws Exception {
+    onContext(() -> {
+      buffer.addMessageSequence(generateSequence(1));
+      buffer.addMessageSequence(generateSequence(5));
+      buffer.addMessageSequence(generateSequence(6));
+      gapRecovery.checkGap();
+      gapRecovery.checkGap();
+    });
+    assertEquals("Persistent gap must be requested", 1, metrics.get(Counter.retransmissionRequests));
+
+    long deadline = System.currentTimeMillis() + 5000;
+    while (metrics.get(Counter.retransmittedMessages) < 3 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    List<Integer> sequenceNumbers = new ArrayList<>();
+    onContext(() -> {
+      assertFalse("Gap must be filled", buffer.hasGap());
+      buffer.getReady().forEach(messageSequence -> sequenceNumbers.add(messageSequence.getInSequenceNumber()));
+    });
+    assertEquals("Only the missing range must be requested", "2..4", requests.get(0));
+    assertEquals("All the messages must be ready in order", "[1, 2, 3, 4, 5, 6]", sequenceNumbers.toString());
+    assertEquals("There must be no failures", 0, metrics.get(Counter.retransmissionFailures));
+  }
+
+  @Test
+  public void failOnMalformedFrameLength() throws Exception {
+    onContext(() -> {
+      buffer.addMessageSequence(generateSequence(1));
+      buffer.addMessageSequence(generateSequence(3));
+    });
+    for (int length : new int[]{-1, 65536}) {
+      malformedLength = length;
+      long failures = metrics.get(Counter.retransmissionFailures);
+      onContext(() -> {
+        gapRecovery.checkGap();
+        gapRecovery.checkGap();
+      });
+
+      long deadline = System.currentTimeMillis() + 5000;
+      while (metrics.get(Counter.retransmissionFailures) == failures && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertEquals("Request must fail on the frame of " + length + " bytes", failures + 1,
+          metrics.get(Counter.retransmissionFailures));
+      assertEquals("Rest of the malformed response must be ignored", 0,
+          metrics.get(Counter.retransmittedMessages));
+      onContext(() -> assertTrue("Gap must stay unfilled", buffer.hasGap()));
+    }
+  }
+
+  /**
+   * Runs the action on the event loop that owns the buffer and waits until it's done
+   */
+  private void onContext(Runnable action) throws Exception {
+    CompletableFuture<Void> done = new CompletableFuture<>();
+    context.runOnContext(v -> {
+      try {
+        action.run();
+        done.complete(null);
+      } catch (Throwable e) {
+        done.completeExceptionally(e);
+      }
+    });
+    done.get(5, TimeUnit.SECONDS);
+  }
+
+  private static MessageSequence generateSequence(int sequenceNumber) {
+    MessageSequence messageSequence = new MessageSequence();
+    messageSequence.setInSequenceNumber(sequenceNumber);
+    messageSequence.setMessages(new ArrayList<>());
+    return messageSequence;
+  }
+}
@@ -0,0 +1,30 @@
+package com.shadowbring.aggregator.udp;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MulticastGroupTest {
+
+  @Test
+  public void parseGroups() {
+    List<MulticastGroup> groups = MulticastGroup.parse("230.0.0.2:1234, 230.0.0.3:1240");
+
+    assertEquals("Both groups must be parsed", 2, groups.size());
+    assertEquals("Address must be parsed", "230.0.0.2", groups.get(0).getAddress());
+    assertEquals("Port must be parsed", 1240, groups.get(1).getPort());
+  }
+
+  @Test
+  public void parseEmptyGroups() {
+    assertTrue("There must be no groups", MulticastGroup.parse(" ").isEmpty());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void parseMalformedGroup() {
+    MulticastGroup.parse("230.0.0.2");
+  }
+}
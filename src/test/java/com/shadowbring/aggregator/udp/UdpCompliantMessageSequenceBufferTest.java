@@ -1,107 +1,230 @@
 package com.shadowbring.aggregator.udp;
 
 import com.shadowbring.aggregator.domain.incoming.MessageSequence;
+import com.shadowbring.aggregator.metrics.Counter;
+import com.shadowbring.aggregator.metrics.PipelineMetrics;
+import com.shadowbring.aggregator.metrics.TraceOutcome;
 import org.junit.After;
+import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.junit4.SpringRunner;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.NavigableSet;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.*;
 
 @RunWith(SpringRunner.class)
-@SpringBootTest
+@SpringBootTest(properties = {"journal.enabled=false", "snapshot.enabled=false", "cache.capacity=5",
+    "metrics.port=0"})
 public class UdpCompliantMessageSequenceBufferTest {
 
   @Autowired
   private UdpCompliantMessageSequenceBuffer buffer;
 
+  @Before
+  public void setUp() {
+    buffer.reset();
+  }
+
   @Test
-  public void initCache() {
-    assertNotNull("Cache must not be null", buffer.getCache());
+  public void initWindow() {
+    assertEquals("Reorder window must be empty", 0, buffer.getPendingCount());
   }
 
   @Test
   public void addMessageSequence() {
-    MessageSequence messageSequence = new MessageSequence();
-    messageSequence.setInSequenceNumber(1);
+    MessageSequence messageSequence = generateSequence(1);
     buffer.addMessageSequence(messageSequence);
-    assertEquals("Size of the buffer must be equal to 1", 1, buffer.getOrderedMessageSequenceBuffer().size());
-    assertEquals("Message sequences must be equal", messageSequence, buffer.getOrderedMessageSequenceBuffer().last());
+    assertEquals("Size of the buffer must be equal to 1", 1, buffer.getReady().size());
+    assertEquals("Message sequences must be equal", messageSequence, buffer.getReady().get(0));
   }
 
   @Test
   public void addDisorderedMessageSequences() {
-    MessageSequence messageSequence = new MessageSequence();
-    messageSequence.setInSequenceNumber(1);
+    MessageSequence messageSequence = generateSequence(1);
     buffer.addMessageSequence(messageSequence);
 
-    MessageSequence messageSequence3 = new MessageSequence();
-    messageSequence3.setInSequenceNumber(3);
+    MessageSequence messageSequence3 = generateSequence(3);
     buffer.addMessageSequence(messageSequence3);
 
-    assertEquals("OrderedMessageSequenceBuffer must contain 1 element", 1,
-        buffer.getOrderedMessageSequenceBuffer().size());
-    assertTrue("OrderedMessageSequenceBuffer must contain messageSequence",
-        buffer.getOrderedMessageSequenceBuffer().contains(messageSequence));
-    assertEquals("Cache must contain 1 element", 1, buffer.getCache().size());
-    assertTrue("Cache must contain messageSequence3", buffer.getCache().containsValue(messageSequence3));
+    assertEquals("Ready messages must contain 1 element", 1, buffer.getReady().size());
+    assertTrue("Ready messages must contain messageSequence", buffer.getReady().contains(messageSequence));
+    assertEquals("Reorder window must contain 1 element", 1, buffer.getPendingCount());
 
-    MessageSequence messageSequence2 = new MessageSequence();
-    messageSequence2.setInSequenceNumber(2);
+    MessageSequence messageSequence2 = generateSequence(2);
     buffer.addMessageSequence(messageSequence2);
 
-    assertEquals("OrderedMessageSequenceBuffer must contain 3 elements", 3,
-        buffer.getOrderedMessageSequenceBuffer().size());
-    assertTrue("Cache must be empty now", buffer.getCache().isEmpty());
-    assertTrue("OrderedMessageSequenceBuffer must contain all these messages",
-        buffer.getOrderedMessageSequenceBuffer().containsAll(Arrays.asList(messageSequence, messageSequence2,
-            messageSequence3)));
-    List<MessageSequence> list = new ArrayList<>(buffer.getOrderedMessageSequenceBuffer());
-    assertEquals("MessageSequence must has index 0", messageSequence, list.get(0));
-    assertEquals("MessageSequence2 must has index 1", messageSequence2, list.get(1));
-    assertEquals("MessageSequence3 must has index 2", messageSequence3, list.get(2));
+    assertEquals("Reorder window must be empty now", 0, buffer.getPendingCount());
+    assertEquals("Ready messages must be ordered", Arrays.asList(messageSequence, messageSequence2, messageSequence3),
+        buffer.getReady());
   }
 
   @Test
-  public void flush() {
-    MessageSequence messageSequence = new MessageSequence();
-    messageSequence.setInSequenceNumber(1);
+  public void dropDuplicates() {
+    assertEquals("First message must be in order", TraceOutcome.inOrder,
+        buffer.addMessageSequence(generateSequence(1)));
+    assertEquals("Message ahead must be reordered", TraceOutcome.reordered,
+        buffer.addMessageSequence(generateSequence(3)));
+    assertEquals("Processed message must be stale", TraceOutcome.stale,
+        buffer.addMessageSequence(generateSequence(1)));
+    assertEquals("Waiting message must be a duplicate", TraceOutcome.duplicate,
+        buffer.addMessageSequence(generateSequence(3)));
+
+    assertEquals("Ready messages must contain 1 element", 1, buffer.getReady().size());
+    assertEquals("Reorder window must contain 1 element", 1, buffer.getPendingCount());
+
+    buffer.addMessageSequence(generateSequence(2));
+    buffer.addMessageSequence(generateSequence(2));
+
+    assertEquals("Ready messages must contain 3 elements", 3, buffer.getReady().size());
+  }
+
+  @Test
+  public void skipGapWhenWindowIsExceeded() {
+    buffer.addMessageSequence(generateSequence(1));
+    for (int i = 3; i <= 10; i++) {
+      buffer.addMessageSequence(generateSequence(i));
+    }
+
+    assertEquals("Missing sequence must be skipped", 9, buffer.getReady().size());
+    assertEquals("Sequence after the gap must follow the first one", Integer.valueOf(3),
+        buffer.getReady().get(1).getInSequenceNumber());
+    assertEquals("Reorder window must be empty", 0, buffer.getPendingCount());
+  }
+
+  @Test(timeout = 1000)
+  public void skipFarAheadGapAtOnce() {
+    buffer.addMessageSequence(generateSequence(1));
+    buffer.addMessageSequence(generateSequence(3));
+    buffer.addMessageSequence(generateSequence(2_000_000_000));
+
+    assertEquals("Waiting message must be made ready as the gap is skipped", 2, buffer.getReady().size());
+    assertEquals("Far-ahead sequence must become the last one of the window", 2_000_000_000 - 7,
+        buffer.getNextSequenceNumber());
+    assertEquals("Far-ahead sequence must wait in the window", 1, buffer.getPendingCount());
+  }
 
-    MessageSequence messageSequence2 = new MessageSequence();
-    messageSequence2.setInSequenceNumber(2);
+  @Test
+  public void restartSequenceOnLargeBackwardJump() {
+    buffer.addMessageSequence(generateSequence(1_000_000));
+    buffer.addMessageSequence(generateSequence(1_000_002));
+    assertTrue("Restarted sequence must be accepted", buffer.accepts(1));
+
+    assertEquals("Far behind message must restart the sequence", TraceOutcome.reset,
+        buffer.addMessageSequence(generateSequence(1)));
+    assertEquals("Waiting message must be made ready before the restarted one",
+        Arrays.asList(1_000_000, 1_000_002, 1),
+        buffer.getReady().stream().map(MessageSequence::getInSequenceNumber).collect(Collectors.toList()));
+    assertEquals("Reorder window must be empty", 0, buffer.getPendingCount());
+    assertEquals("Restart must start the new epoch", 1, buffer.getSequenceEpoch());
+
+    assertEquals("Restarted sequence must continue in order", TraceOutcome.inOrder,
+        buffer.addMessageSequence(generateSequence(2)));
+    assertEquals("Slightly late message must still be stale", TraceOutcome.stale,
+        buffer.addMessageSequence(generateSequence(1)));
+  }
+
+  @Test
+  public void resumeAfterSnapshot() {
+    buffer.resumeAfter(5, 0);
+    buffer.addMessageSequence(generateSequence(4));
+    buffer.addMessageSequence(generateSequence(5));
+    buffer.addMessageSequence(generateSequence(7));
+
+    assertTrue("Messages reflected by the snapshot must be dropped", buffer.getReady().isEmpty());
+    assertEquals("Message after the gap must wait", 1, buffer.getPendingCount());
+
+    buffer.addMessageSequence(generateSequence(6));
+    assertEquals("Messages following the snapshot must be ready", 2, buffer.getReady().size());
+  }
+
+  @Test
+  public void expectReplayedRestart() {
+    buffer.resumeAfter(100, 0);
+    buffer.addMessageSequence(generateSequence(103));
+    buffer.expectRestart(1);
+
+    assertEquals("Messages preceding the restart must be ready", 1, buffer.getReady().size());
+    assertEquals("First message of the restarted numbering must be in order", TraceOutcome.inOrder,
+        buffer.addMessageSequence(generateSequence(1)));
+    assertEquals("Epoch must be taken from the journal", 1, buffer.getSequenceEpoch());
+  }
+
+  @Test
+  public void acceptFirstCopyOnly() {
+    assertTrue("Anything must be accepted before the first message", buffer.accepts(5));
+    buffer.addMessageSequence(generateSequence(1));
+    buffer.addMessageSequence(generateSequence(3));
+
+    assertFalse("Processed message must not be accepted", buffer.accepts(1));
+    assertFalse("Waiting message must not be accepted", buffer.accepts(3));
+    assertTrue("Expected message must be accepted", buffer.accepts(2));
+    assertTrue("Message ahead must be accepted", buffer.accepts(4));
+    assertTrue("Message beyond the window must be accepted", buffer.accepts(100));
+    assertEquals("Checking must not change the buffer", 1, buffer.getPendingCount());
+  }
+
+  @Test
+  public void flush() {
+    MessageSequence messageSequence = generateSequence(1);
+    MessageSequence messageSequence2 = generateSequence(2);
+    MessageSequence messageSequence4 = generateSequence(4);
 
     buffer.addMessageSequence(messageSequence);
     buffer.addMessageSequence(messageSequence2);
+    buffer.addMessageSequence(messageSequence4);
 
-    NavigableSet<MessageSequence> flushedContent = buffer.flush();
+    List<MessageSequence> flushedContent = buffer.flush();
 
-    assertTrue("Cache must be empty", buffer.getCache().isEmpty());
-    assertTrue("OrderedMessageSequenceBuffer must be empty", buffer.getOrderedMessageSequenceBuffer().isEmpty());
+    assertTrue("Ready messages must be empty", buffer.getReady().isEmpty());
+    assertEquals("Reorder window must keep messageSequence4", 1, buffer.getPendingCount());
+    assertEquals("Flushed content must contain ordered messages", Arrays.asList(messageSequence, messageSequence2),
+        flushedContent);
 
-    assertTrue("Flushed content must contain messageSequence", flushedContent.contains(messageSequence));
-    assertTrue("Flushed content must contain messageSequence2", flushedContent.contains(messageSequence2));
+    buffer.addMessageSequence(generateSequence(3));
+    assertEquals("Sequence numbers must continue after flush", 2, buffer.flush().size());
   }
 
   @Test
-  public void getCache() {
-    assertNotNull("Cache must not be null", buffer.getCache());
+  public void dropInOrderMessagesOnceFull() {
+    PipelineMetrics metrics = new PipelineMetrics();
+    UdpCompliantMessageSequenceBuffer bounded = new UdpCompliantMessageSequenceBuffer(4, 65536, 2, metrics);
+    bounded.addMessageSequence(generateSequence(1));
+    bounded.addMessageSequence(generateSequence(2));
+
+    assertTrue("Buffer must be full", bounded.isFull());
+    assertEquals("Message must be dropped once the buffer is full", TraceOutcome.overflow,
+        bounded.addMessageSequence(generateSequence(3)));
+    assertEquals("Overflow must be counted", 1, metrics.get(Counter.readyOverflows));
+    assertEquals("Dropped message must be awaited", 3, bounded.getNextSequenceNumber());
+
+    bounded.addMessageSequence(generateSequence(4));
+    assertTrue("Dropped message must turn into a gap", bounded.hasGap());
+
+    assertEquals("Ready messages must be flushed", 2, bounded.flush().size());
+    assertEquals("Recovered message must be accepted after flush", TraceOutcome.inOrder,
+        bounded.addMessageSequence(generateSequence(3)));
+    assertEquals("Gap must be filled", 2, bounded.getReady().size());
   }
 
   @Test
-  public void getOrderedMessageSequenceBuffer() {
-    assertNotNull("OrderedMessageSequenceBuffer must not be null", buffer.getOrderedMessageSequenceBuffer());
+  public void getReady() {
+    assertNotNull("Ready messages must not be null", buffer.getReady());
   }
 
   @After
   public void tearDown() {
-    buffer.flush();
+    buffer.reset();
   }
 
-}
\ No newline at end of file
+  private static MessageSequence generateSequence(int sequenceNumber) {
+    MessageSequence messageSequence = new MessageSequence();
+    messageSequence.setInSequenceNumber(sequenceNumber);
+    return messageSequence;
+  }
+}